@@ -0,0 +1,418 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.phalanxdev.mi.TuningResult.Candidate;
+import org.phalanxdev.mi.utils.IMILogAdapter;
+import org.phalanxdev.mi.utils.IMIMessages;
+import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.classifiers.functions.GaussianProcesses;
+import weka.classifiers.functions.supportVector.RBFKernel;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.Statistics;
+import weka.core.Utils;
+
+/**
+ * Tunes the parameters of a scheme by sequential model-based (Bayesian) optimisation. After an
+ * initial set of random candidates has been evaluated, a Gaussian process surrogate is fitted to
+ * the metric values extracted from the evaluation rows of all the candidates evaluated so far
+ * (with parameter settings mapped to the unit hypercube of the ParameterSpace), and the candidates
+ * with the highest expected improvement over the best value so far are evaluated next. Batches of
+ * candidates are proposed using the "constant liar" strategy: each proposal is added to the
+ * surrogate with the best value so far as its (pretend) outcome before the next proposal is made.
+ * The candidates in a batch are evaluated concurrently, as in SchemeTuner. This keeps the number of
+ * (possibly expensive) evaluations small.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class BayesianOptimizationTuner extends SchemeTuner {
+
+  /**
+   * Number of random candidates to evaluate before the surrogate is used
+   */
+  protected int m_numInitialCandidates = 5;
+
+  /**
+   * Total number of candidates to evaluate (including the initial ones)
+   */
+  protected int m_maxEvaluations = 20;
+
+  /**
+   * Number of candidates to propose (and evaluate concurrently) at each step
+   */
+  protected int m_batchSize = 4;
+
+  /**
+   * Number of random points at which to evaluate the acquisition function for each proposal
+   */
+  protected int m_numAcquisitionSamples = 1000;
+
+  /**
+   * Gamma for the RBF kernel of the Gaussian process (over unit hypercube coordinates)
+   */
+  protected double m_kernelGamma = 5.0;
+
+  /**
+   * Previously evaluated candidates to seed the surrogate with
+   */
+  protected List<Candidate> m_priorCandidates = new ArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param scheme the scheme to tune
+   * @param space the space of parameter settings to search
+   * @param messages messages to use
+   */
+  public BayesianOptimizationTuner(Scheme scheme, ParameterSpace space, IMIMessages messages) {
+    super(scheme, space, messages);
+  }
+
+  /**
+   * Set the number of random candidates to evaluate before the surrogate is used
+   *
+   * @param numCandidates the number of initial candidates
+   */
+  public void setNumInitialCandidates(int numCandidates) {
+    m_numInitialCandidates = numCandidates;
+  }
+
+  /**
+   * Get the number of random candidates to evaluate before the surrogate is used
+   *
+   * @return the number of initial candidates
+   */
+  public int getNumInitialCandidates() {
+    return m_numInitialCandidates;
+  }
+
+  /**
+   * Set the total number of candidates to evaluate (including the initial ones)
+   *
+   * @param maxEvaluations the maximum number of evaluations
+   */
+  public void setMaxEvaluations(int maxEvaluations) {
+    m_maxEvaluations = maxEvaluations;
+  }
+
+  /**
+   * Get the total number of candidates to evaluate
+   *
+   * @return the maximum number of evaluations
+   */
+  public int getMaxEvaluations() {
+    return m_maxEvaluations;
+  }
+
+  /**
+   * Set the number of candidates to propose, and evaluate concurrently, at each step
+   *
+   * @param batchSize the batch size
+   */
+  public void setBatchSize(int batchSize) {
+    m_batchSize = batchSize;
+  }
+
+  /**
+   * Get the number of candidates to propose at each step
+   *
+   * @return the batch size
+   */
+  public int getBatchSize() {
+    return m_batchSize;
+  }
+
+  /**
+   * Set the number of random points at which the acquisition function is evaluated for each
+   * proposal
+   *
+   * @param numSamples the number of acquisition samples
+   */
+  public void setNumAcquisitionSamples(int numSamples) {
+    m_numAcquisitionSamples = numSamples;
+  }
+
+  /**
+   * Get the number of random points at which the acquisition function is evaluated
+   *
+   * @return the number of acquisition samples
+   */
+  public int getNumAcquisitionSamples() {
+    return m_numAcquisitionSamples;
+  }
+
+  /**
+   * Set the gamma parameter of the surrogate's RBF kernel. Larger values allow the surrogate to
+   * vary more quickly across the parameter space.
+   *
+   * @param gamma the kernel gamma
+   */
+  public void setKernelGamma(double gamma) {
+    m_kernelGamma = gamma;
+  }
+
+  /**
+   * Get the gamma parameter of the surrogate's RBF kernel
+   *
+   * @return the kernel gamma
+   */
+  public double getKernelGamma() {
+    return m_kernelGamma;
+  }
+
+  /**
+   * Set previously evaluated candidates (e.g. from an earlier tuning run over the same parameter
+   * space, data and metric) to seed the surrogate with. These are included in the result, and
+   * count towards the maximum number of evaluations.
+   *
+   * @param candidates the prior candidates
+   */
+  public void setPriorCandidates(List<Candidate> candidates) {
+    m_priorCandidates = candidates != null ? candidates : new ArrayList<Candidate>();
+  }
+
+  /**
+   * Get the previously evaluated candidates that the surrogate is seeded with
+   *
+   * @return the prior candidates
+   */
+  public List<Candidate> getPriorCandidates() {
+    return m_priorCandidates;
+  }
+
+  @Override
+  public TuningResult tune(Instances data, IMILogAdapter log, IMIVariableAdaptor vars)
+      throws Exception {
+    initialize(data);
+    Random r = new Random(m_randomSeed);
+    List<Candidate> evaluated = new ArrayList<>();
+    Set<Map<String, String>> seen = new HashSet<>();
+    for (Candidate c : m_priorCandidates) {
+      if (c.getBudget() == 1.0) {
+        evaluated.add(c);
+        seen.add(c.getParameters());
+      }
+    }
+
+    int numInitial = Math.max(0, Math.min(m_numInitialCandidates,
+        m_maxEvaluations - evaluated.size()));
+    List<Map<String, String>> initial = new ArrayList<>();
+    for (int i = 0; i < numInitial * 10 && initial.size() < numInitial; i++) {
+      Map<String, String> s = m_space.sample(r);
+      if (seen.add(s)) {
+        initial.add(s);
+      }
+    }
+    evaluated.addAll(evaluateCandidates(initial, data, log, vars));
+
+    while (evaluated.size() < m_maxEvaluations) {
+      int batch = Math.max(1, Math.min(m_batchSize, m_maxEvaluations - evaluated.size()));
+      List<Map<String, String>> proposals = propose(evaluated, batch, seen, r, log);
+      if (proposals.isEmpty()) {
+        // space exhausted
+        break;
+      }
+      evaluated.addAll(evaluateCandidates(proposals, data, log, vars));
+    }
+
+    return finish(evaluated, data);
+  }
+
+  /**
+   * Propose the next batch of candidates to evaluate
+   *
+   * @param evaluated the candidates evaluated so far
+   * @param batchSize the number of candidates to propose
+   * @param seen the parameter settings that have already been evaluated or proposed (proposals
+   * are added to this set)
+   * @param r the source of randomness
+   * @param log the log to use
+   * @return the proposed parameter settings
+   * @throws Exception if the surrogate can't be fitted
+   */
+  protected List<Map<String, String>> propose(List<Candidate> evaluated, int batchSize,
+      Set<Map<String, String>> seen, Random r, IMILogAdapter log) throws Exception {
+    // observations, with the sign flipped if necessary so that larger is always better
+    List<double[]> points = new ArrayList<>();
+    List<Double> targets = new ArrayList<>();
+    for (Candidate c : evaluated) {
+      if (!Utils.isMissingValue(c.getScore())) {
+        points.add(m_space.toUnit(c.getParameters()));
+        targets.add(m_minimizeMetric ? -c.getScore() : c.getScore());
+      }
+    }
+
+    List<Map<String, String>> proposals = new ArrayList<>();
+    if (points.size() < 2) {
+      // too few observations to fit a surrogate to - fall back to random proposals
+      for (int i = 0; i < batchSize * 10 && proposals.size() < batchSize; i++) {
+        Map<String, String> s = m_space.sample(r);
+        if (seen.add(s)) {
+          proposals.add(s);
+        }
+      }
+      return proposals;
+    }
+    if (log != null) {
+      log.logDetailed(m_messages.getString("BayesianOptimizationTuner.Message.ProposingCandidates",
+          points.size(), batchSize));
+    }
+
+    for (int b = 0; b < batchSize; b++) {
+      double best = Double.NEGATIVE_INFINITY;
+      for (double t : targets) {
+        best = Math.max(best, t);
+      }
+      Surrogate surrogate = new Surrogate(points, targets, m_kernelGamma);
+
+      Map<String, String> bestProposal = null;
+      double[] bestPoint = null;
+      double bestEI = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < m_numAcquisitionSamples; i++) {
+        double[] u = new double[m_space.numDimensions()];
+        for (int j = 0; j < u.length; j++) {
+          u[j] = r.nextDouble();
+        }
+        Map<String, String> s = m_space.fromUnit(u);
+        if (seen.contains(s)) {
+          continue;
+        }
+        // score the point that the setting actually maps to (e.g. snapped to an integer or choice)
+        double[] snapped = m_space.toUnit(s);
+        double ei = surrogate.expectedImprovement(snapped, best);
+        if (ei > bestEI) {
+          bestEI = ei;
+          bestProposal = s;
+          bestPoint = snapped;
+        }
+      }
+      if (bestProposal == null) {
+        break;
+      }
+      seen.add(bestProposal);
+      proposals.add(bestProposal);
+
+      // constant liar: pretend the proposal achieved the best value so far
+      points.add(bestPoint);
+      targets.add(best);
+    }
+    return proposals;
+  }
+
+  /**
+   * Gaussian process surrogate over unit hypercube coordinates, fitted to standardized targets
+   */
+  protected static class Surrogate {
+
+    /**
+     * The Gaussian process
+     */
+    protected GaussianProcesses m_gp;
+
+    /**
+     * Header of the training data for the Gaussian process
+     */
+    protected Instances m_header;
+
+    /**
+     * Mean and standard deviation used to standardize the targets
+     */
+    protected double m_mean;
+    protected double m_stdDev;
+
+    /**
+     * Constructor - fits the surrogate
+     *
+     * @param points the observed points
+     * @param targets the observed values (larger is better)
+     * @param gamma gamma for the RBF kernel
+     * @throws Exception if the Gaussian process can't be built
+     */
+    protected Surrogate(List<double[]> points, List<Double> targets, double gamma)
+        throws Exception {
+      double[] t = new double[targets.size()];
+      for (int i = 0; i < t.length; i++) {
+        t[i] = targets.get(i);
+      }
+      m_mean = Utils.mean(t);
+      m_stdDev = t.length > 1 ? Math.sqrt(Utils.variance(t)) : 0;
+      if (m_stdDev <= 0 || Double.isNaN(m_stdDev)) {
+        m_stdDev = 1;
+      }
+
+      ArrayList<Attribute> atts = new ArrayList<>();
+      for (int i = 0; i < points.get(0).length; i++) {
+        atts.add(new Attribute("x" + i));
+      }
+      atts.add(new Attribute("target"));
+      Instances train = new Instances("surrogate", atts, points.size());
+      train.setClassIndex(atts.size() - 1);
+      for (int i = 0; i < points.size(); i++) {
+        double[] vals = new double[atts.size()];
+        System.arraycopy(points.get(i), 0, vals, 0, points.get(i).length);
+        vals[vals.length - 1] = (t[i] - m_mean) / m_stdDev;
+        train.add(new DenseInstance(1.0, vals));
+      }
+      m_header = new Instances(train, 0);
+
+      m_gp = new GaussianProcesses();
+      RBFKernel kernel = new RBFKernel();
+      kernel.setGamma(gamma);
+      m_gp.setKernel(kernel);
+      m_gp.setFilterType(
+          new SelectedTag(GaussianProcesses.FILTER_NONE, GaussianProcesses.TAGS_FILTER));
+      m_gp.setNoise(0.01);
+      m_gp.buildClassifier(train);
+    }
+
+    /**
+     * Compute the expected improvement at a point
+     *
+     * @param point the point (unit hypercube coordinates)
+     * @param best the best observed value so far (larger is better)
+     * @return the expected improvement
+     * @throws Exception if a problem occurs
+     */
+    protected double expectedImprovement(double[] point, double best) throws Exception {
+      double[] vals = new double[point.length + 1];
+      System.arraycopy(point, 0, vals, 0, point.length);
+      vals[point.length] = Utils.missingValue();
+      Instance inst = new DenseInstance(1.0, vals);
+      inst.setDataset(m_header);
+
+      double mu = m_gp.classifyInstance(inst);
+      double sigma = m_gp.getStandardDeviation(inst);
+      double improvement = mu - (best - m_mean) / m_stdDev;
+      if (sigma <= 1e-12 || Double.isNaN(sigma)) {
+        return Math.max(0, improvement);
+      }
+      double z = improvement / sigma;
+      return improvement * Statistics.normalProbability(z)
+          + sigma * Math.exp(-0.5 * z * z) / Math.sqrt(2 * Math.PI);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+/**
+ * A directory of serialized objects (e.g. per-fold Evaluations and models) that allows a long
+ * running evaluation or model build to be resumed after a failure. The directory is a
+ * sub-directory of a base checkpoint directory, named by a key that identifies the work being
+ * checkpointed (typically a hash of the scheme options, a fingerprint of the data and the
+ * evaluation settings), so that checkpoints from different runs never get mixed up. Objects are
+ * written to a temporary file and then moved into place, so a run that dies part way through
+ * writing never leaves a truncated checkpoint behind.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class EvaluationCheckpoint {
+
+  /**
+   * The directory holding the checkpointed objects
+   */
+  protected File m_directory;
+
+  /**
+   * Constructor
+   *
+   * @param baseDirectory the base checkpoint directory
+   * @param key the key identifying the work being checkpointed
+   */
+  public EvaluationCheckpoint(File baseDirectory, String key) {
+    m_directory = new File(baseDirectory, key);
+  }
+
+  /**
+   * Get the directory holding the checkpointed objects
+   *
+   * @return the checkpoint directory
+   */
+  public File getDirectory() {
+    return m_directory;
+  }
+
+  /**
+   * Returns true if an object has been checkpointed under the supplied name
+   *
+   * @param name the name of the object
+   * @return true if the object exists
+   */
+  public boolean has(String name) {
+    return new File(m_directory, name).isFile();
+  }
+
+  /**
+   * Save an object
+   *
+   * @param name the name to save the object under
+   * @param object the object to save
+   * @throws Exception if the object can't be saved
+   */
+  public void save(String name, Object object) throws Exception {
+    if (!m_directory.isDirectory() && !m_directory.mkdirs() && !m_directory.isDirectory()) {
+      throw new IOException("Unable to create checkpoint directory " + m_directory);
+    }
+    File target = new File(m_directory, name);
+    // unique, so that processes sharing the directory don't write to each other's temp file
+    File tmp = Files.createTempFile(m_directory.toPath(), name, ".tmp").toFile();
+    try {
+      SerializationHelper.write(tmp.getPath(), object);
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Load an object
+   *
+   * @param name the name the object was saved under
+   * @return the object
+   * @throws Exception if the object can't be loaded
+   */
+  public Object load(String name) throws Exception {
+    return SerializationHelper.read(new File(m_directory, name).getPath());
+  }
+
+  /**
+   * Delete an object (if it exists)
+   *
+   * @param name the name of the object
+   */
+  public void delete(String name) {
+    File f = new File(m_directory, name);
+    if (f.exists() && !f.delete()) {
+      f.deleteOnExit();
+    }
+  }
+
+  /**
+   * Delete all the checkpointed objects, and the checkpoint directory itself
+   */
+  public void clear() {
+    File[] files = m_directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (!f.delete()) {
+          f.deleteOnExit();
+        }
+      }
+    }
+    m_directory.delete();
+  }
+
+  /**
+   * Compute a key from a number of parts (e.g. scheme options, data fingerprint and evaluation
+   * settings)
+   *
+   * @param parts the parts of the key
+   * @return the key, as a hex string
+   * @throws Exception if a problem occurs
+   */
+  public static String key(Object... parts) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    for (Object part : parts) {
+      digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest(), 16);
+  }
+
+  /**
+   * Compute a fingerprint of a set of instances: a hash of the header (attribute names, types and
+   * values, and the class index) and of the values and weights of every instance, in order
+   *
+   * @param data the instances to fingerprint
+   * @return the fingerprint, as a hex string
+   * @throws Exception if a problem occurs
+   */
+  public static String fingerprint(Instances data) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    digest.update(new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8));
+    digest.update(Integer.toString(data.classIndex()).getBytes(StandardCharsets.UTF_8));
+    byte[] buffer = new byte[8];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      for (int j = 0; j < inst.numAttributes(); j++) {
+        update(digest, buffer, inst.value(j));
+        if (inst.attribute(j).isString() || inst.attribute(j).isRelationValued()) {
+          digest.update(inst.toString(j).getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      update(digest, buffer, inst.weight());
+    }
+    return toHex(digest.digest(), 16);
+  }
+
+  /**
+   * Add the bytes of a double to a digest
+   *
+   * @param digest the digest to update
+   * @param buffer an eight byte buffer to use
+   * @param value the value to add
+   */
+  protected static void update(MessageDigest digest, byte[] buffer, double value) {
+    long bits = Double.doubleToLongBits(value);
+    for (int i = 0; i < 8; i++) {
+      buffer[i] = (byte) (bits >>> (8 * i));
+    }
+    digest.update(buffer);
+  }
+
+  /**
+   * Convert the leading bytes of a digest to a hex string
+   *
+   * @param bytes the digest bytes
+   * @param numBytes the number of bytes to convert
+   * @return the hex string
+   */
+  protected static String toHex(byte[] bytes, int numBytes) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < Math.min(numBytes, bytes.length); i++) {
+      b.append(String.format("%02x", bytes[i] & 0xff));
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeMap;
+import org.phalanxdev.mi.utils.IMILogAdapter;
+import org.phalanxdev.mi.utils.IMIMessages;
+import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+/**
+ * An on-disk cache of evaluation results, so that re-running an evaluation with unchanged data and
+ * scheme configuration returns the stored eval row (and, optionally, final model) without
+ * retraining. Results are keyed by a fingerprint of the training data combined with the scheme
+ * (class, name, options, sampling and preprocessing configs) and the Evaluator's settings
+ * (evaluation mode, random seed etc.). When the total size of the cached results exceeds the
+ * maximum size, the least recently used results are evicted.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class EvaluationResultCache {
+
+  /**
+   * File extension for cached results
+   */
+  protected static final String RESULT_EXTENSION = ".result";
+
+  /**
+   * The directory holding the cached results
+   */
+  protected File m_directory;
+
+  /**
+   * Maximum total size (in bytes) of the cached results
+   */
+  protected long m_maxSizeBytes;
+
+  /**
+   * The messages handler
+   */
+  protected IMIMessages m_messages;
+
+  /**
+   * Constructor
+   *
+   * @param directory the directory to hold the cached results
+   * @param maxSizeBytes the maximum total size (in bytes) of the cached results
+   * @param messages the messages handler
+   */
+  public EvaluationResultCache(File directory, long maxSizeBytes, IMIMessages messages) {
+    m_directory = directory;
+    m_maxSizeBytes = maxSizeBytes;
+    m_messages = messages;
+  }
+
+  /**
+   * Get the directory holding the cached results
+   *
+   * @return the cache directory
+   */
+  public File getDirectory() {
+    return m_directory;
+  }
+
+  /**
+   * Set the maximum total size of the cached results
+   *
+   * @param maxSizeBytes the maximum size in bytes
+   */
+  public void setMaxSizeBytes(long maxSizeBytes) {
+    m_maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Get the maximum total size of the cached results
+   *
+   * @return the maximum size in bytes
+   */
+  public long getMaxSizeBytes() {
+    return m_maxSizeBytes;
+  }
+
+  /**
+   * Compute the cache key for evaluating a scheme on some data with an evaluator
+   *
+   * @param scheme the scheme to evaluate
+   * @param data the training data
+   * @param evaluator the evaluator (only its settings are used)
+   * @param stratificationValue the stratification value that will appear in the eval row (may be
+   * null)
+   * @return the key
+   * @throws Exception if a problem occurs
+   */
+  public static String key(Scheme scheme, Instances data, Evaluator evaluator,
+      String stratificationValue) throws Exception {
+    return EvaluationCheckpoint.key("result", scheme.getClass().getName(), scheme.getSchemeName(),
+        Utils.joinOptions(scheme.getSchemeOptions()),
+        new TreeMap<>(scheme.getSamplingConfigs()), new TreeMap<>(scheme.getPreprocessingConfigs()),
+        EvaluationCheckpoint.fingerprint(data), evaluator.settingsDescription(),
+        stratificationValue);
+  }
+
+  /**
+   * Get a cached result. A result that can't be read (e.g. because the file is truncated, or was
+   * written by an incompatible version of a class) is removed and treated as a cache miss.
+   *
+   * @param key the key of the result
+   * @return the cached result, or null if there is no (readable) result for the key
+   */
+  public synchronized CachedResult get(String key) {
+    File f = new File(m_directory, key + RESULT_EXTENSION);
+    if (!f.isFile()) {
+      return null;
+    }
+    // most recently used results are evicted last
+    f.setLastModified(System.currentTimeMillis());
+    try {
+      return (CachedResult) SerializationHelper.read(f.getPath());
+    } catch (Exception ex) {
+      f.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Store a result, evicting least recently used results if the cache has grown beyond its
+   * maximum size
+   *
+   * @param key the key of the result
+   * @param result the result to store
+   * @throws Exception if the result can't be written
+   */
+  public synchronized void put(String key, CachedResult result) throws Exception {
+    if (!m_directory.isDirectory() && !m_directory.mkdirs() && !m_directory.isDirectory()) {
+      throw new IOException("Unable to create cache directory " + m_directory);
+    }
+    File target = new File(m_directory, key + RESULT_EXTENSION);
+    // unique, so that processes sharing the cache directory don't write to each other's temp file
+    File tmp = Files.createTempFile(m_directory.toPath(), key, ".tmp").toFile();
+    try {
+      SerializationHelper.write(tmp.getPath(), result);
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+    evict();
+  }
+
+  /**
+   * Remove a result
+   *
+   * @param key the key of the result
+   */
+  public synchronized void remove(String key) {
+    new File(m_directory, key + RESULT_EXTENSION).delete();
+  }
+
+  /**
+   * Remove all cached results
+   */
+  public synchronized void clear() {
+    for (File f : resultFiles()) {
+      f.delete();
+    }
+  }
+
+  /**
+   * Get the total size of the cached results
+   *
+   * @return the size in bytes
+   */
+  public synchronized long size() {
+    long total = 0;
+    for (File f : resultFiles()) {
+      total += f.length();
+    }
+    return total;
+  }
+
+  /**
+   * Delete least recently used results until the cache is no larger than its maximum size
+   */
+  protected void evict() {
+    File[] files = resultFiles();
+    long total = 0;
+    for (File f : files) {
+      total += f.length();
+    }
+    if (total <= m_maxSizeBytes) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (int i = 0; i < files.length && total > m_maxSizeBytes; i++) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * Get the files holding cached results
+   *
+   * @return the result files
+   */
+  protected File[] resultFiles() {
+    File[] files = m_directory.listFiles();
+    if (files == null) {
+      return new File[0];
+    }
+    int n = 0;
+    for (File f : files) {
+      if (f.getName().endsWith(RESULT_EXTENSION)) {
+        files[n++] = f;
+      }
+    }
+    return Arrays.copyOf(files, n);
+  }
+
+  /**
+   * Evaluate a scheme, returning the cached result if the same evaluation has been performed
+   * before. On a cache miss the evaluator is initialized with the configured scheme, the
+   * evaluation is performed and (optionally) a final model is built, and the result is stored in
+   * the cache.
+   *
+   * @param scheme the scheme to evaluate
+   * @param data the training data
+   * @param evaluator the (configured) evaluator to use
+   * @param stratificationValue optional stratification value for the eval row
+   * @param buildFinalModel true if a final model should be built (and cached)
+   * @param log the log to write to
+   * @param vars environment variables
+   * @return the result
+   * @throws Exception if a problem occurs
+   */
+  public CachedResult evaluate(Scheme scheme, Instances data, Evaluator evaluator,
+      String stratificationValue, boolean buildFinalModel, IMILogAdapter log,
+      IMIVariableAdaptor vars) throws Exception {
+    String key = key(scheme, data, evaluator, stratificationValue);
+    CachedResult result = get(key);
+    if (result != null && (!buildFinalModel || result.getFinalModel() != null)) {
+      if (log != null) {
+        log.logBasic(m_messages.getString("EvaluationResultCache.Message.UsingCachedResult",
+            scheme.getSchemeName()));
+      }
+      return result;
+    }
+
+    Classifier classifier = (Classifier) scheme.getConfiguredScheme(data);
+    evaluator.initialize(data, classifier);
+    evaluator.performEvaluation(null, log, vars);
+    Classifier finalModel = buildFinalModel ? evaluator.buildFinalModel(log, vars) : null;
+    Object[] evalRow =
+        evaluator.wasEvaluationPerformed() ? evaluator.getEvalRow(stratificationValue, 0, log)
+            : null;
+    result = new CachedResult(evalRow, finalModel);
+    put(key, result);
+    return result;
+  }
+
+  /**
+   * A cached evaluation result: the eval row and (optionally) the final model
+   */
+  public static class CachedResult implements Serializable {
+
+    private static final long serialVersionUID = -4018753165946328713L;
+
+    /**
+     * The eval row
+     */
+    protected Object[] m_evalRow;
+
+    /**
+     * The final model (may be null)
+     */
+    protected Classifier m_finalModel;
+
+    /**
+     * Constructor
+     *
+     * @param evalRow the eval row (may be null if no evaluation was performed)
+     * @param finalModel the final model (may be null)
+     */
+    public CachedResult(Object[] evalRow, Classifier finalModel) {
+      m_evalRow = evalRow;
+      m_finalModel = finalModel;
+    }
+
+    /**
+     * Get the eval row
+     *
+     * @return the eval row, or null if no evaluation was performed
+     */
+    public Object[] getEvalRow() {
+      return m_evalRow;
+    }
+
+    /**
+     * Get the final model
+     *
+     * @return the final model, or null if one was not built
+     */
+    public Classifier getFinalModel() {
+      return m_finalModel;
+    }
+  }
+}
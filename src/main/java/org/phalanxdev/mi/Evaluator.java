@@ -16,11 +16,28 @@
 package org.phalanxdev.mi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.phalanxdev.mi.PhaseMetrics.Phase;
 import org.phalanxdev.mi.utils.IMIMessages;
 import org.phalanxdev.mi.utils.IMILogAdapter;
 import org.phalanxdev.mi.utils.IMIVariableAdaptor;
 import weka.classifiers.Classifier;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.IterativeClassifier;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.evaluation.AggregateableEvaluation;
 import weka.classifiers.evaluation.Evaluation;
 import weka.core.Attribute;
 import weka.core.BatchPredictor;
@@ -35,6 +52,9 @@ import weka.core.Utils;
 import java.io.File;
 import java.net.URISyntaxException;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
 import weka.gui.Logger;
 
 /**
@@ -60,6 +80,12 @@ public class Evaluator {
    */
   protected int m_percentageSplit = 66;
 
+  /**
+   * Number of times to repeat cross-validation (with a different random seed each time) in
+   * repeated cross-validation mode. Default of 10
+   */
+  protected int m_xValRepetitions = 10;
+
   protected int m_randomSeed = 1;
 
   /**
@@ -104,8 +130,208 @@ public class Evaluator {
    */
   protected boolean m_evalWasPerformed;
 
+  /**
+   * True if training instances should be copied before being passed to the scheme. Only needed for
+   * schemes that modify the individual instances that they are trained on
+   */
+  protected boolean m_copyTrainingData;
+
+  /**
+   * Holds one Evaluation per repetition (repeated cross-validation mode only)
+   */
+  protected List<Evaluation> m_repetitionEvals;
+
   protected IMIMessages m_messages;
 
+  /**
+   * Number of cross-validation folds to process concurrently (only used if no executor has been
+   * supplied). Default of 1 processes folds sequentially on the calling thread
+   */
+  protected int m_numExecutionSlots = 1;
+
+  /**
+   * Optional executor to run cross-validation folds on. If not supplied, and more than one
+   * execution slot has been requested, then a temporary thread pool is used
+   */
+  protected ExecutorService m_executorService;
+
+  /**
+   * Maximum number of test instances to buffer before scoring them in one batch, when evaluating
+   * incrementally with a scheme that implements more efficient batch prediction
+   */
+  protected int m_incrementalBatchSize = 100;
+
+  /**
+   * Maximum time (in milliseconds) that buffered test instances are held before being scored, when
+   * evaluating incrementally with a scheme that implements more efficient batch prediction. A value
+   * of 0 or less means that buffered instances are only scored when the buffer is full (or is
+   * flushed explicitly)
+   */
+  protected long m_incrementalFlushInterval;
+
+  /**
+   * Buffer of test instances waiting to be scored (incremental evaluation of batch predictors)
+   */
+  protected Instances m_incrementalBuffer;
+
+  /**
+   * True if a buffered batch of test instances could not be scored. The evaluation is then
+   * incomplete, and no eval rows are produced until the evaluator is re-initialized.
+   */
+  protected boolean m_incrementalEvalFailed;
+
+  /**
+   * Time at which the first instance in the current buffer arrived
+   */
+  protected long m_incrementalBufferStart;
+
+  /**
+   * Size of the sliding window for windowed prequential metrics (0 = disabled)
+   */
+  protected int m_prequentialWindowSize;
+
+  /**
+   * Fading factor for faded prequential metrics (0 = disabled)
+   */
+  protected double m_prequentialFadingFactor;
+
+  /**
+   * Number of instances after which a prequential evaluation row is due (0 = never)
+   */
+  protected int m_prequentialReportInterval;
+
+  /**
+   * Bounded-memory windowed/faded metrics (prequential mode only)
+   */
+  protected PrequentialWindowMetrics m_windowMetrics;
+
+  /**
+   * Number of instances evaluated incrementally since the last evaluation row was produced
+   */
+  protected int m_instancesSinceLastEvalRow;
+
+  /**
+   * Number of histogram bins to use for constant-memory estimation of area under the ROC and
+   * precision-recall curves. A value of 0 (the default) computes exact areas from recorded
+   * predictions
+   */
+  protected int m_aucHistogramBins;
+
+  /**
+   * True if predictions are to be retained in a compact PredictionStore
+   */
+  protected boolean m_storePredictions;
+
+  /**
+   * True if prediction latency percentiles and throughput are to be output in the eval row
+   */
+  protected boolean m_outputLatencyMetrics;
+
+  /**
+   * True if the final model should be built on all the training data concurrently with the
+   * percentage split or cross-validation models (sharing the same execution slots/executor)
+   */
+  protected boolean m_buildFinalModelConcurrently;
+
+  /**
+   * True if the model built on the training split of a percentage split evaluation should be used
+   * as the final model, rather than building a new model on all the training data
+   */
+  protected boolean m_reusePercentageSplitModel;
+
+  /**
+   * Final model produced as part of evaluation (if any). Returned by the next call to {@code
+   * buildFinalModel()}
+   */
+  protected Classifier m_finalModelFromEvaluation;
+
+  /**
+   * Listeners to notify as each phase (training, scoring etc.) of an evaluation completes
+   */
+  protected List<IMIPhaseListener> m_phaseListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * True if resource usage (timing, throughput, allocation) columns are to be output in the eval
+   * row
+   */
+  protected boolean m_outputPhaseMetrics;
+
+  /**
+   * Resource usage totals for each phase since the evaluator was initialized
+   */
+  protected final Map<Phase, PhaseMetrics> m_phaseTotals = new EnumMap<>(Phase.class);
+
+  /**
+   * Phases that are reported in the eval row (if resource usage output is turned on)
+   */
+  protected static final Phase[] EVAL_ROW_PHASES =
+      {Phase.TRAINING, Phase.SCORING, Phase.FINAL_MODEL_TRAINING};
+
+  /**
+   * Name of the attribute whose value determines the fold of each row in streaming
+   * cross-validation. If not set, the full content of each row is hashed
+   */
+  protected String m_foldKeyAttribute;
+
+  /**
+   * Iteration counts (ascending) at which to evaluate iterative classifiers during percentage
+   * split and cross-validation evaluation (empty = train normally)
+   */
+  protected int[] m_iterationCheckpoints = new int[0];
+
+  /**
+   * Evaluations for each iteration checkpoint from the last evaluation performed (aggregated over
+   * folds for cross-validation)
+   */
+  protected Map<Integer, Evaluation> m_checkpointEvals = new TreeMap<>();
+
+  /**
+   * Per-fold evaluations for each iteration checkpoint, collected during cross-validation
+   */
+  protected List<Map<Integer, Evaluation>> m_checkpointFoldEvals;
+
+  /**
+   * Base directory for checkpointing fold results and final model builds (null = no
+   * checkpointing)
+   */
+  protected File m_checkpointDirectory;
+
+  /**
+   * Number of iterations between snapshots of a resumable final model build
+   */
+  protected int m_finalModelCheckpointInterval = 10;
+
+  /**
+   * Checkpoint for the cross-validation currently being performed (if checkpointing)
+   */
+  protected EvaluationCheckpoint m_foldCheckpoint;
+
+  /**
+   * Fingerprint of the training data (computed on demand)
+   */
+  protected volatile String m_dataFingerprint;
+
+  /**
+   * Key under which the training data is cached by external engines during the current run
+   * (computed on demand, and cleared when the cached data is released)
+   */
+  protected String m_cachedDataKey;
+
+  /**
+   * Assigns streamed rows to folds (streaming cross-validation mode only)
+   */
+  protected HashFoldAssigner m_foldAssigner;
+
+  /**
+   * One incrementally trained model per fold (streaming cross-validation mode only)
+   */
+  protected Classifier[] m_streamingFoldModels;
+
+  /**
+   * Header for rows that arrive without a dataset (streaming cross-validation mode only)
+   */
+  protected Instances m_streamingHeader;
+
   /**
    * Construct a new Evaluator.
    *
@@ -132,8 +358,21 @@ public class Evaluator {
    * @throws Exception if a problem occurs
    */
   public void initialize(Instances trainingData, Classifier untrainedClassifier) throws Exception {
-    m_eval = new Evaluation(trainingData);
+    m_eval = newEvaluation(trainingData);
     m_trainingData = trainingData;
+    m_windowMetrics = null;
+    m_instancesSinceLastEvalRow = 0;
+    m_incrementalEvalFailed = false;
+    m_finalModelFromEvaluation = null;
+    m_foldAssigner = null;
+    m_streamingFoldModels = null;
+    m_streamingHeader = null;
+    m_checkpointEvals = new TreeMap<>();
+    m_dataFingerprint = null;
+    m_cachedDataKey = null;
+    synchronized (m_phaseTotals) {
+      m_phaseTotals.clear();
+    }
     m_templateClassifier = untrainedClassifier;
   }
 
@@ -148,8 +387,21 @@ public class Evaluator {
    */
   public void initializeNoPriors(Instances trainingHeader, Classifier trainedModel)
       throws Exception {
-    m_eval = new Evaluation(trainingHeader);
+    m_eval = newEvaluation(trainingHeader);
     m_eval.useNoPriors();
+    m_windowMetrics = null;
+    m_instancesSinceLastEvalRow = 0;
+    m_incrementalEvalFailed = false;
+    m_finalModelFromEvaluation = null;
+    m_foldAssigner = null;
+    m_streamingFoldModels = null;
+    m_streamingHeader = null;
+    m_checkpointEvals = new TreeMap<>();
+    m_dataFingerprint = null;
+    m_cachedDataKey = null;
+    synchronized (m_phaseTotals) {
+      m_phaseTotals.clear();
+    }
     m_classifier = trainedModel;
     m_templateClassifier = trainedModel;
     m_templateClassifier = copyClassifierTemplate(); // untrained template
@@ -187,52 +439,99 @@ public class Evaluator {
         metadata.add(new Attribute("Stratification value", (List<String>) null));
       }
 
-      // basic evaluation fields
-      metadata.add(new Attribute("Unclassified instances"));
+      for (String metricName : getMetricNames(trainingInfo)) {
+        metadata.add(new Attribute(metricName));
+      }
       if (trainingInfo.classAttribute().isNominal()) {
-        metadata.add(new Attribute("Correctly classified instances"));
-        metadata.add(new Attribute("Incorrectly classified instances"));
-        metadata.add(new Attribute("Percent correct"));
-        metadata.add(new Attribute("Percent incorrect"));
+        metadata.add(new Attribute("Confusion matrix"));
       }
-      metadata.add(new Attribute("Mean absolute error"));
-      metadata.add(new Attribute("Root mean squared error"));
-      if (trainingInfo.classAttribute().isNumeric()) {
-        metadata.add(new Attribute("Correlation coefficient"));
+
+      if (m_evaluationMode == EvalMode.REPEATED_CROSS_VALIDATION) {
+        for (String metricName : getMetricNames(trainingInfo)) {
+          metadata.add(new Attribute(metricName + " (std dev)"));
+        }
       }
 
-      if (m_evaluationMode != EvalMode.PREQUENTIAL) {
-        metadata.add(new Attribute("Relative absolute error"));
-        metadata.add(new Attribute("Root relative squared error"));
+      if (m_outputPhaseMetrics) {
+        for (Phase phase : EVAL_ROW_PHASES) {
+          String label = phaseLabel(phase);
+          metadata.add(new Attribute(label + " wall time (ms)"));
+          metadata.add(new Attribute(label + " CPU time (ms)"));
+          metadata.add(new Attribute(label + " rows per second"));
+          metadata.add(new Attribute(label + " allocated bytes"));
+        }
       }
 
-      metadata.add(new Attribute("Total number of instances"));
-      if (trainingInfo.classAttribute().isNominal()) {
-        metadata.add(new Attribute("Kappa statistic"));
-
-        if (m_outputIRMetrics) {
-          for (int i = 0; i < trainingInfo.classAttribute().numValues(); i++) {
-            String label = trainingInfo.classAttribute().value(i) + "_";
-            metadata.add(new Attribute(label + "TP rate"));
-            metadata.add(new Attribute(label + "FP rate"));
-            metadata.add(new Attribute(label + "Precision"));
-            metadata.add(new Attribute(label + "Recall"));
-            metadata.add(new Attribute(label + "F-measure"));
-            metadata.add(new Attribute(label + "MCC"));
-          }
+      if (m_outputLatencyMetrics) {
+        metadata.add(new Attribute("Prediction latency p50 (ms)"));
+        metadata.add(new Attribute("Prediction latency p95 (ms)"));
+        metadata.add(new Attribute("Prediction latency p99 (ms)"));
+        metadata.add(new Attribute("Prediction throughput (rows per second)"));
+      }
+    }
+
+    return metadata;
+  }
+
+  /**
+   * Returns the names of the numeric evaluation metrics that appear in the evaluation output row,
+   * in the order that they appear.
+   *
+   * @param trainingInfo the training data header
+   * @return a list of metric names
+   */
+  protected List<String> getMetricNames(Instances trainingInfo) {
+    List<String> names = new ArrayList<>();
+
+    // basic evaluation fields
+    names.add("Unclassified instances");
+    if (trainingInfo.classAttribute().isNominal()) {
+      names.add("Correctly classified instances");
+      names.add("Incorrectly classified instances");
+      names.add("Percent correct");
+      names.add("Percent incorrect");
+    }
+    names.add("Mean absolute error");
+    names.add("Root mean squared error");
+    if (trainingInfo.classAttribute().isNumeric()) {
+      names.add("Correlation coefficient");
+    }
+
+    if (relativeErrorsAvailable()) {
+      names.add("Relative absolute error");
+      names.add("Root relative squared error");
+    }
+
+    names.add("Total number of instances");
+    if (trainingInfo.classAttribute().isNominal()) {
+      names.add("Kappa statistic");
+
+      if (m_outputIRMetrics) {
+        for (int i = 0; i < trainingInfo.classAttribute().numValues(); i++) {
+          String label = trainingInfo.classAttribute().value(i) + "_";
+          names.add(label + "TP rate");
+          names.add(label + "FP rate");
+          names.add(label + "Precision");
+          names.add(label + "Recall");
+          names.add(label + "F-measure");
+          names.add(label + "MCC");
         }
-        if (m_computeAUC) {
-          for (int i = 0; i < trainingInfo.classAttribute().numValues(); i++) {
-            String label = trainingInfo.classAttribute().value(i) + "_";
-            metadata.add(new Attribute(label + "ROC area"));
-            metadata.add(new Attribute(label + "PRC area"));
-          }
+      }
+      if (m_computeAUC) {
+        for (int i = 0; i < trainingInfo.classAttribute().numValues(); i++) {
+          String label = trainingInfo.classAttribute().value(i) + "_";
+          names.add(label + "ROC area");
+          names.add(label + "PRC area");
         }
-        metadata.add(new Attribute("Confusion matrix"));
       }
     }
 
-    return metadata;
+    if (windowMetricsEnabled()) {
+      names.addAll(PrequentialWindowMetrics.getMetricNames(m_prequentialWindowSize,
+          m_prequentialFadingFactor, trainingInfo.classAttribute().isNominal()));
+    }
+
+    return names;
   }
 
   /**
@@ -271,6 +570,35 @@ public class Evaluator {
     return m_xValFolds;
   }
 
+  /**
+   * Set the number of times to repeat cross-validation in repeated cross-validation mode. Each
+   * repetition uses a random seed of the base seed plus the repetition number.
+   *
+   * @param repetitions the number of repetitions
+   */
+  public void setXValRepetitions(int repetitions) {
+    m_xValRepetitions = repetitions;
+  }
+
+  /**
+   * Get the number of times to repeat cross-validation in repeated cross-validation mode.
+   *
+   * @return the number of repetitions
+   */
+  public int getXValRepetitions() {
+    return m_xValRepetitions;
+  }
+
+  /**
+   * Get the per-repetition Evaluation objects from the last repeated cross-validation
+   *
+   * @return a list of Evaluation objects (one per repetition), or null if repeated
+   * cross-validation has not been performed
+   */
+  public List<Evaluation> getRepetitionEvaluations() {
+    return m_repetitionEvals;
+  }
+
   /**
    * Set the random seed to use
    *
@@ -290,137 +618,820 @@ public class Evaluator {
   }
 
   /**
-   * Set an initialized Evaluation object to use. Useful for evaluating loaded serialized models
-   * that have an Evaluation object configured with training data class priors.
+   * Set the number of cross-validation folds to train and test concurrently. This is ignored if an
+   * executor has been supplied via {@code setExecutorService()}.
    *
-   * @param eval the Evaluation object to use.
+   * @param numSlots the number of execution slots to use
    */
-  public void setEvaluation(Evaluation eval) {
-    m_eval = eval;
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
   }
 
   /**
-   * Get the classifier template object
+   * Get the number of cross-validation folds to train and test concurrently.
    *
-   * @return the classifier template object
+   * @return the number of execution slots to use
    */
-  public Classifier getClassifierTemplate() {
-    return m_templateClassifier;
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
   }
 
   /**
-   * Return the training data
+   * Set whether training instances should be copied before being passed to the scheme when
+   * training the models for percentage split and cross-validation evaluation. By default, the
+   * training data for a split or fold contains references to the (unmodified) instances in the
+   * full training data, which is safe for schemes that do not modify the individual instances that
+   * they are trained on.
    *
-   * @return the training data
+   * @param copy true if training instances should be copied
    */
-  public Instances getTrainingData() {
-    return m_trainingData;
+  public void setCopyTrainingData(boolean copy) {
+    m_copyTrainingData = copy;
   }
 
   /**
-   * Set an already trained classifier to evaluate.
+   * Get whether training instances should be copied before being passed to the scheme when
+   * training the models for percentage split and cross-validation evaluation.
    *
-   * @param trainedClassifier the trained classifier to evaluate
+   * @return true if training instances should be copied
    */
-  public void setTrainedClassifier(Classifier trainedClassifier) {
-    m_classifier = trainedClassifier;
+  public boolean getCopyTrainingData() {
+    return m_copyTrainingData;
   }
 
   /**
-   * Returns true if the last evaluation was performed. Evaluation will not be performed if there
-   * are fewer than 10 instances for a percentage split or fewer instances than folds for a
-   * cross-validation.
+   * Set an executor to run cross-validation folds on. The executor is not shut down by this
+   * Evaluator.
    *
-   * @return true if the last evaluation was performed.
+   * @param executorService the executor to use, or null to use the number of execution slots
    */
-  public boolean wasEvaluationPerformed() {
-    return m_evalWasPerformed;
+  public void setExecutorService(ExecutorService executorService) {
+    m_executorService = executorService;
   }
 
-  public static void enableClassifierLoggingIfSupported(Classifier classifier, Object logAdapter) {
-    if (classifier instanceof LogHandler && logAdapter != null && logAdapter instanceof Logger) {
-      ((LogHandler) classifier).setLog((Logger) logAdapter);
-    }
+  /**
+   * Get the executor to run cross-validation folds on.
+   *
+   * @return the executor to use, or null if not set
+   */
+  public ExecutorService getExecutorService() {
+    return m_executorService;
   }
 
-  public static void configureWekaEnvironmentHandler(Object handler, IMIVariableAdaptor vars) {
-    if (handler instanceof EnvironmentHandler) {
-      Environment env = new Environment();
+  /**
+   * Set the maximum number of test instances to buffer before scoring them in one batch, when
+   * evaluating incrementally with a scheme that implements more efficient batch prediction.
+   *
+   * @param batchSize the maximum number of instances to buffer
+   */
+  public void setIncrementalBatchSize(int batchSize) {
+    m_incrementalBatchSize = batchSize;
+  }
 
-      if (vars != null) {
-        for (String var : vars.listVariables()) {
-          String value = vars.getVariable(var);
-          if (value != null) {
-            if (value.toLowerCase().startsWith("file:")) {
-              value = value.replace(" ", "%20");
-              try {
-                File temp = new File(new java.net.URI(value));
-                value = temp.toString();
-              } catch (URISyntaxException e) {
-                e.printStackTrace();
-              }
-            }
-            env.addVariable(var, value);
-          }
-        }
-      }
+  /**
+   * Get the maximum number of test instances to buffer before scoring them in one batch, when
+   * evaluating incrementally with a scheme that implements more efficient batch prediction.
+   *
+   * @return the maximum number of instances to buffer
+   */
+  public int getIncrementalBatchSize() {
+    return m_incrementalBatchSize;
+  }
 
-      ((EnvironmentHandler) handler).setEnvironment(env);
-    }
+  /**
+   * Set the maximum time (in milliseconds) that buffered test instances are held before being
+   * scored, when evaluating incrementally with a scheme that implements more efficient batch
+   * prediction. The elapsed time is checked as each new instance arrives. A value of 0 or less
+   * disables time-based flushing.
+   *
+   * @param millis the maximum time to hold buffered instances for
+   */
+  public void setIncrementalFlushInterval(long millis) {
+    m_incrementalFlushInterval = millis;
   }
 
   /**
-   * Perform an evaluation.
+   * Get the maximum time (in milliseconds) that buffered test instances are held before being
+   * scored, when evaluating incrementally with a scheme that implements more efficient batch
+   * prediction.
    *
-   * @param separateTestData optional separate test data (used in separate test set evaluation)
-   * @param log the logging object to use
-   * @param vars Kettle environment variables
-   * @throws Exception if a problem occurs
+   * @return the maximum time to hold buffered instances for
    */
-  public void performEvaluation(Instances separateTestData, IMILogAdapter log,
-      IMIVariableAdaptor vars)
-      throws Exception {
-    if (m_trainingData == null) {
-      throw new IllegalStateException(
-          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
-    }
+  public long getIncrementalFlushInterval() {
+    return m_incrementalFlushInterval;
+  }
 
-    m_evalWasPerformed = true;
-    Random r = new Random(m_randomSeed);
-    // shuffle the training data
-    if (!m_preserveOrder && (m_evaluationMode == EvalMode.CROSS_VALIDATION
-        || m_evaluationMode == EvalMode.PERCENTAGE_SPLIT)) {
-      m_trainingData.randomize(r);
-    }
-    if (m_evaluationMode == EvalMode.PERCENTAGE_SPLIT) {
-      if (m_trainingData.numInstances() < 10) {
-        log.logBasic(m_messages
-            .getString("Evaluator.Message.UnableToPerformPercentageSplit"));
-        m_evalWasPerformed = false;
-        return;
-      }
-      log.logBasic(m_messages
-          .getString("Evaluator.Message.PerformingPercentageSplit",
-              m_percentageSplit));
-      int trainSize = (int) Math.round(m_trainingData.numInstances() * m_percentageSplit / 100);
-      int testSize = m_trainingData.numInstances() - trainSize;
+  /**
+   * Set the size of the sliding window (number of most recent predictions) to compute windowed
+   * metrics over in prequential evaluation mode. A value of 0 disables windowed metrics.
+   *
+   * @param windowSize the size of the sliding window
+   */
+  public void setPrequentialWindowSize(int windowSize) {
+    m_prequentialWindowSize = windowSize;
+  }
 
-      Instances train = new Instances(m_trainingData, 0, trainSize);
-      Instances test = new Instances(m_trainingData, trainSize, testSize);
-      Classifier classifierCopy = copyClassifierTemplate();
-      enableClassifierLoggingIfSupported(classifierCopy, log);
-      configureWekaEnvironmentHandler(classifierCopy, vars);
-      classifierCopy.buildClassifier(train);
-      if (m_computeAUC || (m_templateClassifier instanceof BatchPredictor
-          && ((BatchPredictor) m_templateClassifier)
-          .implementsMoreEfficientBatchPrediction())) {
-        m_eval.evaluateModel(classifierCopy, test);
-      } else {
-        for (int i = 0; i < test.numInstances(); i++) {
-          m_eval.evaluateModelOnce(classifierCopy, test.instance(i));
-        }
-      }
-    } else if (m_evaluationMode == EvalMode.CROSS_VALIDATION) {
+  /**
+   * Get the size of the sliding window to compute windowed metrics over in prequential evaluation
+   * mode.
+   *
+   * @return the size of the sliding window
+   */
+  public int getPrequentialWindowSize() {
+    return m_prequentialWindowSize;
+  }
+
+  /**
+   * Set the fading factor (between 0 and 1 exclusive) to use for faded metrics in prequential
+   * evaluation mode. A value of 0 disables faded metrics.
+   *
+   * @param fadingFactor the fading factor
+   */
+  public void setPrequentialFadingFactor(double fadingFactor) {
+    m_prequentialFadingFactor = fadingFactor;
+  }
+
+  /**
+   * Get the fading factor to use for faded metrics in prequential evaluation mode.
+   *
+   * @return the fading factor
+   */
+  public double getPrequentialFadingFactor() {
+    return m_prequentialFadingFactor;
+  }
+
+  /**
+   * Set the number of instances to evaluate incrementally between evaluation rows. A value of 0
+   * means that {@code isEvalRowDue()} never returns true.
+   *
+   * @param interval the number of instances between evaluation rows
+   */
+  public void setPrequentialReportInterval(int interval) {
+    m_prequentialReportInterval = interval;
+  }
+
+  /**
+   * Get the number of instances to evaluate incrementally between evaluation rows.
+   *
+   * @return the number of instances between evaluation rows
+   */
+  public int getPrequentialReportInterval() {
+    return m_prequentialReportInterval;
+  }
+
+  /**
+   * Returns true if the report interval has been reached since the last call to {@code
+   * getEvalRow()}, i.e. a periodic evaluation row should be output.
+   *
+   * @return true if an evaluation row is due
+   */
+  public boolean isEvalRowDue() {
+    return m_prequentialReportInterval > 0
+        && m_instancesSinceLastEvalRow >= m_prequentialReportInterval;
+  }
+
+  /**
+   * Set the number of histogram bins to use for constant-memory estimation of area under the ROC
+   * and precision-recall curves (when AUC metrics are being computed). When greater than zero,
+   * individual predictions are not retained in memory. A value of 0 computes exact areas from the
+   * recorded predictions.
+   *
+   * @param numBins the number of bins to use
+   */
+  public void setAUCHistogramBins(int numBins) {
+    m_aucHistogramBins = numBins;
+    if (m_eval instanceof MIEvaluation) {
+      ((MIEvaluation) m_eval).setAUCHistogramBins(histogramAUCBins());
+    }
+  }
+
+  /**
+   * Get the number of histogram bins to use for constant-memory estimation of area under the ROC
+   * and precision-recall curves.
+   *
+   * @return the number of bins to use
+   */
+  public int getAUCHistogramBins() {
+    return m_aucHistogramBins;
+  }
+
+  /**
+   * Set whether predictions should be retained in a compact, columnar PredictionStore (available
+   * via {@code getPredictionStore()} after evaluation). When set, exact AUC metrics are computed
+   * from the store rather than from Weka's list of Prediction objects.
+   *
+   * @param store true to store predictions
+   */
+  public void setStorePredictions(boolean store) {
+    m_storePredictions = store;
+    if (m_eval instanceof MIEvaluation) {
+      ((MIEvaluation) m_eval).setStorePredictions(store);
+    }
+  }
+
+  /**
+   * Get whether predictions should be retained in a compact, columnar PredictionStore.
+   *
+   * @return true if predictions are to be stored
+   */
+  public boolean getStorePredictions() {
+    return m_storePredictions;
+  }
+
+  /**
+   * Set whether to record the time taken to make each prediction during evaluation, and output
+   * latency percentiles (p50, p95 and p99, from a constant-memory histogram) and prediction
+   * throughput columns in the eval row. For schemes that predict in batches, each instance in a
+   * batch is assigned the average latency of the batch.
+   *
+   * @param output true to record and output prediction latencies
+   */
+  public void setOutputLatencyMetrics(boolean output) {
+    m_outputLatencyMetrics = output;
+    if (m_eval instanceof MIEvaluation) {
+      ((MIEvaluation) m_eval).setRecordLatencies(output);
+    }
+  }
+
+  /**
+   * Get whether to record the time taken to make each prediction during evaluation, and output
+   * latency columns in the eval row.
+   *
+   * @return true if prediction latencies are recorded and output
+   */
+  public boolean getOutputLatencyMetrics() {
+    return m_outputLatencyMetrics;
+  }
+
+  /**
+   * Get the predictions retained in the current evaluation.
+   *
+   * @return the prediction store, or null if predictions are not being stored
+   */
+  public PredictionStore getPredictionStore() {
+    return m_eval instanceof MIEvaluation ? ((MIEvaluation) m_eval).getPredictionStore() : null;
+  }
+
+  /**
+   * Set whether to build the final model on all the training data concurrently with the models
+   * built for percentage split or cross-validation evaluation. The final model is built as one more
+   * task on the same execution slots (or executor) as the evaluation models, so the total number of
+   * concurrent model builds does not change. The next call to {@code buildFinalModel()} returns the
+   * model built during evaluation.
+   *
+   * @param concurrent true to build the final model concurrently with evaluation
+   */
+  public void setBuildFinalModelConcurrently(boolean concurrent) {
+    m_buildFinalModelConcurrently = concurrent;
+  }
+
+  /**
+   * Get whether to build the final model on all the training data concurrently with the models
+   * built for percentage split or cross-validation evaluation.
+   *
+   * @return true to build the final model concurrently with evaluation
+   */
+  public boolean getBuildFinalModelConcurrently() {
+    return m_buildFinalModelConcurrently;
+  }
+
+  /**
+   * Set whether the model built on the training split of a percentage split evaluation should be
+   * used as the final model. If true, the next call to {@code buildFinalModel()} returns this model
+   * rather than training a new one on all the training data.
+   *
+   * @param reuse true to reuse the percentage split model as the final model
+   */
+  public void setReusePercentageSplitModel(boolean reuse) {
+    m_reusePercentageSplitModel = reuse;
+  }
+
+  /**
+   * Get whether the model built on the training split of a percentage split evaluation should be
+   * used as the final model.
+   *
+   * @return true to reuse the percentage split model as the final model
+   */
+  public boolean getReusePercentageSplitModel() {
+    return m_reusePercentageSplitModel;
+  }
+
+  /**
+   * Add a listener to be notified of resource usage as each phase of an evaluation completes
+   *
+   * @param listener the listener to add
+   */
+  public void addPhaseListener(IMIPhaseListener listener) {
+    m_phaseListeners.add(listener);
+  }
+
+  /**
+   * Remove a phase listener
+   *
+   * @param listener the listener to remove
+   */
+  public void removePhaseListener(IMIPhaseListener listener) {
+    m_phaseListeners.remove(listener);
+  }
+
+  /**
+   * Set whether to output resource usage columns (wall time, CPU time, rows per second and
+   * allocated bytes for training, scoring and final model training) in the eval row. Values are
+   * totals (summed over folds) since the evaluator was initialized.
+   *
+   * @param output true to output resource usage columns
+   */
+  public void setOutputPhaseMetrics(boolean output) {
+    m_outputPhaseMetrics = output;
+  }
+
+  /**
+   * Get whether to output resource usage columns in the eval row.
+   *
+   * @return true to output resource usage columns
+   */
+  public boolean getOutputPhaseMetrics() {
+    return m_outputPhaseMetrics;
+  }
+
+  /**
+   * Get the total resource usage for a phase since the evaluator was initialized
+   *
+   * @param phase the phase to get the totals for
+   * @return the totals for the phase, or null if the phase has not been executed
+   */
+  public PhaseMetrics getPhaseTotals(Phase phase) {
+    synchronized (m_phaseTotals) {
+      PhaseMetrics totals = m_phaseTotals.get(phase);
+      if (totals == null) {
+        return null;
+      }
+      PhaseMetrics copy = new PhaseMetrics(phase, -1, 0, 0, 0, 0);
+      copy.add(totals);
+      return copy;
+    }
+  }
+
+  /**
+   * Record the resource usage of a completed phase, and notify any listeners
+   *
+   * @param metrics the metrics for the phase
+   */
+  protected void phaseComplete(PhaseMetrics metrics) {
+    synchronized (m_phaseTotals) {
+      PhaseMetrics totals = m_phaseTotals.get(metrics.getPhase());
+      if (totals == null) {
+        totals = new PhaseMetrics(metrics.getPhase(), -1, 0, 0, 0, 0);
+        m_phaseTotals.put(metrics.getPhase(), totals);
+      }
+      totals.add(metrics);
+    }
+    for (IMIPhaseListener listener : m_phaseListeners) {
+      listener.phaseComplete(metrics);
+    }
+  }
+
+  /**
+   * Set the name of the attribute whose value determines the fold that each row is assigned to in
+   * streaming cross-validation mode. Rows with the same key value always end up in the same fold.
+   * If not set, the full content of each row is hashed.
+   *
+   * @param attributeName the name of the key attribute, or null to hash the full row
+   */
+  public void setFoldKeyAttribute(String attributeName) {
+    m_foldKeyAttribute = attributeName;
+  }
+
+  /**
+   * Get the name of the attribute whose value determines the fold that each row is assigned to in
+   * streaming cross-validation mode.
+   *
+   * @return the name of the key attribute, or null if the full row is hashed
+   */
+  public String getFoldKeyAttribute() {
+    return m_foldKeyAttribute;
+  }
+
+  /**
+   * Set the iteration counts at which to evaluate iterative classifiers (i.e. schemes that support
+   * resumable training). If set, and the scheme is an IterativeClassifier, percentage split and
+   * cross-validation evaluation train the model for each split/fold just once, up to the largest
+   * checkpoint, using {@code IterativeClassifier.next()}, and evaluate it each time a checkpoint
+   * is reached. Use {@code getEvalRows()} to get one evaluation row per checkpoint. The overall
+   * evaluation (e.g. {@code getEvaluation()}) is that of the largest checkpoint. Schemes whose
+   * number of iterations is fixed by a setting (e.g. LogitBoost) have that setting raised to the
+   * largest checkpoint; if a scheme finishes early, later checkpoints evaluate the finished model.
+   *
+   * @param checkpoints the iteration counts to evaluate at (empty or null to train normally)
+   */
+  public void setIterationCheckpoints(int... checkpoints) {
+    if (checkpoints == null) {
+      m_iterationCheckpoints = new int[0];
+      return;
+    }
+    TreeSet<Integer> sorted = new TreeSet<>();
+    for (int c : checkpoints) {
+      if (c > 0) {
+        sorted.add(c);
+      }
+    }
+    m_iterationCheckpoints = new int[sorted.size()];
+    int i = 0;
+    for (int c : sorted) {
+      m_iterationCheckpoints[i++] = c;
+    }
+  }
+
+  /**
+   * Get the iteration counts at which to evaluate iterative classifiers
+   *
+   * @return the iteration checkpoints, in ascending order
+   */
+  public int[] getIterationCheckpoints() {
+    return m_iterationCheckpoints.clone();
+  }
+
+  /**
+   * Get the evaluation for each iteration checkpoint from the last evaluation performed
+   *
+   * @return a map from iteration count to evaluation (empty if checkpoints were not used)
+   */
+  public Map<Integer, Evaluation> getCheckpointEvaluations() {
+    return m_checkpointEvals;
+  }
+
+  /**
+   * Set a directory to checkpoint long running work in, so that it can be resumed if the process
+   * dies. When set, the Evaluation and trained model for each completed cross-validation (and
+   * repeated cross-validation) fold are saved, and a restarted evaluation with the same scheme
+   * options, training data, random seed and evaluation settings skips folds that have already
+   * been completed. Fold checkpoints are removed once the evaluation completes. Iterative schemes
+   * that support resumable training have their final model build snapshotted periodically (see
+   * {@code setFinalModelCheckpointInterval()}), so a restarted build continues from the last
+   * snapshot rather than starting again; the snapshot is removed once the build completes.
+   *
+   * @param directory the base checkpoint directory (null to turn checkpointing off)
+   */
+  public void setCheckpointDirectory(File directory) {
+    m_checkpointDirectory = directory;
+  }
+
+  /**
+   * Get the directory to checkpoint long running work in
+   *
+   * @return the base checkpoint directory, or null if checkpointing is turned off
+   */
+  public File getCheckpointDirectory() {
+    return m_checkpointDirectory;
+  }
+
+  /**
+   * Set the number of iterations between snapshots of a resumable (iterative) final model build
+   *
+   * @param interval the number of iterations between snapshots
+   */
+  public void setFinalModelCheckpointInterval(int interval) {
+    m_finalModelCheckpointInterval = interval;
+  }
+
+  /**
+   * Get the number of iterations between snapshots of a resumable (iterative) final model build
+   *
+   * @return the number of iterations between snapshots
+   */
+  public int getFinalModelCheckpointInterval() {
+    return m_finalModelCheckpointInterval;
+  }
+
+  /**
+   * Get a fingerprint of the training data. Synchronized, as folds running in parallel may ask for
+   * it at the same time, and it should only be computed once.
+   *
+   * @return the fingerprint
+   * @throws Exception if a problem occurs
+   */
+  protected synchronized String dataFingerprint() throws Exception {
+    if (m_dataFingerprint == null) {
+      m_dataFingerprint = EvaluationCheckpoint.fingerprint(m_trainingData);
+    }
+    return m_dataFingerprint;
+  }
+
+  /**
+   * Get a description of the classifier template (class name and options), for use in checkpoint
+   * keys
+   *
+   * @return the scheme description
+   */
+  protected String schemeDescription() {
+    String desc = m_templateClassifier.getClass().getName();
+    if (m_templateClassifier instanceof OptionHandler) {
+      desc += " " + Utils.joinOptions(((OptionHandler) m_templateClassifier).getOptions());
+    }
+    return desc;
+  }
+
+  /**
+   * Get the checkpoint for the cross-validation about to be performed. The key covers everything
+   * that determines the content of a fold's Evaluation.
+   *
+   * @return the checkpoint, or null if checkpointing is turned off
+   * @throws Exception if a problem occurs
+   */
+  protected EvaluationCheckpoint foldCheckpoint() throws Exception {
+    if (m_checkpointDirectory == null) {
+      return null;
+    }
+    return new EvaluationCheckpoint(m_checkpointDirectory,
+        EvaluationCheckpoint.key("evaluation", schemeDescription(), dataFingerprint(),
+            m_evaluationMode, m_xValFolds, m_xValRepetitions, m_randomSeed, m_preserveOrder,
+            m_computeAUC, m_aucHistogramBins, m_storePredictions, m_outputLatencyMetrics,
+            Arrays.toString(m_iterationCheckpoints)));
+  }
+
+  /**
+   * Get a description of all the evaluation settings that affect the content of the eval row,
+   * for use in cache keys
+   *
+   * @return a description of the evaluation settings
+   */
+  protected String settingsDescription() {
+    return m_evaluationMode + " split=" + m_percentageSplit + " folds=" + m_xValFolds + " reps="
+        + m_xValRepetitions + " seed=" + m_randomSeed + " preserveOrder=" + m_preserveOrder
+        + " auc=" + m_computeAUC + " ir=" + m_outputIRMetrics + " aucBins=" + m_aucHistogramBins
+        + " predictions=" + m_storePredictions + " latency=" + m_outputLatencyMetrics
+        + " phases=" + m_outputPhaseMetrics + " checkpoints=" + Arrays
+        .toString(m_iterationCheckpoints);
+  }
+
+  /**
+   * Get the checkpoint for building the final model
+   *
+   * @return the checkpoint, or null if checkpointing is turned off
+   * @throws Exception if a problem occurs
+   */
+  protected EvaluationCheckpoint finalModelCheckpoint() throws Exception {
+    if (m_checkpointDirectory == null) {
+      return null;
+    }
+    return new EvaluationCheckpoint(m_checkpointDirectory,
+        EvaluationCheckpoint.key("final model", schemeDescription(), dataFingerprint()));
+  }
+
+  /**
+   * Returns true if models should be trained once up to the largest iteration checkpoint and
+   * evaluated at each checkpoint, rather than trained normally
+   *
+   * @return true if iteration checkpoints are in use
+   */
+  protected boolean checkpointingEnabled() {
+    if (m_iterationCheckpoints.length == 0 || !(m_evaluationMode == EvalMode.PERCENTAGE_SPLIT
+        || m_evaluationMode == EvalMode.CROSS_VALIDATION)) {
+      return false;
+    }
+    return isIterative(m_templateClassifier);
+  }
+
+  /**
+   * Returns true if a classifier can be trained one iteration at a time via the
+   * IterativeClassifier interface
+   *
+   * @param classifier the classifier to check
+   * @return true if the classifier is iterative
+   */
+  protected static boolean isIterative(Classifier classifier) {
+    Classifier c = classifier;
+    // wrappers such as FilteredClassifier are only iterative if the wrapped scheme is
+    while (c instanceof SingleClassifierEnhancer && c instanceof IterativeClassifier
+        && !(c instanceof IteratedSingleClassifierEnhancer)) {
+      c = ((SingleClassifierEnhancer) c).getClassifier();
+    }
+    return c instanceof IterativeClassifier;
+  }
+
+  /**
+   * Train an iterative classifier up to the largest iteration checkpoint, evaluating it on the
+   * test data as each checkpoint is reached
+   *
+   * @param classifier the (untrained) iterative classifier
+   * @param train the training data
+   * @param test the test data
+   * @param priors the data to set class priors from for each checkpoint's evaluation
+   * @param fold the (zero-based) index of the fold, or -1 if not a cross-validation fold
+   * @return a map from iteration count to evaluation
+   * @throws Exception if a problem occurs
+   */
+  protected TreeMap<Integer, Evaluation> trainWithCheckpoints(Classifier classifier, Instances train,
+      InstancesView test, Instances priors, int fold) throws Exception {
+    int maxIterations = m_iterationCheckpoints[m_iterationCheckpoints.length - 1];
+    Classifier c = classifier;
+    while (c instanceof SingleClassifierEnhancer
+        && !(c instanceof IteratedSingleClassifierEnhancer)) {
+      c = ((SingleClassifierEnhancer) c).getClassifier();
+    }
+    if (c instanceof IteratedSingleClassifierEnhancer
+        && ((IteratedSingleClassifierEnhancer) c).getNumIterations() < maxIterations) {
+      ((IteratedSingleClassifierEnhancer) c).setNumIterations(maxIterations);
+    }
+
+    TreeMap<Integer, Evaluation> evals = new TreeMap<>();
+    IterativeClassifier iterative = (IterativeClassifier) classifier;
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    iterative.initializeClassifier(train);
+    int iterations = 0;
+    boolean more = true;
+    boolean finished = false;
+    for (int checkpoint : m_iterationCheckpoints) {
+      while (more && iterations < checkpoint) {
+        more = iterative.next();
+        if (more) {
+          iterations++;
+        }
+      }
+      if (!finished && (checkpoint == maxIterations || !more)) {
+        iterative.done();
+        finished = true;
+      }
+      // training continues from one checkpoint to the next, so the fold's rows are only counted
+      // once (for the first checkpoint)
+      phaseComplete(timer.stop(Phase.TRAINING, fold, evals.isEmpty() ? train.numInstances() : 0));
+
+      timer = new PhaseMetrics.Timer();
+      Evaluation eval = newEvaluation(m_trainingData);
+      eval.setPriors(priors);
+      evaluateOnView(eval, classifier, test);
+      evals.put(checkpoint, eval);
+      phaseComplete(timer.stop(Phase.SCORING, fold, test.numInstances()));
+      timer = new PhaseMetrics.Timer();
+    }
+    return evals;
+  }
+
+  /**
+   * Set an initialized Evaluation object to use. Useful for evaluating loaded serialized models
+   * that have an Evaluation object configured with training data class priors.
+   *
+   * @param eval the Evaluation object to use.
+   */
+  public void setEvaluation(Evaluation eval) {
+    m_eval = eval;
+    if (m_eval instanceof MIEvaluation) {
+      ((MIEvaluation) m_eval).setAUCHistogramBins(histogramAUCBins());
+      ((MIEvaluation) m_eval).setStorePredictions(m_storePredictions);
+      ((MIEvaluation) m_eval).setRecordLatencies(m_outputLatencyMetrics);
+    }
+  }
+
+  /**
+   * Get the classifier template object
+   *
+   * @return the classifier template object
+   */
+  public Classifier getClassifierTemplate() {
+    return m_templateClassifier;
+  }
+
+  /**
+   * Return the training data
+   *
+   * @return the training data
+   */
+  public Instances getTrainingData() {
+    return m_trainingData;
+  }
+
+  /**
+   * Set an already trained classifier to evaluate.
+   *
+   * @param trainedClassifier the trained classifier to evaluate
+   */
+  public void setTrainedClassifier(Classifier trainedClassifier) {
+    m_classifier = trainedClassifier;
+  }
+
+  /**
+   * Returns true if the last evaluation was performed. Evaluation will not be performed if there
+   * are fewer than 10 instances for a percentage split or fewer instances than folds for a
+   * cross-validation.
+   *
+   * @return true if the last evaluation was performed.
+   */
+  public boolean wasEvaluationPerformed() {
+    return m_evalWasPerformed;
+  }
+
+  public static void enableClassifierLoggingIfSupported(Classifier classifier, Object logAdapter) {
+    if (classifier instanceof LogHandler && logAdapter != null && logAdapter instanceof Logger) {
+      ((LogHandler) classifier).setLog((Logger) logAdapter);
+    }
+  }
+
+  public static void configureWekaEnvironmentHandler(Object handler, IMIVariableAdaptor vars) {
+    if (handler instanceof EnvironmentHandler) {
+      Environment env = new Environment();
+
+      if (vars != null) {
+        for (String var : vars.listVariables()) {
+          String value = vars.getVariable(var);
+          if (value != null) {
+            if (value.toLowerCase().startsWith("file:")) {
+              value = value.replace(" ", "%20");
+              try {
+                File temp = new File(new java.net.URI(value));
+                value = temp.toString();
+              } catch (URISyntaxException e) {
+                e.printStackTrace();
+              }
+            }
+            env.addVariable(var, value);
+          }
+        }
+      }
+
+      ((EnvironmentHandler) handler).setEnvironment(env);
+    }
+  }
+
+  /**
+   * Perform an evaluation.
+   *
+   * @param separateTestData optional separate test data (used in separate test set evaluation)
+   * @param log the logging object to use
+   * @param vars Kettle environment variables
+   * @throws Exception if a problem occurs
+   */
+  public void performEvaluation(Instances separateTestData, IMILogAdapter log,
+      IMIVariableAdaptor vars)
+      throws Exception {
+    if (m_trainingData == null) {
+      throw new IllegalStateException(
+          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
+    }
+
+    m_evalWasPerformed = true;
+    m_repetitionEvals = null;
+    m_finalModelFromEvaluation = null;
+    m_checkpointEvals = new TreeMap<>();
+    final boolean checkpointing = checkpointingEnabled();
+    Random r = new Random(m_randomSeed);
+    // shuffle a view of the training data - the training data itself is left untouched
+    InstancesView shuffled = new InstancesView(m_trainingData);
+    if (!m_preserveOrder && (m_evaluationMode == EvalMode.CROSS_VALIDATION
+        || m_evaluationMode == EvalMode.PERCENTAGE_SPLIT)) {
+      shuffled.randomize(r);
+    }
+    if (m_evaluationMode == EvalMode.PERCENTAGE_SPLIT) {
+      if (m_trainingData.numInstances() < 10) {
+        log.logBasic(m_messages
+            .getString("Evaluator.Message.UnableToPerformPercentageSplit"));
+        m_evalWasPerformed = false;
+        return;
+      }
+      log.logBasic(m_messages
+          .getString("Evaluator.Message.PerformingPercentageSplit",
+              m_percentageSplit));
+      int trainSize = (int) Math.round(m_trainingData.numInstances() * m_percentageSplit / 100);
+      int testSize = m_trainingData.numInstances() - trainSize;
+
+      final Instances train = shuffled.subset(0, trainSize).materialize(m_copyTrainingData);
+      final InstancesView test = shuffled.subset(trainSize, testSize);
+      List<Callable<Evaluation>> tasks = new ArrayList<>();
+      tasks.add(new Callable<Evaluation>() {
+        @Override
+        public Evaluation call() throws Exception {
+          Classifier classifierCopy = copyClassifierTemplate();
+          enableClassifierLoggingIfSupported(classifierCopy, log);
+          configureWekaEnvironmentHandler(classifierCopy, vars);
+          if (checkpointing) {
+            TreeMap<Integer, Evaluation> evals =
+                trainWithCheckpoints(classifierCopy, train, test, m_trainingData, -1);
+            m_checkpointEvals = evals;
+            // the overall evaluation is that of the largest checkpoint
+            m_eval = evals.lastEntry().getValue();
+          } else {
+            PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+            classifierCopy.buildClassifier(train);
+            phaseComplete(timer.stop(Phase.TRAINING, -1, train.numInstances()));
+            timer = new PhaseMetrics.Timer();
+            evaluateOnView(m_eval, classifierCopy, test);
+            phaseComplete(timer.stop(Phase.SCORING, -1, test.numInstances()));
+          }
+          if (m_reusePercentageSplitModel) {
+            m_finalModelFromEvaluation = classifierCopy;
+          }
+          return m_eval;
+        }
+      });
+      if (m_buildFinalModelConcurrently && !m_reusePercentageSplitModel) {
+        tasks.add(finalModelTask(log, vars));
+      }
+      try {
+        runTasks(tasks);
+      } finally {
+        // the concurrent final model may have cached the training data on engine workers
+        releaseCachedData();
+      }
+    } else if (m_evaluationMode == EvalMode.CROSS_VALIDATION) {
       if (m_trainingData.numInstances() < m_xValFolds) {
         log.logBasic(m_messages
             .getString("Evaluator.Message.UnableToPerformCrossValidation", m_xValFolds,
@@ -431,46 +1442,105 @@ public class Evaluator {
       log.logBasic(m_messages
           .getString("Evaluator.Message.PerformingCrossValidation", m_xValFolds));
       if (!m_preserveOrder && m_trainingData.classAttribute().isNominal()) {
-        m_trainingData.stratify(m_xValFolds);
+        shuffled.stratify(m_xValFolds);
       }
-      for (int i = 0; i < m_xValFolds; i++) {
-        log.logDetailed(m_messages
-            .getString("Evaluator.Message.TrainingModelForFold", (i + 1)));
-        Classifier foldClassifier = copyClassifierTemplate();
-        enableClassifierLoggingIfSupported(foldClassifier, log);
-        configureWekaEnvironmentHandler(foldClassifier, vars);
-        Instances train = m_trainingData.trainCV(m_xValFolds, i, r);
-        m_eval.setPriors(train);
-        foldClassifier.buildClassifier(train);
-        Instances test = m_trainingData.testCV(m_xValFolds, i);
-        log.logDetailed(m_messages
-            .getString("Evaluator.Message.TestingModelForFold", (i + 1)));
-
-        if (m_templateClassifier instanceof BatchPredictor
-            && ((BatchPredictor) m_templateClassifier)
-            .implementsMoreEfficientBatchPrediction()) {
-          Instances testCopy = new Instances(test);
-          for (int j = 0; j < testCopy.numInstances(); j++) {
-            testCopy.instance(j).setClassMissing();
+
+      List<Callable<Evaluation>> foldTasks = new ArrayList<>();
+      if (m_buildFinalModelConcurrently) {
+        // submitted first, as it is the largest job
+        foldTasks.add(finalModelTask(log, vars));
+      }
+      if (checkpointing) {
+        m_checkpointFoldEvals = Collections.synchronizedList(
+            new ArrayList<Map<Integer, Evaluation>>(
+                Collections.<Map<Integer, Evaluation>>nCopies(m_xValFolds, null)));
+      }
+      m_foldCheckpoint = foldCheckpoint();
+      addFoldTasks(foldTasks, shuffled, r, 0, log, vars);
+
+      AggregateableEvaluation aggregated = newEvaluation(m_eval);
+      aggregated.aggregate(m_eval);
+      try {
+        for (Evaluation foldEval : runTasks(foldTasks)) {
+          if (foldEval != null) {
+            aggregated.aggregate(foldEval);
           }
-          double[][] preds = ((BatchPredictor) foldClassifier).distributionsForInstances(testCopy);
-          for (int j = 0; j < test.numInstances(); j++) {
-            if (m_computeAUC) {
-              m_eval.evaluateModelOnceAndRecordPrediction(preds[j], test.instance(j));
-            } else {
-              m_eval.evaluateModelOnce(preds[j], test.instance(j));
+        }
+        if (checkpointing) {
+          for (int checkpoint : m_iterationCheckpoints) {
+            AggregateableEvaluation checkpointEval = newEvaluation(m_eval);
+            checkpointEval.aggregate(m_eval);
+            for (Map<Integer, Evaluation> foldEvals : m_checkpointFoldEvals) {
+              checkpointEval.aggregate(foldEvals.get(checkpoint));
             }
+            m_checkpointEvals.put(checkpoint, checkpointEval);
           }
-        } else {
-          for (int j = 0; j < test.numInstances(); j++) {
-            if (m_computeAUC) {
-              m_eval.evaluateModelOnceAndRecordPrediction(foldClassifier, test.instance(j));
-            } else {
-              m_eval.evaluateModelOnce(foldClassifier, test.instance(j));
-            }
+        }
+        if (m_foldCheckpoint != null) {
+          m_foldCheckpoint.clear();
+        }
+      } finally {
+        m_checkpointFoldEvals = null;
+        m_foldCheckpoint = null;
+        releaseCachedData();
+      }
+      m_eval = aggregated;
+    } else if (m_evaluationMode == EvalMode.REPEATED_CROSS_VALIDATION) {
+      if (m_trainingData.numInstances() < m_xValFolds) {
+        log.logBasic(m_messages
+            .getString("Evaluator.Message.UnableToPerformCrossValidation", m_xValFolds,
+                m_trainingData.numInstances()));
+        m_evalWasPerformed = false;
+        return;
+      }
+      log.logBasic(m_messages
+          .getString("Evaluator.Message.PerformingRepeatedCrossValidation", m_xValRepetitions,
+              m_xValFolds));
+
+      // each repetition gets its own ordering of the shared training instances, but all
+      // repetitions x folds jobs are submitted together
+      List<Callable<Evaluation>> foldTasks = new ArrayList<>();
+      int firstFoldTask = 0;
+      if (m_buildFinalModelConcurrently) {
+        foldTasks.add(finalModelTask(log, vars));
+        firstFoldTask = 1;
+      }
+      m_foldCheckpoint = foldCheckpoint();
+      for (int rep = 0; rep < m_xValRepetitions; rep++) {
+        Random repRandom = new Random(m_randomSeed + rep);
+        InstancesView repData = new InstancesView(m_trainingData);
+        if (!m_preserveOrder) {
+          repData.randomize(repRandom);
+          if (m_trainingData.classAttribute().isNominal()) {
+            repData.stratify(m_xValFolds);
           }
         }
+        addFoldTasks(foldTasks, repData, repRandom, rep * m_xValFolds, log, vars);
+      }
+
+      List<Evaluation> foldEvals;
+      try {
+        foldEvals = runTasks(foldTasks);
+        if (m_foldCheckpoint != null) {
+          m_foldCheckpoint.clear();
+        }
+      } finally {
+        m_foldCheckpoint = null;
+        releaseCachedData();
+      }
+      AggregateableEvaluation aggregated = newEvaluation(m_eval);
+      aggregated.aggregate(m_eval);
+      m_repetitionEvals = new ArrayList<>();
+      for (int rep = 0; rep < m_xValRepetitions; rep++) {
+        AggregateableEvaluation repEval = newEvaluation(m_eval);
+        for (int i = 0; i < m_xValFolds; i++) {
+          Evaluation foldEval = foldEvals.get(firstFoldTask + rep * m_xValFolds + i);
+          repEval.aggregate(foldEval);
+          aggregated.aggregate(foldEval);
+        }
+        m_repetitionEvals.add(repEval);
       }
+      m_eval = aggregated;
     } else if (m_evaluationMode == EvalMode.SEPARATE_TEST_SET && separateTestData != null) {
       if (separateTestData.numInstances() == 0) {
         log.logBasic(m_messages
@@ -482,78 +1552,413 @@ public class Evaluator {
         throw new IllegalStateException(m_messages
             .getString("Evaluator.Error.FinalClassifierHasNotBeenTrainedYet"));
       }
-      enableClassifierLoggingIfSupported(m_classifier, log);
-      configureWekaEnvironmentHandler(m_classifier, vars);
-      // log.logBasic( "Performing separate test set evaluation..." );
-      if (m_computeAUC || (m_templateClassifier instanceof BatchPredictor
-          && ((BatchPredictor) m_templateClassifier)
-          .implementsMoreEfficientBatchPrediction())) {
-        m_eval.evaluateModel(m_classifier, separateTestData);
-      } else {
-        for (int i = 0; i < separateTestData.numInstances(); i++) {
-          m_eval.evaluateModelOnce(m_classifier, separateTestData.instance(i));
-        }
+      enableClassifierLoggingIfSupported(m_classifier, log);
+      configureWekaEnvironmentHandler(m_classifier, vars);
+      PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+      evaluateOnView(m_eval, m_classifier, new InstancesView(separateTestData));
+      phaseComplete(timer.stop(Phase.SCORING, -1, separateTestData.numInstances()));
+    }
+  }
+
+  /**
+   * Performs incremental evaluation. Only applicable to separate test set, prequential and
+   * streaming cross-validation modes.
+   * For schemes that implement more efficient batch prediction, test instances are buffered and
+   * scored in micro-batches (separate test set mode only). The buffer is scored when it reaches the
+   * incremental batch size, when the flush interval has elapsed, or when
+   * {@code flushIncrementalEvaluation()} is called.
+   *
+   * @param testInstance the test instance to process
+   * @param log the logging object
+   * @throws Exception if a problem occurs
+   */
+  public void performEvaluationIncremental(Instance testInstance, IMILogAdapter log)
+      throws Exception {
+    if (m_evaluationMode == EvalMode.STREAMING_CROSS_VALIDATION) {
+      updateStreamingCrossValidation(testInstance, log, null);
+      return;
+    }
+    if (m_evaluationMode != EvalMode.SEPARATE_TEST_SET
+        && m_evaluationMode != EvalMode.PREQUENTIAL) {
+      throw new IllegalStateException(
+          "Incremental evaluation can only be performed on a separate test set or "
+              + "on the training data for incremental schemes (prequential evaluation).");
+    }
+
+    if (m_templateClassifier instanceof BatchPredictor && ((BatchPredictor) m_templateClassifier)
+        .implementsMoreEfficientBatchPrediction()) {
+      if (m_evaluationMode == EvalMode.PREQUENTIAL) {
+        throw new Exception(m_messages
+            .getString("Evaluator.Error.IncrementalEvalOnlyOnTestOrTrainingData"));
+      }
+      bufferForBatchEvaluation(testInstance, log);
+      return;
+    }
+
+    m_instancesSinceLastEvalRow++;
+    double[] dist = evaluateInstance(m_eval, m_classifier, testInstance, windowMetricsEnabled());
+    if (windowMetricsEnabled()) {
+      if (m_windowMetrics == null) {
+        m_windowMetrics = new PrequentialWindowMetrics(m_prequentialWindowSize,
+            m_prequentialFadingFactor, m_trainingData.classAttribute().isNominal());
+      }
+      m_windowMetrics.update(dist, testInstance);
+    }
+  }
+
+  /**
+   * Performs streaming cross-validation in a single pass over the supplied rows. Each row is
+   * assigned to a fold by a stable hash of the fold key attribute (or the full row) and the random
+   * seed, tested on that fold's model, and then used to update the models of all the other folds.
+   * Requires an updateable scheme; memory use is constant in the number of rows (one model per
+   * fold). Note that each row is tested on a model that has seen only the rows (from other folds)
+   * that arrived before it.
+   *
+   * @param rows an iterator over the rows to cross-validate on
+   * @param log the logging object
+   * @param vars Kettle environment variables
+   * @throws Exception if the scheme is not updateable, or a problem occurs
+   */
+  public void performStreamingCrossValidation(Iterator<Instance> rows, IMILogAdapter log,
+      IMIVariableAdaptor vars) throws Exception {
+    if (m_trainingData == null) {
+      throw new IllegalStateException(
+          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
+    }
+    m_evalWasPerformed = true;
+    while (rows.hasNext()) {
+      updateStreamingCrossValidation(rows.next(), log, vars);
+    }
+  }
+
+  /**
+   * Process one row for streaming cross-validation: test it on the model for its fold, then update
+   * the models for all the other folds with it.
+   *
+   * @param row the row to process
+   * @param log the logging object
+   * @param vars Kettle environment variables (may be null)
+   * @throws Exception if the scheme is not updateable, or a problem occurs
+   */
+  protected void updateStreamingCrossValidation(Instance row, IMILogAdapter log,
+      IMIVariableAdaptor vars) throws Exception {
+    if (m_streamingFoldModels == null) {
+      Instances header = new Instances(m_trainingData, 0);
+      Attribute key = null;
+      if (!SchemeUtils.isEmpty(m_foldKeyAttribute)) {
+        key = header.attribute(m_foldKeyAttribute);
+        if (key == null) {
+          throw new Exception(m_messages
+              .getString("Evaluator.Error.FoldKeyAttributeNotFound", m_foldKeyAttribute));
+        }
+      }
+      m_foldAssigner = new HashFoldAssigner(m_xValFolds, m_randomSeed, key);
+      Classifier[] models = new Classifier[m_xValFolds];
+      for (int i = 0; i < m_xValFolds; i++) {
+        models[i] = copyClassifierTemplate();
+        if (!(models[i] instanceof UpdateableClassifier)) {
+          throw new Exception(m_messages.getString("Evaluator.Error.SchemeIsNotUpdateable",
+              models[i].getClass().getCanonicalName()));
+        }
+        if (log != null) {
+          enableClassifierLoggingIfSupported(models[i], log);
+        }
+        if (vars != null) {
+          configureWekaEnvironmentHandler(models[i], vars);
+        }
+        models[i].buildClassifier(header);
+      }
+      m_streamingFoldModels = models;
+      m_streamingHeader = header;
+      if (log != null) {
+        log.logBasic(m_messages
+            .getString("Evaluator.Message.PerformingStreamingCrossValidation", m_xValFolds));
+      }
+    }
+
+    if (row.dataset() == null) {
+      row.setDataset(m_streamingHeader);
+    }
+    m_instancesSinceLastEvalRow++;
+    int fold = m_foldAssigner.assignFold(row);
+    evaluateInstance(m_eval, m_streamingFoldModels[fold], row, false);
+    for (int i = 0; i < m_streamingFoldModels.length; i++) {
+      if (i != fold) {
+        ((UpdateableClassifier) m_streamingFoldModels[i]).updateClassifier(row);
+      }
+    }
+    m_eval.updatePriors(row);
+  }
+
+  /**
+   * Returns true if the relative error metrics can be computed. They are measured against the error
+   * of predicting from the class priors, which prequential and streaming cross-validation modes
+   * start without (the priors are grown row by row), so they are not available in those modes.
+   *
+   * @return true if the relative error metrics can be computed
+   */
+  protected boolean relativeErrorsAvailable() {
+    return m_evaluationMode != EvalMode.PREQUENTIAL
+        && m_evaluationMode != EvalMode.STREAMING_CROSS_VALIDATION;
+  }
+
+  /**
+   * Returns true if windowed and/or faded metrics are to be computed
+   *
+   * @return true if windowed and/or faded metrics are to be computed
+   */
+  protected boolean windowMetricsEnabled() {
+    return m_evaluationMode == EvalMode.PREQUENTIAL && PrequentialWindowMetrics
+        .isEnabled(m_prequentialWindowSize, m_prequentialFadingFactor);
+  }
+
+  /**
+   * Score (and evaluate) any test instances that have been buffered by incremental evaluation of a
+   * scheme that implements more efficient batch prediction. Should be called at the end of the
+   * test stream.
+   *
+   * @param log the logging object
+   * @throws Exception if a problem occurs
+   */
+  public void flushIncrementalEvaluation(IMILogAdapter log) throws Exception {
+    if (m_incrementalBuffer == null || m_incrementalBuffer.numInstances() == 0) {
+      return;
+    }
+    if (m_classifier == null) {
+      throw new IllegalStateException(m_messages
+          .getString("Evaluator.Error.FinalClassifierHasNotBeenTrainedYet"));
+    }
+
+    Instances batch = m_incrementalBuffer;
+    m_incrementalBuffer = new Instances(batch, 0);
+    if (log != null) {
+      log.logDebug(m_messages
+          .getString("Evaluator.Message.ScoringIncrementalBatch", batch.numInstances()));
+    }
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    try {
+      evaluateOnView(m_eval, m_classifier, new InstancesView(batch));
+    } catch (Exception ex) {
+      m_incrementalEvalFailed = true;
+      throw ex;
+    }
+    phaseComplete(timer.stop(Phase.SCORING, -1, batch.numInstances()));
+  }
+
+  /**
+   * Get the number of test instances currently buffered, waiting to be scored
+   *
+   * @return the number of buffered test instances
+   */
+  public int getNumBufferedInstances() {
+    return m_incrementalBuffer == null ? 0 : m_incrementalBuffer.numInstances();
+  }
+
+  /**
+   * Add a test instance to the incremental evaluation buffer, and score the buffer if it is full or
+   * the flush interval has elapsed
+   *
+   * @param testInstance the test instance to buffer
+   * @param log the logging object
+   * @throws Exception if a problem occurs
+   */
+  protected void bufferForBatchEvaluation(Instance testInstance, IMILogAdapter log)
+      throws Exception {
+    if (m_incrementalBuffer == null) {
+      m_incrementalBuffer = new Instances(testInstance.dataset() != null
+          ? testInstance.dataset() : m_trainingData, 0);
+    }
+    if (m_incrementalBuffer.numInstances() == 0) {
+      m_incrementalBufferStart = System.currentTimeMillis();
+    }
+    m_incrementalBuffer.add(testInstance);
+    m_instancesSinceLastEvalRow++;
+
+    if (m_incrementalBuffer.numInstances() >= m_incrementalBatchSize
+        || (m_incrementalFlushInterval > 0
+        && System.currentTimeMillis() - m_incrementalBufferStart >= m_incrementalFlushInterval)) {
+      flushIncrementalEvaluation(log);
+    }
+  }
+
+  /**
+   * Build a final model using all of the available training data.
+   *
+   * @param log the log to write to
+   * @param vars Kettle environment variables
+   * @return a final model
+   * @throws Exception if a problem occurs
+   */
+  public Classifier buildFinalModel(IMILogAdapter log, IMIVariableAdaptor vars) throws Exception {
+
+    if (m_trainingData == null) {
+      throw new IllegalStateException(
+          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
+    }
+
+    if (m_finalModelFromEvaluation != null) {
+      m_classifier = m_finalModelFromEvaluation;
+      m_finalModelFromEvaluation = null;
+      if (log != null) {
+        log.logBasic(m_messages.getString("Evaluator.Message.UsingFinalModelFromEvaluation"));
+      }
+      return m_classifier;
+    }
+
+    try {
+      m_classifier = trainFinalModel(log, vars);
+    } finally {
+      releaseCachedData();
+    }
+
+    return m_classifier;
+  }
+
+  /**
+   * Build a final model by streaming training instances through an updateable scheme, one row at a
+   * time, without holding the training data in memory. The Evaluator only needs to have been
+   * initialized with the header of the training data (i.e. an Instances object with no rows). Class
+   * priors in the evaluation are updated from the streamed rows.
+   *
+   * @param rows an iterator over the training instances
+   * @param log the log to write to
+   * @param vars Kettle environment variables
+   * @return a final model
+   * @throws Exception if the scheme is not an UpdateableClassifier, or a problem occurs
+   */
+  public Classifier buildFinalModelStreaming(Iterator<Instance> rows, IMILogAdapter log,
+      IMIVariableAdaptor vars) throws Exception {
+    if (m_trainingData == null) {
+      throw new IllegalStateException(
+          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
+    }
+
+    Classifier classifier = copyClassifierTemplate();
+    if (!(classifier instanceof UpdateableClassifier)) {
+      throw new Exception(m_messages.getString("Evaluator.Error.SchemeIsNotUpdateable",
+          classifier.getClass().getCanonicalName()));
+    }
+    if (log != null) {
+      log.logBasic(m_messages.getString("BasePMIStep.Info.BuildingFinalModel",
+          classifier.getClass().getCanonicalName() + " " + Utils
+              .joinOptions(((OptionHandler) classifier).getOptions())));
+      enableClassifierLoggingIfSupported(classifier, log);
+    }
+    configureWekaEnvironmentHandler(classifier, vars);
+
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    Instances header = new Instances(m_trainingData, 0);
+    classifier.buildClassifier(header);
+    long numRows = 0;
+    while (rows.hasNext()) {
+      Instance row = rows.next();
+      if (row.dataset() == null) {
+        row.setDataset(header);
+      }
+      ((UpdateableClassifier) classifier).updateClassifier(row);
+      if (m_eval != null) {
+        m_eval.updatePriors(row);
       }
+      numRows++;
     }
+    phaseComplete(timer.stop(Phase.FINAL_MODEL_TRAINING, -1, numRows));
+
+    m_classifier = classifier;
+    return m_classifier;
   }
 
   /**
-   * Performs incremental evaluation. Only applicable to separate test set mode and
-   * non-BatchPredictors
+   * Train a new model on all of the available training data.
    *
-   * @param testInstance the test instance to process
-   * @param log the logging object
+   * @param log the log to write to
+   * @param vars Kettle environment variables
+   * @return a model trained on all the training data
    * @throws Exception if a problem occurs
    */
-  public void performEvaluationIncremental(Instance testInstance, IMILogAdapter log)
+  protected Classifier trainFinalModel(IMILogAdapter log, IMIVariableAdaptor vars)
       throws Exception {
-    if (m_evaluationMode != EvalMode.SEPARATE_TEST_SET
-        && m_evaluationMode != EvalMode.PREQUENTIAL) {
-      throw new IllegalStateException(
-          "Incremental evaluation can only be performed on a separate test set or "
-              + "on the training data for incremental schemes (prequential evaluation).");
+    Classifier classifier = copyClassifierTemplate();
+    if (log != null) {
+      log.logBasic(m_messages.getString("BasePMIStep.Info.BuildingFinalModel",
+          classifier.getClass().getCanonicalName() + " " + Utils
+              .joinOptions(((OptionHandler) classifier).getOptions())));
+      enableClassifierLoggingIfSupported(classifier, log);
     }
-
-    if (m_templateClassifier instanceof BatchPredictor && ((BatchPredictor) m_templateClassifier)
-        .implementsMoreEfficientBatchPrediction()) {
-      throw new Exception(m_messages
-          .getString("Evaluator.Error.IncrementalEvalOnlyOnTestOrTrainingData"));
+    configureWekaEnvironmentHandler(classifier, vars);
+
+    // only resumable (iterative) builds are checkpointed
+    EvaluationCheckpoint checkpoint = isIterative(classifier) ? finalModelCheckpoint() : null;
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    if (checkpoint != null) {
+      classifier = trainIterativeWithCheckpoints(classifier, checkpoint, log, vars);
+      checkpoint.clear();
+    } else if (!buildOnCachedData(classifier, new InstancesView(m_trainingData))) {
+      classifier.buildClassifier(m_trainingData);
     }
+    phaseComplete(timer.stop(Phase.FINAL_MODEL_TRAINING, -1, m_trainingData.numInstances()));
 
-    if (m_computeAUC) {
-      m_eval.evaluateModelOnceAndRecordPrediction(m_classifier, testInstance);
-    } else {
-      m_eval.evaluateModelOnce(m_classifier, testInstance);
-    }
+    return classifier;
   }
 
   /**
-   * Build a final model using all of the available training data.
+   * Train an iterative classifier on all of the training data, saving a snapshot of the partially
+   * trained model every {@code getFinalModelCheckpointInterval()} iterations. If a snapshot exists
+   * from an earlier (interrupted) build, training continues from it.
    *
+   * @param classifier the (untrained) iterative classifier
+   * @param checkpoint the checkpoint to save snapshots to
    * @param log the log to write to
    * @param vars Kettle environment variables
-   * @return a final model
+   * @return the trained classifier
    * @throws Exception if a problem occurs
    */
-  public Classifier buildFinalModel(IMILogAdapter log, IMIVariableAdaptor vars) throws Exception {
-
-    if (m_trainingData == null) {
-      throw new IllegalStateException(
-          m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
+  protected Classifier trainIterativeWithCheckpoints(Classifier classifier,
+      EvaluationCheckpoint checkpoint, IMILogAdapter log, IMIVariableAdaptor vars)
+      throws Exception {
+    int iterations = 0;
+    if (checkpoint.has("final.partial")) {
+      Object[] snapshot = (Object[]) checkpoint.load("final.partial");
+      classifier = (Classifier) snapshot[0];
+      iterations = (Integer) snapshot[1];
+      if (log != null) {
+        log.logBasic(m_messages
+            .getString("Evaluator.Message.ResumingFinalModelFromCheckpoint", iterations));
+      }
+      enableClassifierLoggingIfSupported(classifier, log);
+      configureWekaEnvironmentHandler(classifier, vars);
+    } else {
+      ((IterativeClassifier) classifier).initializeClassifier(m_trainingData);
     }
-
-    m_classifier = copyClassifierTemplate();
-    if (log != null) {
-      log.logBasic(m_messages.getString("BasePMIStep.Info.BuildingFinalModel",
-          m_classifier.getClass().getCanonicalName() + " " + Utils
-              .joinOptions(((OptionHandler) m_classifier).getOptions())));
-      enableClassifierLoggingIfSupported(m_classifier, log);
+    IterativeClassifier iterative = (IterativeClassifier) classifier;
+    int interval = Math.max(1, m_finalModelCheckpointInterval);
+    while (iterative.next()) {
+      if (++iterations % interval == 0) {
+        checkpoint.save("final.partial", new Object[] {classifier, iterations});
+      }
     }
-    configureWekaEnvironmentHandler(m_classifier, vars);
-
-    m_classifier.buildClassifier(m_trainingData);
+    iterative.done();
+    checkpoint.delete("final.partial");
+    return classifier;
+  }
 
-    return m_classifier;
+  /**
+   * Create a task that trains the final model on all of the available training data, for running
+   * alongside the evaluation tasks. The task returns null; the model is held until the next call
+   * to {@code buildFinalModel()}.
+   *
+   * @param log the log to write to
+   * @param vars Kettle environment variables
+   * @return a task that trains the final model
+   */
+  protected Callable<Evaluation> finalModelTask(final IMILogAdapter log,
+      final IMIVariableAdaptor vars) {
+    return new Callable<Evaluation>() {
+      @Override
+      public Evaluation call() throws Exception {
+        m_finalModelFromEvaluation = trainFinalModel(log, vars);
+        return null;
+      }
+    };
   }
 
   /**
@@ -566,98 +1971,313 @@ public class Evaluator {
    */
   public Object[] getEvalRow(String stratificationValue, int batchNumber,
       IMILogAdapter log) {
+    if (!prepareEvalRow(log)) {
+      return null;
+    }
+    int iterations = m_checkpointEvals.isEmpty() ? 0
+        : ((TreeMap<Integer, Evaluation>) m_checkpointEvals).lastKey();
+    return getEvalRow(stratificationValue, batchNumber, log, m_eval, iterations);
+  }
+
+  /**
+   * Return rows containing evaluation metrics. If iteration checkpoints were used, there is one
+   * row for each checkpoint (in ascending order of iterations); otherwise, there is a single row,
+   * as returned by {@code getEvalRow()}.
+   *
+   * @param stratificationValue optional stratification value
+   * @param batchNumber the current batch number (if applicable)
+   * @param log log to use
+   * @return a list of rows of evaluation metrics (empty if there is nothing to report)
+   */
+  public List<Object[]> getEvalRows(String stratificationValue, int batchNumber,
+      IMILogAdapter log) {
+    List<Object[]> rows = new ArrayList<>();
+    if (!prepareEvalRow(log)) {
+      return rows;
+    }
+    if (m_checkpointEvals.isEmpty()) {
+      rows.add(getEvalRow(stratificationValue, batchNumber, log, m_eval, 0));
+    } else {
+      for (Map.Entry<Integer, Evaluation> e : m_checkpointEvals.entrySet()) {
+        rows.add(getEvalRow(stratificationValue, batchNumber, log, e.getValue(), e.getKey()));
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Makes sure that all buffered test instances have been evaluated before an eval row is
+   * produced, and checks that there is something to report. If any buffered instances could not be
+   * evaluated, there is nothing to report - the metrics would silently leave them out.
+   *
+   * @param log log to use
+   * @return true if there are evaluation results to report
+   */
+  protected boolean prepareEvalRow(IMILogAdapter log) {
     if (m_trainingData == null) {
       throw new IllegalStateException(
           m_messages.getString("Evaluator.Error.EvaluatorNotInitialized"));
     }
-    if (m_evaluationMode == EvalMode.NONE || m_eval.numInstances() == 0) {
-      return null;
-    } else {
-      List<Object> outputRow = new ArrayList<>();
-      int i = 0;
-      String schemeName = m_templateClassifier.getClass().getCanonicalName();
-      schemeName = schemeName.substring(schemeName.lastIndexOf(".") + 1);
-      if (batchNumber > 0) {
-        schemeName = "" + batchNumber + "_" + schemeName;
+    if (getNumBufferedInstances() > 0) {
+      try {
+        flushIncrementalEvaluation(log);
+      } catch (Exception ex) {
+        if (log != null) {
+          log.logError(ex.getMessage());
+        }
       }
-      outputRow.add(schemeName);
-      String schemeOptions = Utils.joinOptions(((OptionHandler) m_templateClassifier).getOptions());
-      outputRow.add(schemeOptions);
+    }
+    if (m_incrementalEvalFailed) {
+      return false;
+    }
+    m_instancesSinceLastEvalRow = 0;
+    return m_evaluationMode != EvalMode.NONE && m_eval.numInstances() > 0;
+  }
 
-      String evalMode = m_evaluationMode.toString().toLowerCase();
-      if (m_evaluationMode == EvalMode.PERCENTAGE_SPLIT) {
-        evalMode += " " + m_percentageSplit + "% seed " + m_randomSeed;
-      } else if (m_evaluationMode == EvalMode.CROSS_VALIDATION) {
-        evalMode += " folds " + m_xValFolds + " seed " + m_randomSeed;
-      }
-      outputRow.add(evalMode);
+  /**
+   * Build a row containing the evaluation metrics from the supplied evaluation
+   *
+   * @param stratificationValue optional stratification value
+   * @param batchNumber the current batch number (if applicable)
+   * @param log log to use
+   * @param eval the evaluation to report
+   * @param iterations the iteration checkpoint the evaluation is for (0 if not applicable)
+   * @return a row of evaluation metrics
+   */
+  protected Object[] getEvalRow(String stratificationValue, int batchNumber, IMILogAdapter log,
+      Evaluation eval, int iterations) {
+    List<Object> outputRow = new ArrayList<>();
+    int i = 0;
+    String schemeName = m_templateClassifier.getClass().getCanonicalName();
+    schemeName = schemeName.substring(schemeName.lastIndexOf(".") + 1);
+    if (batchNumber > 0) {
+      schemeName = "" + batchNumber + "_" + schemeName;
+    }
+    outputRow.add(schemeName);
+    String schemeOptions = Utils.joinOptions(((OptionHandler) m_templateClassifier).getOptions());
+    outputRow.add(schemeOptions);
 
-      if (!SchemeUtils.isEmpty(stratificationValue)) {
-        outputRow.add(stratificationValue);
-      }
+    String evalMode = m_evaluationMode.toString().toLowerCase();
+    if (m_evaluationMode == EvalMode.PERCENTAGE_SPLIT) {
+      evalMode += " " + m_percentageSplit + "% seed " + m_randomSeed;
+    } else if (m_evaluationMode == EvalMode.CROSS_VALIDATION) {
+      evalMode += " folds " + m_xValFolds + " seed " + m_randomSeed;
+    } else if (m_evaluationMode == EvalMode.REPEATED_CROSS_VALIDATION) {
+      evalMode += " folds " + m_xValFolds + " repetitions " + m_xValRepetitions + " seed "
+          + m_randomSeed;
+    } else if (m_evaluationMode == EvalMode.STREAMING_CROSS_VALIDATION) {
+      evalMode += " folds " + m_xValFolds + " seed " + m_randomSeed
+          + (!SchemeUtils.isEmpty(m_foldKeyAttribute) ? " key " + m_foldKeyAttribute : "");
+    }
+    if (iterations > 0) {
+      evalMode += " iterations " + iterations;
+    }
+    outputRow.add(evalMode);
 
-      outputRow.add(m_eval.unclassified());
+    if (!SchemeUtils.isEmpty(stratificationValue)) {
+      outputRow.add(stratificationValue);
+    }
 
-      if (m_trainingData.classAttribute().isNominal()) {
-        outputRow.add(m_eval.correct());
-        outputRow.add(m_eval.incorrect());
-        outputRow.add(m_eval.pctCorrect());
-        outputRow.add(m_eval.pctIncorrect());
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    if (m_evaluationMode == EvalMode.REPEATED_CROSS_VALIDATION && m_repetitionEvals != null) {
+      // mean of each metric over the repetitions
+      List<double[]> repetitionValues = new ArrayList<>();
+      for (Evaluation repEval : m_repetitionEvals) {
+        repetitionValues.add(getMetricValues(repEval));
       }
-      outputRow.add(m_eval.meanAbsoluteError());
-      outputRow.add(m_eval.rootMeanSquaredError());
-
-      if (m_trainingData.classAttribute().isNumeric()) {
-        try {
-          outputRow.add(m_eval.correlationCoefficient());
-        } catch (Exception e) {
-          e.printStackTrace();
+      double[] means = new double[repetitionValues.get(0).length];
+      double[] stdDevs = new double[means.length];
+      for (int j = 0; j < means.length; j++) {
+        double sum = 0;
+        double sumSq = 0;
+        for (double[] values : repetitionValues) {
+          sum += values[j];
+          sumSq += values[j] * values[j];
+        }
+        int n = repetitionValues.size();
+        means[j] = sum / n;
+        stdDevs[j] = n > 1 ? Math.sqrt(Math.max(0, (sumSq - (sum * sum) / n) / (n - 1))) : 0;
+      }
+      for (double mean : means) {
+        outputRow.add(mean);
+      }
+      addConfusionMatrix(outputRow, eval, log);
+      for (double stdDev : stdDevs) {
+        outputRow.add(stdDev);
+      }
+    } else {
+      for (double value : getMetricValues(eval)) {
+        outputRow.add(value);
+      }
+      addConfusionMatrix(outputRow, eval, log);
+    }
+    phaseComplete(timer.stop(Phase.METRICS, -1, (long) eval.numInstances()));
+
+    if (m_outputPhaseMetrics) {
+      for (Phase phase : EVAL_ROW_PHASES) {
+        PhaseMetrics totals = getPhaseTotals(phase);
+        if (totals == null) {
+          for (int j = 0; j < 4; j++) {
+            outputRow.add(Utils.missingValue());
+          }
+          continue;
         }
+        outputRow.add(totals.getWallNanos() / 1e6);
+        outputRow.add(totals.getCpuNanos() >= 0 ? totals.getCpuNanos() / 1e6
+            : Utils.missingValue());
+        outputRow.add(totals.getRowsPerSecond());
+        outputRow.add(totals.getAllocatedBytes() >= 0 ? (double) totals.getAllocatedBytes()
+            : Utils.missingValue());
       }
+    }
 
-      if (m_evaluationMode != EvalMode.PREQUENTIAL) {
-        try {
-          outputRow.add(m_eval.relativeAbsoluteError());
-        } catch (Exception e) {
-          e.printStackTrace();
+    if (m_outputLatencyMetrics) {
+      LatencyHistogram latencies =
+          eval instanceof MIEvaluation ? ((MIEvaluation) eval).getLatencies() : null;
+      if (latencies != null && latencies.getCount() > 0) {
+        outputRow.add(latencies.getPercentile(50) / 1e6);
+        outputRow.add(latencies.getPercentile(95) / 1e6);
+        outputRow.add(latencies.getPercentile(99) / 1e6);
+        outputRow.add(latencies.getThroughput());
+      } else {
+        for (int j = 0; j < 4; j++) {
+          outputRow.add(Utils.missingValue());
         }
-        outputRow.add(m_eval.rootRelativeSquaredError());
       }
+    }
+    return outputRow.toArray(new Object[0]);
+  }
+
+  /**
+   * Get the label used for a phase in the names of eval row columns
+   *
+   * @param phase the phase
+   * @return the label for the phase
+   */
+  protected static String phaseLabel(Phase phase) {
+    switch (phase) {
+      case TRAINING:
+        return "Training";
+      case SCORING:
+        return "Scoring";
+      case FINAL_MODEL_TRAINING:
+        return "Final model training";
+      default:
+        return "Metrics";
+    }
+  }
+
+  /**
+   * Extract the values of the numeric evaluation metrics (in the same order as returned by
+   * {@code getMetricNames()}) from an Evaluation object.
+   *
+   * @param eval the Evaluation object to extract metric values from
+   * @return an array of metric values
+   */
+  protected double[] getMetricValues(Evaluation eval) {
+    List<Double> values = new ArrayList<>();
+    values.add(eval.unclassified());
+
+    if (m_trainingData.classAttribute().isNominal()) {
+      values.add(eval.correct());
+      values.add(eval.incorrect());
+      values.add(eval.pctCorrect());
+      values.add(eval.pctIncorrect());
+    }
+    values.add(eval.meanAbsoluteError());
+    values.add(eval.rootMeanSquaredError());
+
+    if (m_trainingData.classAttribute().isNumeric()) {
+      try {
+        values.add(eval.correlationCoefficient());
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (relativeErrorsAvailable()) {
+      try {
+        values.add(eval.relativeAbsoluteError());
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      values.add(eval.rootRelativeSquaredError());
+    }
 
-      outputRow.add(m_eval.numInstances());
+    values.add(eval.numInstances());
 
-      if (m_trainingData.classAttribute().isNominal()) {
-        outputRow.add(m_eval.kappa());
+    if (m_trainingData.classAttribute().isNominal()) {
+      values.add(eval.kappa());
 
-        if (m_outputIRMetrics) {
-          for (int j = 0; j < m_trainingData.classAttribute().numValues(); j++) {
-            outputRow.add(m_eval.truePositiveRate(j));
-            outputRow.add(m_eval.falsePositiveRate(j));
-            outputRow.add(m_eval.precision(j));
-            outputRow.add(m_eval.recall(j));
-            outputRow.add(m_eval.fMeasure(j));
-            outputRow.add(m_eval.matthewsCorrelationCoefficient(j));
-          }
+      if (m_outputIRMetrics) {
+        for (int j = 0; j < m_trainingData.classAttribute().numValues(); j++) {
+          values.add(eval.truePositiveRate(j));
+          values.add(eval.falsePositiveRate(j));
+          values.add(eval.precision(j));
+          values.add(eval.recall(j));
+          values.add(eval.fMeasure(j));
+          values.add(eval.matthewsCorrelationCoefficient(j));
         }
+      }
 
-        if (m_computeAUC) {
-          for (int j = 0; j < m_trainingData.classAttribute().numValues(); j++) {
-            outputRow.add(m_eval.areaUnderROC(j));
-            outputRow.add(m_eval.areaUnderPRC(j));
+      if (m_computeAUC) {
+        HistogramAUC histogramAUC =
+            eval instanceof MIEvaluation ? ((MIEvaluation) eval).getHistogramAUC() : null;
+        PredictionStore store =
+            eval instanceof MIEvaluation ? ((MIEvaluation) eval).getPredictionStore() : null;
+        for (int j = 0; j < m_trainingData.classAttribute().numValues(); j++) {
+          if (histogramAUC != null) {
+            values.add(histogramAUC.areaUnderROC(j));
+            values.add(histogramAUC.areaUnderPRC(j));
+          } else if (store != null) {
+            values.add(store.areaUnderROC(j));
+            values.add(store.areaUnderPRC(j));
+          } else {
+            values.add(eval.areaUnderROC(j));
+            values.add(eval.areaUnderPRC(j));
           }
         }
+      }
+    }
 
-        try {
-          String matrix = m_eval.toMatrixString();
-          outputRow.add(matrix);
-          if (log != null) {
-            log.logBasic(matrix);
-          }
-        } catch (Exception ex) {
-          ex.printStackTrace();
+    if (windowMetricsEnabled()) {
+      if (m_windowMetrics != null) {
+        for (double value : m_windowMetrics.getMetricValues()) {
+          values.add(value);
         }
+      } else {
+        for (int j = 0; j < PrequentialWindowMetrics.getMetricNames(m_prequentialWindowSize,
+            m_prequentialFadingFactor, m_trainingData.classAttribute().isNominal()).size(); j++) {
+          values.add(Utils.missingValue());
+        }
+      }
+    }
+
+    double[] result = new double[values.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Adds the confusion matrix (if the class is nominal) to the output row
+   *
+   * @param outputRow the output row to add to
+   * @param eval the evaluation to get the confusion matrix from
+   * @param log the log to write the matrix to (may be null)
+   */
+  protected void addConfusionMatrix(List<Object> outputRow, Evaluation eval, IMILogAdapter log) {
+    if (m_trainingData.classAttribute().isNominal()) {
+      try {
+        String matrix = eval.toMatrixString();
+        outputRow.add(matrix);
+        if (log != null) {
+          log.logBasic(matrix);
+        }
+      } catch (Exception ex) {
+        ex.printStackTrace();
       }
-      return outputRow.toArray(new Object[0]);
     }
   }
 
@@ -680,6 +2300,344 @@ public class Evaluator {
     return m_eval;
   }
 
+  /**
+   * Create a task for each cross-validation fold of the supplied data. Fold splits (which are just
+   * index views of the data) are generated up front, and in order, so that the training folds get
+   * shuffled by the random number generator in exactly the same way regardless of how many
+   * execution slots are used. The training data for a fold is only materialized when the fold's
+   * task runs.
+   *
+   * @param tasks the list to add the tasks to
+   * @param data the (randomized and stratified, if necessary) data to split into folds
+   * @param r the random number generator to use for shuffling the training folds
+   * @param foldOffset offset to add to the fold number when logging
+   * @param log the logging object to use
+   * @param vars environment variables
+   */
+  protected void addFoldTasks(List<Callable<Evaluation>> tasks, InstancesView data, Random r,
+      int foldOffset, final IMILogAdapter log, final IMIVariableAdaptor vars) {
+    for (int i = 0; i < m_xValFolds; i++) {
+      final int fold = foldOffset + i;
+      final InstancesView train = data.trainCV(m_xValFolds, i, r);
+      final InstancesView test = data.testCV(m_xValFolds, i);
+      tasks.add(new Callable<Evaluation>() {
+        @Override
+        public Evaluation call() throws Exception {
+          return evaluateFold(fold, train, test, log, vars);
+        }
+      });
+    }
+  }
+
+  /**
+   * Train and test the model for a single cross-validation fold. Each fold gets its own Evaluation
+   * object (with priors set from the fold's training data), so folds can be processed
+   * concurrently and merged afterwards.
+   *
+   * @param fold the (zero-based) index of the fold
+   * @param trainView the training data for the fold
+   * @param test the test data for the fold
+   * @param log the logging object to use
+   * @param vars environment variables
+   * @return the Evaluation for the fold
+   * @throws Exception if a problem occurs
+   */
+  protected Evaluation evaluateFold(int fold, InstancesView trainView, InstancesView test,
+      IMILogAdapter log, IMIVariableAdaptor vars) throws Exception {
+    EvaluationCheckpoint checkpoint = m_foldCheckpoint;
+    String evalName = "fold-" + fold + ".eval";
+    String modelName = "fold-" + fold + ".model";
+    if (checkpoint != null && checkpoint.has(evalName)) {
+      log.logDetailed(m_messages
+          .getString("Evaluator.Message.ResumingFoldFromCheckpoint", (fold + 1)));
+      Object saved = checkpoint.load(evalName);
+      if (m_checkpointFoldEvals != null) {
+        @SuppressWarnings("unchecked")
+        TreeMap<Integer, Evaluation> evals = (TreeMap<Integer, Evaluation>) saved;
+        m_checkpointFoldEvals.set(fold, evals);
+        return evals.lastEntry().getValue();
+      }
+      return (Evaluation) saved;
+    }
+
+    log.logDetailed(m_messages
+        .getString("Evaluator.Message.TrainingModelForFold", (fold + 1)));
+    Instances train = trainView.materialize(m_copyTrainingData);
+    Evaluation foldEval = newEvaluation(m_trainingData);
+    foldEval.setPriors(train);
+    Classifier foldClassifier = copyClassifierTemplate();
+    enableClassifierLoggingIfSupported(foldClassifier, log);
+    configureWekaEnvironmentHandler(foldClassifier, vars);
+    if (m_checkpointFoldEvals != null) {
+      TreeMap<Integer, Evaluation> evals =
+          trainWithCheckpoints(foldClassifier, train, test, train, fold);
+      m_checkpointFoldEvals.set(fold, evals);
+      if (checkpoint != null) {
+        checkpoint.save(evalName, evals);
+      }
+      // the fold's overall evaluation is that of the largest checkpoint
+      return evals.lastEntry().getValue();
+    }
+    if (checkpoint != null && checkpoint.has(modelName)) {
+      // the model was trained, but the process died before it was evaluated
+      log.logDetailed(m_messages
+          .getString("Evaluator.Message.ResumingFoldFromCheckpoint", (fold + 1)));
+      foldClassifier = (Classifier) checkpoint.load(modelName);
+      enableClassifierLoggingIfSupported(foldClassifier, log);
+      configureWekaEnvironmentHandler(foldClassifier, vars);
+    } else {
+      PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+      if (!buildOnCachedData(foldClassifier, trainView)) {
+        foldClassifier.buildClassifier(train);
+      }
+      phaseComplete(timer.stop(Phase.TRAINING, fold, train.numInstances()));
+      if (checkpoint != null) {
+        checkpoint.save(modelName, foldClassifier);
+      }
+    }
+    train = null;
+    log.logDetailed(m_messages
+        .getString("Evaluator.Message.TestingModelForFold", (fold + 1)));
+
+    PhaseMetrics.Timer timer = new PhaseMetrics.Timer();
+    evaluateOnView(foldEval, foldClassifier, test);
+    phaseComplete(timer.stop(Phase.SCORING, fold, test.numInstances()));
+    if (checkpoint != null) {
+      checkpoint.save(evalName, foldEval);
+    }
+
+    return foldEval;
+  }
+
+  /**
+   * Train a classifier on the rows selected by a view of the training data, using a copy of the
+   * training data cached by an external engine (see {@code IMIIndexedTrainer}). This avoids
+   * transferring a full copy of the data to the engine for each fold.
+   *
+   * @param classifier the classifier to train
+   * @param train the training data, as a view of the full training data
+   * @return true if the classifier was trained; false if it should be trained on the materialized
+   * data as usual
+   * @throws Exception if a problem occurs during training
+   */
+  protected boolean buildOnCachedData(Classifier classifier, InstancesView train)
+      throws Exception {
+    return classifier instanceof IMIIndexedTrainer
+        && ((IMIIndexedTrainer) classifier).canTrainOnCachedData()
+        && ((IMIIndexedTrainer) classifier).buildClassifier(train, cachedDataKey());
+  }
+
+  /**
+   * Get the key to cache the training data under in external engines. The key combines the data
+   * fingerprint with a token unique to the current run, so that evaluators sharing a pool (e.g.
+   * tuning candidates, or parallel step copies on the same data) never share - and release - each
+   * other's cached copy.
+   *
+   * @return the key
+   * @throws Exception if a problem occurs
+   */
+  protected synchronized String cachedDataKey() throws Exception {
+    if (m_cachedDataKey == null) {
+      m_cachedDataKey = dataFingerprint() + "_" + UUID.randomUUID().toString().replace("-", "");
+    }
+    return m_cachedDataKey;
+  }
+
+  /**
+   * Release any copy of the training data cached by an external engine during the current run
+   */
+  protected void releaseCachedData() {
+    String key;
+    synchronized (this) {
+      key = m_cachedDataKey;
+      m_cachedDataKey = null;
+    }
+    if (key != null && m_templateClassifier instanceof IMIIndexedTrainer) {
+      ((IMIIndexedTrainer) m_templateClassifier).releaseDataset(key);
+    }
+  }
+
+  /**
+   * Evaluate a trained classifier on a view of some test data. Schemes that implement more efficient
+   * batch prediction are passed a class-masked view of all the test instances in one go; otherwise
+   * the test instances are evaluated one at a time.
+   *
+   * @param eval the Evaluation object to update
+   * @param classifier the trained classifier
+   * @param test the test data
+   * @throws Exception if a problem occurs
+   */
+  protected void evaluateOnView(Evaluation eval, Classifier classifier, InstancesView test)
+      throws Exception {
+    if (m_templateClassifier instanceof BatchPredictor
+        && ((BatchPredictor) m_templateClassifier)
+        .implementsMoreEfficientBatchPrediction()) {
+      Instances masked = test.classMasked();
+      long start = System.nanoTime();
+      double[][] preds = ((BatchPredictor) classifier).distributionsForInstances(masked);
+      if (eval instanceof MIEvaluation) {
+        ((MIEvaluation) eval).recordLatency(System.nanoTime() - start, test.numInstances());
+      }
+      for (int j = 0; j < test.numInstances(); j++) {
+        if (recordPredictions(eval)) {
+          eval.evaluateModelOnceAndRecordPrediction(preds[j], test.instance(j));
+        } else {
+          eval.evaluateModelOnce(preds[j], test.instance(j));
+        }
+      }
+    } else {
+      for (int j = 0; j < test.numInstances(); j++) {
+        evaluateInstance(eval, classifier, test.instance(j), false);
+      }
+    }
+  }
+
+  /**
+   * Evaluate a trained classifier on a single test instance. The time taken to make the prediction
+   * is recorded if the Evaluation is keeping track of prediction latencies.
+   *
+   * @param eval the Evaluation object to update
+   * @param classifier the trained classifier
+   * @param instance the test instance
+   * @param needDistribution true if the predicted distribution should be returned
+   * @return the predicted distribution, or null if it was not needed (and not computed here)
+   * @throws Exception if a problem occurs
+   */
+  protected double[] evaluateInstance(Evaluation eval, Classifier classifier, Instance instance,
+      boolean needDistribution) throws Exception {
+    MIEvaluation miEval = eval instanceof MIEvaluation ? (MIEvaluation) eval : null;
+    boolean recordLatency = miEval != null && miEval.getLatencies() != null;
+    if (!recordLatency && !needDistribution) {
+      if (recordPredictions(eval)) {
+        eval.evaluateModelOnceAndRecordPrediction(classifier, instance);
+      } else {
+        eval.evaluateModelOnce(classifier, instance);
+      }
+      return null;
+    }
+
+    Instance classMissing = (Instance) instance.copy();
+    classMissing.setDataset(instance.dataset());
+    classMissing.setClassMissing();
+    long start = System.nanoTime();
+    double[] dist = classifier.distributionForInstance(classMissing);
+    if (recordLatency) {
+      miEval.recordLatency(System.nanoTime() - start, 1);
+    }
+    if (recordPredictions(eval)) {
+      eval.evaluateModelOnceAndRecordPrediction(dist, instance);
+    } else {
+      eval.evaluateModelOnce(dist, instance);
+    }
+    return dist;
+  }
+
+  /**
+   * Run a list of tasks, either sequentially on the calling thread (if there is only one execution
+   * slot and no executor has been supplied) or concurrently. Results are returned in the same order
+   * as the supplied tasks.
+   *
+   * @param tasks the tasks to run
+   * @param <T> the result type of the tasks
+   * @return a list of results
+   * @throws Exception if any of the tasks fail
+   */
+  protected <T> List<T> runTasks(List<Callable<T>> tasks) throws Exception {
+    List<T> results = new ArrayList<>();
+    if (m_executorService == null && m_numExecutionSlots <= 1) {
+      for (Callable<T> task : tasks) {
+        results.add(task.call());
+      }
+      return results;
+    }
+
+    ExecutorService executor = m_executorService;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(Math.min(m_numExecutionSlots, tasks.size()));
+    }
+    try {
+      List<Future<T>> futures = new ArrayList<>();
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<T> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException ex) {
+          for (Future<T> f : futures) {
+            f.cancel(true);
+          }
+          if (ex.getCause() instanceof Exception) {
+            throw (Exception) ex.getCause();
+          }
+          throw ex;
+        }
+      }
+    } finally {
+      if (executor != m_executorService) {
+        executor.shutdownNow();
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Create a new (empty) Evaluation, configured with the accumulators required by the current
+   * settings
+   *
+   * @param data the training data (or header) to initialize the evaluation with
+   * @return a new Evaluation
+   * @throws Exception if a problem occurs
+   */
+  protected MIEvaluation newEvaluation(Instances data) throws Exception {
+    MIEvaluation eval = new MIEvaluation(data);
+    eval.setAUCHistogramBins(histogramAUCBins());
+    eval.setStorePredictions(m_storePredictions);
+    eval.setRecordLatencies(m_outputLatencyMetrics);
+    return eval;
+  }
+
+  /**
+   * Create a new (empty) Evaluation with the same configuration (e.g. class priors) as the supplied
+   * one, for aggregating results into
+   *
+   * @param template the Evaluation to copy the configuration from
+   * @return a new Evaluation
+   * @throws Exception if a problem occurs
+   */
+  protected MIEvaluation newEvaluation(Evaluation template) throws Exception {
+    MIEvaluation eval = new MIEvaluation(template);
+    eval.setAUCHistogramBins(histogramAUCBins());
+    eval.setStorePredictions(m_storePredictions);
+    eval.setRecordLatencies(m_outputLatencyMetrics);
+    return eval;
+  }
+
+  /**
+   * Returns the number of histogram bins to use for constant-memory AUC estimation, or 0 if AUC is
+   * not being estimated this way
+   *
+   * @return the number of histogram bins to use
+   */
+  protected int histogramAUCBins() {
+    return m_computeAUC ? m_aucHistogramBins : 0;
+  }
+
+  /**
+   * Returns true if Weka Prediction objects need to be retained in the supplied Evaluation (for
+   * computing exact AUC metrics when neither histogram estimation nor the compact prediction store
+   * is in use)
+   *
+   * @param eval the Evaluation that predictions are being evaluated with
+   * @return true if predictions should be recorded
+   */
+  protected boolean recordPredictions(Evaluation eval) {
+    return m_computeAUC && !(eval instanceof MIEvaluation
+        && (((MIEvaluation) eval).getHistogramAUC() != null
+        || ((MIEvaluation) eval).getPredictionStore() != null));
+  }
+
   /**
    * Create a copy of the classifier template
    *
@@ -688,12 +2646,15 @@ public class Evaluator {
    */
   protected Classifier copyClassifierTemplate() throws Exception {
     return (Classifier) Utils
-        .forName(Classifier.class, m_templateClassifier.getClass().getCanonicalName(),
+        .forName(Classifier.class, m_templateClassifier.getClass().getName(),
             ((OptionHandler) m_templateClassifier).getOptions());
   }
 
   /**
    * Enum for evaluation modes
    */
-  public enum EvalMode {NONE, PERCENTAGE_SPLIT, CROSS_VALIDATION, SEPARATE_TEST_SET, PREQUENTIAL;}
+  public enum EvalMode {
+    NONE, PERCENTAGE_SPLIT, CROSS_VALIDATION, SEPARATE_TEST_SET, PREQUENTIAL,
+    REPEATED_CROSS_VALIDATION, STREAMING_CROSS_VALIDATION;
+  }
 }
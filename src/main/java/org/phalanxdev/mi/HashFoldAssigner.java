@@ -0,0 +1,117 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.nio.charset.StandardCharsets;
+import weka.core.Attribute;
+import weka.core.Instance;
+
+/**
+ * Assigns instances to cross-validation folds using a stable hash of either a key attribute or
+ * the full content of the instance, combined with a random seed. The same row always lands in the
+ * same fold (for a given seed and number of folds), regardless of the order in which rows arrive,
+ * so folds can be assigned on the fly while streaming without holding any data in memory.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class HashFoldAssigner {
+
+  protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  protected static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Number of folds
+   */
+  protected int m_numFolds;
+
+  /**
+   * Seed mixed into the hash
+   */
+  protected long m_seed;
+
+  /**
+   * Index of the key attribute, or -1 to hash the full row content
+   */
+  protected int m_keyIndex = -1;
+
+  /**
+   * Constructor
+   *
+   * @param numFolds the number of folds
+   * @param seed the seed to mix into the hash
+   * @param keyAttribute the key attribute to hash (null to hash the full row content)
+   */
+  public HashFoldAssigner(int numFolds, long seed, Attribute keyAttribute) {
+    if (numFolds < 2) {
+      throw new IllegalArgumentException("Number of folds must be at least 2!");
+    }
+    m_numFolds = numFolds;
+    m_seed = seed;
+    if (keyAttribute != null) {
+      m_keyIndex = keyAttribute.index();
+    }
+  }
+
+  /**
+   * Get the (zero-based) fold that an instance belongs to
+   *
+   * @param instance the instance
+   * @return the fold for the instance
+   */
+  public int assignFold(Instance instance) {
+    long hash = FNV_OFFSET;
+    if (m_keyIndex >= 0) {
+      hash = hashValue(hash, instance, m_keyIndex);
+    } else {
+      for (int i = 0; i < instance.numAttributes(); i++) {
+        hash = hashValue(hash, instance, i);
+      }
+    }
+    hash = mix(hash ^ mix(m_seed));
+    return (int) ((hash >>> 1) % m_numFolds);
+  }
+
+  protected static long hashValue(long hash, Instance instance, int index) {
+    if (instance.isMissing(index)) {
+      return hashLong(hash, Long.MIN_VALUE);
+    }
+    if (instance.attribute(index).isString() || instance.attribute(index).isNominal()) {
+      // hash labels rather than indexes, which can differ between headers
+      for (byte b : instance.stringValue(index).getBytes(StandardCharsets.UTF_8)) {
+        hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+      }
+      return hashLong(hash, 0);
+    }
+    return hashLong(hash, Double.doubleToLongBits(instance.value(index)));
+  }
+
+  protected static long hashLong(long hash, long value) {
+    for (int i = 0; i < 8; i++) {
+      hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Finalizer from the SplitMix64 generator, to spread the bits of the hash
+   */
+  protected static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
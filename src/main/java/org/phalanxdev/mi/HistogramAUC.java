@@ -0,0 +1,177 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.Serializable;
+import weka.core.Utils;
+
+/**
+ * Constant-memory approximation of the area under the ROC and precision-recall curves for each
+ * value of a nominal class. For each class value, the predicted probabilities of that class are
+ * accumulated (weighted) into fixed-width score histograms, one for instances that have the class
+ * value and one for those that don't. The curves are then computed using the bin boundaries as
+ * thresholds, with predictions that fall into the same bin treated as ties. Memory use depends
+ * only on the number of bins and class values, not on the number of predictions.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class HistogramAUC implements Serializable {
+
+  private static final long serialVersionUID = -3357310526860468470L;
+
+  /**
+   * Histograms (per class value) of the predicted probabilities for instances with the class value
+   */
+  protected double[][] m_positive;
+
+  /**
+   * Histograms (per class value) of the predicted probabilities for instances without the class
+   * value
+   */
+  protected double[][] m_negative;
+
+  /**
+   * Constructor
+   *
+   * @param numClasses the number of class values
+   * @param numBins the number of histogram bins (resolution) to use
+   */
+  public HistogramAUC(int numClasses, int numBins) {
+    if (numBins < 1) {
+      throw new IllegalArgumentException("Number of bins must be at least 1");
+    }
+    m_positive = new double[numClasses][numBins];
+    m_negative = new double[numClasses][numBins];
+  }
+
+  /**
+   * Get the number of bins in each histogram
+   *
+   * @return the number of bins
+   */
+  public int getNumBins() {
+    return m_positive[0].length;
+  }
+
+  /**
+   * Update with a prediction
+   *
+   * @param dist the predicted class distribution
+   * @param actualClass the index of the actual class value
+   * @param weight the weight of the instance
+   */
+  public void update(double[] dist, int actualClass, double weight) {
+    int numBins = getNumBins();
+    for (int i = 0; i < m_positive.length; i++) {
+      double p = i < dist.length ? dist[i] : 0;
+      if (Utils.isMissingValue(p)) {
+        continue;
+      }
+      int bin = (int) (p * numBins);
+      bin = bin < 0 ? 0 : (bin >= numBins ? numBins - 1 : bin);
+      if (i == actualClass) {
+        m_positive[i][bin] += weight;
+      } else {
+        m_negative[i][bin] += weight;
+      }
+    }
+  }
+
+  /**
+   * Add the histograms from another HistogramAUC (with the same number of classes and bins) to this
+   * one
+   *
+   * @param other the HistogramAUC to merge
+   */
+  public void merge(HistogramAUC other) {
+    if (other.m_positive.length != m_positive.length || other.getNumBins() != getNumBins()) {
+      throw new IllegalArgumentException("Can't merge histograms with different numbers of "
+          + "classes or bins");
+    }
+    for (int i = 0; i < m_positive.length; i++) {
+      for (int j = 0; j < m_positive[i].length; j++) {
+        m_positive[i][j] += other.m_positive[i][j];
+        m_negative[i][j] += other.m_negative[i][j];
+      }
+    }
+  }
+
+  /**
+   * Get the (approximate) area under the ROC curve for a class value
+   *
+   * @param classIndex the index of the class value
+   * @return the area under the ROC curve, or missing value if there are no positive or no negative
+   * instances
+   */
+  public double areaUnderROC(int classIndex) {
+    double[] pos = m_positive[classIndex];
+    double[] neg = m_negative[classIndex];
+    double totalPos = Utils.sum(pos);
+    double totalNeg = Utils.sum(neg);
+    if (totalPos == 0 || totalNeg == 0) {
+      return Utils.missingValue();
+    }
+
+    // sweep the threshold from high scores to low
+    double area = 0;
+    double posAbove = 0;
+    for (int j = pos.length - 1; j >= 0; j--) {
+      area += neg[j] * (posAbove + pos[j] / 2.0);
+      posAbove += pos[j];
+    }
+    return area / (totalPos * totalNeg);
+  }
+
+  /**
+   * Get the (approximate) area under the precision-recall curve for a class value
+   *
+   * @param classIndex the index of the class value
+   * @return the area under the precision-recall curve, or missing value if there are no positive
+   * instances
+   */
+  public double areaUnderPRC(int classIndex) {
+    double[] pos = m_positive[classIndex];
+    double[] neg = m_negative[classIndex];
+    double totalPos = Utils.sum(pos);
+    if (totalPos == 0) {
+      return Utils.missingValue();
+    }
+
+    double area = 0;
+    double tp = 0;
+    double fp = 0;
+    double prevRecall = 0;
+    double prevPrecision = -1;
+    for (int j = pos.length - 1; j >= 0; j--) {
+      if (pos[j] == 0 && neg[j] == 0) {
+        continue;
+      }
+      tp += pos[j];
+      fp += neg[j];
+      double recall = tp / totalPos;
+      double precision = tp / (tp + fp);
+      if (prevPrecision < 0) {
+        // curve starts at zero recall with the precision of the first threshold
+        prevPrecision = precision;
+      }
+      area += (recall - prevRecall) * (precision + prevPrecision) / 2.0;
+      prevRecall = recall;
+      prevPrecision = precision;
+    }
+    return area;
+  }
+}
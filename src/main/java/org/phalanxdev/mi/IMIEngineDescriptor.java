@@ -0,0 +1,42 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+/**
+ * Describes an engine without loading it. Implementations can be registered with {@code
+ * java.util.ServiceLoader} (in {@code META-INF/services/org.phalanxdev.mi.IMIEngineDescriptor}) to
+ * make additional engines known to PMIEngine. The engine class itself is only loaded, and its
+ * availability checked, when the engine is first used.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public interface IMIEngineDescriptor {
+
+  /**
+   * Get the name of the engine
+   *
+   * @return the name of the engine
+   */
+  String getEngineName();
+
+  /**
+   * Get the fully qualified name of the engine class (a subclass of PMIEngine)
+   *
+   * @return the name of the engine class
+   */
+  String getEngineClass();
+}
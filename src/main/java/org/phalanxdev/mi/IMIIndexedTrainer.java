@@ -0,0 +1,56 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+/**
+ * Interface for classifiers that can be trained on rows of a dataset that has already been
+ * transferred to an external engine, so that cross-validation folds only need to send the indexes
+ * of their training rows rather than a full copy of the data. The dataset is identified by a key
+ * (a fingerprint of the data, plus a token unique to the evaluation run, so that concurrent runs on
+ * the same data don't share a copy), and is released once all the folds that use it are done.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public interface IMIIndexedTrainer {
+
+  /**
+   * Returns true if the classifier can currently be trained on cached data. Callers check this
+   * before computing the dataset key, which requires a pass over the data.
+   *
+   * @return true if training on cached data is possible
+   */
+  boolean canTrainOnCachedData();
+
+  /**
+   * Train on the rows of a view's source data selected by the view. The source data is transferred
+   * to the engine (under the key) if it is not already there.
+   *
+   * @param train the training data, as a view of the source data
+   * @param datasetKey the key identifying the source data
+   * @return true if the classifier was trained; false if training on cached data is not possible
+   * (the caller should then train the classifier on the materialized data as usual)
+   * @throws Exception if a problem occurs during training
+   */
+  boolean buildClassifier(InstancesView train, String datasetKey) throws Exception;
+
+  /**
+   * Release a dataset held by the engine
+   *
+   * @param datasetKey the key identifying the dataset
+   */
+  void releaseDataset(String datasetKey);
+}
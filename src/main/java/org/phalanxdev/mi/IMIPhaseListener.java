@@ -0,0 +1,34 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+/**
+ * Interface for receiving resource usage metrics for each phase of an evaluation. Note that
+ * cross-validation folds may run concurrently, so implementations may be called from several
+ * threads at once.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public interface IMIPhaseListener {
+
+  /**
+   * Called when a phase of an evaluation completes
+   *
+   * @param metrics the metrics for the phase
+   */
+  void phaseComplete(PhaseMetrics metrics);
+}
@@ -0,0 +1,360 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.Random;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A lightweight, read-only view over a subset (and/or reordering) of an Instances object. The
+ * view is backed by an array of indexes into the source data, so shuffling, stratifying and
+ * splitting into folds does not copy (or modify) the source data. Shuffling, stratification and
+ * fold generation produce exactly the same orderings as the corresponding methods in Weka's
+ * Instances class.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class InstancesView {
+
+  /**
+   * The source data
+   */
+  protected Instances m_source;
+
+  /**
+   * Indexes into the source data
+   */
+  protected int[] m_indices;
+
+  /**
+   * Construct a view over all the instances in the source data (in their original order)
+   *
+   * @param source the source data
+   */
+  public InstancesView(Instances source) {
+    m_source = source;
+    m_indices = new int[source.numInstances()];
+    for (int i = 0; i < m_indices.length; i++) {
+      m_indices[i] = i;
+    }
+  }
+
+  /**
+   * Construct a view over the specified instances in the source data
+   *
+   * @param source the source data
+   * @param indices indexes of the instances (in the source data) to include in the view
+   */
+  public InstancesView(Instances source, int[] indices) {
+    m_source = source;
+    m_indices = indices;
+  }
+
+  /**
+   * Get the source data
+   *
+   * @return the source data
+   */
+  public Instances getSource() {
+    return m_source;
+  }
+
+  /**
+   * Get the indexes (into the source data) of the instances in this view
+   *
+   * @return the indexes of the instances in this view
+   */
+  public int[] getIndices() {
+    return m_indices;
+  }
+
+  /**
+   * Get the number of instances in this view
+   *
+   * @return the number of instances in this view
+   */
+  public int numInstances() {
+    return m_indices.length;
+  }
+
+  /**
+   * Get an instance from the view. Note that this is the actual instance from the source data (not
+   * a copy), so should not be modified.
+   *
+   * @param i the index (in this view) of the instance to get
+   * @return the instance
+   */
+  public Instance instance(int i) {
+    return m_source.instance(m_indices[i]);
+  }
+
+  /**
+   * Shuffle the view. Uses the same algorithm as {@code Instances.randomize()}.
+   *
+   * @param random the random number generator to use
+   */
+  public void randomize(Random random) {
+    for (int j = m_indices.length - 1; j > 0; j--) {
+      swap(j, random.nextInt(j + 1));
+    }
+  }
+
+  /**
+   * Stratify the view (if the class is nominal) in preparation for cross-validation. Uses the same
+   * algorithm as {@code Instances.stratify()}.
+   *
+   * @param numFolds the number of folds in the cross-validation
+   */
+  public void stratify(int numFolds) {
+    if (numFolds <= 1) {
+      throw new IllegalArgumentException("Number of folds must be greater than 1");
+    }
+    if (m_source.classIndex() < 0) {
+      throw new IllegalArgumentException("Class index is negative (not set)!");
+    }
+    if (!m_source.classAttribute().isNominal()) {
+      return;
+    }
+
+    // sort by class
+    int index = 1;
+    while (index < m_indices.length) {
+      Instance instance1 = instance(index - 1);
+      for (int j = index; j < m_indices.length; j++) {
+        Instance instance2 = instance(j);
+        if (instance1.classValue() == instance2.classValue()
+            || (instance1.classIsMissing() && instance2.classIsMissing())) {
+          swap(index, j);
+          index++;
+        }
+      }
+      index++;
+    }
+
+    // create stratified batch
+    int[] stratified = new int[m_indices.length];
+    int count = 0;
+    int start = 0;
+    while (count < m_indices.length) {
+      for (int j = start; j < m_indices.length; j += numFolds) {
+        stratified[count++] = m_indices[j];
+      }
+      start++;
+    }
+    m_indices = stratified;
+  }
+
+  /**
+   * Get a view of a contiguous range of this view
+   *
+   * @param first the index of the first instance
+   * @param num the number of instances
+   * @return a new view
+   */
+  public InstancesView subset(int first, int num) {
+    int[] indices = new int[num];
+    System.arraycopy(m_indices, first, indices, 0, num);
+    return new InstancesView(m_source, indices);
+  }
+
+  /**
+   * Get the test set for a cross-validation fold. Equivalent to {@code Instances.testCV()}.
+   *
+   * @param numFolds the number of folds
+   * @param numFold the (zero-based) fold to get
+   * @return a view of the test data
+   */
+  public InstancesView testCV(int numFolds, int numFold) {
+    int numInstForFold = foldSize(numFolds, numFold);
+    return subset(foldStart(numFolds, numFold), numInstForFold);
+  }
+
+  /**
+   * Get the training set for a cross-validation fold. Equivalent to {@code Instances.trainCV()}.
+   *
+   * @param numFolds the number of folds
+   * @param numFold the (zero-based) fold to get
+   * @param random random number generator to shuffle the training data with (may be null)
+   * @return a view of the training data
+   */
+  public InstancesView trainCV(int numFolds, int numFold, Random random) {
+    if (numFolds < 2) {
+      throw new IllegalArgumentException("Number of folds must be at least 2!");
+    }
+    if (numFolds > m_indices.length) {
+      throw new IllegalArgumentException("Can't have more folds than instances!");
+    }
+    int numInstForFold = foldSize(numFolds, numFold);
+    int first = foldStart(numFolds, numFold);
+    int[] indices = new int[m_indices.length - numInstForFold];
+    System.arraycopy(m_indices, 0, indices, 0, first);
+    System.arraycopy(m_indices, first + numInstForFold, indices, first,
+        m_indices.length - first - numInstForFold);
+
+    InstancesView train = new InstancesView(m_source, indices);
+    if (random != null) {
+      train.randomize(random);
+    }
+    return train;
+  }
+
+  /**
+   * Create an Instances object containing the instances in this view. If copy is false then the
+   * resulting Instances object contains the actual instances from the source data (only the list of
+   * references is new). This is safe for schemes that do not modify the individual instances that
+   * they are trained on. If copy is true, then each instance is (shallow) copied as per the standard
+   * {@code Instances.add()} method.
+   *
+   * @param copy true if each instance should be copied
+   * @return an Instances object
+   */
+  public Instances materialize(boolean copy) {
+    if (copy) {
+      Instances result = new Instances(m_source, m_indices.length);
+      for (int index : m_indices) {
+        result.add(m_source.instance(index));
+      }
+      return result;
+    }
+
+    return new SharedInstances(this);
+  }
+
+  /**
+   * Create an Instances object containing the instances in this view, but with the class value
+   * masked out (i.e. reported as missing). Dense instances are wrapped rather than copied, so the
+   * underlying attribute values are shared with the source data and are not duplicated. Suitable
+   * for passing to {@code BatchPredictor.distributionsForInstances()}. Any modification to the
+   * returned instances will not affect the source data.
+   *
+   * @return an Instances object with class values masked out
+   */
+  public Instances classMasked() {
+    return new ClassMaskedInstances(this);
+  }
+
+  /**
+   * Returns the size of a cross-validation test fold
+   */
+  protected int foldSize(int numFolds, int numFold) {
+    int numInstForFold = m_indices.length / numFolds;
+    if (numFold < m_indices.length % numFolds) {
+      numInstForFold++;
+    }
+    return numInstForFold;
+  }
+
+  /**
+   * Returns the index of the first instance of a cross-validation test fold
+   */
+  protected int foldStart(int numFolds, int numFold) {
+    int offset = numFold < m_indices.length % numFolds ? numFold : m_indices.length % numFolds;
+    return numFold * (m_indices.length / numFolds) + offset;
+  }
+
+  protected void swap(int i, int j) {
+    int temp = m_indices[i];
+    m_indices[i] = m_indices[j];
+    m_indices[j] = temp;
+  }
+
+  /**
+   * Instances that holds references to the instances in a view rather than copies
+   */
+  protected static class SharedInstances extends Instances {
+
+    private static final long serialVersionUID = -2957164237315389327L;
+
+    protected SharedInstances(InstancesView view) {
+      super(view.getSource(), view.numInstances());
+      for (int i = 0; i < view.numInstances(); i++) {
+        m_Instances.add(view.instance(i));
+      }
+    }
+  }
+
+  /**
+   * Instances that holds class-masked wrappers around the instances in a view
+   */
+  protected static class ClassMaskedInstances extends Instances {
+
+    private static final long serialVersionUID = 6010237318290447713L;
+
+    protected ClassMaskedInstances(InstancesView view) {
+      super(view.getSource(), view.numInstances());
+      for (int i = 0; i < view.numInstances(); i++) {
+        Instance source = view.instance(i);
+        Instance masked;
+        if (source instanceof DenseInstance) {
+          masked = new ClassMaskedInstance(source);
+        } else {
+          masked = (Instance) source.copy();
+          masked.setDataset(this);
+          masked.setClassMissing();
+        }
+        masked.setDataset(this);
+        m_Instances.add(masked);
+      }
+    }
+  }
+
+  /**
+   * A dense instance that shares its attribute values with another dense instance, but reports the
+   * class value as missing
+   */
+  protected static class ClassMaskedInstance extends DenseInstance {
+
+    private static final long serialVersionUID = -4453395707283407232L;
+
+    protected ClassMaskedInstance(Instance source) {
+      super(source);
+    }
+
+    protected boolean isClassIndex(int attIndex) {
+      return m_Dataset != null && attIndex == m_Dataset.classIndex();
+    }
+
+    @Override
+    public double value(int attIndex) {
+      return isClassIndex(attIndex) ? Utils.missingValue() : super.value(attIndex);
+    }
+
+    @Override
+    public double valueSparse(int indexOfIndex) {
+      return value(indexOfIndex);
+    }
+
+    @Override
+    public double[] toDoubleArray() {
+      double[] values = super.toDoubleArray();
+      if (m_Dataset != null && m_Dataset.classIndex() >= 0) {
+        values[m_Dataset.classIndex()] = Utils.missingValue();
+      }
+      return values;
+    }
+
+    @Override
+    public Object copy() {
+      DenseInstance copy = new DenseInstance(weight(), toDoubleArray());
+      copy.setDataset(m_Dataset);
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.Serializable;
+import weka.core.Utils;
+
+/**
+ * Constant-memory histogram of prediction latencies (in nanoseconds). Buckets are spaced
+ * logarithmically, so that percentiles are accurate to within about 2.5% (relative) over the range
+ * of one nanosecond to several hours. Also tracks the total number of predictions and the total
+ * time spent making them, for computing throughput.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class LatencyHistogram implements Serializable {
+
+  private static final long serialVersionUID = 7150287913432922567L;
+
+  /**
+   * Ratio between the upper and lower bounds of each bucket
+   */
+  protected static final double BUCKET_RATIO = 1.05;
+
+  protected static final double LOG_BUCKET_RATIO = Math.log(BUCKET_RATIO);
+
+  /**
+   * Number of buckets - enough to cover latencies up to ~10^13 nanoseconds
+   */
+  protected static final int NUM_BUCKETS = 620;
+
+  /**
+   * Number of predictions in each bucket
+   */
+  protected long[] m_counts = new long[NUM_BUCKETS];
+
+  /**
+   * Total number of predictions
+   */
+  protected long m_totalCount;
+
+  /**
+   * Total time (nanoseconds) spent making predictions
+   */
+  protected long m_totalNanos;
+
+  /**
+   * Record the latency of a single prediction
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    record(nanos, 1);
+  }
+
+  /**
+   * Record the latency of a batch of predictions. Each prediction in the batch is assigned the
+   * average latency of the batch.
+   *
+   * @param totalNanos the time taken to make the whole batch of predictions, in nanoseconds
+   * @param count the number of predictions in the batch
+   */
+  public void record(long totalNanos, long count) {
+    if (count <= 0) {
+      return;
+    }
+    m_counts[bucket(totalNanos / count)] += count;
+    m_totalCount += count;
+    m_totalNanos += totalNanos;
+  }
+
+  protected static int bucket(long nanos) {
+    if (nanos <= 1) {
+      return 0;
+    }
+    int bucket = (int) (Math.log(nanos) / LOG_BUCKET_RATIO);
+    return bucket >= NUM_BUCKETS ? NUM_BUCKETS - 1 : bucket;
+  }
+
+  /**
+   * Add the counts from another histogram to this one
+   *
+   * @param other the histogram to merge
+   */
+  public void merge(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      m_counts[i] += other.m_counts[i];
+    }
+    m_totalCount += other.m_totalCount;
+    m_totalNanos += other.m_totalNanos;
+  }
+
+  /**
+   * Get the total number of predictions recorded
+   *
+   * @return the number of predictions
+   */
+  public long getCount() {
+    return m_totalCount;
+  }
+
+  /**
+   * Get an (approximate) percentile of the recorded latencies
+   *
+   * @param percentile the percentile to get (between 0 and 100)
+   * @return the latency (in nanoseconds) at the percentile, or missing value if nothing has been
+   * recorded
+   */
+  public double getPercentile(double percentile) {
+    if (m_totalCount == 0) {
+      return Utils.missingValue();
+    }
+    double target = Math.max(1, Math.ceil(m_totalCount * percentile / 100.0));
+    long cumulative = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      cumulative += m_counts[i];
+      if (cumulative >= target) {
+        // geometric midpoint of the bucket
+        return Math.exp((i + 0.5) * LOG_BUCKET_RATIO);
+      }
+    }
+    return Math.exp((NUM_BUCKETS - 0.5) * LOG_BUCKET_RATIO);
+  }
+
+  /**
+   * Get the throughput (predictions per second of prediction time)
+   *
+   * @return the number of predictions per second, or missing value if nothing has been recorded
+   */
+  public double getThroughput() {
+    return m_totalNanos > 0 ? m_totalCount / (m_totalNanos / 1e9) : Utils.missingValue();
+  }
+}
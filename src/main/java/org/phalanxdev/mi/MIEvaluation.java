@@ -0,0 +1,187 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import weka.classifiers.evaluation.AggregateableEvaluation;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Evaluation used by the Evaluator. Extends Weka's AggregateableEvaluation with optional
+ * accumulators that are updated with every prediction made, regardless of whether predictions are
+ * being recorded, and that are merged when evaluations are aggregated.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class MIEvaluation extends AggregateableEvaluation {
+
+  private static final long serialVersionUID = 2238180640916591006L;
+
+  /**
+   * Constant-memory AUC estimator (null if not in use)
+   */
+  protected HistogramAUC m_histogramAUC;
+
+  /**
+   * Compact store of predictions (null if not in use)
+   */
+  protected PredictionStore m_predictionStore;
+
+  /**
+   * Prediction latencies (null if not in use)
+   */
+  protected LatencyHistogram m_latencies;
+
+  /**
+   * Constructor
+   *
+   * @param data the training data (or header) to initialize with
+   * @throws Exception if a problem occurs
+   */
+  public MIEvaluation(Instances data) throws Exception {
+    super(data);
+  }
+
+  /**
+   * Constructs a new evaluation with the same configuration (including the accumulators in use, if
+   * the supplied evaluation is an MIEvaluation) as the supplied evaluation. No statistics are
+   * copied.
+   *
+   * @param eval the evaluation to copy the configuration from
+   * @throws Exception if a problem occurs
+   */
+  public MIEvaluation(Evaluation eval) throws Exception {
+    super(eval);
+    if (eval instanceof MIEvaluation && ((MIEvaluation) eval).m_histogramAUC != null) {
+      setAUCHistogramBins(((MIEvaluation) eval).m_histogramAUC.getNumBins());
+    }
+    if (eval instanceof MIEvaluation && ((MIEvaluation) eval).m_predictionStore != null) {
+      setStorePredictions(true);
+    }
+    if (eval instanceof MIEvaluation && ((MIEvaluation) eval).m_latencies != null) {
+      setRecordLatencies(true);
+    }
+  }
+
+  /**
+   * Set the number of bins to use for constant-memory AUC estimation. Has no effect if the class is
+   * not nominal, or if the estimator has already been created.
+   *
+   * @param numBins the number of bins to use (0 for no AUC estimation)
+   */
+  public void setAUCHistogramBins(int numBins) {
+    if (numBins > 0 && m_histogramAUC == null && m_ClassIsNominal) {
+      m_histogramAUC = new HistogramAUC(m_NumClasses, numBins);
+    }
+  }
+
+  /**
+   * Get the constant-memory AUC estimator
+   *
+   * @return the AUC estimator, or null if not in use
+   */
+  public HistogramAUC getHistogramAUC() {
+    return m_histogramAUC;
+  }
+
+  /**
+   * Set whether to store predictions in a compact PredictionStore. Has no effect if the store has
+   * already been created.
+   *
+   * @param store true to store predictions
+   */
+  public void setStorePredictions(boolean store) {
+    if (store && m_predictionStore == null) {
+      m_predictionStore = new PredictionStore(getHeader().classAttribute());
+    }
+  }
+
+  /**
+   * Get the compact prediction store
+   *
+   * @return the prediction store, or null if not in use
+   */
+  public PredictionStore getPredictionStore() {
+    return m_predictionStore;
+  }
+
+  /**
+   * Set whether to keep a histogram of prediction latencies. Latencies are supplied by the caller
+   * via {@code recordLatency()}. Has no effect if the histogram has already been created.
+   *
+   * @param record true to record latencies
+   */
+  public void setRecordLatencies(boolean record) {
+    if (record && m_latencies == null) {
+      m_latencies = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Get the histogram of prediction latencies
+   *
+   * @return the latency histogram, or null if not in use
+   */
+  public LatencyHistogram getLatencies() {
+    return m_latencies;
+  }
+
+  /**
+   * Record the time taken to make one or more predictions (no-op if latencies are not being
+   * recorded)
+   *
+   * @param totalNanos the time taken, in nanoseconds
+   * @param count the number of predictions made in that time
+   */
+  public void recordLatency(long totalNanos, long count) {
+    if (m_latencies != null) {
+      m_latencies.record(totalNanos, count);
+    }
+  }
+
+  @Override
+  public double evaluationForSingleInstance(double[] dist, Instance instance,
+      boolean storePredictions) throws Exception {
+    double pred = super.evaluationForSingleInstance(dist, instance, storePredictions);
+    if (m_histogramAUC != null && !instance.classIsMissing()) {
+      m_histogramAUC.update(dist, (int) instance.classValue(), instance.weight());
+    }
+    if (m_predictionStore != null && !instance.classIsMissing()) {
+      m_predictionStore.add(instance.classValue(), pred, dist, instance.weight());
+    }
+    return pred;
+  }
+
+  @Override
+  public AggregateableEvaluation aggregate(Evaluation evaluation) {
+    super.aggregate(evaluation);
+    if (m_histogramAUC != null && evaluation instanceof MIEvaluation
+        && ((MIEvaluation) evaluation).m_histogramAUC != null) {
+      m_histogramAUC.merge(((MIEvaluation) evaluation).m_histogramAUC);
+    }
+    if (m_predictionStore != null && evaluation instanceof MIEvaluation
+        && ((MIEvaluation) evaluation).m_predictionStore != null) {
+      m_predictionStore.addAll(((MIEvaluation) evaluation).m_predictionStore);
+    }
+    if (m_latencies != null && evaluation instanceof MIEvaluation
+        && ((MIEvaluation) evaluation).m_latencies != null) {
+      m_latencies.merge(((MIEvaluation) evaluation).m_latencies);
+    }
+    return this;
+  }
+}
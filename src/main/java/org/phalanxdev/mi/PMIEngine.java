@@ -23,9 +23,19 @@ import org.phalanxdev.mi.engines.REngine;
 import org.phalanxdev.mi.engines.WekaEngine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract base class for an engine.
@@ -49,62 +59,267 @@ public abstract class PMIEngine {
    */
   protected static final String SUPPORTED_ENGINE_ENV_KEY = "ORG_PHALANXDEV_MI_ENGINES";
 
-  protected static Map<String, String> s_availableEngines = new LinkedHashMap<>();
+  /**
+   * Available engines (engine name to engine class), as determined by the last full discovery.
+   * Replaced as a whole (rather than modified), so it can be read without locking
+   */
+  protected static volatile Map<String, String> s_availableEngines = new LinkedHashMap<>();
 
-  public synchronized static void init() {
-    if ( s_availableEngines.size() == 0 ) {
+  /**
+   * Known engines (engine name to engine class), registered without loading or probing them
+   */
+  protected static volatile Map<String, String> s_engineDescriptors;
 
-      String engineNames = System.getProperty( SUPPORTED_ENGINE_PROPERTY_KEY, "" );
-      if ( engineNames.length() == 0 ) {
-        engineNames = System.getenv( SUPPORTED_ENGINE_ENV_KEY );
-      }
-      // List<String> availableEngines = new ArrayList<>();
-      if ( engineNames != null && engineNames.length() > 0 ) {
-        String[] names = engineNames.split( "," );
-        for ( String n : names ) {
-          String[] eParts = n.split( ":" );
-          String eName = eParts[0].trim();
-          String eClass = eParts[1].trim();
-          try {
-            instantiateEngine( eClass );
-            s_availableEngines.put( eName, eClass );
-          } catch ( Exception e ) {
-            e.printStackTrace();
-          }
-        }
-      }
+  /**
+   * True if the known engines were specified via the property/environment variable
+   */
+  protected static volatile boolean s_descriptorsFromProperty;
 
-      // nothing specified in the supported engine key, so add all the defaults
-      if ( s_availableEngines.size() == 0 ) {
-        s_availableEngines.put( WekaEngine.ENGINE_NAME, WekaEngine.ENGINE_CLASS );
-        try {
-          instantiateEngine(PythonEngine.ENGINE_CLASS);
-          s_availableEngines.put(PythonEngine.ENGINE_NAME, PythonEngine.ENGINE_CLASS);
-        } catch (Exception e) {
-          // ingore - don't add if this engine is not available
-        }
-        try {
-          instantiateEngine(REngine.ENGINE_CLASS);
-          s_availableEngines.put(REngine.ENGINE_NAME, REngine.ENGINE_CLASS);
-        } catch (Exception e) {
+  /**
+   * True once a full discovery of the available engines has been performed
+   */
+  protected static volatile boolean s_initialized;
+
+  /**
+   * Cached engine instances and availability results, keyed by engine class
+   */
+  protected static final ConcurrentMap<String, EngineProbe> s_engineCache = new ConcurrentHashMap<>();
+
+  /**
+   * How long (in milliseconds) engine availability results are cached for. Zero (the default)
+   * caches results until {@code refresh()} is called. Applies both to individual engines (see
+   * {@code getEngine()}) and to the listing of available engines (see {@code getEngineNames()})
+   */
+  protected static volatile long s_availabilityTTL;
+
+  /**
+   * When the last full discovery of the available engines was performed
+   */
+  protected static volatile long s_discoveryTime;
+
+  /**
+   * Maximum time (in milliseconds) to wait for engines to be probed during a full discovery
+   */
+  protected static volatile long s_discoveryTimeout = 30000;
+
+  /**
+   * Get the default engines (engine name to engine class). Class literals are used, rather than the
+   * engines' ENGINE_CLASS constants, so that the engine classes are not initialized (and their
+   * static availability checks are not run) until they are used
+   *
+   * @return the default engines
+   */
+  protected static Map<String, String> defaultEngineDescriptors() {
+    Map<String, String> defaults = new LinkedHashMap<>();
+    defaults.put( WekaEngine.ENGINE_NAME, WekaEngine.class.getCanonicalName() );
+    defaults.put( PythonEngine.ENGINE_NAME, PythonEngine.class.getCanonicalName() );
+    defaults.put( REngine.ENGINE_NAME, REngine.class.getCanonicalName() );
+    defaults.put( MLlibEngine.ENGINE_NAME, MLlibEngine.class.getCanonicalName() );
+    defaults.put( DL4jEngine.ENGINE_NAME, DL4jEngine.class.getCanonicalName() );
+    defaults.put( KerasEngine.ENGINE_NAME, KerasEngine.class.getCanonicalName() );
+    for ( IMIEngineDescriptor descriptor : ServiceLoader.load( IMIEngineDescriptor.class ) ) {
+      defaults.put( descriptor.getEngineName(), descriptor.getEngineClass() );
+    }
+    return defaults;
+  }
+
+  /**
+   * Get the known engines, registering them (from the property/environment variable list, or the
+   * defaults plus any ServiceLoader descriptors) if this has not been done yet. No engine classes
+   * are loaded or probed
+   *
+   * @return the known engines (engine name to engine class)
+   */
+  protected static Map<String, String> engineDescriptors() {
+    Map<String, String> descriptors = s_engineDescriptors;
+    if ( descriptors != null ) {
+      return descriptors;
+    }
+    synchronized ( PMIEngine.class ) {
+      if ( s_engineDescriptors == null ) {
+        Map<String, String> registered = new LinkedHashMap<>();
+        String engineNames = System.getProperty( SUPPORTED_ENGINE_PROPERTY_KEY, "" );
+        if ( engineNames.length() == 0 ) {
+          engineNames = System.getenv( SUPPORTED_ENGINE_ENV_KEY );
         }
-        try {
-          instantiateEngine(MLlibEngine.ENGINE_CLASS);
-          s_availableEngines.put(MLlibEngine.ENGINE_NAME, MLlibEngine.ENGINE_CLASS);
-        } catch (Exception e) {
+        if ( engineNames != null && engineNames.length() > 0 ) {
+          for ( String n : engineNames.split( "," ) ) {
+            String[] eParts = n.split( ":" );
+            if ( eParts.length == 2 ) {
+              registered.put( eParts[0].trim(), eParts[1].trim() );
+            }
+          }
         }
-        try {
-          instantiateEngine(DL4jEngine.ENGINE_CLASS);
-          s_availableEngines.put(DL4jEngine.ENGINE_NAME, DL4jEngine.ENGINE_CLASS);
-        } catch (Exception e) {
+        s_descriptorsFromProperty = registered.size() > 0;
+        if ( !s_descriptorsFromProperty ) {
+          registered = defaultEngineDescriptors();
         }
-        try {
-          instantiateEngine(KerasEngine.ENGINE_CLASS);
-          s_availableEngines.put( KerasEngine.ENGINE_NAME, KerasEngine.ENGINE_CLASS );
-        } catch (Exception e) {
+        s_engineDescriptors = Collections.unmodifiableMap( registered );
+      }
+      return s_engineDescriptors;
+    }
+  }
+
+  /**
+   * Determine which of the known engines are available, if this has not been done already. Engines
+   * are probed in parallel; any that have not finished probing within the discovery timeout are
+   * treated as unavailable (their probes carry on in the background, and the engines can still be
+   * obtained via {@code getEngine()} once available). If engines were specified via the
+   * property/environment variable and none of them are available, the default engines are used.
+   */
+  public static void init() {
+    if ( s_initialized && !discoveryExpired() ) {
+      return;
+    }
+    synchronized ( PMIEngine.class ) {
+      if ( s_initialized && !discoveryExpired() ) {
+        return;
+      }
+      Map<String, String> availableEngines = probeAll( engineDescriptors() );
+      if ( availableEngines.size() == 0 && s_descriptorsFromProperty ) {
+        availableEngines = probeAll( defaultEngineDescriptors() );
+      }
+      s_availableEngines = Collections.unmodifiableMap( availableEngines );
+      s_discoveryTime = System.currentTimeMillis();
+      s_initialized = true;
+    }
+  }
+
+  /**
+   * Returns true if the result of the last full discovery is older than the availability TTL
+   *
+   * @return true if the available engines should be determined again
+   */
+  protected static boolean discoveryExpired() {
+    long ttl = s_availabilityTTL;
+    return ttl > 0 && System.currentTimeMillis() - s_discoveryTime > ttl;
+  }
+
+  /**
+   * Probe a set of engines in parallel
+   *
+   * @param descriptors the engines to probe (engine name to engine class)
+   * @return the engines that are available, in the same order
+   */
+  protected static Map<String, String> probeAll( Map<String, String> descriptors ) {
+    ExecutorService executor = Executors.newCachedThreadPool( new ThreadFactory() {
+      @Override public Thread newThread( Runnable r ) {
+        Thread t = new Thread( r, "PMIEngine discovery" );
+        // don't hold up JVM exit because of a hung probe
+        t.setDaemon( true );
+        return t;
+      }
+    } );
+    Map<String, Future<PMIEngine>> probes = new LinkedHashMap<>();
+    for ( Map.Entry<String, String> e : descriptors.entrySet() ) {
+      final String engineClass = e.getValue();
+      probes.put( e.getKey(), executor.submit( new Callable<PMIEngine>() {
+        @Override public PMIEngine call() throws Exception {
+          return probeEngine( engineClass );
         }
+      } ) );
+    }
+    executor.shutdown();
+
+    Map<String, String> available = new LinkedHashMap<>();
+    long deadline = System.currentTimeMillis() + s_discoveryTimeout;
+    for ( Map.Entry<String, Future<PMIEngine>> e : probes.entrySet() ) {
+      try {
+        e.getValue().get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        available.put( e.getKey(), descriptors.get( e.getKey() ) );
+      } catch ( InterruptedException ex ) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch ( Exception ex ) {
+        // ignore - don't add if this engine is not available (or is taking too long to probe)
+      }
+    }
+    return available;
+  }
+
+  /**
+   * Set the maximum time to wait for engines to be probed when determining which engines are
+   * available
+   *
+   * @param millis the timeout in milliseconds
+   */
+  public static void setDiscoveryTimeout( long millis ) {
+    s_discoveryTimeout = millis;
+  }
+
+  /**
+   * Get the maximum time to wait for engines to be probed when determining which engines are
+   * available
+   *
+   * @return the timeout in milliseconds
+   */
+  public static long getDiscoveryTimeout() {
+    return s_discoveryTimeout;
+  }
+
+  /**
+   * Discard all cached engines and availability results. The available engines are determined
+   * afresh on next use (e.g. after installing a package that provides an engine)
+   */
+  public static void refresh() {
+    synchronized ( PMIEngine.class ) {
+      s_engineCache.clear();
+      s_availableEngines = new LinkedHashMap<>();
+      s_engineDescriptors = null;
+      s_initialized = false;
+    }
+  }
+
+  /**
+   * Discard the cached instance and availability result for the named engine, so that it is
+   * instantiated and probed again on next use
+   *
+   * @param name the name of the engine to refresh
+   */
+  public static void refresh( String name ) {
+    String engineClass = lookupEngineClass( name );
+    if ( engineClass != null ) {
+      s_engineCache.remove( engineClass );
+    }
+  }
+
+  /**
+   * Set how long engine availability results are cached for
+   *
+   * @param millis the time to live in milliseconds (zero or less to cache until {@code refresh()})
+   */
+  public static void setAvailabilityTTL( long millis ) {
+    s_availabilityTTL = millis;
+  }
+
+  /**
+   * Get how long engine availability results are cached for
+   *
+   * @return the time to live in milliseconds (zero or less caches until {@code refresh()})
+   */
+  public static long getAvailabilityTTL() {
+    return s_availabilityTTL;
+  }
+
+  /**
+   * Get the cached instance of an engine class, instantiating it and checking its availability if
+   * this has not been done yet (or the cached result has expired). Concurrent lookups of different
+   * engines do not block each other, and an engine is only probed by one thread at a time.
+   *
+   * @param engineClass the name of the engine class
+   * @return the engine
+   * @throws Exception if the engine can't be instantiated or is not available
+   */
+  protected static PMIEngine probeEngine( String engineClass ) throws Exception {
+    EngineProbe probe = s_engineCache.get( engineClass );
+    if ( probe == null ) {
+      EngineProbe fresh = new EngineProbe( engineClass );
+      probe = s_engineCache.putIfAbsent( engineClass, fresh );
+      if ( probe == null ) {
+        probe = fresh;
       }
     }
+    return probe.get();
   }
 
   /**
@@ -137,30 +352,45 @@ public abstract class PMIEngine {
       throw new InstantiationException( engineClass + " is not a subclass of PMIEngine!" );
     }
 
+    checkEngineAvailable( (PMIEngine) engine, engineClass );
+    return (PMIEngine) engine;
+  }
+
+  /**
+   * Check that an engine is available
+   *
+   * @param engine the engine to check
+   * @param engineClass the name of the engine class
+   * @throws UnsupportedEngineException if the engine is not available
+   */
+  protected static void checkEngineAvailable( PMIEngine engine, String engineClass ) throws UnsupportedEngineException {
     List<String> messages = new ArrayList<>();
-    if ( !( (PMIEngine) engine ).engineAvailable( messages ) ) {
+    if ( !engine.engineAvailable( messages ) ) {
       String exS = engineClass + " is not available:\n\n";
       for ( String s : messages ) {
         exS += s;
       }
       throw new UnsupportedEngineException( exS );
     }
-
-    return (PMIEngine) engine;
   }
 
   /**
-   * Get the named engine
+   * Get the named engine. Only the named engine is loaded and probed (on first use) - other
+   * engines are not touched. Engines are singletons - the instance is cached, and the result of
+   * checking its availability is cached subject to the availability TTL (once expired, the
+   * availability of the cached instance is checked again)
    *
    * @param name the name of the engine to get
    * @return the named engine
    * @throws UnsupportedEngineException if the named engine is not known/supported
    */
   public static PMIEngine getEngine( String name ) throws UnsupportedEngineException {
-    String engineClass = s_availableEngines.get( name );
+    String engineClass = lookupEngineClass( name );
     if ( engineClass != null ) {
       try {
-        return instantiateEngine( engineClass );
+        return probeEngine( engineClass );
+      } catch ( UnsupportedEngineException ex ) {
+        throw ex;
       } catch ( Exception ex ) {
         throw new UnsupportedEngineException( ex );
       }
@@ -169,6 +399,21 @@ public abstract class PMIEngine {
     throw new UnsupportedEngineException( "Unknown engine '" + name + "'" );
   }
 
+  /**
+   * Get the class of a named engine, without loading or probing it
+   *
+   * @param name the name of the engine
+   * @return the name of the engine class, or null if the engine is not known
+   */
+  protected static String lookupEngineClass( String name ) {
+    String engineClass = engineDescriptors().get( name );
+    if ( engineClass == null ) {
+      // may be a default engine that was fallen back to during discovery
+      engineClass = s_availableEngines.get( name );
+    }
+    return engineClass;
+  }
+
   /**
    * Get the name of the engine supported by this concrete implementation
    *
@@ -201,4 +446,73 @@ public abstract class PMIEngine {
    * @throws UnsupportedSchemeException  if this concrete engine implementation does not support the named scheme
    */
   public abstract Scheme getScheme( String schemeName ) throws EngineNotAvailableException, UnsupportedSchemeException;
+
+  /**
+   * The cached result of instantiating an engine and checking its availability
+   */
+  protected static class EngineProbe {
+
+    /**
+     * The engine class
+     */
+    protected final String m_engineClass;
+
+    /**
+     * The engine instance (null if it could not be instantiated)
+     */
+    protected PMIEngine m_engine;
+
+    /**
+     * The reason the engine is not available (null if it is available)
+     */
+    protected Exception m_failure;
+
+    /**
+     * When the engine was probed (0 = not probed yet)
+     */
+    protected long m_probeTime;
+
+    /**
+     * Constructor
+     *
+     * @param engineClass the engine class
+     */
+    protected EngineProbe( String engineClass ) {
+      m_engineClass = engineClass;
+    }
+
+    /**
+     * Get the engine, probing it first if necessary
+     *
+     * @return the engine
+     * @throws Exception if the engine can't be instantiated or is not available
+     */
+    protected synchronized PMIEngine get() throws Exception {
+      long ttl = s_availabilityTTL;
+      if ( m_probeTime == 0 || ( ttl > 0 && System.currentTimeMillis() - m_probeTime > ttl ) ) {
+        m_failure = null;
+        try {
+          if ( m_engine == null ) {
+            Object engine = Class.forName( m_engineClass ).newInstance();
+            if ( !( engine instanceof PMIEngine ) ) {
+              throw new InstantiationException( m_engineClass + " is not a subclass of PMIEngine!" );
+            }
+            m_engine = (PMIEngine) engine;
+          }
+          // the instance is kept - only its availability is checked again
+          checkEngineAvailable( m_engine, m_engineClass );
+        } catch ( Exception ex ) {
+          m_failure = ex;
+        }
+        m_probeTime = System.currentTimeMillis();
+      }
+      if ( m_failure != null ) {
+        if ( m_failure instanceof UnsupportedEngineException ) {
+          throw new UnsupportedEngineException( m_failure.getMessage(), m_failure );
+        }
+        throw new UnsupportedEngineException( m_failure );
+      }
+      return m_engine;
+    }
+  }
 }
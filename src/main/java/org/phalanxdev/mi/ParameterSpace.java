@@ -0,0 +1,334 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A space of scheme parameter settings to search over when tuning. Each dimension is keyed by the
+ * name of a property, as exposed by {@code SchemeUtils.getSchemeParameters()}, and is either a
+ * numeric range (optionally integer valued and/or on a log scale) or a list of choices. Values are
+ * produced as strings, in the same form as the "value" entries of a scheme's property map.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class ParameterSpace implements Serializable {
+
+  private static final long serialVersionUID = -6118391337208574211L;
+
+  /**
+   * The dimensions of the space, keyed by property name
+   */
+  protected Map<String, Dimension> m_dimensions = new LinkedHashMap<>();
+
+  /**
+   * Add a numeric range with real values on a linear scale
+   *
+   * @param property the name of the property
+   * @param min the minimum value
+   * @param max the maximum value
+   * @param steps the number of values to use from the range for grid search
+   * @return this parameter space
+   */
+  public ParameterSpace addRange(String property, double min, double max, int steps) {
+    return addRange(property, min, max, steps, false, false);
+  }
+
+  /**
+   * Add a numeric range
+   *
+   * @param property the name of the property
+   * @param min the minimum value
+   * @param max the maximum value
+   * @param steps the number of values to use from the range for grid search
+   * @param integer true if the property takes integer values
+   * @param log true if values should be spaced on a log scale (min must be greater than 0)
+   * @return this parameter space
+   */
+  public ParameterSpace addRange(String property, double min, double max, int steps,
+      boolean integer, boolean log) {
+    if (max < min) {
+      throw new IllegalArgumentException("Range for " + property + " has max < min");
+    }
+    if (log && min <= 0) {
+      throw new IllegalArgumentException("Log scale range for " + property
+          + " must have min > 0");
+    }
+    Dimension d = new Dimension(property);
+    d.m_min = min;
+    d.m_max = max;
+    d.m_steps = Math.max(1, steps);
+    d.m_integer = integer;
+    d.m_log = log;
+    m_dimensions.put(property, d);
+    return this;
+  }
+
+  /**
+   * Add a list of choices
+   *
+   * @param property the name of the property
+   * @param values the values to choose from
+   * @return this parameter space
+   */
+  public ParameterSpace addChoices(String property, String... values) {
+    if (values == null || values.length == 0) {
+      throw new IllegalArgumentException("No choices supplied for " + property);
+    }
+    Dimension d = new Dimension(property);
+    d.m_choices = new ArrayList<>(Arrays.asList(values));
+    m_dimensions.put(property, d);
+    return this;
+  }
+
+  /**
+   * Get the names of the properties in this space, in the order they were added
+   *
+   * @return the property names
+   */
+  public List<String> getPropertyNames() {
+    return new ArrayList<>(m_dimensions.keySet());
+  }
+
+  /**
+   * Get a dimension of the space
+   *
+   * @param property the name of the property
+   * @return the dimension, or null if the property is not part of this space
+   */
+  public Dimension getDimension(String property) {
+    return m_dimensions.get(property);
+  }
+
+  /**
+   * Get the number of dimensions in the space
+   *
+   * @return the number of dimensions
+   */
+  public int numDimensions() {
+    return m_dimensions.size();
+  }
+
+  /**
+   * Get the number of points in the full grid
+   *
+   * @return the number of grid points
+   */
+  public long getGridSize() {
+    long size = 1;
+    for (Dimension d : m_dimensions.values()) {
+      size *= d.getGridValues().size();
+    }
+    return size;
+  }
+
+  /**
+   * Enumerate all the points of the grid. The last dimension added varies fastest.
+   *
+   * @return a list of parameter settings (property name to value)
+   */
+  public List<Map<String, String>> grid() {
+    List<Map<String, String>> points = new ArrayList<>();
+    points.add(new LinkedHashMap<String, String>());
+    for (Dimension d : m_dimensions.values()) {
+      List<Map<String, String>> expanded = new ArrayList<>();
+      for (Map<String, String> point : points) {
+        for (String value : d.getGridValues()) {
+          Map<String, String> p = new LinkedHashMap<>(point);
+          p.put(d.getProperty(), value);
+          expanded.add(p);
+        }
+      }
+      points = expanded;
+    }
+    return points;
+  }
+
+  /**
+   * Draw a random point from the space. Numeric ranges are sampled continuously (uniformly on the
+   * log scale for log ranges), rather than from the grid values.
+   *
+   * @param r the source of randomness
+   * @return a parameter setting (property name to value)
+   */
+  public Map<String, String> sample(Random r) {
+    double[] unit = new double[m_dimensions.size()];
+    for (int i = 0; i < unit.length; i++) {
+      unit[i] = r.nextDouble();
+    }
+    return fromUnit(unit);
+  }
+
+  /**
+   * Map a point in the unit hypercube (one coordinate in [0,1] per dimension) to a parameter
+   * setting
+   *
+   * @param unit the coordinates of the point
+   * @return a parameter setting (property name to value)
+   */
+  public Map<String, String> fromUnit(double[] unit) {
+    Map<String, String> point = new LinkedHashMap<>();
+    int i = 0;
+    for (Dimension d : m_dimensions.values()) {
+      point.put(d.getProperty(), d.valueAt(unit[i++]));
+    }
+    return point;
+  }
+
+  /**
+   * Map a parameter setting to a point in the unit hypercube
+   *
+   * @param point the parameter setting (property name to value)
+   * @return the coordinates of the point
+   */
+  public double[] toUnit(Map<String, String> point) {
+    double[] unit = new double[m_dimensions.size()];
+    int i = 0;
+    for (Dimension d : m_dimensions.values()) {
+      unit[i++] = d.unitOf(point.get(d.getProperty()));
+    }
+    return unit;
+  }
+
+  /**
+   * A single dimension of the parameter space
+   */
+  public static class Dimension implements Serializable {
+
+    private static final long serialVersionUID = 2874611570368015390L;
+
+    /**
+     * The name of the property
+     */
+    protected String m_property;
+
+    /**
+     * Bounds of a numeric range
+     */
+    protected double m_min;
+    protected double m_max;
+
+    /**
+     * Number of grid values to take from a numeric range
+     */
+    protected int m_steps;
+
+    /**
+     * True if a numeric range is integer valued
+     */
+    protected boolean m_integer;
+
+    /**
+     * True if a numeric range is on a log scale
+     */
+    protected boolean m_log;
+
+    /**
+     * The choices (null for a numeric range)
+     */
+    protected List<String> m_choices;
+
+    protected Dimension(String property) {
+      m_property = property;
+    }
+
+    /**
+     * Get the name of the property
+     *
+     * @return the property name
+     */
+    public String getProperty() {
+      return m_property;
+    }
+
+    /**
+     * Returns true if this dimension is a numeric range
+     *
+     * @return true if this is a numeric range
+     */
+    public boolean isNumeric() {
+      return m_choices == null;
+    }
+
+    /**
+     * Get the values to use for grid search
+     *
+     * @return the grid values (distinct, in increasing order for a numeric range)
+     */
+    public List<String> getGridValues() {
+      if (!isNumeric()) {
+        return new ArrayList<>(m_choices);
+      }
+      List<String> values = new ArrayList<>();
+      for (int i = 0; i < m_steps; i++) {
+        String value = valueAt(m_steps == 1 ? 0 : (double) i / (m_steps - 1));
+        if (!values.contains(value)) {
+          values.add(value);
+        }
+      }
+      return values;
+    }
+
+    /**
+     * Get the value at a position in this dimension
+     *
+     * @param u the position, between 0 and 1
+     * @return the value
+     */
+    public String valueAt(double u) {
+      u = u < 0 ? 0 : (u > 1 ? 1 : u);
+      if (!isNumeric()) {
+        int index = (int) (u * m_choices.size());
+        return m_choices.get(Math.min(index, m_choices.size() - 1));
+      }
+      double value = m_log ? Math.exp(Math.log(m_min) + u * (Math.log(m_max) - Math.log(m_min)))
+          : m_min + u * (m_max - m_min);
+      value = Math.min(m_max, Math.max(m_min, value));
+      if (m_integer) {
+        return Long.toString(Math.round(value));
+      }
+      return Double.toString(value);
+    }
+
+    /**
+     * Get the position (between 0 and 1) of a value in this dimension. For choices, this is the
+     * centre of the choice's interval.
+     *
+     * @param value the value
+     * @return the position of the value
+     */
+    public double unitOf(String value) {
+      if (!isNumeric()) {
+        int index = Math.max(0, m_choices.indexOf(value));
+        return (index + 0.5) / m_choices.size();
+      }
+      if (m_max == m_min) {
+        return 0;
+      }
+      double v = Double.parseDouble(value);
+      double u = m_log ? (Math.log(v) - Math.log(m_min)) / (Math.log(m_max) - Math.log(m_min))
+          : (v - m_min) / (m_max - m_min);
+      return u < 0 ? 0 : (u > 1 ? 1 : u);
+    }
+  }
+}
@@ -0,0 +1,544 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.utils.IMILogAdapter;
+import org.phalanxdev.mi.utils.IMIMessages;
+import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Evaluates a scheme separately on each partition (stratum) of a data set, where the partitions
+ * are defined by the values of a stratification attribute. Partitions are trained and evaluated
+ * concurrently, using a bounded pool of execution slots; each partition gets its own Evaluator,
+ * and produces one eval row (with the partition's value as the stratification value) and,
+ * optionally, a final model. The scheme is configured just once, and each partition gets a copy,
+ * so per-partition overhead is kept low when there are many small partitions.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class PartitionedEvaluator {
+
+  /**
+   * The scheme to evaluate
+   */
+  protected Scheme m_scheme;
+
+  /**
+   * The messages handler
+   */
+  protected IMIMessages m_messages;
+
+  /**
+   * Name of the attribute that defines the partitions
+   */
+  protected String m_stratificationAttribute;
+
+  /**
+   * True if the stratification attribute should be removed from each partition before training
+   */
+  protected boolean m_removeStratificationAttribute = true;
+
+  /**
+   * Evaluation mode to use for each partition
+   */
+  protected EvalMode m_evalMode = EvalMode.CROSS_VALIDATION;
+
+  /**
+   * Number of cross-validation folds
+   */
+  protected int m_xValFolds = 10;
+
+  /**
+   * Percentage split
+   */
+  protected int m_percentageSplit = 66;
+
+  /**
+   * Random seed
+   */
+  protected int m_randomSeed = 1;
+
+  /**
+   * True if AUC metrics are to be computed
+   */
+  protected boolean m_computeAUC;
+
+  /**
+   * True if IR metrics are to be computed
+   */
+  protected boolean m_outputIRMetrics;
+
+  /**
+   * True if a final model should be built for each partition
+   */
+  protected boolean m_buildFinalModels = true;
+
+  /**
+   * Maximum number of partitions to process at the same time
+   */
+  protected int m_numExecutionSlots = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Constructor
+   *
+   * @param scheme the scheme to evaluate
+   * @param stratificationAttribute the name of the attribute that defines the partitions
+   * @param messages the messages handler
+   */
+  public PartitionedEvaluator(Scheme scheme, String stratificationAttribute,
+      IMIMessages messages) {
+    m_scheme = scheme;
+    m_stratificationAttribute = stratificationAttribute;
+    m_messages = messages;
+  }
+
+  /**
+   * Set the name of the attribute that defines the partitions
+   *
+   * @param attributeName the name of the stratification attribute
+   */
+  public void setStratificationAttribute(String attributeName) {
+    m_stratificationAttribute = attributeName;
+  }
+
+  /**
+   * Get the name of the attribute that defines the partitions
+   *
+   * @return the name of the stratification attribute
+   */
+  public String getStratificationAttribute() {
+    return m_stratificationAttribute;
+  }
+
+  /**
+   * Set whether to remove the stratification attribute from each partition before training. The
+   * attribute is constant within a partition, so it is of no use to the scheme.
+   *
+   * @param remove true to remove the stratification attribute
+   */
+  public void setRemoveStratificationAttribute(boolean remove) {
+    m_removeStratificationAttribute = remove;
+  }
+
+  /**
+   * Get whether to remove the stratification attribute from each partition before training
+   *
+   * @return true to remove the stratification attribute
+   */
+  public boolean getRemoveStratificationAttribute() {
+    return m_removeStratificationAttribute;
+  }
+
+  /**
+   * Set the evaluation mode to use for each partition
+   *
+   * @param mode the evaluation mode
+   */
+  public void setEvalMode(EvalMode mode) {
+    m_evalMode = mode;
+  }
+
+  /**
+   * Get the evaluation mode to use for each partition
+   *
+   * @return the evaluation mode
+   */
+  public EvalMode getEvalMode() {
+    return m_evalMode;
+  }
+
+  /**
+   * Set the number of cross-validation folds
+   *
+   * @param folds the number of folds
+   */
+  public void setXValFolds(int folds) {
+    m_xValFolds = folds;
+  }
+
+  /**
+   * Get the number of cross-validation folds
+   *
+   * @return the number of folds
+   */
+  public int getXValFolds() {
+    return m_xValFolds;
+  }
+
+  /**
+   * Set the percentage split
+   *
+   * @param percentageSplit the percentage of each partition to train on
+   */
+  public void setPercentageSplit(int percentageSplit) {
+    m_percentageSplit = percentageSplit;
+  }
+
+  /**
+   * Get the percentage split
+   *
+   * @return the percentage of each partition to train on
+   */
+  public int getPercentageSplit() {
+    return m_percentageSplit;
+  }
+
+  /**
+   * Set the random seed
+   *
+   * @param seed the random seed
+   */
+  public void setRandomSeed(int seed) {
+    m_randomSeed = seed;
+  }
+
+  /**
+   * Get the random seed
+   *
+   * @return the random seed
+   */
+  public int getRandomSeed() {
+    return m_randomSeed;
+  }
+
+  /**
+   * Set whether to compute AUC metrics
+   *
+   * @param computeAUC true to compute AUC metrics
+   */
+  public void setComputeAUC(boolean computeAUC) {
+    m_computeAUC = computeAUC;
+  }
+
+  /**
+   * Get whether to compute AUC metrics
+   *
+   * @return true to compute AUC metrics
+   */
+  public boolean getComputeAUC() {
+    return m_computeAUC;
+  }
+
+  /**
+   * Set whether to compute IR metrics
+   *
+   * @param outputIRMetrics true to compute IR metrics
+   */
+  public void setOutputIRMetrics(boolean outputIRMetrics) {
+    m_outputIRMetrics = outputIRMetrics;
+  }
+
+  /**
+   * Get whether to compute IR metrics
+   *
+   * @return true to compute IR metrics
+   */
+  public boolean getOutputIRMetrics() {
+    return m_outputIRMetrics;
+  }
+
+  /**
+   * Set whether to build a final model for each partition
+   *
+   * @param build true to build final models
+   */
+  public void setBuildFinalModels(boolean build) {
+    m_buildFinalModels = build;
+  }
+
+  /**
+   * Get whether to build a final model for each partition
+   *
+   * @return true to build final models
+   */
+  public boolean getBuildFinalModels() {
+    return m_buildFinalModels;
+  }
+
+  /**
+   * Set the maximum number of partitions to process at the same time
+   *
+   * @param numSlots the number of execution slots
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Get the maximum number of partitions to process at the same time
+   *
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Split data into partitions, one per distinct value of the stratification attribute (in order
+   * of first appearance). Rows with a missing stratification value are not assigned to any
+   * partition.
+   *
+   * @param data the data to split
+   * @return a map from stratification value to partition
+   * @throws Exception if the stratification attribute does not exist or is the class
+   */
+  public Map<String, Instances> partition(Instances data) throws Exception {
+    Attribute strat = data.attribute(m_stratificationAttribute);
+    if (strat == null) {
+      throw new IllegalArgumentException(m_messages.getString(
+          "PartitionedEvaluator.Error.UnknownStratificationAttribute",
+          m_stratificationAttribute));
+    }
+    if (strat.index() == data.classIndex()) {
+      throw new IllegalArgumentException(m_messages.getString(
+          "PartitionedEvaluator.Error.StratificationAttributeIsClass",
+          m_stratificationAttribute));
+    }
+    Instances header = partitionHeader(data);
+    Map<String, Instances> partitions = new LinkedHashMap<>();
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      if (inst.isMissing(strat)) {
+        continue;
+      }
+      String value = inst.toString(strat);
+      Instances part = partitions.get(value);
+      if (part == null) {
+        part = new Instances(header, 0);
+        partitions.put(value, part);
+      }
+      if (m_removeStratificationAttribute) {
+        Instance copy = (Instance) inst.copy();
+        copy.setDataset(null);
+        copy.deleteAttributeAt(strat.index());
+        part.add(copy);
+      } else {
+        part.add(inst);
+      }
+    }
+    for (Instances part : partitions.values()) {
+      part.compactify();
+    }
+    return partitions;
+  }
+
+  /**
+   * Get the header shared by all the partitions
+   *
+   * @param data the data being partitioned
+   * @return the partition header
+   */
+  protected Instances partitionHeader(Instances data) {
+    Instances header = new Instances(data, 0);
+    if (m_removeStratificationAttribute) {
+      header.deleteAttributeAt(data.attribute(m_stratificationAttribute).index());
+    }
+    return header;
+  }
+
+  /**
+   * Create a new Evaluator for a partition. Subclasses can override to apply further settings.
+   *
+   * @return a new Evaluator
+   */
+  protected Evaluator newEvaluator() {
+    Evaluator evaluator =
+        new Evaluator(m_evalMode, m_randomSeed, m_computeAUC, m_outputIRMetrics, m_messages);
+    evaluator.setXValFolds(m_xValFolds);
+    evaluator.setPercentageSplit(m_percentageSplit);
+    return evaluator;
+  }
+
+  /**
+   * Get the metadata of the eval rows produced for partitions
+   *
+   * @param data the (unpartitioned) data
+   * @return the eval row metadata
+   * @throws Exception if a problem occurs
+   */
+  public List<Attribute> getEvalRowMetadata(Instances data) throws Exception {
+    return newEvaluator().getEvalRowMetadata(partitionHeader(data), true);
+  }
+
+  /**
+   * Evaluate the scheme on every partition of the data
+   *
+   * @param data the data to partition and evaluate on (class attribute must be set)
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the per-partition results
+   * @throws Exception if the data can't be partitioned or the scheme can't be configured
+   */
+  public PartitionedResult evaluate(Instances data, final IMILogAdapter log,
+      final IMIVariableAdaptor vars) throws Exception {
+    Map<String, Instances> partitions = partition(data);
+    final Classifier template;
+    // the scheme holds a single underlying object, so configure it just once
+    synchronized (m_scheme) {
+      template = AbstractClassifier
+          .makeCopy((Classifier) m_scheme.getConfiguredScheme(partitionHeader(data)));
+    }
+
+    PartitionedResult result = new PartitionedResult();
+    if (partitions.isEmpty()) {
+      return result;
+    }
+    int concurrent = Math.max(1, Math.min(m_numExecutionSlots, partitions.size()));
+    if (log != null) {
+      log.logBasic(m_messages.getString("PartitionedEvaluator.Message.EvaluatingPartitions",
+          partitions.size(), concurrent));
+    }
+
+    List<String> values = new ArrayList<>(partitions.keySet());
+    List<Future<Object[]>> futures = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrent);
+    try {
+      for (final String value : values) {
+        final Instances part = partitions.get(value);
+        futures.add(executor.submit(new Callable<Object[]>() {
+          @Override
+          public Object[] call() throws Exception {
+            return evaluatePartition(value, part, template, log, vars);
+          }
+        }));
+      }
+      for (int i = 0; i < values.size(); i++) {
+        Object[] outcome;
+        try {
+          outcome = futures.get(i).get();
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof Exception) {
+            throw (Exception) ex.getCause();
+          }
+          throw ex;
+        }
+        String value = values.get(i);
+        if (outcome[0] != null) {
+          result.m_evalRows.put(value, (Object[]) outcome[0]);
+        }
+        if (outcome[1] != null) {
+          result.m_finalModels.put(value, (Classifier) outcome[1]);
+        }
+        if (outcome[2] != null) {
+          result.m_errors.put(value, (String) outcome[2]);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return result;
+  }
+
+  /**
+   * Evaluate (and optionally build a final model on) a single partition. Failures are recorded in
+   * the returned outcome, rather than thrown, so that one bad partition does not abort the rest.
+   *
+   * @param value the stratification value of the partition
+   * @param partition the partition's data
+   * @param template the configured (untrained) scheme
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the eval row (or null), final model (or null) and error message (or null)
+   */
+  protected Object[] evaluatePartition(String value, Instances partition, Classifier template,
+      IMILogAdapter log, IMIVariableAdaptor vars) {
+    Object[] outcome = new Object[3];
+    try {
+      Evaluator evaluator = newEvaluator();
+      evaluator.initialize(partition, template);
+      if (m_evalMode != EvalMode.NONE) {
+        evaluator.performEvaluation(null, log, vars);
+      }
+      if (m_buildFinalModels) {
+        outcome[1] = evaluator.buildFinalModel(log, vars);
+      }
+      if (evaluator.wasEvaluationPerformed()) {
+        outcome[0] = evaluator.getEvalRow(value, 0, log);
+      }
+    } catch (Exception ex) {
+      outcome[2] = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+      if (log != null) {
+        log.logError(m_messages.getString("PartitionedEvaluator.Error.PartitionFailed", value,
+            outcome[2]));
+      }
+    }
+    return outcome;
+  }
+
+  /**
+   * The outcome of evaluating each partition
+   */
+  public static class PartitionedResult {
+
+    /**
+     * Eval rows, keyed by stratification value
+     */
+    protected Map<String, Object[]> m_evalRows = new LinkedHashMap<>();
+
+    /**
+     * Final models, keyed by stratification value
+     */
+    protected Map<String, Classifier> m_finalModels = new LinkedHashMap<>();
+
+    /**
+     * Error messages for partitions that could not be evaluated, keyed by stratification value
+     */
+    protected Map<String, String> m_errors = new LinkedHashMap<>();
+
+    /**
+     * Get the eval rows for the partitions that were evaluated, in partition order
+     *
+     * @return a map from stratification value to eval row
+     */
+    public Map<String, Object[]> getEvalRows() {
+      return m_evalRows;
+    }
+
+    /**
+     * Get the final models built for the partitions
+     *
+     * @return a map from stratification value to final model
+     */
+    public Map<String, Classifier> getFinalModels() {
+      return m_finalModels;
+    }
+
+    /**
+     * Get the error messages for partitions that could not be evaluated
+     *
+     * @return a map from stratification value to error message
+     */
+    public Map<String, String> getErrors() {
+      return m_errors;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Resource usage for one phase (e.g. training the model for a fold) of an evaluation: wall time,
+ * CPU time, bytes allocated by the executing thread and the number of rows processed. CPU time and
+ * allocated bytes are -1 if not supported by the JVM.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class PhaseMetrics {
+
+  /**
+   * Phases of an evaluation
+   */
+  public enum Phase {
+    TRAINING, SCORING, FINAL_MODEL_TRAINING, METRICS;
+  }
+
+  /**
+   * The phase
+   */
+  protected Phase m_phase;
+
+  /**
+   * The (zero-based) fold number, or -1 if the phase is not part of a fold
+   */
+  protected int m_fold;
+
+  protected long m_wallNanos;
+  protected long m_cpuNanos;
+  protected long m_allocatedBytes;
+  protected long m_numRows;
+
+  /**
+   * Constructor
+   *
+   * @param phase the phase
+   * @param fold the (zero-based) fold number, or -1 if the phase is not part of a fold
+   * @param wallNanos the elapsed wall time in nanoseconds
+   * @param cpuNanos the CPU time in nanoseconds (-1 if not available)
+   * @param allocatedBytes the number of bytes allocated (-1 if not available)
+   * @param numRows the number of rows processed
+   */
+  public PhaseMetrics(Phase phase, int fold, long wallNanos, long cpuNanos,
+      long allocatedBytes, long numRows) {
+    m_phase = phase;
+    m_fold = fold;
+    m_wallNanos = wallNanos;
+    m_cpuNanos = cpuNanos;
+    m_allocatedBytes = allocatedBytes;
+    m_numRows = numRows;
+  }
+
+  /**
+   * Get the phase
+   *
+   * @return the phase
+   */
+  public Phase getPhase() {
+    return m_phase;
+  }
+
+  /**
+   * Get the (zero-based) fold number
+   *
+   * @return the fold number, or -1 if the phase is not part of a fold
+   */
+  public int getFold() {
+    return m_fold;
+  }
+
+  /**
+   * Get the elapsed wall time
+   *
+   * @return the wall time in nanoseconds
+   */
+  public long getWallNanos() {
+    return m_wallNanos;
+  }
+
+  /**
+   * Get the CPU time used
+   *
+   * @return the CPU time in nanoseconds, or -1 if not available
+   */
+  public long getCpuNanos() {
+    return m_cpuNanos;
+  }
+
+  /**
+   * Get the number of bytes allocated
+   *
+   * @return the number of bytes allocated, or -1 if not available
+   */
+  public long getAllocatedBytes() {
+    return m_allocatedBytes;
+  }
+
+  /**
+   * Get the number of rows processed
+   *
+   * @return the number of rows processed
+   */
+  public long getNumRows() {
+    return m_numRows;
+  }
+
+  /**
+   * Get the number of rows processed per second of wall time
+   *
+   * @return the number of rows per second
+   */
+  public double getRowsPerSecond() {
+    return m_wallNanos > 0 ? m_numRows / (m_wallNanos / 1e9) : 0;
+  }
+
+  /**
+   * Add the values from another PhaseMetrics to this one
+   *
+   * @param other the metrics to add
+   */
+  public void add(PhaseMetrics other) {
+    m_wallNanos += other.m_wallNanos;
+    m_cpuNanos = m_cpuNanos < 0 || other.m_cpuNanos < 0 ? -1 : m_cpuNanos + other.m_cpuNanos;
+    m_allocatedBytes = m_allocatedBytes < 0 || other.m_allocatedBytes < 0 ? -1
+        : m_allocatedBytes + other.m_allocatedBytes;
+    m_numRows += other.m_numRows;
+  }
+
+  @Override
+  public String toString() {
+    return m_phase + (m_fold >= 0 ? " (fold " + (m_fold + 1) + ")" : "") + ": wall "
+        + m_wallNanos / 1000000 + "ms, cpu " + (m_cpuNanos >= 0 ? m_cpuNanos / 1000000 + "ms" : "?")
+        + ", allocated " + (m_allocatedBytes >= 0 ? m_allocatedBytes + " bytes" : "?") + ", rows "
+        + m_numRows;
+  }
+
+  /**
+   * Measures the resources used by the current thread between construction and {@code stop()}
+   */
+  public static class Timer {
+
+    protected long m_startWall;
+    protected long m_startCpu;
+    protected long m_startAllocated;
+
+    /**
+     * Start timing on the current thread
+     */
+    public Timer() {
+      m_startWall = System.nanoTime();
+      m_startCpu = currentThreadCpuTime();
+      m_startAllocated = currentThreadAllocatedBytes();
+    }
+
+    /**
+     * Stop timing
+     *
+     * @param phase the phase that was timed
+     * @param fold the (zero-based) fold number, or -1 if the phase is not part of a fold
+     * @param numRows the number of rows processed
+     * @return the metrics for the phase
+     */
+    public PhaseMetrics stop(Phase phase, int fold, long numRows) {
+      long wall = System.nanoTime() - m_startWall;
+      long cpu = currentThreadCpuTime();
+      long allocated = currentThreadAllocatedBytes();
+      return new PhaseMetrics(phase, fold, wall,
+          cpu >= 0 && m_startCpu >= 0 ? cpu - m_startCpu : -1,
+          allocated >= 0 && m_startAllocated >= 0 ? allocated - m_startAllocated : -1, numRows);
+    }
+
+    protected static long currentThreadCpuTime() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      try {
+        return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+      } catch (UnsupportedOperationException ex) {
+        return -1;
+      }
+    }
+
+    protected static long currentThreadAllocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        try {
+          return ((com.sun.management.ThreadMXBean) bean)
+              .getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (UnsupportedOperationException ex) {
+          return -1;
+        }
+      }
+      return -1;
+    }
+  }
+}
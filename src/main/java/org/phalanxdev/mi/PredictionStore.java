@@ -0,0 +1,372 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Compact, columnar store of predictions. Actual class values, predicted class values (or
+ * predicted numeric values), instance weights and (for a nominal class) per-class probabilities
+ * are held in growable primitive arrays, rather than as one object per prediction. Supports exact
+ * computation of area under the ROC and precision-recall curves, threshold curves and export to
+ * Instances.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class PredictionStore implements Serializable {
+
+  private static final long serialVersionUID = 4969405451598856391L;
+
+  /**
+   * The class attribute
+   */
+  protected Attribute m_classAttribute;
+
+  /**
+   * Number of probabilities stored per prediction (number of class values for a nominal class, 0
+   * for a numeric class)
+   */
+  protected int m_numProbs;
+
+  /**
+   * Actual class values
+   */
+  protected double[] m_actual = new double[16];
+
+  /**
+   * Predicted class values
+   */
+  protected double[] m_predicted = new double[16];
+
+  /**
+   * Instance weights
+   */
+  protected double[] m_weight = new double[16];
+
+  /**
+   * Class probabilities (m_numProbs per prediction, row-major)
+   */
+  protected double[] m_probs;
+
+  /**
+   * Number of predictions stored
+   */
+  protected int m_size;
+
+  /**
+   * Constructor
+   *
+   * @param classAttribute the class attribute
+   */
+  public PredictionStore(Attribute classAttribute) {
+    m_classAttribute = classAttribute;
+    m_numProbs = classAttribute.isNominal() ? classAttribute.numValues() : 0;
+    m_probs = new double[16 * m_numProbs];
+  }
+
+  /**
+   * Add a prediction
+   *
+   * @param actual the actual class value
+   * @param predicted the predicted class value (index of predicted class for a nominal class, or
+   * missing value if no prediction could be made)
+   * @param dist the predicted class distribution (ignored for a numeric class)
+   * @param weight the instance weight
+   */
+  public void add(double actual, double predicted, double[] dist, double weight) {
+    ensureCapacity(m_size + 1);
+    m_actual[m_size] = actual;
+    m_predicted[m_size] = predicted;
+    m_weight[m_size] = weight;
+    if (m_numProbs > 0) {
+      System.arraycopy(dist, 0, m_probs, m_size * m_numProbs, m_numProbs);
+    }
+    m_size++;
+  }
+
+  /**
+   * Append all the predictions from another store (for the same class attribute) to this one
+   *
+   * @param other the store to append
+   */
+  public void addAll(PredictionStore other) {
+    if (other.m_numProbs != m_numProbs) {
+      throw new IllegalArgumentException("Can't merge prediction stores for different classes");
+    }
+    ensureCapacity(m_size + other.m_size);
+    System.arraycopy(other.m_actual, 0, m_actual, m_size, other.m_size);
+    System.arraycopy(other.m_predicted, 0, m_predicted, m_size, other.m_size);
+    System.arraycopy(other.m_weight, 0, m_weight, m_size, other.m_size);
+    System.arraycopy(other.m_probs, 0, m_probs, m_size * m_numProbs, other.m_size * m_numProbs);
+    m_size += other.m_size;
+  }
+
+  protected void ensureCapacity(int capacity) {
+    if (capacity > m_actual.length) {
+      int newCapacity = Math.max(capacity, m_actual.length + (m_actual.length >> 1));
+      m_actual = Arrays.copyOf(m_actual, newCapacity);
+      m_predicted = Arrays.copyOf(m_predicted, newCapacity);
+      m_weight = Arrays.copyOf(m_weight, newCapacity);
+      m_probs = Arrays.copyOf(m_probs, newCapacity * m_numProbs);
+    }
+  }
+
+  /**
+   * Get the number of predictions stored
+   *
+   * @return the number of predictions
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Get the class attribute
+   *
+   * @return the class attribute
+   */
+  public Attribute getClassAttribute() {
+    return m_classAttribute;
+  }
+
+  /**
+   * Get the actual class value of a prediction
+   *
+   * @param i the index of the prediction
+   * @return the actual class value
+   */
+  public double getActual(int i) {
+    return m_actual[i];
+  }
+
+  /**
+   * Get the predicted class value of a prediction
+   *
+   * @param i the index of the prediction
+   * @return the predicted class value
+   */
+  public double getPredicted(int i) {
+    return m_predicted[i];
+  }
+
+  /**
+   * Get the instance weight of a prediction
+   *
+   * @param i the index of the prediction
+   * @return the weight
+   */
+  public double getWeight(int i) {
+    return m_weight[i];
+  }
+
+  /**
+   * Get the predicted probability of a class value for a prediction (nominal class only)
+   *
+   * @param i the index of the prediction
+   * @param classIndex the index of the class value
+   * @return the predicted probability
+   */
+  public double getProbability(int i, int classIndex) {
+    return m_probs[i * m_numProbs + classIndex];
+  }
+
+  /**
+   * Get the predicted class distribution for a prediction (nominal class only)
+   *
+   * @param i the index of the prediction
+   * @return a copy of the predicted distribution
+   */
+  public double[] getDistribution(int i) {
+    return Arrays.copyOfRange(m_probs, i * m_numProbs, (i + 1) * m_numProbs);
+  }
+
+  /**
+   * Computes the points of the threshold curve for a class value. Each row contains true
+   * positives, false positives, total positives, total negatives and the threshold, for each
+   * distinct predicted probability of the class value (from highest to lowest)
+   */
+  protected List<double[]> curvePoints(int classIndex) {
+    if (m_numProbs == 0) {
+      throw new IllegalStateException("Threshold curves require a nominal class");
+    }
+    double[] scores = new double[m_size];
+    for (int i = 0; i < m_size; i++) {
+      scores[i] = getProbability(i, classIndex);
+    }
+    int[] sorted = Utils.sort(scores);
+
+    double totalPos = 0;
+    double totalNeg = 0;
+    for (int i = 0; i < m_size; i++) {
+      if (Utils.isMissingValue(m_actual[i])) {
+        continue;
+      }
+      if ((int) m_actual[i] == classIndex) {
+        totalPos += m_weight[i];
+      } else {
+        totalNeg += m_weight[i];
+      }
+    }
+
+    List<double[]> points = new ArrayList<>();
+    double tp = 0;
+    double fp = 0;
+    int j = sorted.length - 1;
+    while (j >= 0) {
+      double threshold = scores[sorted[j]];
+      // consume all predictions tied at this threshold
+      while (j >= 0 && scores[sorted[j]] == threshold) {
+        int i = sorted[j];
+        if (!Utils.isMissingValue(m_actual[i])) {
+          if ((int) m_actual[i] == classIndex) {
+            tp += m_weight[i];
+          } else {
+            fp += m_weight[i];
+          }
+        }
+        j--;
+      }
+      points.add(new double[]{tp, fp, totalPos, totalNeg, threshold});
+    }
+    return points;
+  }
+
+  /**
+   * Get the (exact) area under the ROC curve for a class value
+   *
+   * @param classIndex the index of the class value
+   * @return the area under the ROC curve, or missing value if there are no positive or no negative
+   * predictions
+   */
+  public double areaUnderROC(int classIndex) {
+    List<double[]> points = curvePoints(classIndex);
+    if (points.isEmpty() || points.get(0)[2] == 0 || points.get(0)[3] == 0) {
+      return Utils.missingValue();
+    }
+    double area = 0;
+    double prevTP = 0;
+    double prevFP = 0;
+    for (double[] point : points) {
+      area += (point[1] - prevFP) * (point[0] + prevTP) / 2.0;
+      prevTP = point[0];
+      prevFP = point[1];
+    }
+    return area / (points.get(0)[2] * points.get(0)[3]);
+  }
+
+  /**
+   * Get the (exact) area under the precision-recall curve for a class value
+   *
+   * @param classIndex the index of the class value
+   * @return the area under the precision-recall curve, or missing value if there are no positive
+   * predictions
+   */
+  public double areaUnderPRC(int classIndex) {
+    List<double[]> points = curvePoints(classIndex);
+    if (points.isEmpty() || points.get(0)[2] == 0) {
+      return Utils.missingValue();
+    }
+    double area = 0;
+    double prevRecall = 0;
+    double prevPrecision = -1;
+    for (double[] point : points) {
+      if (point[0] + point[1] == 0) {
+        continue;
+      }
+      double recall = point[0] / point[2];
+      double precision = point[0] / (point[0] + point[1]);
+      if (prevPrecision < 0) {
+        prevPrecision = precision;
+      }
+      area += (recall - prevRecall) * (precision + prevPrecision) / 2.0;
+      prevRecall = recall;
+      prevPrecision = precision;
+    }
+    return area;
+  }
+
+  /**
+   * Get the threshold curve for a class value. Has one row per distinct predicted probability of
+   * the class value, using the same column names as Weka's ThresholdCurve.
+   *
+   * @param classIndex the index of the class value
+   * @return the threshold curve as an Instances object
+   */
+  public Instances getThresholdCurve(int classIndex) {
+    ArrayList<Attribute> atts = new ArrayList<>();
+    for (String name : new String[]{"True Positives", "False Negatives", "False Positives",
+        "True Negatives", "False Positive Rate", "True Positive Rate", "Precision", "Recall",
+        "Threshold"}) {
+      atts.add(new Attribute(name));
+    }
+    List<double[]> points = curvePoints(classIndex);
+    Instances curve = new Instances("ThresholdCurve", atts, points.size());
+    for (double[] point : points) {
+      double tp = point[0];
+      double fp = point[1];
+      double fn = point[2] - tp;
+      double tn = point[3] - fp;
+      curve.add(new DenseInstance(1.0, new double[]{tp, fn, fp, tn,
+          point[3] > 0 ? fp / point[3] : 0, point[2] > 0 ? tp / point[2] : 0,
+          tp + fp > 0 ? tp / (tp + fp) : 0, point[2] > 0 ? tp / point[2] : 0, point[4]}));
+    }
+    return curve;
+  }
+
+  /**
+   * Export the stored predictions as an Instances object, with one row per prediction. Columns are
+   * the actual value, predicted value, instance weight and (for a nominal class) the predicted
+   * probability of each class value.
+   *
+   * @return the predictions as an Instances object
+   */
+  public Instances toInstances() {
+    ArrayList<Attribute> atts = new ArrayList<>();
+    List<String> labels = null;
+    if (m_classAttribute.isNominal()) {
+      labels = new ArrayList<>();
+      for (int i = 0; i < m_classAttribute.numValues(); i++) {
+        labels.add(m_classAttribute.value(i));
+      }
+    }
+    atts.add(labels != null ? new Attribute("Actual", labels) : new Attribute("Actual"));
+    atts.add(labels != null ? new Attribute("Predicted", new ArrayList<>(labels))
+        : new Attribute("Predicted"));
+    atts.add(new Attribute("Weight"));
+    for (int i = 0; i < m_numProbs; i++) {
+      atts.add(new Attribute("P(" + m_classAttribute.value(i) + ")"));
+    }
+
+    Instances result = new Instances("Predictions", atts, m_size);
+    for (int i = 0; i < m_size; i++) {
+      double[] vals = new double[atts.size()];
+      vals[0] = m_actual[i];
+      vals[1] = m_predicted[i];
+      vals[2] = m_weight[i];
+      System.arraycopy(m_probs, i * m_numProbs, vals, 3, m_numProbs);
+      result.add(new DenseInstance(1.0, vals));
+    }
+    return result;
+  }
+}
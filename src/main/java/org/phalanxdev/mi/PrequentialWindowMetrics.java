@@ -0,0 +1,272 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.List;
+import weka.core.Instance;
+import weka.core.Utils;
+
+/**
+ * Bounded-memory accumulators for prequential evaluation. Tracks percent correct (nominal class),
+ * mean absolute error and root mean squared error over a fixed-size sliding window of the most
+ * recent predictions, and/or with an exponential fading factor applied to all past predictions.
+ * Errors are computed in the same way as Weka's Evaluation class (i.e. from the predicted
+ * distribution for a nominal class). Memory use depends only on the window size, not on the length
+ * of the stream.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class PrequentialWindowMetrics {
+
+  /**
+   * Number of most recent predictions to compute windowed metrics over (0 = disabled)
+   */
+  protected int m_windowSize;
+
+  /**
+   * Fading factor (between 0 and 1 exclusive) applied to past predictions (0 = disabled)
+   */
+  protected double m_fadingFactor;
+
+  /**
+   * True if the class is nominal
+   */
+  protected boolean m_nominal;
+
+  /**
+   * Per-prediction statistics for the sliding window (ring buffers)
+   */
+  protected double[] m_windowWeight;
+  protected double[] m_windowCorrect;
+  protected double[] m_windowAbsErr;
+  protected double[] m_windowSqErr;
+
+  /**
+   * Next position to write to in the ring buffers
+   */
+  protected int m_next;
+
+  /**
+   * Number of predictions currently held in the window
+   */
+  protected int m_count;
+
+  /**
+   * Running sums over the window
+   */
+  protected double m_sumWeight;
+  protected double m_sumCorrect;
+  protected double m_sumAbsErr;
+  protected double m_sumSqErr;
+
+  /**
+   * Faded sums
+   */
+  protected double m_fadedWeight;
+  protected double m_fadedCorrect;
+  protected double m_fadedAbsErr;
+  protected double m_fadedSqErr;
+
+  /**
+   * Constructor
+   *
+   * @param windowSize the size of the sliding window (0 to disable windowed metrics)
+   * @param fadingFactor the fading factor (0 to disable faded metrics)
+   * @param nominal true if the class is nominal
+   */
+  public PrequentialWindowMetrics(int windowSize, double fadingFactor, boolean nominal) {
+    m_windowSize = windowSize > 0 ? windowSize : 0;
+    m_fadingFactor = isValidFadingFactor(fadingFactor) ? fadingFactor : 0;
+    m_nominal = nominal;
+    if (m_windowSize > 0) {
+      m_windowWeight = new double[m_windowSize];
+      m_windowCorrect = new double[m_windowSize];
+      m_windowAbsErr = new double[m_windowSize];
+      m_windowSqErr = new double[m_windowSize];
+    }
+  }
+
+  /**
+   * Returns true if the supplied fading factor enables faded metrics
+   *
+   * @param fadingFactor the fading factor to check
+   * @return true if the fading factor is between 0 and 1 (exclusive)
+   */
+  public static boolean isValidFadingFactor(double fadingFactor) {
+    return fadingFactor > 0 && fadingFactor < 1;
+  }
+
+  /**
+   * Returns true if the supplied settings enable any windowed or faded metrics
+   *
+   * @param windowSize the size of the sliding window
+   * @param fadingFactor the fading factor
+   * @return true if at least one of windowed or faded metrics is enabled
+   */
+  public static boolean isEnabled(int windowSize, double fadingFactor) {
+    return windowSize > 0 || isValidFadingFactor(fadingFactor);
+  }
+
+  /**
+   * Get the names of the metrics computed for the supplied settings, in the order that they are
+   * returned by {@code getMetricValues()}
+   *
+   * @param windowSize the size of the sliding window
+   * @param fadingFactor the fading factor
+   * @param nominal true if the class is nominal
+   * @return a list of metric names
+   */
+  public static List<String> getMetricNames(int windowSize, double fadingFactor, boolean nominal) {
+    List<String> names = new ArrayList<>();
+    if (windowSize > 0) {
+      addNames(names, "Window ", nominal);
+    }
+    if (isValidFadingFactor(fadingFactor)) {
+      addNames(names, "Faded ", nominal);
+    }
+    return names;
+  }
+
+  protected static void addNames(List<String> names, String prefix, boolean nominal) {
+    if (nominal) {
+      names.add(prefix + "percent correct");
+    }
+    names.add(prefix + "mean absolute error");
+    names.add(prefix + "root mean squared error");
+  }
+
+  /**
+   * Update the metrics with a prediction
+   *
+   * @param dist the predicted distribution (or a single predicted value for a numeric class)
+   * @param instance the instance (with actual class value) that the prediction was made for
+   */
+  public void update(double[] dist, Instance instance) {
+    if (instance.classIsMissing()) {
+      return;
+    }
+    double weight = instance.weight();
+    double correct = 0;
+    double absErr = 0;
+    double sqErr = 0;
+    if (m_nominal) {
+      int actual = (int) instance.classValue();
+      int predicted = Utils.sum(dist) > 0 ? Utils.maxIndex(dist) : -1;
+      correct = predicted == actual ? 1 : 0;
+      for (int i = 0; i < dist.length; i++) {
+        double err = i == actual ? 1 - dist[i] : dist[i];
+        absErr += Math.abs(err);
+        sqErr += err * err;
+      }
+      absErr /= dist.length;
+      sqErr /= dist.length;
+    } else {
+      if (Utils.isMissingValue(dist[0])) {
+        return;
+      }
+      double err = dist[0] - instance.classValue();
+      absErr = Math.abs(err);
+      sqErr = err * err;
+    }
+
+    if (m_windowSize > 0) {
+      if (m_count == m_windowSize) {
+        m_sumWeight -= m_windowWeight[m_next];
+        m_sumCorrect -= m_windowWeight[m_next] * m_windowCorrect[m_next];
+        m_sumAbsErr -= m_windowWeight[m_next] * m_windowAbsErr[m_next];
+        m_sumSqErr -= m_windowWeight[m_next] * m_windowSqErr[m_next];
+      } else {
+        m_count++;
+      }
+      m_windowWeight[m_next] = weight;
+      m_windowCorrect[m_next] = correct;
+      m_windowAbsErr[m_next] = absErr;
+      m_windowSqErr[m_next] = sqErr;
+      m_sumWeight += weight;
+      m_sumCorrect += weight * correct;
+      m_sumAbsErr += weight * absErr;
+      m_sumSqErr += weight * sqErr;
+      m_next = (m_next + 1) % m_windowSize;
+      if (m_next == 0) {
+        // recompute the running sums once per pass over the window to
+        // stop floating point error from accumulating
+        recomputeWindowSums();
+      }
+    }
+
+    if (m_fadingFactor > 0) {
+      m_fadedWeight = m_fadingFactor * m_fadedWeight + weight;
+      m_fadedCorrect = m_fadingFactor * m_fadedCorrect + weight * correct;
+      m_fadedAbsErr = m_fadingFactor * m_fadedAbsErr + weight * absErr;
+      m_fadedSqErr = m_fadingFactor * m_fadedSqErr + weight * sqErr;
+    }
+  }
+
+  protected void recomputeWindowSums() {
+    m_sumWeight = 0;
+    m_sumCorrect = 0;
+    m_sumAbsErr = 0;
+    m_sumSqErr = 0;
+    for (int i = 0; i < m_count; i++) {
+      m_sumWeight += m_windowWeight[i];
+      m_sumCorrect += m_windowWeight[i] * m_windowCorrect[i];
+      m_sumAbsErr += m_windowWeight[i] * m_windowAbsErr[i];
+      m_sumSqErr += m_windowWeight[i] * m_windowSqErr[i];
+    }
+  }
+
+  /**
+   * Get the current metric values, in the same order as the names returned by {@code
+   * getMetricNames()}
+   *
+   * @return the current metric values
+   */
+  public double[] getMetricValues() {
+    List<Double> values = new ArrayList<>();
+    if (m_windowSize > 0) {
+      addValues(values, m_sumWeight, m_sumCorrect, m_sumAbsErr, m_sumSqErr);
+    }
+    if (m_fadingFactor > 0) {
+      addValues(values, m_fadedWeight, m_fadedCorrect, m_fadedAbsErr, m_fadedSqErr);
+    }
+
+    double[] result = new double[values.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  protected void addValues(List<Double> values, double weight, double correct, double absErr,
+      double sqErr) {
+    if (m_nominal) {
+      values.add(weight > 0 ? 100.0 * correct / weight : Utils.missingValue());
+    }
+    values.add(weight > 0 ? absErr / weight : Utils.missingValue());
+    values.add(weight > 0 ? Math.sqrt(sqErr / weight) : Utils.missingValue());
+  }
+
+  /**
+   * Get the number of predictions currently held in the sliding window
+   *
+   * @return the number of predictions in the window
+   */
+  public int getWindowCount() {
+    return m_count;
+  }
+}
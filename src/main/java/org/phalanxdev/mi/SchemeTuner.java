@@ -0,0 +1,602 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.TuningResult.Candidate;
+import org.phalanxdev.mi.utils.IMILogAdapter;
+import org.phalanxdev.mi.utils.IMIMessages;
+import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+
+/**
+ * Tunes the parameters of a scheme by grid or random search. Candidate configurations are drawn
+ * from a ParameterSpace, whose dimensions are keyed by the property names that {@code
+ * SchemeUtils.getSchemeParameters()} exposes for the scheme, and each candidate is evaluated with
+ * its own Evaluator. Candidates are evaluated concurrently, with the total number of threads
+ * limited by the number of execution slots (the CPU budget). Slots that are not needed to run
+ * candidates side by side are given to the Evaluators to run cross-validation folds in parallel.
+ * Once tuning is complete the scheme is left configured with the best parameter settings.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class SchemeTuner {
+
+  /**
+   * The scheme being tuned
+   */
+  protected Scheme m_scheme;
+
+  /**
+   * The space of parameter settings to search
+   */
+  protected ParameterSpace m_space;
+
+  /**
+   * Messages to use
+   */
+  protected IMIMessages m_messages;
+
+  /**
+   * Evaluation mode used to evaluate each candidate
+   */
+  protected EvalMode m_evalMode = EvalMode.CROSS_VALIDATION;
+
+  /**
+   * Number of cross-validation folds
+   */
+  protected int m_xValFolds = 10;
+
+  /**
+   * Percentage of data to train on for percentage split evaluation
+   */
+  protected int m_percentageSplit = 66;
+
+  /**
+   * Random seed for evaluation and random search
+   */
+  protected int m_randomSeed = 1;
+
+  /**
+   * Number of candidates to draw at random (0 = evaluate the full grid)
+   */
+  protected int m_numRandomCandidates;
+
+  /**
+   * Total number of threads to use (the CPU budget)
+   */
+  protected int m_numExecutionSlots = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * True if training instances should be copied for each split/fold
+   */
+  protected boolean m_copyTrainingData;
+
+  /**
+   * The name of the evaluation metric to rank candidates on (null to use the default for the
+   * class type)
+   */
+  protected String m_metricName;
+
+  /**
+   * True if smaller values of the metric are better
+   */
+  protected boolean m_minimizeMetric;
+
+  /**
+   * The scheme's property map (as produced by SchemeUtils.getSchemeParameters())
+   */
+  protected Map<String, Map<String, Object>> m_properties;
+
+  /**
+   * Constructor
+   *
+   * @param scheme the scheme to tune
+   * @param space the space of parameter settings to search
+   * @param messages messages to use
+   */
+  public SchemeTuner(Scheme scheme, ParameterSpace space, IMIMessages messages) {
+    m_scheme = scheme;
+    m_space = space;
+    m_messages = messages;
+  }
+
+  /**
+   * Set the evaluation mode used to evaluate each candidate
+   *
+   * @param mode the evaluation mode (cross-validation, repeated cross-validation or percentage
+   * split)
+   */
+  public void setEvalMode(EvalMode mode) {
+    m_evalMode = mode;
+  }
+
+  /**
+   * Get the evaluation mode used to evaluate each candidate
+   *
+   * @return the evaluation mode
+   */
+  public EvalMode getEvalMode() {
+    return m_evalMode;
+  }
+
+  /**
+   * Set the number of cross-validation folds
+   *
+   * @param folds the number of folds
+   */
+  public void setXValFolds(int folds) {
+    m_xValFolds = folds;
+  }
+
+  /**
+   * Get the number of cross-validation folds
+   *
+   * @return the number of folds
+   */
+  public int getXValFolds() {
+    return m_xValFolds;
+  }
+
+  /**
+   * Set the percentage of data to train on for percentage split evaluation
+   *
+   * @param percentageSplit the percentage for the training data
+   */
+  public void setPercentageSplit(int percentageSplit) {
+    m_percentageSplit = percentageSplit;
+  }
+
+  /**
+   * Get the percentage of data to train on for percentage split evaluation
+   *
+   * @return the percentage for the training data
+   */
+  public int getPercentageSplit() {
+    return m_percentageSplit;
+  }
+
+  /**
+   * Set the random seed used for evaluation and for drawing random candidates
+   *
+   * @param seed the random seed
+   */
+  public void setRandomSeed(int seed) {
+    m_randomSeed = seed;
+  }
+
+  /**
+   * Get the random seed used for evaluation and for drawing random candidates
+   *
+   * @return the random seed
+   */
+  public int getRandomSeed() {
+    return m_randomSeed;
+  }
+
+  /**
+   * Set the number of candidates to draw at random from the parameter space. If 0, every point of
+   * the grid defined by the parameter space is evaluated.
+   *
+   * @param numCandidates the number of random candidates (0 for grid search)
+   */
+  public void setNumRandomCandidates(int numCandidates) {
+    m_numRandomCandidates = numCandidates;
+  }
+
+  /**
+   * Get the number of candidates to draw at random from the parameter space
+   *
+   * @return the number of random candidates (0 for grid search)
+   */
+  public int getNumRandomCandidates() {
+    return m_numRandomCandidates;
+  }
+
+  /**
+   * Set the total number of threads to use for tuning (the CPU budget)
+   *
+   * @param numSlots the number of execution slots
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Get the total number of threads to use for tuning
+   *
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Set whether training instances should be copied for each split/fold. See {@code
+   * Evaluator.setCopyTrainingData()}.
+   *
+   * @param copy true if training instances should be copied
+   */
+  public void setCopyTrainingData(boolean copy) {
+    m_copyTrainingData = copy;
+  }
+
+  /**
+   * Get whether training instances should be copied for each split/fold
+   *
+   * @return true if training instances should be copied
+   */
+  public boolean getCopyTrainingData() {
+    return m_copyTrainingData;
+  }
+
+  /**
+   * Set the name of the evaluation metric to rank candidates on. This must be one of the metric
+   * names that appear in the Evaluator's output row (e.g. "Percent correct", "Root mean squared
+   * error" or "Iris-setosa_ROC area"). Whether smaller values are better is set according to the
+   * name of the metric, and can be overridden with {@code setMinimizeMetric()}.
+   *
+   * @param metricName the name of the metric, or null to use percent correct for a nominal class
+   * and root mean squared error for a numeric one
+   */
+  public void setMetricName(String metricName) {
+    m_metricName = metricName;
+    m_minimizeMetric = metricName != null && isSmallerBetter(metricName);
+  }
+
+  /**
+   * Get the name of the evaluation metric to rank candidates on
+   *
+   * @return the name of the metric, or null if the default for the class type is used
+   */
+  public String getMetricName() {
+    return m_metricName;
+  }
+
+  /**
+   * Set whether smaller values of the metric are better. Has no effect if the default metric is
+   * in use.
+   *
+   * @param minimize true if smaller values are better
+   */
+  public void setMinimizeMetric(boolean minimize) {
+    m_minimizeMetric = minimize;
+  }
+
+  /**
+   * Get whether smaller values of the metric are better
+   *
+   * @return true if smaller values are better
+   */
+  public boolean getMinimizeMetric() {
+    return m_minimizeMetric;
+  }
+
+  /**
+   * Returns true if smaller values of the named metric are better (i.e. it is an error or count of
+   * mistakes)
+   *
+   * @param metricName the name of the metric
+   * @return true if smaller values are better
+   */
+  public static boolean isSmallerBetter(String metricName) {
+    String lower = metricName.toLowerCase();
+    return lower.contains("error") || lower.contains("incorrect") || lower.contains("unclassified")
+        || lower.contains("fp rate");
+  }
+
+  /**
+   * Tune the scheme on the supplied data
+   *
+   * @param data the data to tune on (class attribute must be set)
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the result of tuning
+   * @throws Exception if a problem occurs
+   */
+  public TuningResult tune(Instances data, IMILogAdapter log, IMIVariableAdaptor vars)
+      throws Exception {
+    initialize(data);
+    List<Map<String, String>> settings = generateCandidates();
+    List<Candidate> candidates = evaluateCandidates(settings, data, log, vars);
+
+    return finish(candidates, data);
+  }
+
+  /**
+   * Checks that the parameter space only refers to tunable properties of the scheme and determines
+   * the metric to rank candidates on
+   *
+   * @param data the data to tune on
+   * @throws Exception if a problem occurs
+   */
+  @SuppressWarnings("unchecked")
+  protected void initialize(Instances data) throws Exception {
+    if (data.classIndex() < 0) {
+      throw new IllegalArgumentException(
+          m_messages.getString("SchemeTuner.Error.ClassNotSet"));
+    }
+    synchronized (m_scheme) {
+      m_properties = (Map<String, Map<String, Object>>) m_scheme.getSchemeInfo()
+          .get("properties");
+    }
+    for (String property : m_space.getPropertyNames()) {
+      Map<String, Object> details = m_properties != null ? m_properties.get(property) : null;
+      if (details == null) {
+        throw new IllegalArgumentException(m_messages
+            .getString("SchemeTuner.Error.UnknownParameter", m_scheme.getSchemeName(), property));
+      }
+      String type = details.get("type").toString();
+      if (type.equals("object") || type.equals("array") || type.equals("file")) {
+        throw new IllegalArgumentException(m_messages
+            .getString("SchemeTuner.Error.UnsupportedParameterType", property, type));
+      }
+    }
+    if (m_metricName == null) {
+      m_minimizeMetric = !data.classAttribute().isNominal();
+    }
+  }
+
+  /**
+   * Get the name of the metric to rank candidates on for the supplied data
+   *
+   * @param data the data being tuned on
+   * @return the name of the metric
+   */
+  protected String metricName(Instances data) {
+    if (m_metricName != null) {
+      return m_metricName;
+    }
+    return data.classAttribute().isNominal() ? "Percent correct" : "Root mean squared error";
+  }
+
+  /**
+   * Generate the candidate parameter settings to evaluate: either the full grid, or a number of
+   * (distinct) random draws from the parameter space
+   *
+   * @return a list of parameter settings
+   */
+  protected List<Map<String, String>> generateCandidates() {
+    if (m_numRandomCandidates <= 0) {
+      return m_space.grid();
+    }
+    Random r = new Random(m_randomSeed);
+    Set<Map<String, String>> drawn = new LinkedHashSet<>();
+    // allow some slack for duplicate draws from small (e.g. choice only) spaces
+    for (int i = 0; i < m_numRandomCandidates * 10 && drawn.size() < m_numRandomCandidates;
+        i++) {
+      drawn.add(m_space.sample(r));
+    }
+    return new ArrayList<>(drawn);
+  }
+
+  /**
+   * Configure the scheme with the supplied parameter settings and return a copy of the resulting
+   * (untrained) classifier
+   *
+   * @param parameters the parameter settings (property name to value)
+   * @param header the header of the data being tuned on
+   * @return a configured copy of the scheme
+   * @throws Exception if a problem occurs
+   */
+  protected Classifier configureScheme(Map<String, String> parameters, Instances header)
+      throws Exception {
+    // the scheme holds a single underlying object, so configuration and copying must not
+    // interleave between candidates
+    synchronized (m_scheme) {
+      m_scheme.setSchemeParameters(toPropertyList(parameters));
+      return AbstractClassifier
+          .makeCopy((Classifier) m_scheme.getConfiguredScheme(new Instances(header, 0)));
+    }
+  }
+
+  /**
+   * Convert parameter settings to the property list format expected by {@code
+   * Scheme.setSchemeParameters()}
+   *
+   * @param parameters the parameter settings (property name to value)
+   * @return a property list
+   */
+  protected Map<String, Map<String, Object>> toPropertyList(Map<String, String> parameters) {
+    Map<String, Map<String, Object>> propertyList = new HashMap<>();
+    for (Map.Entry<String, String> e : parameters.entrySet()) {
+      Map<String, Object> details = m_properties.get(e.getKey());
+      String type = details.get("type").toString();
+      String value = e.getValue();
+      if (type.equals("integer") || type.equals("long") || type.equals("short")) {
+        // ranges on integer properties may not have been declared as integer valued
+        value = Long.toString(Math.round(Double.parseDouble(value)));
+      }
+      Map<String, Object> prop = new HashMap<>();
+      prop.put("type", type);
+      prop.put("value", value);
+      if (details.get("isEnum") != null) {
+        prop.put("isEnum", details.get("isEnum"));
+      }
+      propertyList.put(e.getKey(), prop);
+    }
+    return propertyList;
+  }
+
+  /**
+   * Create and configure the Evaluator for a candidate
+   *
+   * @param numSlots the number of execution slots the Evaluator can use
+   * @return a new Evaluator
+   */
+  protected Evaluator newEvaluator(int numSlots) {
+    Evaluator evaluator = new Evaluator(m_evalMode, m_randomSeed, false, false, m_messages);
+    evaluator.setXValFolds(m_xValFolds);
+    evaluator.setPercentageSplit(m_percentageSplit);
+    evaluator.setNumExecutionSlots(numSlots);
+    evaluator.setCopyTrainingData(m_copyTrainingData);
+    return evaluator;
+  }
+
+  /**
+   * Evaluate a single candidate. Failures are recorded in the returned candidate, rather than
+   * thrown, so that one bad configuration does not abort tuning.
+   *
+   * @param parameters the parameter settings of the candidate
+   * @param data the data to evaluate on
+   * @param numSlots the number of execution slots the candidate's Evaluator can use
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the evaluated candidate
+   */
+  protected Candidate evaluateCandidate(Map<String, String> parameters, Instances data,
+      int numSlots, IMILogAdapter log, IMIVariableAdaptor vars) {
+    Candidate candidate = new Candidate(parameters);
+    long start = System.currentTimeMillis();
+    try {
+      Classifier classifier = configureScheme(parameters, data);
+      if (classifier instanceof OptionHandler) {
+        candidate.m_options = ((OptionHandler) classifier).getOptions();
+      }
+      Evaluator evaluator = newEvaluator(numSlots);
+      evaluator.initialize(data, classifier);
+      evaluator.performEvaluation(null, log, vars);
+      candidate.m_evalRow = evaluator.getEvalRow(null, 0, log);
+      candidate.m_score = scoreFromEvalRow(evaluator, data, candidate.m_evalRow);
+    } catch (Exception ex) {
+      candidate.m_error = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+      if (log != null) {
+        log.logError(m_messages.getString("SchemeTuner.Error.CandidateFailed", parameters,
+            candidate.m_error));
+      }
+    }
+    candidate.m_elapsedMillis = System.currentTimeMillis() - start;
+    return candidate;
+  }
+
+  /**
+   * Extract the value of the tuning metric from an evaluation row
+   *
+   * @param evaluator the Evaluator that produced the row
+   * @param data the data that was evaluated on
+   * @param evalRow the evaluation row
+   * @return the value of the metric
+   * @throws Exception if the metric is not present in the row
+   */
+  protected double scoreFromEvalRow(Evaluator evaluator, Instances data, Object[] evalRow)
+      throws Exception {
+    if (evalRow == null) {
+      throw new Exception(m_messages.getString("Evaluator.Error.EvaluationWasNotPerformed"));
+    }
+    String metric = metricName(data);
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(data, false);
+    for (int i = 0; i < metadata.size(); i++) {
+      if (metadata.get(i).name().equals(metric)) {
+        return ((Number) evalRow[i]).doubleValue();
+      }
+    }
+    throw new Exception(m_messages.getString("SchemeTuner.Error.MetricNotAvailable", metric));
+  }
+
+  /**
+   * Evaluate a list of candidates concurrently, within the CPU budget
+   *
+   * @param settings the parameter settings of the candidates
+   * @param data the data to evaluate on
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the evaluated candidates, in the same order as the settings
+   * @throws Exception if tuning is interrupted
+   */
+  protected List<Candidate> evaluateCandidates(List<Map<String, String>> settings,
+      final Instances data, final IMILogAdapter log, final IMIVariableAdaptor vars)
+      throws Exception {
+    List<Candidate> results = new ArrayList<>();
+    if (settings.isEmpty()) {
+      return results;
+    }
+    int budget = Math.max(1, m_numExecutionSlots);
+    int concurrent = Math.min(budget, settings.size());
+    final int slotsPerCandidate = Math.max(1, budget / concurrent);
+    if (log != null) {
+      log.logBasic(m_messages.getString("SchemeTuner.Message.EvaluatingCandidates",
+          settings.size(), concurrent));
+    }
+
+    if (concurrent == 1) {
+      for (Map<String, String> s : settings) {
+        results.add(evaluateCandidate(s, data, slotsPerCandidate, log, vars));
+      }
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrent);
+    try {
+      List<Future<Candidate>> futures = new ArrayList<>();
+      for (final Map<String, String> s : settings) {
+        futures.add(executor.submit(new Callable<Candidate>() {
+          @Override
+          public Candidate call() throws Exception {
+            return evaluateCandidate(s, data, slotsPerCandidate, log, vars);
+          }
+        }));
+      }
+      for (Future<Candidate> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof Exception) {
+            throw (Exception) ex.getCause();
+          }
+          throw ex;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
+  /**
+   * Rank the evaluated candidates, leave the scheme configured with the best settings and build
+   * the result
+   *
+   * @param candidates the evaluated candidates
+   * @param data the data that was tuned on
+   * @return the result of tuning
+   * @throws Exception if a problem occurs
+   */
+  protected TuningResult finish(List<Candidate> candidates, Instances data) throws Exception {
+    TuningResult result = new TuningResult(candidates, metricName(data), m_minimizeMetric, null);
+    Candidate best = result.getBestCandidate();
+    if (best != null && best.getError() == null) {
+      result.m_bestScheme = configureScheme(best.getParameters(), data);
+    }
+    return result;
+  }
+}
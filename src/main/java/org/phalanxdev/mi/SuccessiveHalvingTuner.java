@@ -0,0 +1,377 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.TuningResult.Candidate;
+import org.phalanxdev.mi.utils.IMILogAdapter;
+import org.phalanxdev.mi.utils.IMIMessages;
+import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Tunes the parameters of a scheme using successive halving, or Hyperband (several brackets of
+ * successive halving that trade off the number of candidates against the starting budget). All
+ * candidates are first evaluated with a small budget, and only the best 1/eta of them are promoted
+ * to the next rung, where the budget is multiplied by eta. The final rung is evaluated with the full
+ * budget. The budget is either the fraction of the data that is evaluated on (a stratified
+ * subsample; the subsample for a rung contains the subsample of every smaller rung) or, for schemes
+ * that support resumable training (i.e. IterativeClassifiers), the number of training iterations.
+ * Candidates within a rung are evaluated concurrently, as in SchemeTuner.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class SuccessiveHalvingTuner extends SchemeTuner {
+
+  /**
+   * Factor by which the number of candidates is reduced, and the budget increased, at each rung
+   */
+  protected int m_eta = 3;
+
+  /**
+   * Fraction of the full budget to evaluate with in the first rung (for successive halving), or the
+   * smallest starting fraction (for Hyperband)
+   */
+  protected double m_minBudget = 1.0 / 9.0;
+
+  /**
+   * True to run Hyperband rather than a single bracket of successive halving
+   */
+  protected boolean m_hyperband;
+
+  /**
+   * What to use as the budget
+   */
+  protected BudgetType m_budgetType = BudgetType.AUTO;
+
+  /**
+   * Name of the property that sets the number of iterations (for an iteration budget)
+   */
+  protected String m_iterationsProperty = "numIterations";
+
+  /**
+   * Number of iterations that constitutes the full budget (0 = use the scheme's current setting)
+   */
+  protected int m_maxIterations;
+
+  /**
+   * True if the budget resolved for the current tuning run is iterations rather than data
+   */
+  protected boolean m_useIterationBudget;
+
+  /**
+   * Number of iterations that constitutes the full budget for the current tuning run
+   */
+  protected int m_fullIterations;
+
+  /**
+   * Constructor
+   *
+   * @param scheme the scheme to tune
+   * @param space the space of parameter settings to search
+   * @param messages messages to use
+   */
+  public SuccessiveHalvingTuner(Scheme scheme, ParameterSpace space, IMIMessages messages) {
+    super(scheme, space, messages);
+  }
+
+  /**
+   * Set the factor by which the number of candidates is reduced, and the budget increased, at
+   * each rung
+   *
+   * @param eta the reduction factor (at least 2)
+   */
+  public void setEta(int eta) {
+    m_eta = eta;
+  }
+
+  /**
+   * Get the factor by which the number of candidates is reduced, and the budget increased, at
+   * each rung
+   *
+   * @return the reduction factor
+   */
+  public int getEta() {
+    return m_eta;
+  }
+
+  /**
+   * Set the fraction of the full budget to use in the first rung (successive halving), or the
+   * smallest starting fraction of any bracket (Hyperband)
+   *
+   * @param minBudget the minimum budget, greater than 0 and at most 1
+   */
+  public void setMinBudget(double minBudget) {
+    m_minBudget = minBudget;
+  }
+
+  /**
+   * Get the fraction of the full budget to use in the first rung
+   *
+   * @return the minimum budget
+   */
+  public double getMinBudget() {
+    return m_minBudget;
+  }
+
+  /**
+   * Set whether to run Hyperband rather than a single bracket of successive halving. Hyperband
+   * draws its candidates at random from the parameter space, with the number of candidates per
+   * bracket determined by eta and the minimum budget.
+   *
+   * @param hyperband true to run Hyperband
+   */
+  public void setHyperband(boolean hyperband) {
+    m_hyperband = hyperband;
+  }
+
+  /**
+   * Get whether to run Hyperband rather than a single bracket of successive halving
+   *
+   * @return true if Hyperband is run
+   */
+  public boolean getHyperband() {
+    return m_hyperband;
+  }
+
+  /**
+   * Set what to use as the budget. AUTO uses iterations if the scheme supports resumable training
+   * and has an iterations property that is not itself being tuned, and the data otherwise.
+   *
+   * @param budgetType the type of budget
+   */
+  public void setBudgetType(BudgetType budgetType) {
+    m_budgetType = budgetType;
+  }
+
+  /**
+   * Get what to use as the budget
+   *
+   * @return the type of budget
+   */
+  public BudgetType getBudgetType() {
+    return m_budgetType;
+  }
+
+  /**
+   * Set the name of the property that sets the number of training iterations
+   *
+   * @param property the name of the iterations property
+   */
+  public void setIterationsProperty(String property) {
+    m_iterationsProperty = property;
+  }
+
+  /**
+   * Get the name of the property that sets the number of training iterations
+   *
+   * @return the name of the iterations property
+   */
+  public String getIterationsProperty() {
+    return m_iterationsProperty;
+  }
+
+  /**
+   * Set the number of iterations that constitutes the full budget
+   *
+   * @param maxIterations the maximum number of iterations (0 to use the scheme's current setting)
+   */
+  public void setMaxIterations(int maxIterations) {
+    m_maxIterations = maxIterations;
+  }
+
+  /**
+   * Get the number of iterations that constitutes the full budget
+   *
+   * @return the maximum number of iterations
+   */
+  public int getMaxIterations() {
+    return m_maxIterations;
+  }
+
+  @Override
+  public TuningResult tune(Instances data, IMILogAdapter log, IMIVariableAdaptor vars)
+      throws Exception {
+    if (m_eta < 2 || m_minBudget <= 0 || m_minBudget > 1) {
+      throw new IllegalArgumentException(
+          m_messages.getString("SuccessiveHalvingTuner.Error.InvalidSettings", m_eta, m_minBudget));
+    }
+    initialize(data);
+    resolveBudget();
+
+    // shuffle (and stratify) once, so that every data budget takes a prefix of the same ordering
+    InstancesView ordered = new InstancesView(data);
+    ordered.randomize(new Random(m_randomSeed));
+    if (data.classAttribute().isNominal()) {
+      ordered.stratify(Math.max(2, m_xValFolds));
+    }
+
+    List<Candidate> evaluated = new ArrayList<>();
+    if (m_hyperband) {
+      int sMax = (int) Math.floor(Math.log(1.0 / m_minBudget) / Math.log(m_eta) + 1e-9);
+      Random r = new Random(m_randomSeed);
+      for (int s = sMax; s >= 0; s--) {
+        int n = (int) Math.ceil((sMax + 1.0) / (s + 1) * Math.pow(m_eta, s));
+        runBracket(sample(n, r), Math.pow(m_eta, -s), ordered, evaluated, log, vars);
+      }
+    } else {
+      runBracket(generateCandidates(), m_minBudget, ordered, evaluated, log, vars);
+    }
+
+    return finish(evaluated, data);
+  }
+
+  /**
+   * Determine whether to use iterations or data as the budget, and the maximum number of
+   * iterations
+   *
+   * @throws Exception if an iteration budget was requested but can't be used
+   */
+  protected void resolveBudget() throws Exception {
+    boolean iterationsAvailable = m_iterationsProperty != null
+        && m_properties.containsKey(m_iterationsProperty)
+        && !m_space.getPropertyNames().contains(m_iterationsProperty);
+    if (m_budgetType == BudgetType.ITERATIONS && !iterationsAvailable) {
+      throw new IllegalArgumentException(m_messages
+          .getString("SuccessiveHalvingTuner.Error.NoIterationsProperty", m_scheme.getSchemeName(),
+              m_iterationsProperty));
+    }
+    m_useIterationBudget = m_budgetType == BudgetType.ITERATIONS
+        || (m_budgetType == BudgetType.AUTO && iterationsAvailable
+        && m_scheme.supportsResumableTraining());
+    m_fullIterations = m_maxIterations;
+    if (m_useIterationBudget && m_fullIterations <= 0) {
+      m_fullIterations = (int) Math.round(Double.parseDouble(
+          m_properties.get(m_iterationsProperty).get("value").toString()));
+    }
+  }
+
+  /**
+   * Draw a number of distinct candidates at random from the parameter space
+   *
+   * @param n the number of candidates to draw
+   * @param r the source of randomness
+   * @return the candidate parameter settings
+   */
+  protected List<Map<String, String>> sample(int n, Random r) {
+    Set<Map<String, String>> drawn = new LinkedHashSet<>();
+    for (int i = 0; i < n * 10 && drawn.size() < n; i++) {
+      drawn.add(m_space.sample(r));
+    }
+    return new ArrayList<>(drawn);
+  }
+
+  /**
+   * Run one bracket of successive halving
+   *
+   * @param settings the parameter settings of the starting candidates
+   * @param startBudget the budget for the first rung
+   * @param ordered the shuffled data, from which data budgets are taken as prefixes
+   * @param evaluated list to add every evaluated candidate to
+   * @param log the log to use
+   * @param vars environment variables
+   * @throws Exception if tuning is interrupted
+   */
+  protected void runBracket(List<Map<String, String>> settings, double startBudget,
+      InstancesView ordered, List<Candidate> evaluated, IMILogAdapter log, IMIVariableAdaptor vars)
+      throws Exception {
+    List<Map<String, String>> survivors = settings;
+    double budget = Math.min(1.0, startBudget);
+    while (!survivors.isEmpty()) {
+      if (log != null) {
+        log.logBasic(m_messages.getString("SuccessiveHalvingTuner.Message.EvaluatingRung",
+            survivors.size(), Utils.doubleToString(budget, 4)));
+      }
+      List<Candidate> rung = evaluateAtBudget(survivors, budget, ordered, log, vars);
+      evaluated.addAll(rung);
+      if (budget >= 1.0) {
+        break;
+      }
+
+      // promote the best 1/eta (keyed by the tuned parameters, without the budget)
+      Map<Candidate, Map<String, String>> toSettings = new LinkedHashMap<>();
+      for (int i = 0; i < rung.size(); i++) {
+        toSettings.put(rung.get(i), survivors.get(i));
+      }
+      Collections.sort(rung, TuningResult.comparator(m_minimizeMetric));
+      int keep = Math.max(1, survivors.size() / m_eta);
+      survivors = new ArrayList<>();
+      for (Candidate c : rung) {
+        if (survivors.size() == keep || c.getError() != null) {
+          break;
+        }
+        survivors.add(toSettings.get(c));
+      }
+      budget = Math.min(1.0, budget * m_eta);
+    }
+  }
+
+  /**
+   * Evaluate a list of candidates with a given budget
+   *
+   * @param settings the parameter settings of the candidates
+   * @param budget the fraction of the full budget to use
+   * @param ordered the shuffled data, from which data budgets are taken as prefixes
+   * @param log the log to use
+   * @param vars environment variables
+   * @return the evaluated candidates, in the same order as the settings
+   * @throws Exception if tuning is interrupted
+   */
+  protected List<Candidate> evaluateAtBudget(List<Map<String, String>> settings, double budget,
+      InstancesView ordered, IMILogAdapter log, IMIVariableAdaptor vars) throws Exception {
+    Instances data;
+    List<Map<String, String>> toEvaluate = settings;
+    if (m_useIterationBudget) {
+      data = ordered.getSource();
+      String iterations = Long.toString(Math.max(1, Math.round(budget * m_fullIterations)));
+      toEvaluate = new ArrayList<>();
+      for (Map<String, String> s : settings) {
+        Map<String, String> withIterations = new LinkedHashMap<>(s);
+        withIterations.put(m_iterationsProperty, iterations);
+        toEvaluate.add(withIterations);
+      }
+    } else {
+      int size = (int) Math.round(budget * ordered.numInstances());
+      // make sure the subsample is large enough to evaluate on
+      int minSize = m_evalMode == EvalMode.PERCENTAGE_SPLIT ? 10 : 2 * m_xValFolds;
+      size = Math.min(ordered.numInstances(), Math.max(size, minSize));
+      data = ordered.subset(0, size).materialize(false);
+    }
+
+    List<Candidate> rung = evaluateCandidates(toEvaluate, data, log, vars);
+    for (Candidate c : rung) {
+      c.m_budget = budget;
+    }
+    return rung;
+  }
+
+  /**
+   * Enum for the types of budget
+   */
+  public enum BudgetType {
+    AUTO, DATA, ITERATIONS;
+  }
+}
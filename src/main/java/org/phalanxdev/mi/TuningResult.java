@@ -0,0 +1,314 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * The outcome of tuning a scheme: all the candidate configurations that were evaluated, ranked from
+ * best to worst on the tuning metric, along with the best configured (untrained) scheme.
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version $Revision: $
+ */
+public class TuningResult {
+
+  /**
+   * The candidates, best first
+   */
+  protected List<Candidate> m_ranked;
+
+  /**
+   * The name of the metric that candidates were ranked on
+   */
+  protected String m_metricName;
+
+  /**
+   * True if smaller values of the metric are better
+   */
+  protected boolean m_minimize;
+
+  /**
+   * The best configured scheme
+   */
+  protected Classifier m_bestScheme;
+
+  /**
+   * Constructor
+   *
+   * @param candidates the evaluated candidates (in any order)
+   * @param metricName the name of the metric to rank on
+   * @param minimize true if smaller values of the metric are better
+   * @param bestScheme the best configured scheme
+   */
+  public TuningResult(List<Candidate> candidates, String metricName, boolean minimize,
+      Classifier bestScheme) {
+    m_metricName = metricName;
+    m_minimize = minimize;
+    m_bestScheme = bestScheme;
+    m_ranked = new ArrayList<>(candidates);
+    Collections.sort(m_ranked, comparator(minimize));
+  }
+
+  /**
+   * Get a comparator that orders candidates from best to worst. Candidates evaluated with a larger
+   * budget are ordered before those evaluated with a smaller one, and candidates without a score
+   * (e.g. because they failed) are ordered last within a budget.
+   *
+   * @param minimize true if smaller values of the metric are better
+   * @return a comparator
+   */
+  public static Comparator<Candidate> comparator(final boolean minimize) {
+    return new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate a, Candidate b) {
+        if (a.getBudget() != b.getBudget()) {
+          return Double.compare(b.getBudget(), a.getBudget());
+        }
+        boolean aMissing = Utils.isMissingValue(a.getScore());
+        boolean bMissing = Utils.isMissingValue(b.getScore());
+        if (aMissing || bMissing) {
+          return aMissing == bMissing ? 0 : (aMissing ? 1 : -1);
+        }
+        return minimize ? Double.compare(a.getScore(), b.getScore())
+            : Double.compare(b.getScore(), a.getScore());
+      }
+    };
+  }
+
+  /**
+   * Get the candidates, ranked from best to worst
+   *
+   * @return the ranked candidates
+   */
+  public List<Candidate> getRankedCandidates() {
+    return m_ranked;
+  }
+
+  /**
+   * Get the best candidate
+   *
+   * @return the best candidate, or null if no candidates were evaluated
+   */
+  public Candidate getBestCandidate() {
+    return m_ranked.isEmpty() ? null : m_ranked.get(0);
+  }
+
+  /**
+   * Get the best configured (untrained) scheme
+   *
+   * @return the best configured scheme
+   */
+  public Classifier getBestScheme() {
+    return m_bestScheme;
+  }
+
+  /**
+   * Get the name of the metric that candidates were ranked on
+   *
+   * @return the metric name
+   */
+  public String getMetricName() {
+    return m_metricName;
+  }
+
+  /**
+   * Returns true if smaller values of the metric are better
+   *
+   * @return true if the metric is minimized
+   */
+  public boolean getMinimizeMetric() {
+    return m_minimize;
+  }
+
+  /**
+   * Get the ranked candidates as a table, with one row per candidate. Columns are the rank, the
+   * value of each tuned parameter, the full scheme options, the budget the candidate was evaluated
+   * with, the metric value and the time taken to evaluate the candidate.
+   *
+   * @return the ranked table
+   */
+  public Instances getRankedTable() {
+    List<String> params = new ArrayList<>();
+    for (Candidate c : m_ranked) {
+      for (String p : c.getParameters().keySet()) {
+        if (!params.contains(p)) {
+          params.add(p);
+        }
+      }
+    }
+
+    ArrayList<Attribute> atts = new ArrayList<>();
+    atts.add(new Attribute("Rank"));
+    for (String p : params) {
+      atts.add(new Attribute(p, (List<String>) null));
+    }
+    atts.add(new Attribute("Scheme options", (List<String>) null));
+    atts.add(new Attribute("Budget"));
+    atts.add(new Attribute(m_metricName));
+    atts.add(new Attribute("Evaluation time (ms)"));
+
+    Instances table = new Instances("Tuning results", atts, m_ranked.size());
+    int rank = 1;
+    for (Candidate c : m_ranked) {
+      double[] vals = new double[atts.size()];
+      int i = 0;
+      vals[i++] = rank++;
+      for (String p : params) {
+        String value = c.getParameters().get(p);
+        vals[i] = value != null ? table.attribute(i).addStringValue(value) : Utils.missingValue();
+        i++;
+      }
+      vals[i] = table.attribute(i).addStringValue(Utils.joinOptions(c.getOptions()));
+      i++;
+      vals[i++] = c.getBudget();
+      vals[i++] = c.getScore();
+      vals[i] = c.getElapsedMillis();
+      table.add(new DenseInstance(1.0, vals));
+    }
+    return table;
+  }
+
+  /**
+   * A candidate configuration and its evaluation
+   */
+  public static class Candidate {
+
+    /**
+     * The parameter settings (property name to value)
+     */
+    protected Map<String, String> m_parameters;
+
+    /**
+     * The full options of the configured scheme
+     */
+    protected String[] m_options = new String[0];
+
+    /**
+     * The value of the tuning metric (missing if the candidate could not be evaluated)
+     */
+    protected double m_score = Utils.missingValue();
+
+    /**
+     * The evaluation row produced by the Evaluator
+     */
+    protected Object[] m_evalRow;
+
+    /**
+     * The error message if the candidate could not be evaluated
+     */
+    protected String m_error;
+
+    /**
+     * Time taken to evaluate the candidate
+     */
+    protected long m_elapsedMillis;
+
+    /**
+     * The fraction (between 0 and 1) of the full budget (data or iterations) that the candidate
+     * was evaluated with
+     */
+    protected double m_budget = 1.0;
+
+    /**
+     * Constructor
+     *
+     * @param parameters the parameter settings
+     */
+    public Candidate(Map<String, String> parameters) {
+      m_parameters = new LinkedHashMap<>(parameters);
+    }
+
+    /**
+     * Get the parameter settings
+     *
+     * @return the parameter settings (property name to value)
+     */
+    public Map<String, String> getParameters() {
+      return m_parameters;
+    }
+
+    /**
+     * Get the full options of the configured scheme
+     *
+     * @return the scheme options
+     */
+    public String[] getOptions() {
+      return m_options;
+    }
+
+    /**
+     * Get the value of the tuning metric
+     *
+     * @return the metric value, or missing value if the candidate could not be evaluated
+     */
+    public double getScore() {
+      return m_score;
+    }
+
+    /**
+     * Get the evaluation row produced for this candidate
+     *
+     * @return the evaluation row, or null if the candidate could not be evaluated
+     */
+    public Object[] getEvalRow() {
+      return m_evalRow;
+    }
+
+    /**
+     * Get the error message if the candidate could not be evaluated
+     *
+     * @return the error message, or null if evaluation succeeded
+     */
+    public String getError() {
+      return m_error;
+    }
+
+    /**
+     * Get the time taken to evaluate the candidate
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+      return m_elapsedMillis;
+    }
+
+    /**
+     * Get the fraction of the full budget (data or iterations) that the candidate was evaluated
+     * with
+     *
+     * @return the budget, between 0 and 1
+     */
+    public double getBudget() {
+      return m_budget;
+    }
+
+    @Override
+    public String toString() {
+      return m_parameters + " -> " + (Utils.isMissingValue(m_score) ? "?" : m_score);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.core.Instances;
+
+/**
+ * Implemented by worker pools that can hold datasets on their workers. A dataset is transferred to
+ * a worker once, under a key, after which subsets of its rows can be selected on the worker by
+ * index (e.g. for cross-validation folds) without transferring the data again.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public interface IMIDatasetCache {
+
+  /**
+   * Transfer a dataset to a worker, if the worker does not already hold it
+   *
+   * @param workerID the ID of the worker
+   * @param key the key identifying the dataset
+   * @param data the dataset
+   * @throws Exception if the dataset can't be transferred
+   */
+  void cacheDataset( String workerID, String key, Instances data ) throws Exception;
+
+  /**
+   * Select rows of a cached dataset into a new variable on a worker
+   *
+   * @param workerID the ID of the worker
+   * @param key the key identifying the dataset
+   * @param rows the (zero-based) indexes of the rows to select
+   * @return the name of the variable holding the selected rows
+   * @throws Exception if the rows can't be selected
+   */
+  String selectRows( String workerID, String key, int[] rows ) throws Exception;
+
+  /**
+   * Release a variable created by {@code selectRows()}
+   *
+   * @param workerID the ID of the worker
+   * @param variable the name of the variable
+   */
+  void releaseRows( String workerID, String variable );
+
+  /**
+   * Release a dataset on all the workers that hold it
+   *
+   * @param key the key identifying the dataset
+   */
+  void releaseDataset( String key );
+}
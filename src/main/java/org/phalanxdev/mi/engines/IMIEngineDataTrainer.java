@@ -0,0 +1,38 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.core.Instances;
+
+/**
+ * Implemented by external engine classifiers that can be trained on data that is already held in a
+ * variable on the engine worker they have been pointed at (see {@code IMIDatasetCache}), rather
+ * than transferring their training data themselves.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public interface IMIEngineDataTrainer {
+
+  /**
+   * Train on data held by the engine
+   *
+   * @param header the structure of the training data
+   * @param variable the name of the engine variable holding the training data
+   * @throws Exception if a problem occurs during training
+   */
+  void buildClassifier( Instances header, String variable ) throws Exception;
+}
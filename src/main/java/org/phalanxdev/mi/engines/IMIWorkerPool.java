@@ -0,0 +1,63 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.classifiers.Classifier;
+
+/**
+ * A pool of external engine workers (e.g. python servers or R sessions) that training and scoring
+ * tasks lease for their duration. Started pools are registered by name with {@code
+ * PooledClassifier}.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public interface IMIWorkerPool {
+
+  /**
+   * Get the name of the pool
+   *
+   * @return the name of the pool
+   */
+  String getPoolName();
+
+  /**
+   * Lease a worker
+   *
+   * @param timeoutMillis maximum time to wait for a worker to become free
+   * @return the ID of the leased worker
+   * @throws Exception if no worker becomes free within the timeout, or no working workers remain
+   */
+  String lease( long timeoutMillis ) throws Exception;
+
+  /**
+   * Return a leased worker to the pool
+   *
+   * @param workerID the ID of the worker
+   * @param taskFailed true if the task that used the worker failed (the worker is then checked, and
+   *                   replaced if it has crashed)
+   */
+  void release( String workerID, boolean taskFailed );
+
+  /**
+   * Point a classifier (possibly wrapped, e.g. in a FilteredClassifier) at a leased worker
+   *
+   * @param classifier the classifier to configure
+   * @param workerID the ID of the worker to use
+   * @throws Exception if the classifier can't be configured
+   */
+  void configure( Classifier classifier, String workerID ) throws Exception;
+}
@@ -0,0 +1,336 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.BatchPredictor;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Trains and scores an MLR learner in a session of an {@code RSessionPool}. The pool points the
+ * classifier at the session it has leased (via {@code configure()}), so copies of the classifier
+ * (e.g. one per cross-validation fold) train concurrently in separate R processes. The trained mlr
+ * model is kept (serialized) in the classifier, so it can be scored in whichever session is leased
+ * next, and it survives serialization of the classifier.
+ * <p>
+ * Nominal values are sent to R as their indexes (see {@code WorkerData}) and turned into factors
+ * with all the attribute's levels, so predicted class probabilities line up with the class values
+ * of the Weka header. The classifier can also train directly on a data frame cached in the session
+ * (see {@code IMIEngineDataTrainer}).
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class MLRWorkerClassifier extends AbstractClassifier implements BatchPredictor, IMIEngineDataTrainer {
+
+  private static final long serialVersionUID = -3390261817706045184L;
+
+  /**
+   * The mlr learner to use (e.g. classif.rpart)
+   */
+  protected String m_learner = "classif.rpart";
+
+  /**
+   * Parameters for the learner, as comma-separated name=value pairs
+   */
+  protected String m_learnerParams = "";
+
+  /**
+   * Name of the pool holding the session to use
+   */
+  protected transient String m_poolName;
+
+  /**
+   * ID of the session to use
+   */
+  protected transient String m_sessionID;
+
+  /**
+   * Structure of the training data
+   */
+  protected Instances m_header;
+
+  /**
+   * The trained mlr model, as serialized by R's saveRDS()
+   */
+  protected byte[] m_serializedModel;
+
+  /**
+   * Unique ID for the trained model (used to name it when loaded in a session)
+   */
+  protected String m_modelID;
+
+  /**
+   * Textual description of the trained model
+   */
+  protected String m_modelText = "";
+
+  /**
+   * Set the mlr learner to use
+   *
+   * @param learner the name of the learner (e.g. classif.rpart)
+   */
+  public void setLearner( String learner ) {
+    m_learner = learner;
+  }
+
+  /**
+   * Get the mlr learner to use
+   *
+   * @return the name of the learner
+   */
+  public String getLearner() {
+    return m_learner;
+  }
+
+  /**
+   * Set the parameters for the learner
+   *
+   * @param params comma-separated name=value pairs
+   */
+  public void setLearnerParams( String params ) {
+    m_learnerParams = params == null ? "" : params;
+  }
+
+  /**
+   * Get the parameters for the learner
+   *
+   * @return comma-separated name=value pairs
+   */
+  public String getLearnerParams() {
+    return m_learnerParams;
+  }
+
+  /**
+   * Point the classifier at a session
+   *
+   * @param poolName the name of the pool holding the session
+   * @param sessionID the ID of the session
+   */
+  public void setSession( String poolName, String sessionID ) {
+    m_poolName = poolName;
+    m_sessionID = sessionID;
+  }
+
+  @Override public Enumeration<Option> listOptions() {
+    List<Option> options = new ArrayList<>();
+    options.add( new Option( "\tThe mlr learner to use (default classif.rpart).", "learner", 1, "-learner <name>" ) );
+    options.add( new Option( "\tParameters for the learner (comma-separated name=value pairs).", "params", 1,
+      "-params <params>" ) );
+    options.addAll( Collections.list( super.listOptions() ) );
+    return Collections.enumeration( options );
+  }
+
+  @Override public void setOptions( String[] options ) throws Exception {
+    String learner = Utils.getOption( "learner", options );
+    m_learner = learner.length() > 0 ? learner : "classif.rpart";
+    m_learnerParams = Utils.getOption( "params", options );
+    super.setOptions( options );
+  }
+
+  @Override public String[] getOptions() {
+    List<String> options = new ArrayList<>();
+    options.add( "-learner" );
+    options.add( m_learner );
+    if ( m_learnerParams.length() > 0 ) {
+      options.add( "-params" );
+      options.add( m_learnerParams );
+    }
+    Collections.addAll( options, super.getOptions() );
+    return options.toArray( new String[options.size()] );
+  }
+
+  @Override public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+    result.disableAll();
+    result.enable( Capabilities.Capability.NOMINAL_ATTRIBUTES );
+    result.enable( Capabilities.Capability.NUMERIC_ATTRIBUTES );
+    result.enable( Capabilities.Capability.DATE_ATTRIBUTES );
+    result.enable( Capabilities.Capability.MISSING_VALUES );
+    result.enable( Capabilities.Capability.NOMINAL_CLASS );
+    result.enable( Capabilities.Capability.NUMERIC_CLASS );
+    result.enable( Capabilities.Capability.MISSING_CLASS_VALUES );
+    return result;
+  }
+
+  @Override public void buildClassifier( Instances data ) throws Exception {
+    getCapabilities().testWithFail( data );
+    RSessionPool pool = getPool();
+    String variable = "mi.train." + UUID.randomUUID().toString().replace( "-", "" );
+    pool.transferDataset( m_sessionID, variable, data );
+    try {
+      buildClassifier( new Instances( data, 0 ), variable );
+    } finally {
+      pool.deleteVariable( m_sessionID, variable );
+    }
+  }
+
+  /**
+   * Train the learner on a data frame held in the session
+   *
+   * @param header the structure of the training data
+   * @param variable the name of the data frame
+   * @throws Exception if a problem occurs during training
+   */
+  @Override public void buildClassifier( Instances header, String variable ) throws Exception {
+    RSessionPool pool = getPool();
+    Attribute classAtt = header.classAttribute();
+    String target = WorkerData.columnName( header.classIndex() );
+    File modelFile = WorkerData.tempFile( ".rds" );
+    try {
+      StringBuilder script = new StringBuilder( "local({\n" );
+      script.append( "d <- " ).append( variable ).append( "\n" );
+      script.append( factorScript( header ) );
+      script.append( "d <- d[!is.na(d[[\"" ).append( target ).append( "\"]]), , drop = FALSE]\n" );
+      script.append( "task <- " ).append( classAtt.isNominal() ? "makeClassifTask" : "makeRegrTask" );
+      // keep all the header's factor levels - a fold's training rows may lack some class values
+      script.append( "(data = d, target = \"" ).append( target ).append( "\", fixup.data = \"no\")\n" );
+      script.append( "lrn <- makeLearner(" ).append( RProcess.quote( m_learner ) );
+      script.append( ", par.vals = list(" ).append( m_learnerParams ).append( "))\n" );
+      if ( classAtt.isNominal() ) {
+        script.append( "if (\"prob\" %in% getLearnerProperties(lrn)) lrn <- setPredictType(lrn, \"prob\")\n" );
+      }
+      script.append( "m <- train(lrn, task)\n" );
+      script.append( "saveRDS(m, " ).append( WorkerData.quotePath( modelFile ) ).append( ")\n" );
+      script.append( "print(getLearnerModel(m))\n" );
+      script.append( "})" );
+      m_modelText = pool.evaluate( m_sessionID, script.toString() );
+      m_serializedModel = Files.readAllBytes( modelFile.toPath() );
+    } finally {
+      modelFile.delete();
+    }
+    m_header = header;
+    m_modelID = UUID.randomUUID().toString().replace( "-", "" );
+  }
+
+  @Override public double[] distributionForInstance( Instance instance ) throws Exception {
+    Instances batch = new Instances( m_header, 1 );
+    batch.add( instance );
+    return distributionsForInstances( batch )[0];
+  }
+
+  @Override public double[][] distributionsForInstances( Instances insts ) throws Exception {
+    if ( m_serializedModel == null ) {
+      throw new Exception( "No model has been built yet" );
+    }
+    RSessionPool pool = getPool();
+    String model = "mi.model." + m_modelID;
+    pool.loadModel( m_sessionID, model, m_serializedModel );
+
+    Attribute classAtt = m_header.classAttribute();
+    int numCols = classAtt.isNominal() ? classAtt.numValues() : 1;
+    File dataFile = WorkerData.tempFile( ".csv" );
+    File predsFile = WorkerData.tempFile( ".bin" );
+    try {
+      WorkerData.writeCSV( insts, dataFile );
+      StringBuilder script = new StringBuilder( "local({\n" );
+      script.append( "d <- read.csv(" ).append( WorkerData.quotePath( dataFile ) ).append( ")\n" );
+      script.append( factorScript( m_header ) );
+      script.append( "d[[\"" ).append( WorkerData.columnName( m_header.classIndex() ) ).append( "\"]] <- NULL\n" );
+      script.append( "p <- predict(" ).append( model ).append( ", newdata = d)\n" );
+      if ( classAtt.isNominal() ) {
+        // probabilities for the classes the model knows about; any others are zero
+        script.append( "out <- matrix(0, nrow(d), " ).append( numCols ).append( ")\n" );
+        script.append( "if (p$predict.type == \"prob\") {\n" );
+        script.append( "cls <- " ).append( model ).append( "$task.desc$class.levels\n" );
+        script.append( "out[, as.integer(cls) + 1] <- as.matrix(getPredictionProbabilities(p, cl = cls))\n" );
+        script.append( "} else {\n" );
+        script.append( "r <- as.integer(as.character(getPredictionResponse(p)))\n" );
+        script.append( "ok <- !is.na(r)\n" );
+        script.append( "out[cbind(which(ok), r[ok] + 1)] <- 1\n" );
+        script.append( "}\n" );
+      } else {
+        script.append( "out <- matrix(getPredictionResponse(p), ncol = 1)\n" );
+      }
+      script.append( "writeBin(as.double(t(out)), " ).append( WorkerData.quotePath( predsFile ) );
+      script.append( ", size = 8, endian = \"little\")\n" );
+      script.append( "})" );
+      pool.evaluate( m_sessionID, script.toString() );
+
+      double[][] preds = WorkerData.readDoubles( predsFile, insts.numInstances(), numCols );
+      if ( classAtt.isNominal() ) {
+        for ( double[] dist : preds ) {
+          for ( int j = 0; j < dist.length; j++ ) {
+            if ( Double.isNaN( dist[j] ) ) {
+              dist[j] = 0;
+            }
+          }
+        }
+      }
+      return preds;
+    } finally {
+      dataFile.delete();
+      predsFile.delete();
+    }
+  }
+
+  /**
+   * Generate R code that turns the nominal columns of data frame d (which hold value indexes) into
+   * factors with all the attribute's levels
+   *
+   * @param header the structure of the data
+   * @return the R code
+   */
+  protected static String factorScript( Instances header ) {
+    StringBuilder script = new StringBuilder();
+    for ( int i = 0; i < header.numAttributes(); i++ ) {
+      if ( header.attribute( i ).isNominal() ) {
+        String column = "d[[\"" + WorkerData.columnName( i ) + "\"]]";
+        script.append( column ).append( " <- factor(" ).append( column ).append( ", levels = 0:" )
+          .append( header.attribute( i ).numValues() - 1 ).append( ")\n" );
+      }
+    }
+    return script.toString();
+  }
+
+  /**
+   * Get the pool holding the session the classifier has been pointed at
+   *
+   * @return the pool
+   * @throws Exception if the classifier has not been pointed at a session of a started pool
+   */
+  protected RSessionPool getPool() throws Exception {
+    RSessionPool pool = m_poolName == null ? null : RSessionPool.getPool( m_poolName );
+    if ( pool == null || m_sessionID == null ) {
+      throw new Exception( "MLRWorkerClassifier has not been pointed at a session of a started R session pool" );
+    }
+    return pool;
+  }
+
+  @Override public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  @Override public String toString() {
+    if ( m_serializedModel == null ) {
+      return "MLRWorkerClassifier: no model built yet.";
+    }
+    return "MLRWorkerClassifier (" + m_learner + ")\n\n" + m_modelText;
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import org.phalanxdev.mi.IMIIndexedTrainer;
+import org.phalanxdev.mi.InstancesView;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps an external engine classifier (e.g. a ScikitLearnClassifier or MLRClassifier, possibly
+ * inside a FilteredClassifier) so that each training and scoring call runs on a worker leased from
+ * a named IMIWorkerPool. The pool is referred to by name, so the wrapper survives being copied via
+ * its options (as the Evaluator does for each cross-validation fold). If the pool has not been
+ * started in this JVM, the wrapped classifier runs as usual.
+ * <p>
+ * Scoring with the same trained model from several threads is serialized (the model is pointed at
+ * the leased worker for the duration of the call); separate models (e.g. one per fold or step
+ * copy) run concurrently on different workers.
+ * <p>
+ * If the pool can hold datasets on its workers (IMIDatasetCache) and the wrapped classifier can
+ * train on such data (IMIEngineDataTrainer), cross-validation folds are trained by transferring the
+ * full training data to each worker once and then selecting each fold's rows by index.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class PooledClassifier extends SingleClassifierEnhancer implements BatchPredictor, IMIIndexedTrainer {
+
+  private static final long serialVersionUID = 2270391720658305463L;
+
+  /**
+   * Started pools, keyed by name
+   */
+  protected static final Map<String, IMIWorkerPool> s_pools = new ConcurrentHashMap<>();
+
+  /**
+   * Name of the pool to lease workers from
+   */
+  protected String m_poolName = "";
+
+  /**
+   * Maximum time (milliseconds) to wait for a worker
+   */
+  protected long m_leaseTimeout = 600000;
+
+  /**
+   * Register a started pool under its name
+   *
+   * @param pool the pool to register
+   */
+  public static void registerPool( IMIWorkerPool pool ) {
+    s_pools.put( pool.getPoolName(), pool );
+  }
+
+  /**
+   * Unregister a pool
+   *
+   * @param pool the pool to unregister
+   */
+  public static void unregisterPool( IMIWorkerPool pool ) {
+    s_pools.remove( pool.getPoolName(), pool );
+  }
+
+  /**
+   * Get a registered pool
+   *
+   * @param poolName the name of the pool
+   * @return the pool, or null if no pool is registered under the name
+   */
+  public static IMIWorkerPool getPool( String poolName ) {
+    return s_pools.get( poolName );
+  }
+
+  /**
+   * Set the name of the pool to lease workers from
+   *
+   * @param poolName the name of the pool
+   */
+  public void setPoolName( String poolName ) {
+    m_poolName = poolName;
+  }
+
+  /**
+   * Get the name of the pool to lease workers from
+   *
+   * @return the name of the pool
+   */
+  public String getPoolName() {
+    return m_poolName;
+  }
+
+  /**
+   * Set the maximum time to wait for a worker
+   *
+   * @param millis the timeout in milliseconds
+   */
+  public void setLeaseTimeout( long millis ) {
+    m_leaseTimeout = millis;
+  }
+
+  /**
+   * Get the maximum time to wait for a worker
+   *
+   * @return the timeout in milliseconds
+   */
+  public long getLeaseTimeout() {
+    return m_leaseTimeout;
+  }
+
+  @Override public Enumeration<Option> listOptions() {
+    List<Option> options = new ArrayList<>();
+    options.add( new Option( "\tName of the worker pool to use.", "pool", 1, "-pool <name>" ) );
+    options.add( new Option( "\tMaximum time (ms) to wait for a worker (default 600000).", "lease-timeout", 1,
+      "-lease-timeout <ms>" ) );
+    options.addAll( Collections.list( super.listOptions() ) );
+    return Collections.enumeration( options );
+  }
+
+  @Override public void setOptions( String[] options ) throws Exception {
+    m_poolName = Utils.getOption( "pool", options );
+    String timeout = Utils.getOption( "lease-timeout", options );
+    m_leaseTimeout = timeout.length() > 0 ? Long.parseLong( timeout ) : 600000;
+    super.setOptions( options );
+  }
+
+  @Override public String[] getOptions() {
+    List<String> options = new ArrayList<>();
+    options.add( "-pool" );
+    options.add( m_poolName );
+    options.add( "-lease-timeout" );
+    options.add( "" + m_leaseTimeout );
+    Collections.addAll( options, super.getOptions() );
+    return options.toArray( new String[options.size()] );
+  }
+
+  @Override public void buildClassifier( Instances data ) throws Exception {
+    IMIWorkerPool pool = getPool( m_poolName );
+    if ( pool == null ) {
+      m_Classifier.buildClassifier( data );
+      return;
+    }
+    String workerID = pool.lease( m_leaseTimeout );
+    boolean failed = true;
+    try {
+      pool.configure( m_Classifier, workerID );
+      m_Classifier.buildClassifier( data );
+      failed = false;
+    } finally {
+      pool.release( workerID, failed );
+    }
+  }
+
+  /**
+   * Training on cached data is possible if the pool can cache datasets on its workers and the
+   * wrapped classifier can train on such data
+   *
+   * @return true if training on cached data is possible
+   */
+  @Override public boolean canTrainOnCachedData() {
+    return getPool( m_poolName ) instanceof IMIDatasetCache && m_Classifier instanceof IMIEngineDataTrainer;
+  }
+
+  /**
+   * Train on the rows of a view's source data, using a copy of the source data cached on the leased
+   * worker. The source data is transferred to a worker only the first time that worker is used with
+   * it.
+   *
+   * @param train the training data, as a view of the source data
+   * @param datasetKey the key identifying the source data
+   * @return true if the classifier was trained; false if the pool can't cache data or the wrapped
+   * classifier can't train on cached data
+   * @throws Exception if a problem occurs during training
+   */
+  @Override public boolean buildClassifier( InstancesView train, String datasetKey ) throws Exception {
+    if ( !canTrainOnCachedData() ) {
+      return false;
+    }
+    IMIWorkerPool pool = getPool( m_poolName );
+    IMIDatasetCache cache = (IMIDatasetCache) pool;
+    String workerID = pool.lease( m_leaseTimeout );
+    boolean failed = true;
+    try {
+      pool.configure( m_Classifier, workerID );
+      cache.cacheDataset( workerID, datasetKey, train.getSource() );
+      String variable = cache.selectRows( workerID, datasetKey, train.getIndices() );
+      try {
+        ( (IMIEngineDataTrainer) m_Classifier ).buildClassifier( new Instances( train.getSource(), 0 ), variable );
+      } finally {
+        cache.releaseRows( workerID, variable );
+      }
+      failed = false;
+    } finally {
+      pool.release( workerID, failed );
+    }
+    return true;
+  }
+
+  /**
+   * Release a dataset cached on the workers of the pool
+   *
+   * @param datasetKey the key identifying the dataset
+   */
+  @Override public void releaseDataset( String datasetKey ) {
+    IMIWorkerPool pool = getPool( m_poolName );
+    if ( pool instanceof IMIDatasetCache ) {
+      ( (IMIDatasetCache) pool ).releaseDataset( datasetKey );
+    }
+  }
+
+  @Override public double[] distributionForInstance( Instance instance ) throws Exception {
+    return distributionsForInstances( null, instance )[0];
+  }
+
+  @Override public double[][] distributionsForInstances( Instances insts ) throws Exception {
+    return distributionsForInstances( insts, null );
+  }
+
+  /**
+   * Score either a batch of instances or a single instance on a leased worker
+   *
+   * @param insts the batch to score (or null)
+   * @param instance the single instance to score (if insts is null)
+   * @return the predicted distributions
+   * @throws Exception if a problem occurs
+   */
+  protected double[][] distributionsForInstances( Instances insts, Instance instance ) throws Exception {
+    IMIWorkerPool pool = getPool( m_poolName );
+    synchronized ( m_Classifier ) {
+      if ( pool == null ) {
+        return score( insts, instance );
+      }
+      String workerID = pool.lease( m_leaseTimeout );
+      boolean failed = true;
+      try {
+        pool.configure( m_Classifier, workerID );
+        double[][] result = score( insts, instance );
+        failed = false;
+        return result;
+      } finally {
+        pool.release( workerID, failed );
+      }
+    }
+  }
+
+  /**
+   * Score with the wrapped classifier
+   *
+   * @param insts the batch to score (or null)
+   * @param instance the single instance to score (if insts is null)
+   * @return the predicted distributions
+   * @throws Exception if a problem occurs
+   */
+  protected double[][] score( Instances insts, Instance instance ) throws Exception {
+    if ( insts == null ) {
+      return new double[][] { m_Classifier.distributionForInstance( instance ) };
+    }
+    if ( m_Classifier instanceof BatchPredictor ) {
+      return ( (BatchPredictor) m_Classifier ).distributionsForInstances( insts );
+    }
+    double[][] result = new double[insts.numInstances()][];
+    for ( int i = 0; i < insts.numInstances(); i++ ) {
+      result[i] = m_Classifier.distributionForInstance( insts.instance( i ) );
+    }
+    return result;
+  }
+
+  @Override public boolean implementsMoreEfficientBatchPrediction() {
+    return m_Classifier instanceof BatchPredictor && ( (BatchPredictor) m_Classifier )
+      .implementsMoreEfficientBatchPrediction();
+  }
+
+  @Override public void setBatchSize( String size ) {
+    if ( m_Classifier instanceof BatchPredictor ) {
+      ( (BatchPredictor) m_Classifier ).setBatchSize( size );
+    }
+  }
+
+  @Override public String getBatchSize() {
+    return m_Classifier instanceof BatchPredictor ? ( (BatchPredictor) m_Classifier ).getBatchSize() : "100";
+  }
+
+  @Override public String toString() {
+    return m_Classifier.toString();
+  }
+}
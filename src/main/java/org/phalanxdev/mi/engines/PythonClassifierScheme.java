@@ -19,6 +19,7 @@ import org.phalanxdev.mi.SchemeUtils;
 import org.phalanxdev.mi.UnsupportedSchemeException;
 import org.phalanxdev.mi.SupervisedScheme;
 import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -75,6 +76,11 @@ public class PythonClassifierScheme extends SupervisedScheme {
    */
   protected Tag[] m_tagsLearner;
 
+  /**
+   * Name of a PythonServerPool to run training and scoring on (empty = use the scheme's own server)
+   */
+  protected String m_serverPoolName = "";
+
   /**
    * Constructor
    *
@@ -87,6 +93,26 @@ public class PythonClassifierScheme extends SupervisedScheme {
     instantiatePythonClassifier( schemeName );
   }
 
+  /**
+   * Set the name of a (started) PythonServerPool to run training and scoring on. Configured schemes
+   * then run their learner with a ScikitLearnWorkerClassifier, wrapped in a PooledClassifier, so
+   * that each training and scoring call leases a server from the pool
+   *
+   * @param poolName the name of the pool (null or empty to use the scheme's own server)
+   */
+  public void setServerPoolName( String poolName ) {
+    m_serverPoolName = poolName == null ? "" : poolName;
+  }
+
+  /**
+   * Get the name of the PythonServerPool to run training and scoring on
+   *
+   * @return the name of the pool (empty if the scheme's own server is used)
+   */
+  public String getServerPoolName() {
+    return m_serverPoolName;
+  }
+
   /**
    * Instantiates the wrapped ScikitLearnClassifier and configures it to use the specified scheme.
    *
@@ -529,6 +555,30 @@ public class PythonClassifierScheme extends SupervisedScheme {
     // TODO could do something for MultinomialNB. If no string atts then convert to one of the other
     // NBs (based on number of numeric vs nominal perhaps?).
 
+    if ( !SchemeUtils.isEmpty( m_serverPoolName ) ) {
+      // run the learner with the worker classifier, which can train on data cached on the servers
+      // (so cross-validation folds only send their row indexes)
+      Classifier parent = null;
+      Classifier leaf = finalScheme;
+      while ( leaf instanceof SingleClassifierEnhancer ) {
+        parent = leaf;
+        leaf = ( (SingleClassifierEnhancer) leaf ).getClassifier();
+      }
+      ScikitLearnWorkerClassifier worker = new ScikitLearnWorkerClassifier();
+      worker.setLearner( m_learnerEnumValues[getLearnerFromScheme( leaf )].toString() );
+      worker.setLearnerOpts( getLearnerOptsFromScheme( leaf ) );
+      if ( parent == null ) {
+        finalScheme = worker;
+      } else {
+        ( (SingleClassifierEnhancer) parent ).setClassifier( worker );
+      }
+
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName( m_serverPoolName );
+      pooled.setClassifier( finalScheme );
+      finalScheme = pooled;
+    }
+
     return finalScheme;
   }
 
@@ -581,9 +631,23 @@ public class PythonClassifierScheme extends SupervisedScheme {
   }
 
   public void setConfiguredScheme( Object scheme ) throws Exception {
+    if ( scheme instanceof PooledClassifier ) {
+      scheme = ( (PooledClassifier) scheme ).getClassifier();
+    }
     if ( scheme instanceof FilteredClassifier ) {
       scheme = ( (FilteredClassifier) scheme ).getClassifier();
     }
+    while ( scheme instanceof SingleClassifierEnhancer ) {
+      scheme = ( (SingleClassifierEnhancer) scheme ).getClassifier();
+    }
+    if ( scheme instanceof ScikitLearnWorkerClassifier ) {
+      ScikitLearnWorkerClassifier worker = (ScikitLearnWorkerClassifier) scheme;
+      if ( !worker.getLearner().equals( m_pythonLearner ) ) {
+        throw new Exception( "Configured scheme type '" + worker.getLearner() + "' is not equal to " + m_pythonLearner );
+      }
+      setLearnerOptsOnScheme( m_scheme, worker.getLearnerOpts() );
+      return;
+    }
     String schemeClass = scheme.getClass().getCanonicalName();
     if ( !schemeClass.equals( "weka.classifiers.sklearn.ScikitLearnClassifier" ) ) {
       throw new Exception( "Supplied configured scheme is not of the correct type" );
@@ -0,0 +1,704 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.core.Instances;
+import weka.core.WekaPackageClassLoaderManager;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of python server processes, so that scikit-learn training and scoring tasks (e.g.
+ * cross-validation folds, or parallel step copies) can run concurrently rather than queueing behind
+ * a single interpreter. Each server is a separate wekaPython session, identified by a server ID
+ * (wekaPython >= 1.0.13 starts a separate python process for each distinct python command/server
+ * ID combination). Servers are started, and warmed up with an optional script, in parallel when the
+ * pool starts. A task leases a server ID, points its classifier (a ScikitLearnWorkerClassifier, or
+ * a wekaPython ScikitLearnClassifier) at that server and returns the lease when done. Servers are health checked when a task that used them fails (and,
+ * optionally, each time they are leased), and ones that have crashed are replaced with a freshly
+ * started server.
+ * <p>
+ * Datasets can be cached on the servers (as pandas data frames), so that cross-validation folds
+ * transfer the data to each server once and then select their rows by index.
+ * <p>
+ * Pools are registered by name, so that classifiers that are copied via their options (see {@code
+ * PooledClassifier}) can find their pool again.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class PythonServerPool implements IMIWorkerPool, IMIDatasetCache {
+
+  /**
+   * Class of the wekaPython session
+   */
+  protected static final String SESSION_CLASS = "weka.python.PythonSession";
+
+  /**
+   * Maximum number of trained models to keep loaded on each server
+   */
+  protected static final int MAX_LOADED_MODELS = 8;
+
+  /**
+   * Name of the pool (also used as a prefix for server IDs)
+   */
+  protected String m_poolName;
+
+  /**
+   * Python command to launch servers with
+   */
+  protected String m_pythonCommand;
+
+  /**
+   * Optional value for the PATH environment variable of the servers
+   */
+  protected String m_pythonPath;
+
+  /**
+   * Number of servers in the pool
+   */
+  protected int m_size;
+
+  /**
+   * Optional python script to run on each server when it starts (e.g. to import scikit-learn)
+   */
+  protected String m_warmUpScript = "import sklearn";
+
+  /**
+   * True if servers should be health checked each time they are leased. Off by default, as a check
+   * costs two round trips to the server and scoring leases a server for each call; servers are
+   * always checked when a task that used them fails.
+   */
+  protected boolean m_healthCheckOnLease;
+
+  /**
+   * True to output debugging info from the python sessions
+   */
+  protected boolean m_debug;
+
+  /**
+   * Servers that are not currently leased
+   */
+  protected final BlockingQueue<String> m_idle = new LinkedBlockingQueue<>();
+
+  /**
+   * All the servers in the pool
+   */
+  protected final Set<String> m_servers = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Used to generate unique server IDs (replacement servers get new IDs, and hence new processes)
+   */
+  protected final AtomicInteger m_serverCount = new AtomicInteger();
+
+  /**
+   * Keys of the datasets cached on each server
+   */
+  protected final Map<String, Set<String>> m_cachedDatasets = new ConcurrentHashMap<>();
+
+  /**
+   * Names of the models loaded on each server, least recently used first
+   */
+  protected final Map<String, LinkedHashMap<String, Boolean>> m_loadedModels = new ConcurrentHashMap<>();
+
+  /**
+   * Used to generate unique names for selected rows
+   */
+  protected final AtomicInteger m_selectionCount = new AtomicInteger();
+
+  /**
+   * Constructor
+   *
+   * @param poolName the name of the pool
+   * @param pythonCommand the python command to launch servers with
+   * @param pythonPath optional value for the PATH environment variable of the servers (may be null)
+   * @param size the number of servers in the pool
+   */
+  public PythonServerPool( String poolName, String pythonCommand, String pythonPath, int size ) {
+    m_poolName = poolName;
+    m_pythonCommand = pythonCommand;
+    m_pythonPath = pythonPath;
+    m_size = size;
+  }
+
+  /**
+   * Get a pool that has been started
+   *
+   * @param poolName the name of the pool
+   * @return the pool, or null if there is no started pool with the name
+   */
+  public static PythonServerPool getPool( String poolName ) {
+    IMIWorkerPool pool = PooledClassifier.getPool( poolName );
+    return pool instanceof PythonServerPool ? (PythonServerPool) pool : null;
+  }
+
+  /**
+   * Get the name of the pool
+   *
+   * @return the name of the pool
+   */
+  @Override public String getPoolName() {
+    return m_poolName;
+  }
+
+  /**
+   * Get the python command that servers are launched with
+   *
+   * @return the python command
+   */
+  public String getPythonCommand() {
+    return m_pythonCommand;
+  }
+
+  /**
+   * Get the value for the PATH environment variable of the servers
+   *
+   * @return the path, or null if not set
+   */
+  public String getPythonPath() {
+    return m_pythonPath;
+  }
+
+  /**
+   * Get the number of servers the pool was configured with
+   *
+   * @return the configured pool size
+   */
+  public int getSize() {
+    return m_size;
+  }
+
+  /**
+   * Set a python script to run on each server when it starts
+   *
+   * @param script the warm-up script (null or empty for none)
+   */
+  public void setWarmUpScript( String script ) {
+    m_warmUpScript = script;
+  }
+
+  /**
+   * Get the python script to run on each server when it starts
+   *
+   * @return the warm-up script
+   */
+  public String getWarmUpScript() {
+    return m_warmUpScript;
+  }
+
+  /**
+   * Set whether servers should be health checked each time they are leased
+   *
+   * @param check true to health check on lease
+   */
+  public void setHealthCheckOnLease( boolean check ) {
+    m_healthCheckOnLease = check;
+  }
+
+  /**
+   * Get whether servers should be health checked each time they are leased
+   *
+   * @return true to health check on lease
+   */
+  public boolean getHealthCheckOnLease() {
+    return m_healthCheckOnLease;
+  }
+
+  /**
+   * Set whether to output debugging info from the python sessions
+   *
+   * @param debug true to output debugging info
+   */
+  public void setDebug( boolean debug ) {
+    m_debug = debug;
+  }
+
+  /**
+   * Get whether to output debugging info from the python sessions
+   *
+   * @return true to output debugging info
+   */
+  public boolean getDebug() {
+    return m_debug;
+  }
+
+  /**
+   * Get the number of servers currently in the pool
+   *
+   * @return the number of servers
+   */
+  public int getNumServers() {
+    return m_servers.size();
+  }
+
+  /**
+   * Get the number of servers that are not currently leased
+   *
+   * @return the number of idle servers
+   */
+  public int getNumIdle() {
+    return m_idle.size();
+  }
+
+  /**
+   * Start (and warm up) the servers in parallel, and register the pool under its name
+   *
+   * @throws Exception if none of the servers could be started
+   */
+  public synchronized void start() throws Exception {
+    if ( !m_servers.isEmpty() ) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, m_size ) );
+    List<Future<String>> starts = new ArrayList<>();
+    try {
+      for ( int i = 0; i < m_size; i++ ) {
+        starts.add( executor.submit( new Callable<String>() {
+          @Override public String call() throws Exception {
+            String serverID = newServerID();
+            return startServer( serverID ) ? serverID : null;
+          }
+        } ) );
+      }
+      Exception lastError = null;
+      for ( Future<String> start : starts ) {
+        try {
+          String serverID = start.get();
+          if ( serverID != null ) {
+            m_servers.add( serverID );
+            m_idle.add( serverID );
+          }
+        } catch ( Exception ex ) {
+          lastError = ex;
+        }
+      }
+      if ( m_servers.isEmpty() ) {
+        throw new Exception( "Unable to start any python servers for pool '" + m_poolName + "'", lastError );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    PooledClassifier.registerPool( this );
+  }
+
+  /**
+   * Lease a server. The server is health checked first (if turned on); a server that fails the
+   * check is replaced.
+   *
+   * @param timeoutMillis maximum time to wait for a server to become free
+   * @return the ID of the leased server
+   * @throws Exception if no server becomes free within the timeout, or no working servers remain
+   */
+  @Override public String lease( long timeoutMillis ) throws Exception {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while ( true ) {
+      if ( m_servers.isEmpty() ) {
+        throw new Exception( "Python server pool '" + m_poolName + "' has no working servers" );
+      }
+      String serverID = m_idle.poll( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+      if ( serverID == null ) {
+        throw new TimeoutException( "Timed out waiting for a server from python server pool '" + m_poolName + "'" );
+      }
+      if ( !m_healthCheckOnLease || checkServer( serverID ) ) {
+        return serverID;
+      }
+      String replacement = replaceServer( serverID );
+      if ( replacement != null ) {
+        return replacement;
+      }
+    }
+  }
+
+  /**
+   * Return a leased server to the pool
+   *
+   * @param serverID the ID of the server
+   * @param taskFailed true if the task that used the server failed (the server is then checked, and
+   *                   replaced if it has crashed)
+   */
+  @Override public void release( String serverID, boolean taskFailed ) {
+    if ( !m_servers.contains( serverID ) ) {
+      return;
+    }
+    if ( taskFailed && !checkServer( serverID ) ) {
+      String replacement = replaceServer( serverID );
+      if ( replacement != null ) {
+        m_idle.add( replacement );
+      }
+      return;
+    }
+    m_idle.add( serverID );
+  }
+
+  /**
+   * Stop all the servers and unregister the pool
+   */
+  public synchronized void shutdown() {
+    PooledClassifier.unregisterPool( this );
+    for ( String serverID : m_servers ) {
+      stopServer( serverID );
+    }
+    m_servers.clear();
+    m_idle.clear();
+    m_cachedDatasets.clear();
+    m_loadedModels.clear();
+  }
+
+  /**
+   * Point a ScikitLearnWorkerClassifier or ScikitLearnClassifier (possibly wrapped, e.g. in a
+   * FilteredClassifier) at a server in this pool
+   *
+   * @param classifier the classifier to configure
+   * @param serverID the ID of the server to use
+   * @throws Exception if the classifier does not support choosing a server (wekaPython < 1.0.13)
+   */
+  @Override public void configure( Classifier classifier, String serverID ) throws Exception {
+    Classifier c = classifier;
+    while ( c instanceof SingleClassifierEnhancer && !hasMethod( c, "setServerID" ) ) {
+      c = ( (SingleClassifierEnhancer) c ).getClassifier();
+    }
+    if ( c instanceof ScikitLearnWorkerClassifier ) {
+      ( (ScikitLearnWorkerClassifier) c ).setServer( m_poolName, serverID );
+      return;
+    }
+    c.getClass().getMethod( "setPythonCommand", String.class ).invoke( c, m_pythonCommand );
+    if ( m_pythonPath != null && m_pythonPath.length() > 0 ) {
+      c.getClass().getMethod( "setPythonPath", String.class ).invoke( c, m_pythonPath );
+    }
+    c.getClass().getMethod( "setServerID", String.class ).invoke( c, serverID );
+  }
+
+  /**
+   * Transfer a dataset to a server (as a pandas data frame), if the server does not already hold it
+   *
+   * @param serverID the ID of the server
+   * @param key the key identifying the dataset
+   * @param data the dataset
+   * @throws Exception if the dataset can't be transferred
+   */
+  @Override public void cacheDataset( String serverID, String key, Instances data ) throws Exception {
+    Set<String> cached = m_cachedDatasets.get( serverID );
+    if ( cached == null ) {
+      cached = ConcurrentHashMap.newKeySet();
+      Set<String> existing = m_cachedDatasets.putIfAbsent( serverID, cached );
+      if ( existing != null ) {
+        cached = existing;
+      }
+    }
+    synchronized ( cached ) {
+      if ( !cached.contains( key ) ) {
+        transferDataset( serverID, datasetVariable( key ), data );
+        cached.add( key );
+      }
+    }
+  }
+
+  /**
+   * Select rows of a cached dataset into a new data frame on a server
+   *
+   * @param serverID the ID of the server
+   * @param key the key identifying the dataset
+   * @param rows the (zero-based) indexes of the rows to select
+   * @return the name of the data frame holding the selected rows
+   * @throws Exception if the rows can't be selected
+   */
+  @Override public String selectRows( String serverID, String key, int[] rows ) throws Exception {
+    String variable = "_mi_rows_" + m_selectionCount.incrementAndGet();
+    // the indexes are passed as data (a file of int32s), rather than as a literal in the script
+    File indexFile = WorkerData.tempFile( ".idx" );
+    try {
+      WorkerData.writeIndices( rows, indexFile );
+      runScript( serverID, variable + " = " + datasetVariable( key ) + ".iloc[__import__('numpy').fromfile("
+        + WorkerData.quotePath( indexFile ) + ", dtype='<i4')].reset_index(drop=True)" );
+    } finally {
+      indexFile.delete();
+    }
+    return variable;
+  }
+
+  /**
+   * Release a data frame created by {@code selectRows()}
+   *
+   * @param serverID the ID of the server
+   * @param variable the name of the data frame
+   */
+  @Override public void releaseRows( String serverID, String variable ) {
+    deleteVariable( serverID, variable );
+  }
+
+  /**
+   * Release a dataset on all the servers that hold it
+   *
+   * @param key the key identifying the dataset
+   */
+  @Override public void releaseDataset( String key ) {
+    for ( Map.Entry<String, Set<String>> e : m_cachedDatasets.entrySet() ) {
+      // same lock as cacheDataset(), so a transfer in progress completes before the release
+      synchronized ( e.getValue() ) {
+        if ( e.getValue().remove( key ) ) {
+          deleteVariable( e.getKey(), datasetVariable( key ) );
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the name of the data frame that holds a cached dataset
+   *
+   * @param key the key identifying the dataset
+   * @return the name of the data frame
+   */
+  protected static String datasetVariable( String key ) {
+    return "_mi_data_" + key;
+  }
+
+  /**
+   * Transfer a dataset to a server, via a CSV file (see {@code WorkerData})
+   *
+   * @param serverID the ID of the server
+   * @param variable the name of the data frame to create
+   * @param data the dataset
+   * @throws Exception if the dataset can't be transferred
+   */
+  protected void transferDataset( String serverID, String variable, Instances data ) throws Exception {
+    File csv = WorkerData.tempFile( ".csv" );
+    try {
+      WorkerData.writeCSV( data, csv );
+      runScript( serverID, variable + " = __import__('pandas').read_csv(" + WorkerData.quotePath( csv ) + ")" );
+    } finally {
+      csv.delete();
+    }
+  }
+
+  /**
+   * Make sure a (pickled) model is loaded on a server. The most recently used models are kept
+   * loaded, so that scoring calls don't reload them each time.
+   *
+   * @param serverID the ID of the server
+   * @param variable the name of the python variable to hold the model
+   * @param serializedModel the pickled model
+   * @throws Exception if the model can't be loaded
+   */
+  public void loadModel( String serverID, String variable, byte[] serializedModel ) throws Exception {
+    LinkedHashMap<String, Boolean> loaded = m_loadedModels.get( serverID );
+    if ( loaded == null ) {
+      loaded = new LinkedHashMap<>( 16, 0.75f, true );
+      LinkedHashMap<String, Boolean> existing = m_loadedModels.putIfAbsent( serverID, loaded );
+      if ( existing != null ) {
+        loaded = existing;
+      }
+    }
+    synchronized ( loaded ) {
+      if ( loaded.get( variable ) != null ) {
+        return;
+      }
+      File modelFile = WorkerData.tempFile( ".pkl" );
+      try {
+        Files.write( modelFile.toPath(), serializedModel );
+        runScript( serverID, "with open(" + WorkerData.quotePath( modelFile ) + ", 'rb') as _mi_f:\n    " + variable
+          + " = __import__('pickle').load(_mi_f)\ndel _mi_f" );
+      } finally {
+        modelFile.delete();
+      }
+      loaded.put( variable, Boolean.TRUE );
+      Iterator<String> lru = loaded.keySet().iterator();
+      while ( loaded.size() > MAX_LOADED_MODELS ) {
+        deleteVariable( serverID, lru.next() );
+        lru.remove();
+      }
+    }
+  }
+
+  /**
+   * Delete a variable on a server
+   *
+   * @param serverID the ID of the server
+   * @param variable the name of the variable
+   */
+  protected void deleteVariable( String serverID, String variable ) {
+    try {
+      runScript( serverID, "del " + variable );
+    } catch ( Exception ex ) {
+      // the server has gone, and the variable with it
+    }
+  }
+
+  /**
+   * Stop a server and start a new one (with a new ID) in its place
+   *
+   * @param serverID the ID of the server to replace
+   * @return the ID of the replacement server, or null if a replacement could not be started
+   */
+  protected String replaceServer( String serverID ) {
+    m_servers.remove( serverID );
+    m_cachedDatasets.remove( serverID );
+    m_loadedModels.remove( serverID );
+    stopServer( serverID );
+    String replacement = newServerID();
+    try {
+      if ( startServer( replacement ) ) {
+        m_servers.add( replacement );
+        return replacement;
+      }
+    } catch ( Exception ex ) {
+      // the pool shrinks
+    }
+    return null;
+  }
+
+  /**
+   * Generate a new, unique, server ID
+   *
+   * @return a server ID
+   */
+  protected String newServerID() {
+    return m_poolName + "-" + m_serverCount.incrementAndGet();
+  }
+
+  /**
+   * Start a server and run the warm-up script on it
+   *
+   * @param serverID the ID of the server to start
+   * @return true if the server started successfully
+   * @throws Exception if a problem occurs
+   */
+  protected boolean startServer( String serverID ) throws Exception {
+    Boolean started =
+      (Boolean) invokeSessionMethod( "initSession", new Class<?>[] { String.class, String.class, String.class,
+        boolean.class }, m_pythonCommand, serverID, m_pythonPath, m_debug );
+    if ( started == null || !started ) {
+      return false;
+    }
+    if ( m_warmUpScript != null && m_warmUpScript.length() > 0 ) {
+      runScript( serverID, m_warmUpScript );
+    }
+    return true;
+  }
+
+  /**
+   * Check that a server is alive and responding
+   *
+   * @param serverID the ID of the server
+   * @return true if the server is healthy
+   */
+  protected boolean checkServer( String serverID ) {
+    try {
+      Boolean available =
+        (Boolean) invokeSessionMethod( "pythonAvailable", new Class<?>[] { String.class, String.class },
+          m_pythonCommand, serverID );
+      if ( available == null || !available ) {
+        return false;
+      }
+      runScript( serverID, "_mi_health_check = 1" );
+      return true;
+    } catch ( Exception ex ) {
+      return false;
+    }
+  }
+
+  /**
+   * Stop a server
+   *
+   * @param serverID the ID of the server
+   */
+  protected void stopServer( String serverID ) {
+    try {
+      invokeSessionMethod( "cleanUp", new Class<?>[] { String.class, String.class }, m_pythonCommand, serverID );
+    } catch ( Exception ex ) {
+      // not supported by this version of wekaPython, or the server has already gone
+    }
+  }
+
+  /**
+   * Run a script on a server
+   *
+   * @param serverID the ID of the server
+   * @param script the script to run
+   * @throws Exception if the script can't be run, or raises an error
+   */
+  protected void runScript( String serverID, String script ) throws Exception {
+    Object requester = new Object();
+    Object session =
+      invokeSessionMethod( "acquireSession", new Class<?>[] { String.class, String.class, Object.class },
+        m_pythonCommand, serverID, requester );
+    try {
+      Object outAndErr = session.getClass().getMethod( "executeScript", String.class, boolean.class )
+        .invoke( session, script, m_debug );
+      // executeScript() returns the script's standard output and error
+      if ( outAndErr instanceof List && ( (List<?>) outAndErr ).size() > 1 ) {
+        Object err = ( (List<?>) outAndErr ).get( 1 );
+        if ( err != null && err.toString().contains( "Traceback" ) ) {
+          throw new Exception( "Python error on server '" + serverID + "': " + err );
+        }
+      }
+    } finally {
+      invokeSessionMethod( "releaseSession", new Class<?>[] { String.class, String.class, Object.class },
+        m_pythonCommand, serverID, requester );
+    }
+  }
+
+  /**
+   * Invoke a static method of the wekaPython session class
+   *
+   * @param methodName the name of the method
+   * @param types the parameter types of the method
+   * @param args the arguments
+   * @return the result of the method
+   * @throws Exception if the method can't be invoked
+   */
+  protected static Object invokeSessionMethod( String methodName, Class<?>[] types, Object... args )
+    throws Exception {
+    Class<?> sessionClass = WekaPackageClassLoaderManager.forName( SESSION_CLASS );
+    Method m = sessionClass.getMethod( methodName, types );
+    return m.invoke( null, args );
+  }
+
+  /**
+   * Returns true if an object has a public method with the given name
+   *
+   * @param o the object to check
+   * @param methodName the name of the method
+   * @return true if the method exists
+   */
+  protected static boolean hasMethod( Object o, String methodName ) {
+    for ( Method m : o.getClass().getMethods() ) {
+      if ( m.getName().equals( methodName ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
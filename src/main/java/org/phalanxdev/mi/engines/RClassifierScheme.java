@@ -19,6 +19,7 @@ import org.phalanxdev.mi.SchemeUtils;
 import org.phalanxdev.mi.SupervisedScheme;
 import org.phalanxdev.mi.UnsupportedSchemeException;
 import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -79,6 +80,11 @@ public class RClassifierScheme extends SupervisedScheme {
 
   protected Tag m_mlrLearner;
 
+  /**
+   * Name of an RSessionPool to run training and scoring on (empty = use the R session directly)
+   */
+  protected String m_sessionPoolName = "";
+
   /**
    * Constructor
    *
@@ -91,6 +97,26 @@ public class RClassifierScheme extends SupervisedScheme {
     instantiateMLRClassifier( schemeName );
   }
 
+  /**
+   * Set the name of a (started) RSessionPool to run training and scoring on. Configured schemes are
+   * then run by an MLRWorkerClassifier wrapped in a PooledClassifier, so that each training and
+   * scoring call leases a session (a separate R process) from the pool
+   *
+   * @param poolName the name of the pool (null or empty to use the R session directly)
+   */
+  public void setSessionPoolName( String poolName ) {
+    m_sessionPoolName = poolName == null ? "" : poolName;
+  }
+
+  /**
+   * Get the name of the RSessionPool to run training and scoring on
+   *
+   * @return the name of the pool (empty if the R session is used directly)
+   */
+  public String getSessionPoolName() {
+    return m_sessionPoolName;
+  }
+
   /**
    * Instantiates the MLRClassifier and configures it to use the named scheme
    *
@@ -905,14 +931,53 @@ public class RClassifierScheme extends SupervisedScheme {
       filter.setFilters( currentFilters.toArray( new Filter[currentFilters.size()] ) );
     }
 
+    if ( !SchemeUtils.isEmpty( m_sessionPoolName ) ) {
+      // pooled sessions are separate R processes, which the MLRClassifier (bound to the R session
+      // embedded in the JVM) can't use - swap in the equivalent worker classifier
+      MLRWorkerClassifier worker = new MLRWorkerClassifier();
+      worker.setLearner( m_mlrLearner.getReadable() );
+      worker.setLearnerParams( getLearnerOptsFromScheme( m_scheme ) );
+      if ( finalScheme == m_scheme ) {
+        finalScheme = worker;
+      } else {
+        Classifier parent = finalScheme;
+        while ( parent instanceof SingleClassifierEnhancer
+            && ( (SingleClassifierEnhancer) parent ).getClassifier() != m_scheme ) {
+          parent = ( (SingleClassifierEnhancer) parent ).getClassifier();
+        }
+        if ( parent instanceof SingleClassifierEnhancer ) {
+          ( (SingleClassifierEnhancer) parent ).setClassifier( worker );
+        }
+      }
+
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName( m_sessionPoolName );
+      pooled.setClassifier( finalScheme );
+      finalScheme = pooled;
+    }
+
     return finalScheme;
   }
 
   public void setConfiguredScheme( Object scheme ) throws Exception {
+    if ( scheme instanceof PooledClassifier ) {
+      scheme = ( (PooledClassifier) scheme ).getClassifier();
+    }
     if ( scheme instanceof FilteredClassifier ) {
       scheme = ( (FilteredClassifier) scheme ).getClassifier();
     }
 
+    if ( scheme instanceof MLRWorkerClassifier ) {
+      MLRWorkerClassifier worker = (MLRWorkerClassifier) scheme;
+      Tag workerTag = findApplicableTagForScheme( worker.getLearner() );
+      if ( m_mlrLearner.getID() != workerTag.getID() ) {
+        throw new Exception(
+            "Configured scheme type '" + workerTag.getReadable() + "' is not equal to " + m_mlrLearner.getReadable() );
+      }
+      setLearnerOptsOnScheme( m_scheme, worker.getLearnerParams() );
+      return;
+    }
+
     String schemeClass = scheme.getClass().getCanonicalName();
     if ( !schemeClass.equals( "weka.classifiers.mlr.MLRClassifier" ) ) {
       throw new Exception( "Supplied configured scheme is not of the correct type" );
@@ -0,0 +1,191 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An R interpreter running in a separate process, driven through its standard input and output.
+ * Unlike the JRI-embedded session of the RPlugin package (of which there can only be one per JVM),
+ * any number of these can run concurrently. Each script is parsed and evaluated inside a {@code
+ * tryCatch()}, so R errors (including syntax errors) are reported back as exceptions, and the
+ * interpreter stays usable afterwards.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class RProcess {
+
+  /**
+   * Marker written by R when a script has been evaluated
+   */
+  protected static final String DONE_MARKER = "<<MI-DONE>>";
+
+  /**
+   * Marker written by R in front of the message of an error
+   */
+  protected static final String ERROR_MARKER = "<<MI-ERROR>>";
+
+  /**
+   * The command to launch R with
+   */
+  protected String m_rCommand;
+
+  /**
+   * The R process
+   */
+  protected Process m_process;
+
+  /**
+   * Writes to the standard input of R
+   */
+  protected BufferedWriter m_toR;
+
+  /**
+   * Reads the (combined) standard output and error of R
+   */
+  protected BufferedReader m_fromR;
+
+  /**
+   * Constructor
+   *
+   * @param rCommand the command to launch R with (e.g. R, or the full path to the R executable)
+   */
+  public RProcess( String rCommand ) {
+    m_rCommand = rCommand;
+  }
+
+  /**
+   * Launch the R process
+   *
+   * @throws Exception if R can't be launched, or does not respond
+   */
+  public synchronized void start() throws Exception {
+    ProcessBuilder builder = new ProcessBuilder( m_rCommand, "--vanilla", "--slave" );
+    builder.redirectErrorStream( true );
+    m_process = builder.start();
+    m_toR = new BufferedWriter( new OutputStreamWriter( m_process.getOutputStream(), StandardCharsets.UTF_8 ) );
+    m_fromR = new BufferedReader( new InputStreamReader( m_process.getInputStream(), StandardCharsets.UTF_8 ) );
+    eval( "invisible(NULL)" );
+  }
+
+  /**
+   * Returns true if the R process is running
+   *
+   * @return true if the process is running
+   */
+  public boolean isAlive() {
+    return m_process != null && m_process.isAlive();
+  }
+
+  /**
+   * Evaluate a script
+   *
+   * @param script the R script to evaluate
+   * @return anything the script printed
+   * @throws Exception if the script raises an error, or the R process has died
+   */
+  public synchronized String eval( String script ) throws Exception {
+    if ( !isAlive() ) {
+      throw new IOException( "The R process is not running" );
+    }
+    m_toR.write( "invisible(tryCatch(eval(parse(text = " + quote( script ) + ")), error = function(e) cat(\"\\n"
+      + ERROR_MARKER + "\", gsub(\"\\n\", \" \", conditionMessage(e)), \"\\n\")))" );
+    m_toR.newLine();
+    m_toR.write( "cat(\"\\n" + DONE_MARKER + "\\n\")" );
+    m_toR.newLine();
+    m_toR.flush();
+
+    List<String> output = new ArrayList<>();
+    String error = null;
+    String line;
+    while ( ( line = m_fromR.readLine() ) != null ) {
+      if ( line.equals( DONE_MARKER ) ) {
+        if ( error != null ) {
+          throw new Exception( "R error: " + error );
+        }
+        StringBuilder result = new StringBuilder();
+        for ( String l : output ) {
+          result.append( l ).append( "\n" );
+        }
+        return result.toString().trim();
+      }
+      if ( line.startsWith( ERROR_MARKER ) ) {
+        error = line.substring( ERROR_MARKER.length() ).trim();
+      } else {
+        output.add( line );
+      }
+    }
+    throw new IOException( "The R process exited" );
+  }
+
+  /**
+   * Stop the R process
+   */
+  public synchronized void close() {
+    if ( m_process == null ) {
+      return;
+    }
+    try {
+      m_toR.write( "q(\"no\")" );
+      m_toR.newLine();
+      m_toR.flush();
+    } catch ( IOException ex ) {
+      // already gone
+    }
+    m_process.destroy();
+    m_process = null;
+  }
+
+  /**
+   * Quote a string as an R string literal
+   *
+   * @param s the string to quote
+   * @return the R string literal
+   */
+  public static String quote( String s ) {
+    StringBuilder b = new StringBuilder( "\"" );
+    for ( char c : s.toCharArray() ) {
+      switch ( c ) {
+        case '\\':
+          b.append( "\\\\" );
+          break;
+        case '"':
+          b.append( "\\\"" );
+          break;
+        case '\n':
+          b.append( "\\n" );
+          break;
+        case '\r':
+          b.append( "\\r" );
+          break;
+        case '\t':
+          b.append( "\\t" );
+          break;
+        default:
+          b.append( c );
+      }
+    }
+    return b.append( '"' ).toString();
+  }
+}
@@ -0,0 +1,641 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.core.Instances;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of R sessions, each an R interpreter running in its own process (see {@code RProcess}),
+ * so that MLR training and scoring tasks (e.g. cross-validation folds, or parallel step copies) run
+ * concurrently rather than queueing for the single R session that the RPlugin package embeds in
+ * the JVM. Tasks lease a session for their duration and return it when done, waiting (up to a
+ * timeout) when all sessions are busy. Sessions are started in parallel when the pool starts, and
+ * each has a list of R libraries (mlr and the learners' packages) loaded once, rather than on first
+ * use by each task. Sessions are health checked when a task that used them fails (and, optionally,
+ * each time they are leased), and ones that have died are replaced.
+ * <p>
+ * Tasks run on a session through an {@code MLRWorkerClassifier}, which {@code configure()} points
+ * at the leased session. Datasets can be cached in the sessions (as data frames), so that
+ * cross-validation folds transfer the data once and then select their rows by index.
+ * <p>
+ * Pools are registered by name, so that classifiers that are copied via their options (see {@code
+ * PooledClassifier}) can find their pool again.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class RSessionPool implements IMIWorkerPool, IMIDatasetCache {
+
+  /**
+   * Maximum number of trained models to keep loaded in each session
+   */
+  protected static final int MAX_LOADED_MODELS = 8;
+
+  /**
+   * Name of the pool (also used as a prefix for session IDs)
+   */
+  protected String m_poolName;
+
+  /**
+   * Command to launch R with
+   */
+  protected String m_rCommand;
+
+  /**
+   * Number of sessions in the pool
+   */
+  protected int m_size;
+
+  /**
+   * R libraries to load in each session when it starts
+   */
+  protected List<String> m_preloadLibraries = new ArrayList<>( Collections.singletonList( "mlr" ) );
+
+  /**
+   * True if sessions should be health checked each time they are leased
+   */
+  protected boolean m_healthCheckOnLease;
+
+  /**
+   * Sessions that are not currently leased
+   */
+  protected final BlockingQueue<String> m_idle = new LinkedBlockingQueue<>();
+
+  /**
+   * All the sessions in the pool, keyed by ID
+   */
+  protected final Map<String, RProcess> m_sessions = new ConcurrentHashMap<>();
+
+  /**
+   * Used to generate unique session IDs (replacement sessions get new IDs)
+   */
+  protected final AtomicInteger m_sessionCount = new AtomicInteger();
+
+  /**
+   * Keys of the datasets cached in each session
+   */
+  protected final Map<String, Set<String>> m_cachedDatasets = new ConcurrentHashMap<>();
+
+  /**
+   * Names of the models loaded in each session, least recently used first
+   */
+  protected final Map<String, LinkedHashMap<String, Boolean>> m_loadedModels = new ConcurrentHashMap<>();
+
+  /**
+   * Used to generate unique names for selected rows
+   */
+  protected final AtomicInteger m_selectionCount = new AtomicInteger();
+
+  /**
+   * Constructor
+   *
+   * @param poolName the name of the pool
+   * @param rCommand the command to launch R with (e.g. R, or the full path to the R executable)
+   * @param size the number of sessions in the pool
+   */
+  public RSessionPool( String poolName, String rCommand, int size ) {
+    m_poolName = poolName;
+    m_rCommand = rCommand;
+    m_size = size;
+  }
+
+  /**
+   * Get a pool that has been started
+   *
+   * @param poolName the name of the pool
+   * @return the pool, or null if there is no started pool with the name
+   */
+  public static RSessionPool getPool( String poolName ) {
+    IMIWorkerPool pool = PooledClassifier.getPool( poolName );
+    return pool instanceof RSessionPool ? (RSessionPool) pool : null;
+  }
+
+  /**
+   * Get the name of the pool
+   *
+   * @return the name of the pool
+   */
+  @Override public String getPoolName() {
+    return m_poolName;
+  }
+
+  /**
+   * Get the command that R is launched with
+   *
+   * @return the R command
+   */
+  public String getRCommand() {
+    return m_rCommand;
+  }
+
+  /**
+   * Get the number of sessions the pool was configured with
+   *
+   * @return the configured pool size
+   */
+  public int getSize() {
+    return m_size;
+  }
+
+  /**
+   * Set the R libraries to load in each session when it starts
+   *
+   * @param libraries the names of the libraries
+   */
+  public void setPreloadLibraries( List<String> libraries ) {
+    m_preloadLibraries = libraries == null ? new ArrayList<String>() : new ArrayList<>( libraries );
+  }
+
+  /**
+   * Set the R libraries to load in each session when it starts
+   *
+   * @param libraries a comma-separated list of library names
+   */
+  public void setPreloadLibraries( String libraries ) {
+    List<String> libs = new ArrayList<>();
+    if ( libraries != null ) {
+      for ( String lib : Arrays.asList( libraries.split( "," ) ) ) {
+        if ( lib.trim().length() > 0 ) {
+          libs.add( lib.trim() );
+        }
+      }
+    }
+    m_preloadLibraries = libs;
+  }
+
+  /**
+   * Get the R libraries to load in each session when it starts
+   *
+   * @return the names of the libraries
+   */
+  public List<String> getPreloadLibraries() {
+    return Collections.unmodifiableList( m_preloadLibraries );
+  }
+
+  /**
+   * Set whether sessions should be health checked each time they are leased
+   *
+   * @param check true to health check on lease
+   */
+  public void setHealthCheckOnLease( boolean check ) {
+    m_healthCheckOnLease = check;
+  }
+
+  /**
+   * Get whether sessions should be health checked each time they are leased
+   *
+   * @return true to health check on lease
+   */
+  public boolean getHealthCheckOnLease() {
+    return m_healthCheckOnLease;
+  }
+
+  /**
+   * Get the number of sessions currently in the pool
+   *
+   * @return the number of sessions
+   */
+  public int getNumSessions() {
+    return m_sessions.size();
+  }
+
+  /**
+   * Get the number of sessions that are not currently leased
+   *
+   * @return the number of idle sessions
+   */
+  public int getNumIdle() {
+    return m_idle.size();
+  }
+
+  /**
+   * Start the sessions (loading the preload libraries in each) in parallel, and register the pool
+   * under its name
+   *
+   * @throws Exception if none of the sessions could be started
+   */
+  public synchronized void start() throws Exception {
+    if ( !m_sessions.isEmpty() ) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, m_size ) );
+    List<Future<String>> starts = new ArrayList<>();
+    try {
+      for ( int i = 0; i < m_size; i++ ) {
+        starts.add( executor.submit( new Callable<String>() {
+          @Override public String call() throws Exception {
+            String sessionID = newSessionID();
+            RProcess session = startSession( sessionID );
+            if ( session == null ) {
+              return null;
+            }
+            m_sessions.put( sessionID, session );
+            return sessionID;
+          }
+        } ) );
+      }
+      Exception lastError = null;
+      for ( Future<String> start : starts ) {
+        try {
+          String sessionID = start.get();
+          if ( sessionID != null ) {
+            m_idle.add( sessionID );
+          }
+        } catch ( Exception ex ) {
+          lastError = ex;
+        }
+      }
+      if ( m_sessions.isEmpty() ) {
+        throw new Exception( "Unable to start any R sessions for pool '" + m_poolName + "'", lastError );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    PooledClassifier.registerPool( this );
+  }
+
+  /**
+   * Lease a session. The session is health checked first (if turned on); a session that fails the
+   * check is replaced.
+   *
+   * @param timeoutMillis maximum time to wait for a session to become free
+   * @return the ID of the leased session
+   * @throws Exception if no session becomes free within the timeout, or no working sessions remain
+   */
+  @Override public String lease( long timeoutMillis ) throws Exception {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while ( true ) {
+      if ( m_sessions.isEmpty() ) {
+        throw new Exception( "R session pool '" + m_poolName + "' has no working sessions" );
+      }
+      String sessionID = m_idle.poll( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+      if ( sessionID == null ) {
+        throw new TimeoutException( "Timed out waiting for a session from R session pool '" + m_poolName + "'" );
+      }
+      if ( !m_healthCheckOnLease || checkSession( sessionID ) ) {
+        return sessionID;
+      }
+      String replacement = replaceSession( sessionID );
+      if ( replacement != null ) {
+        return replacement;
+      }
+    }
+  }
+
+  /**
+   * Return a leased session to the pool
+   *
+   * @param sessionID the ID of the session
+   * @param taskFailed true if the task that used the session failed (the session is then checked,
+   *                   and replaced if it has died)
+   */
+  @Override public void release( String sessionID, boolean taskFailed ) {
+    if ( !m_sessions.containsKey( sessionID ) ) {
+      return;
+    }
+    if ( taskFailed && !checkSession( sessionID ) ) {
+      String replacement = replaceSession( sessionID );
+      if ( replacement != null ) {
+        m_idle.add( replacement );
+      }
+      return;
+    }
+    m_idle.add( sessionID );
+  }
+
+  /**
+   * Stop all the sessions and unregister the pool
+   */
+  public synchronized void shutdown() {
+    PooledClassifier.unregisterPool( this );
+    for ( String sessionID : m_sessions.keySet() ) {
+      stopSession( sessionID );
+    }
+    m_sessions.clear();
+    m_idle.clear();
+    m_cachedDatasets.clear();
+    m_loadedModels.clear();
+  }
+
+  /**
+   * Point an MLRWorkerClassifier (possibly wrapped, e.g. in a FilteredClassifier) at a session in
+   * this pool
+   *
+   * @param classifier the classifier to configure
+   * @param sessionID the ID of the session to use
+   * @throws Exception if the classifier is not an MLRWorkerClassifier
+   */
+  @Override public void configure( Classifier classifier, String sessionID ) throws Exception {
+    Classifier c = classifier;
+    while ( c instanceof SingleClassifierEnhancer ) {
+      c = ( (SingleClassifierEnhancer) c ).getClassifier();
+    }
+    if ( !( c instanceof MLRWorkerClassifier ) ) {
+      throw new Exception( "R session pool '" + m_poolName + "' can only run MLRWorkerClassifiers" );
+    }
+    ( (MLRWorkerClassifier) c ).setSession( m_poolName, sessionID );
+  }
+
+  /**
+   * Get a session
+   *
+   * @param sessionID the ID of the session
+   * @return the session
+   * @throws Exception if there is no session with the ID in this pool
+   */
+  public RProcess getSession( String sessionID ) throws Exception {
+    RProcess session = m_sessions.get( sessionID );
+    if ( session == null ) {
+      throw new Exception( "R session pool '" + m_poolName + "' has no session '" + sessionID + "'" );
+    }
+    return session;
+  }
+
+  /**
+   * Evaluate an R script in a session
+   *
+   * @param sessionID the ID of the session
+   * @param script the script to evaluate
+   * @return anything the script printed
+   * @throws Exception if the script raises an error
+   */
+  public String evaluate( String sessionID, String script ) throws Exception {
+    return getSession( sessionID ).eval( script );
+  }
+
+  /**
+   * Make sure a (serialized) model is loaded in a session. The most recently used models are kept
+   * loaded, so that scoring calls don't reload them each time.
+   *
+   * @param sessionID the ID of the session
+   * @param variable the name of the R variable to hold the model
+   * @param serializedModel the model, as serialized by R's saveRDS()
+   * @throws Exception if the model can't be loaded
+   */
+  public void loadModel( String sessionID, String variable, byte[] serializedModel ) throws Exception {
+    LinkedHashMap<String, Boolean> loaded = m_loadedModels.get( sessionID );
+    if ( loaded == null ) {
+      loaded = new LinkedHashMap<>( 16, 0.75f, true );
+      LinkedHashMap<String, Boolean> existing = m_loadedModels.putIfAbsent( sessionID, loaded );
+      if ( existing != null ) {
+        loaded = existing;
+      }
+    }
+    synchronized ( loaded ) {
+      if ( loaded.get( variable ) != null ) {
+        return;
+      }
+      File modelFile = WorkerData.tempFile( ".rds" );
+      try {
+        Files.write( modelFile.toPath(), serializedModel );
+        evaluate( sessionID, variable + " <- readRDS(" + WorkerData.quotePath( modelFile ) + ")" );
+      } finally {
+        modelFile.delete();
+      }
+      loaded.put( variable, Boolean.TRUE );
+      Iterator<String> lru = loaded.keySet().iterator();
+      while ( loaded.size() > MAX_LOADED_MODELS ) {
+        deleteVariable( sessionID, lru.next() );
+        lru.remove();
+      }
+    }
+  }
+
+  /**
+   * Transfer a dataset to a session (as a data frame), if the session does not already hold it
+   *
+   * @param sessionID the ID of the session
+   * @param key the key identifying the dataset
+   * @param data the dataset
+   * @throws Exception if the dataset can't be transferred
+   */
+  @Override public void cacheDataset( String sessionID, String key, Instances data ) throws Exception {
+    Set<String> cached = m_cachedDatasets.get( sessionID );
+    if ( cached == null ) {
+      cached = ConcurrentHashMap.newKeySet();
+      Set<String> existing = m_cachedDatasets.putIfAbsent( sessionID, cached );
+      if ( existing != null ) {
+        cached = existing;
+      }
+    }
+    synchronized ( cached ) {
+      if ( !cached.contains( key ) ) {
+        transferDataset( sessionID, datasetVariable( key ), data );
+        cached.add( key );
+      }
+    }
+  }
+
+  /**
+   * Select rows of a cached dataset into a new data frame in a session
+   *
+   * @param sessionID the ID of the session
+   * @param key the key identifying the dataset
+   * @param rows the (zero-based) indexes of the rows to select
+   * @return the name of the data frame holding the selected rows
+   * @throws Exception if the rows can't be selected
+   */
+  @Override public String selectRows( String sessionID, String key, int[] rows ) throws Exception {
+    String variable = "mi.rows." + m_selectionCount.incrementAndGet();
+    // the indexes are passed as data (a file of int32s), rather than as a literal in the script
+    File indexFile = WorkerData.tempFile( ".idx" );
+    try {
+      WorkerData.writeIndices( rows, indexFile );
+      // R is one-based
+      evaluate( sessionID, variable + " <- " + datasetVariable( key ) + "[readBin(" + WorkerData.quotePath( indexFile )
+        + ", \"integer\", n = " + rows.length + ", size = 4, endian = \"little\") + 1, , drop = FALSE]" );
+    } finally {
+      indexFile.delete();
+    }
+    return variable;
+  }
+
+  /**
+   * Release a data frame created by {@code selectRows()}
+   *
+   * @param sessionID the ID of the session
+   * @param variable the name of the data frame
+   */
+  @Override public void releaseRows( String sessionID, String variable ) {
+    deleteVariable( sessionID, variable );
+  }
+
+  /**
+   * Release a dataset in all the sessions that hold it
+   *
+   * @param key the key identifying the dataset
+   */
+  @Override public void releaseDataset( String key ) {
+    for ( Map.Entry<String, Set<String>> e : m_cachedDatasets.entrySet() ) {
+      // same lock as cacheDataset(), so a transfer in progress completes before the release
+      synchronized ( e.getValue() ) {
+        if ( e.getValue().remove( key ) ) {
+          deleteVariable( e.getKey(), datasetVariable( key ) );
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the name of the data frame that holds a cached dataset
+   *
+   * @param key the key identifying the dataset
+   * @return the name of the data frame
+   */
+  protected static String datasetVariable( String key ) {
+    return "mi.data." + key;
+  }
+
+  /**
+   * Transfer a dataset to a session, via a CSV file (see {@code WorkerData})
+   *
+   * @param sessionID the ID of the session
+   * @param variable the name of the data frame to create
+   * @param data the dataset
+   * @throws Exception if the dataset can't be transferred
+   */
+  protected void transferDataset( String sessionID, String variable, Instances data ) throws Exception {
+    File csv = WorkerData.tempFile( ".csv" );
+    try {
+      WorkerData.writeCSV( data, csv );
+      evaluate( sessionID, variable + " <- read.csv(" + WorkerData.quotePath( csv ) + ")" );
+    } finally {
+      csv.delete();
+    }
+  }
+
+  /**
+   * Delete a variable in a session
+   *
+   * @param sessionID the ID of the session
+   * @param variable the name of the variable
+   */
+  protected void deleteVariable( String sessionID, String variable ) {
+    try {
+      evaluate( sessionID, "rm(" + variable + ")" );
+    } catch ( Exception ex ) {
+      // the session has gone, and the variable with it
+    }
+  }
+
+  /**
+   * Stop a session and start a new one (with a new ID) in its place
+   *
+   * @param sessionID the ID of the session to replace
+   * @return the ID of the replacement session, or null if a replacement could not be started
+   */
+  protected String replaceSession( String sessionID ) {
+    stopSession( sessionID );
+    m_sessions.remove( sessionID );
+    m_cachedDatasets.remove( sessionID );
+    m_loadedModels.remove( sessionID );
+    String replacement = newSessionID();
+    try {
+      RProcess session = startSession( replacement );
+      if ( session != null ) {
+        m_sessions.put( replacement, session );
+        return replacement;
+      }
+    } catch ( Exception ex ) {
+      // the pool shrinks
+    }
+    return null;
+  }
+
+  /**
+   * Generate a new, unique, session ID
+   *
+   * @return a session ID
+   */
+  protected String newSessionID() {
+    return m_poolName + "-" + m_sessionCount.incrementAndGet();
+  }
+
+  /**
+   * Start a session and load the preload libraries in it
+   *
+   * @param sessionID the ID of the session to start
+   * @return the session, or null if it could not be started
+   * @throws Exception if a problem occurs
+   */
+  protected RProcess startSession( String sessionID ) throws Exception {
+    RProcess session = new RProcess( m_rCommand );
+    session.start();
+    try {
+      for ( String library : m_preloadLibraries ) {
+        session.eval( "suppressPackageStartupMessages(library(" + library + "))" );
+      }
+    } catch ( Exception ex ) {
+      session.close();
+      throw ex;
+    }
+    return session;
+  }
+
+  /**
+   * Check that a session is alive and responding
+   *
+   * @param sessionID the ID of the session
+   * @return true if the session is healthy
+   */
+  protected boolean checkSession( String sessionID ) {
+    try {
+      RProcess session = getSession( sessionID );
+      if ( !session.isAlive() ) {
+        return false;
+      }
+      session.eval( "invisible(1)" );
+      return true;
+    } catch ( Exception ex ) {
+      return false;
+    }
+  }
+
+  /**
+   * Stop a session
+   *
+   * @param sessionID the ID of the session
+   */
+  protected void stopSession( String sessionID ) {
+    RProcess session = m_sessions.get( sessionID );
+    if ( session != null ) {
+      session.close();
+    }
+  }
+}
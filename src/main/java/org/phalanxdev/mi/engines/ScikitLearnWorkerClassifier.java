@@ -0,0 +1,377 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.BatchPredictor;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Trains and scores a scikit-learn (or xgboost) learner on a server of a {@code PythonServerPool}.
+ * The pool points the classifier at the server it has leased (via {@code configure()}), so copies
+ * of the classifier (e.g. one per cross-validation fold) train concurrently on separate servers,
+ * and can train directly on a data frame cached on the server (see {@code IMIEngineDataTrainer}).
+ * The trained model is kept (pickled) in the classifier, so it can be scored on whichever server is
+ * leased next, and it survives serialization of the classifier.
+ * <p>
+ * Data is sent to the servers with nominal values as their indexes (see {@code WorkerData}).
+ * Nominal attributes are one-hot encoded against all the attribute's values, and missing values are
+ * replaced with the training means, so the columns seen at scoring time match those seen in
+ * training.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class ScikitLearnWorkerClassifier extends AbstractClassifier implements BatchPredictor, IMIEngineDataTrainer {
+
+  private static final long serialVersionUID = 6183390741930217751L;
+
+  /**
+   * Python helper that turns a data frame into a predictor matrix (and class column)
+   */
+  protected static final String PREPARE_SCRIPT = "import numpy as _mi_np\n" + "import pandas as _mi_pd\n"
+    + "def _mi_prepare(d, nominal, cls, means=None):\n" + "    d = d.copy()\n"
+    + "    y = d.pop(cls) if cls in d.columns else None\n" + "    for c, k in nominal.items():\n"
+    + "        d[c] = _mi_pd.Categorical(d[c].astype(float), categories=[float(v) for v in range(k)])\n"
+    + "    if nominal:\n" + "        d = _mi_pd.get_dummies(d, columns=list(nominal.keys()), dtype=float)\n"
+    + "    if means is None:\n" + "        means = d.mean().fillna(0)\n" + "    return d.fillna(means), y, means\n";
+
+  /**
+   * The learner to use (e.g. DecisionTreeClassifier)
+   */
+  protected String m_learner = "DecisionTreeClassifier";
+
+  /**
+   * Options for the learner, as comma-separated python keyword arguments
+   */
+  protected String m_learnerOpts = "";
+
+  /**
+   * Name of the pool holding the server to use
+   */
+  protected transient String m_poolName;
+
+  /**
+   * ID of the server to use
+   */
+  protected transient String m_serverID;
+
+  /**
+   * Structure of the training data
+   */
+  protected Instances m_header;
+
+  /**
+   * The trained model (and the training means used to fill missing values), pickled
+   */
+  protected byte[] m_serializedModel;
+
+  /**
+   * Unique ID for the trained model (used to name it when loaded on a server)
+   */
+  protected String m_modelID;
+
+  /**
+   * Textual description of the trained model
+   */
+  protected String m_modelText = "";
+
+  /**
+   * Get the python module that provides a learner
+   *
+   * @param learner the name of the learner
+   * @return the module
+   * @throws Exception if the learner is not supported
+   */
+  public static String learnerModule( String learner ) throws Exception {
+    switch ( learner ) {
+      case "LogisticRegression":
+      case "LinearRegression":
+        return "sklearn.linear_model";
+      case "BernoulliNB":
+      case "MultinomialNB":
+      case "GaussianNB":
+        return "sklearn.naive_bayes";
+      case "DecisionTreeClassifier":
+      case "DecisionTreeRegressor":
+        return "sklearn.tree";
+      case "SVC":
+      case "SVR":
+        return "sklearn.svm";
+      case "RandomForestClassifier":
+      case "RandomForestRegressor":
+      case "GradientBoostingClassifier":
+        return "sklearn.ensemble";
+      case "MLPClassifier":
+      case "MLPRegressor":
+        return "sklearn.neural_network";
+      case "XGBClassifier":
+      case "XGBRegressor":
+        return "xgboost";
+      default:
+        throw new Exception( "Unsupported learner: " + learner );
+    }
+  }
+
+  /**
+   * Set the learner to use
+   *
+   * @param learner the name of the learner (e.g. DecisionTreeClassifier)
+   */
+  public void setLearner( String learner ) {
+    m_learner = learner;
+  }
+
+  /**
+   * Get the learner to use
+   *
+   * @return the name of the learner
+   */
+  public String getLearner() {
+    return m_learner;
+  }
+
+  /**
+   * Set the options for the learner
+   *
+   * @param opts comma-separated python keyword arguments (e.g. max_depth=3)
+   */
+  public void setLearnerOpts( String opts ) {
+    m_learnerOpts = opts == null ? "" : opts;
+  }
+
+  /**
+   * Get the options for the learner
+   *
+   * @return comma-separated python keyword arguments
+   */
+  public String getLearnerOpts() {
+    return m_learnerOpts;
+  }
+
+  /**
+   * Point the classifier at a server
+   *
+   * @param poolName the name of the pool holding the server
+   * @param serverID the ID of the server
+   */
+  public void setServer( String poolName, String serverID ) {
+    m_poolName = poolName;
+    m_serverID = serverID;
+  }
+
+  @Override public Enumeration<Option> listOptions() {
+    List<Option> options = new ArrayList<>();
+    options.add(
+      new Option( "\tThe learner to use (default DecisionTreeClassifier).", "learner", 1, "-learner <name>" ) );
+    options.add( new Option( "\tOptions for the learner (comma-separated python keyword arguments).", "learner-opts", 1,
+      "-learner-opts <options>" ) );
+    options.addAll( Collections.list( super.listOptions() ) );
+    return Collections.enumeration( options );
+  }
+
+  @Override public void setOptions( String[] options ) throws Exception {
+    String learner = Utils.getOption( "learner", options );
+    m_learner = learner.length() > 0 ? learner : "DecisionTreeClassifier";
+    m_learnerOpts = Utils.getOption( "learner-opts", options );
+    super.setOptions( options );
+  }
+
+  @Override public String[] getOptions() {
+    List<String> options = new ArrayList<>();
+    options.add( "-learner" );
+    options.add( m_learner );
+    if ( m_learnerOpts.length() > 0 ) {
+      options.add( "-learner-opts" );
+      options.add( m_learnerOpts );
+    }
+    Collections.addAll( options, super.getOptions() );
+    return options.toArray( new String[options.size()] );
+  }
+
+  @Override public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+    result.disableAll();
+    result.enable( Capabilities.Capability.NOMINAL_ATTRIBUTES );
+    result.enable( Capabilities.Capability.NUMERIC_ATTRIBUTES );
+    result.enable( Capabilities.Capability.DATE_ATTRIBUTES );
+    result.enable( Capabilities.Capability.MISSING_VALUES );
+    result.enable( Capabilities.Capability.NOMINAL_CLASS );
+    result.enable( Capabilities.Capability.NUMERIC_CLASS );
+    result.enable( Capabilities.Capability.MISSING_CLASS_VALUES );
+    return result;
+  }
+
+  @Override public void buildClassifier( Instances data ) throws Exception {
+    getCapabilities().testWithFail( data );
+    PythonServerPool pool = getPool();
+    String variable = "_mi_train_" + UUID.randomUUID().toString().replace( "-", "" );
+    pool.transferDataset( m_serverID, variable, data );
+    try {
+      buildClassifier( new Instances( data, 0 ), variable );
+    } finally {
+      pool.deleteVariable( m_serverID, variable );
+    }
+  }
+
+  /**
+   * Train on a data frame held by the server
+   *
+   * @param header the structure of the training data
+   * @param variable the name of the data frame
+   * @throws Exception if a problem occurs during training
+   */
+  @Override public void buildClassifier( Instances header, String variable ) throws Exception {
+    PythonServerPool pool = getPool();
+    boolean classification = header.classAttribute().isNominal();
+    File modelFile = WorkerData.tempFile( ".pkl" );
+    File textFile = WorkerData.tempFile( ".txt" );
+    try {
+      StringBuilder script = new StringBuilder( PREPARE_SCRIPT );
+      script.append( "def _mi_fit():\n" );
+      script.append( "    from " ).append( learnerModule( m_learner ) ).append( " import " ).append( m_learner )
+        .append( "\n" );
+      script.append( "    x, y, means = _mi_prepare(" ).append( variable ).append( ", " ).append( nominalDict( header ) )
+        .append( ", '" ).append( WorkerData.columnName( header.classIndex() ) ).append( "')\n" );
+      script.append( "    keep = y.notnull().values\n" );
+      script.append( "    x, y = x[keep], y[keep]\n" );
+      if ( classification ) {
+        script.append( "    y = y.astype(int)\n" );
+      }
+      script.append( "    model = " ).append( m_learner ).append( "(" ).append( m_learnerOpts ).append( ")\n" );
+      script.append( "    model.fit(x.values, y.values)\n" );
+      script.append( "    with open(" ).append( WorkerData.quotePath( modelFile ) ).append( ", 'wb') as f:\n" );
+      script.append( "        __import__('pickle').dump((model, means), f)\n" );
+      script.append( "    with open(" ).append( WorkerData.quotePath( textFile ) ).append( ", 'w') as f:\n" );
+      script.append( "        f.write(str(model))\n" );
+      script.append( "_mi_fit()\n" );
+      script.append( "del _mi_fit\n" );
+      pool.runScript( m_serverID, script.toString() );
+      m_serializedModel = Files.readAllBytes( modelFile.toPath() );
+      m_modelText = new String( Files.readAllBytes( textFile.toPath() ), StandardCharsets.UTF_8 );
+    } finally {
+      modelFile.delete();
+      textFile.delete();
+    }
+    m_header = header;
+    m_modelID = UUID.randomUUID().toString().replace( "-", "" );
+  }
+
+  @Override public double[] distributionForInstance( Instance instance ) throws Exception {
+    Instances batch = new Instances( m_header, 1 );
+    batch.add( instance );
+    return distributionsForInstances( batch )[0];
+  }
+
+  @Override public double[][] distributionsForInstances( Instances insts ) throws Exception {
+    if ( m_serializedModel == null ) {
+      throw new Exception( "No model has been built yet" );
+    }
+    PythonServerPool pool = getPool();
+    String model = "_mi_model_" + m_modelID;
+    pool.loadModel( m_serverID, model, m_serializedModel );
+
+    Attribute classAtt = m_header.classAttribute();
+    int numCols = classAtt.isNominal() ? classAtt.numValues() : 1;
+    File dataFile = WorkerData.tempFile( ".csv" );
+    File predsFile = WorkerData.tempFile( ".bin" );
+    try {
+      WorkerData.writeCSV( insts, dataFile );
+      StringBuilder script = new StringBuilder( PREPARE_SCRIPT );
+      script.append( "def _mi_predict():\n" );
+      script.append( "    model, means = " ).append( model ).append( "\n" );
+      script.append( "    x, _, _ = _mi_prepare(_mi_pd.read_csv(" ).append( WorkerData.quotePath( dataFile ) )
+        .append( "), " ).append( nominalDict( m_header ) ).append( ", '" )
+        .append( WorkerData.columnName( m_header.classIndex() ) ).append( "', means)\n" );
+      if ( classAtt.isNominal() ) {
+        script.append( "    out = _mi_np.zeros((len(x), " ).append( numCols ).append( "))\n" );
+        script.append( "    if hasattr(model, 'predict_proba'):\n" );
+        script.append( "        out[:, model.classes_.astype(int)] = model.predict_proba(x.values)\n" );
+        script.append( "    else:\n" );
+        script.append( "        r = model.predict(x.values).astype(int)\n" );
+        script.append( "        out[_mi_np.arange(len(r)), r] = 1\n" );
+      } else {
+        script.append( "    out = model.predict(x.values).reshape(-1, 1)\n" );
+      }
+      script.append( "    out.astype('<f8').tofile(" ).append( WorkerData.quotePath( predsFile ) ).append( ")\n" );
+      script.append( "_mi_predict()\n" );
+      script.append( "del _mi_predict\n" );
+      pool.runScript( m_serverID, script.toString() );
+
+      return WorkerData.readDoubles( predsFile, insts.numInstances(), numCols );
+    } finally {
+      dataFile.delete();
+      predsFile.delete();
+    }
+  }
+
+  /**
+   * Generate a python dict literal mapping the nominal predictor columns to their number of values
+   *
+   * @param header the structure of the data
+   * @return the dict literal
+   */
+  protected static String nominalDict( Instances header ) {
+    StringBuilder dict = new StringBuilder( "{" );
+    for ( int i = 0; i < header.numAttributes(); i++ ) {
+      if ( i != header.classIndex() && header.attribute( i ).isNominal() ) {
+        dict.append( dict.length() > 1 ? ", " : "" ).append( "'" ).append( WorkerData.columnName( i ) )
+          .append( "': " ).append( header.attribute( i ).numValues() );
+      }
+    }
+    return dict.append( "}" ).toString();
+  }
+
+  /**
+   * Get the pool holding the server the classifier has been pointed at
+   *
+   * @return the pool
+   * @throws Exception if the classifier has not been pointed at a server of a started pool
+   */
+  protected PythonServerPool getPool() throws Exception {
+    PythonServerPool pool = m_poolName == null ? null : PythonServerPool.getPool( m_poolName );
+    if ( pool == null || m_serverID == null ) {
+      throw new Exception(
+        "ScikitLearnWorkerClassifier has not been pointed at a server of a started python server pool" );
+    }
+    return pool;
+  }
+
+  @Override public boolean implementsMoreEfficientBatchPrediction() {
+    return true;
+  }
+
+  @Override public String toString() {
+    if ( m_serializedModel == null ) {
+      return "ScikitLearnWorkerClassifier: no model built yet.";
+    }
+    return "ScikitLearnWorkerClassifier (" + m_learner + ")\n\n" + m_modelText;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi.engines;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Utilities for exchanging data with external engine worker processes (python servers, R
+ * sessions) through files, rather than as script source code. Datasets are written as CSV with
+ * safe column names (a0, a1, ...), nominal values as the (zero-based) index of the value and
+ * missing values as NA. Row indexes are written as little-endian 32 bit integers and results are
+ * read as little-endian 64 bit doubles, both of which python (numpy.fromfile()/tofile()) and R
+ * (readBin()/writeBin()) read and write directly.
+ *
+ * @author Mark Hall (mhall{[at]}waikato.ac.nz)
+ * @version $Revision: $
+ */
+public class WorkerData {
+
+  /**
+   * Get the column name used for an attribute
+   *
+   * @param attIndex the index of the attribute
+   * @return the column name
+   */
+  public static String columnName( int attIndex ) {
+    return "a" + attIndex;
+  }
+
+  /**
+   * Write a dataset to a CSV file
+   *
+   * @param data the dataset to write
+   * @param file the file to write to
+   * @throws IOException if the data contains string or relational attributes, or can't be written
+   */
+  public static void writeCSV( Instances data, File file ) throws IOException {
+    for ( int j = 0; j < data.numAttributes(); j++ ) {
+      Attribute att = data.attribute( j );
+      if ( att.isString() || att.isRelationValued() ) {
+        throw new IOException( "Attribute '" + att.name() + "' is a string or relational attribute" );
+      }
+    }
+    try ( BufferedWriter w = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) ) {
+      for ( int j = 0; j < data.numAttributes(); j++ ) {
+        w.write( ( j > 0 ? "," : "" ) + columnName( j ) );
+      }
+      w.newLine();
+      StringBuilder row = new StringBuilder();
+      for ( int i = 0; i < data.numInstances(); i++ ) {
+        Instance inst = data.instance( i );
+        row.setLength( 0 );
+        for ( int j = 0; j < data.numAttributes(); j++ ) {
+          if ( j > 0 ) {
+            row.append( ',' );
+          }
+          if ( inst.isMissing( j ) ) {
+            row.append( "NA" );
+          } else if ( data.attribute( j ).isNominal() ) {
+            row.append( (int) inst.value( j ) );
+          } else {
+            row.append( inst.value( j ) );
+          }
+        }
+        w.write( row.toString() );
+        w.newLine();
+      }
+    }
+  }
+
+  /**
+   * Write row indexes to a file, as little-endian 32 bit integers
+   *
+   * @param indices the (zero-based) row indexes
+   * @param file the file to write to
+   * @throws IOException if the file can't be written
+   */
+  public static void writeIndices( int[] indices, File file ) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate( indices.length * 4 ).order( ByteOrder.LITTLE_ENDIAN );
+    buffer.asIntBuffer().put( indices );
+    Files.write( file.toPath(), buffer.array() );
+  }
+
+  /**
+   * Read a matrix of little-endian 64 bit doubles (written row by row) from a file
+   *
+   * @param file the file to read
+   * @param numRows the number of rows
+   * @param numCols the number of columns
+   * @return the matrix
+   * @throws IOException if the file can't be read, or does not hold the expected number of values
+   */
+  public static double[][] readDoubles( File file, int numRows, int numCols ) throws IOException {
+    byte[] bytes = Files.readAllBytes( file.toPath() );
+    if ( bytes.length != numRows * numCols * 8 ) {
+      throw new IOException(
+        "Expected " + ( numRows * numCols ) + " values from the engine, but got " + ( bytes.length / 8 ) );
+    }
+    ByteBuffer buffer = ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN );
+    double[][] result = new double[numRows][numCols];
+    for ( int i = 0; i < numRows; i++ ) {
+      for ( int j = 0; j < numCols; j++ ) {
+        result[i][j] = buffer.getDouble();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Create a temporary file for exchanging data with a worker
+   *
+   * @param suffix the file suffix
+   * @return the file
+   * @throws IOException if the file can't be created
+   */
+  public static File tempFile( String suffix ) throws IOException {
+    return File.createTempFile( "mi-worker-", suffix );
+  }
+
+  /**
+   * Quote a file path as a string literal for an engine script (forward slashes are used as the
+   * separator, which both python and R accept on all platforms)
+   *
+   * @param file the file
+   * @return the quoted path
+   */
+  public static String quotePath( File file ) {
+    return "\"" + file.getAbsolutePath().replace( '\\', '/' ).replace( "\"", "\\\"" ) + "\"";
+  }
+}
@@ -35,10 +35,33 @@ public class DefaultMIMessages implements IMIMessages {
     m_messages.put("Evaluator.Message.UnableToPerformCrossValidation", "Unable to perform a {0} fold cross-validation because there are fewer training instances ({0}) than folds.");
     m_messages.put("Evaluator.Message.PerformingPercentageSplit", "Performing a percentage split ({0}%) evaluation...");
     m_messages.put("Evaluator.Message.PerformingCrossValidation", "Performing {0}-fold cross-validation...");
+    m_messages.put("Evaluator.Message.PerformingRepeatedCrossValidation", "Performing {0} repetitions of {1}-fold cross-validation...");
     m_messages.put("Evaluator.Message.TrainingModelForFold", "Training model for fold {0}...");
+    m_messages.put("Evaluator.Message.ResumingFoldFromCheckpoint", "Resuming fold {0} from checkpoint...");
+    m_messages.put("Evaluator.Message.ResumingFinalModelFromCheckpoint", "Resuming final model training from checkpoint at iteration {0}...");
+    m_messages.put("EvaluationResultCache.Message.UsingCachedResult", "Using cached evaluation result for {0}.");
+    m_messages.put("PartitionedEvaluator.Message.EvaluatingPartitions", "Evaluating {0} partitions, {1} at a time...");
+    m_messages.put("PartitionedEvaluator.Error.UnknownStratificationAttribute", "Stratification attribute {0} does not exist in the data.");
+    m_messages.put("PartitionedEvaluator.Error.StratificationAttributeIsClass", "Stratification attribute {0} can not be the class attribute.");
+    m_messages.put("PartitionedEvaluator.Error.PartitionFailed", "Unable to evaluate partition {0}: {1}");
     m_messages.put("Evaluator.Message.UnableToPerformSeparateTestSetEval", "Unable to perform separate test set evaluation because there are no test instances available.");
     m_messages.put("Evaluator.Error.FinalClassifierHasNotBeenTrainedYet", "Final classifier has not been trained yet!");
+    m_messages.put("Evaluator.Message.PerformingStreamingCrossValidation", "Performing {0}-fold streaming cross-validation...");
+    m_messages.put("Evaluator.Error.FoldKeyAttributeNotFound", "Fold key attribute {0} does not exist in the incoming data.");
+    m_messages.put("Evaluator.Error.SchemeIsNotUpdateable", "Streaming training requires a scheme that can be trained incrementally ({0} is not an UpdateableClassifier).");
+    m_messages.put("Evaluator.Message.UsingFinalModelFromEvaluation", "Using the final model built during evaluation.");
+    m_messages.put("Evaluator.Message.ScoringIncrementalBatch", "Scoring a batch of {0} buffered test instances...");
     m_messages.put("Evaluator.Error.IncrementalEvalOnlyOnTestOrTrainingData", "Incremental evaluation can only be performed on a separate test set or on the training data for incremental schemes (prequential evaluation).");
+    m_messages.put("SchemeTuner.Message.EvaluatingCandidates", "Evaluating {0} candidate configurations, {1} at a time...");
+    m_messages.put("SchemeTuner.Error.ClassNotSet", "The class attribute must be set in order to tune a scheme.");
+    m_messages.put("SchemeTuner.Error.UnknownParameter", "Scheme {0} does not have a tunable parameter called {1}.");
+    m_messages.put("SchemeTuner.Error.UnsupportedParameterType", "Parameter {0} has type {1}, which can not be tuned.");
+    m_messages.put("SchemeTuner.Error.MetricNotAvailable", "Metric {0} is not produced by the evaluation.");
+    m_messages.put("SchemeTuner.Error.CandidateFailed", "Unable to evaluate candidate {0}: {1}");
+    m_messages.put("SuccessiveHalvingTuner.Message.EvaluatingRung", "Evaluating {0} candidate configurations with budget {1}...");
+    m_messages.put("SuccessiveHalvingTuner.Error.InvalidSettings", "Invalid successive halving settings: eta ({0}) must be at least 2 and the minimum budget ({1}) must be greater than 0 and at most 1.");
+    m_messages.put("SuccessiveHalvingTuner.Error.NoIterationsProperty", "Scheme {0} does not have an untuned iterations property called {1}.");
+    m_messages.put("BayesianOptimizationTuner.Message.ProposingCandidates", "Fitting surrogate to {0} evaluations and proposing {1} candidate configurations...");
   }
 
   @Override
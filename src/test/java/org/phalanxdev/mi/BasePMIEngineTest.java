@@ -17,6 +17,12 @@ package org.phalanxdev.mi;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Collections;
 
 import org.junit.Test;
 import org.phalanxdev.mi.engines.WekaEngine;
@@ -51,6 +57,68 @@ public class BasePMIEngineTest {
     assertNotNull(wekaEng);
   }
 
+  @Test
+  public void testEngineInstancesAreCached() throws Exception {
+    PMIEngine first = PMIEngine.getEngine("Weka");
+    assertSame(first, PMIEngine.getEngine("Weka"));
+
+    PMIEngine.refresh("Weka");
+    PMIEngine refreshed = PMIEngine.getEngine("Weka");
+    assertNotSame(first, refreshed);
+    assertSame(refreshed, PMIEngine.getEngine("Weka"));
+
+    PMIEngine.refresh();
+    assertEquals(1, PMIEngine.getEngineNames().size());
+    assertNotSame(refreshed, PMIEngine.getEngine("Weka"));
+  }
+
+  @Test
+  public void testAvailabilityTTL() throws Exception {
+    try {
+      PMIEngine.setAvailabilityTTL(1);
+      PMIEngine first = PMIEngine.getEngine("Weka");
+      long probeTime = PMIEngine.s_engineCache.get(WekaEngine.ENGINE_CLASS).m_probeTime;
+      PMIEngine.getEngineNames();
+      long discoveryTime = PMIEngine.s_discoveryTime;
+      Thread.sleep(10);
+      // availability is checked again, but the engine is still a singleton
+      assertSame(first, PMIEngine.getEngine("Weka"));
+      assertTrue(PMIEngine.s_engineCache.get(WekaEngine.ENGINE_CLASS).m_probeTime > probeTime);
+      // the listing of available engines expires too
+      assertTrue(PMIEngine.getEngineNames().contains("Weka"));
+      assertTrue(PMIEngine.s_discoveryTime > discoveryTime);
+    } finally {
+      PMIEngine.setAvailabilityTTL(0);
+    }
+  }
+
+  @Test
+  public void testEnginesAreProbedLazily() throws Exception {
+    PMIEngine.refresh();
+    PMIEngine.getEngine("Weka");
+    // only the engine that was asked for has been loaded and probed
+    assertEquals(Collections.singleton(WekaEngine.ENGINE_CLASS), PMIEngine.s_engineCache.keySet());
+  }
+
+  @Test
+  public void testPropertyEnginesFallBackToDefaults() throws Exception {
+    try {
+      System.setProperty(PMIEngine.SUPPORTED_ENGINE_PROPERTY_KEY, "Bogus:no.such.Engine");
+      PMIEngine.refresh();
+      try {
+        PMIEngine.getEngine("Bogus");
+        fail("Expected Bogus engine to be unavailable");
+      } catch (UnsupportedEngineException ex) {
+        // expected
+      }
+      assertEquals(Collections.singletonList("Weka"), PMIEngine.getEngineNames());
+      assertNotNull(PMIEngine.getEngine("Weka"));
+    } finally {
+      System.clearProperty(PMIEngine.SUPPORTED_ENGINE_PROPERTY_KEY);
+      PMIEngine.refresh();
+    }
+  }
+
   @Test(expected = UnsupportedEngineException.class)
   public void testGetNamedEngineNonExistent() throws UnsupportedEngineException {
     PMIEngine.getEngine("Goofy");
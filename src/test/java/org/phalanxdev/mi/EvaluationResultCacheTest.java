@@ -0,0 +1,155 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.phalanxdev.mi.EvaluationResultCache.CachedResult;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.engines.WekaClassifierScheme;
+import org.phalanxdev.mi.utils.DefaultLogger;
+import org.phalanxdev.mi.utils.DefaultMIMessages;
+import org.phalanxdev.mi.utils.DefaultVariables;
+import weka.core.Instances;
+
+/**
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version 1: $
+ */
+public class EvaluationResultCacheTest {
+
+  protected Instances m_iris;
+
+  protected File m_cacheDir;
+
+  @Before
+  public void setup() throws Exception {
+    m_iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    m_cacheDir = Files.createTempDirectory("mi-result-cache").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = m_cacheDir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    m_cacheDir.delete();
+  }
+
+  protected Evaluator newEvaluator() {
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.setXValFolds(5);
+    return evaluator;
+  }
+
+  @Test
+  public void testCacheHitReturnsStoredResult() throws Exception {
+    EvaluationResultCache cache =
+        new EvaluationResultCache(m_cacheDir, Long.MAX_VALUE, new DefaultMIMessages());
+    Scheme scheme = new WekaClassifierScheme("Decision tree classifier");
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator first = newEvaluator();
+    CachedResult result =
+        cache.evaluate(scheme, m_iris, first, null, true, logger, new DefaultVariables());
+    assertNotNull(result.getEvalRow());
+    assertNotNull(result.getFinalModel());
+    assertTrue(first.wasEvaluationPerformed());
+
+    // same data, scheme and settings - nothing is evaluated
+    Evaluator second = newEvaluator();
+    CachedResult cached =
+        cache.evaluate(scheme, m_iris, second, null, true, logger, new DefaultVariables());
+    assertTrue(!second.wasEvaluationPerformed());
+    assertEquals(result.getEvalRow().length, cached.getEvalRow().length);
+    for (int i = 0; i < result.getEvalRow().length; i++) {
+      assertEquals(result.getEvalRow()[i], cached.getEvalRow()[i]);
+    }
+    assertEquals(result.getFinalModel().toString(), cached.getFinalModel().toString());
+
+    // changing the scheme options, the seed or the data is a miss
+    String key = EvaluationResultCache.key(scheme, m_iris, newEvaluator(), null);
+    scheme.setSchemeOptions(new String[] {"-C", "0.1"});
+    assertTrue(!key.equals(EvaluationResultCache.key(scheme, m_iris, newEvaluator(), null)));
+    scheme.setSchemeOptions(new String[0]);
+    Evaluator otherSeed = newEvaluator();
+    otherSeed.setRandomSeed(2);
+    assertTrue(!key.equals(EvaluationResultCache.key(scheme, m_iris, otherSeed, null)));
+    Instances changed = new Instances(m_iris);
+    changed.instance(0).setValue(0, 99);
+    assertTrue(!key.equals(EvaluationResultCache.key(scheme, changed, newEvaluator(), null)));
+  }
+
+  @Test
+  public void testSizeBasedEviction() throws Exception {
+    EvaluationResultCache cache =
+        new EvaluationResultCache(m_cacheDir, Long.MAX_VALUE, new DefaultMIMessages());
+    Object[] row = new Object[] {"a", 1.0};
+    cache.put("first", new CachedResult(row, null));
+    long entrySize = cache.size();
+    new File(m_cacheDir, "first" + EvaluationResultCache.RESULT_EXTENSION)
+        .setLastModified(System.currentTimeMillis() - 10000);
+    cache.put("second", new CachedResult(row, null));
+    assertEquals(2 * entrySize, cache.size());
+
+    // room for two results - the least recently used is evicted
+    cache.setMaxSizeBytes(2 * entrySize);
+    assertNotNull(cache.get("first"));
+    new File(m_cacheDir, "second" + EvaluationResultCache.RESULT_EXTENSION)
+        .setLastModified(System.currentTimeMillis() - 10000);
+    cache.put("third", new CachedResult(row, null));
+    assertNull(cache.get("second"));
+    assertNotNull(cache.get("first"));
+    assertNotNull(cache.get("third"));
+    assertSame(null, cache.get("missing"));
+  }
+
+  @Test
+  public void testUnreadableResultIsRecomputed() throws Exception {
+    EvaluationResultCache cache =
+        new EvaluationResultCache(m_cacheDir, Long.MAX_VALUE, new DefaultMIMessages());
+    Scheme scheme = new WekaClassifierScheme("Decision tree classifier");
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator evaluator = newEvaluator();
+    String key = EvaluationResultCache.key(scheme, m_iris, evaluator, null);
+    Files.write(new File(m_cacheDir, key + EvaluationResultCache.RESULT_EXTENSION).toPath(),
+        new byte[] {1, 2, 3});
+    assertNull(cache.get(key));
+
+    Files.write(new File(m_cacheDir, key + EvaluationResultCache.RESULT_EXTENSION).toPath(),
+        new byte[] {1, 2, 3});
+    CachedResult result =
+        cache.evaluate(scheme, m_iris, evaluator, null, false, logger, new DefaultVariables());
+    assertNotNull(result.getEvalRow());
+    assertNotNull(cache.get(key));
+  }
+}
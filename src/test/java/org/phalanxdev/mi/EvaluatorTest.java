@@ -17,13 +17,20 @@ package org.phalanxdev.mi;
 
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
+import java.io.File;
 import java.io.StringReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.Test;
 import org.phalanxdev.mi.Evaluator.EvalMode;
@@ -32,11 +39,19 @@ import org.phalanxdev.mi.utils.DefaultMIMessages;
 import org.phalanxdev.mi.utils.DefaultVariables;
 import org.phalanxdev.mi.utils.IMILogAdapter;
 import org.phalanxdev.mi.utils.IMIVariableAdaptor;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.classifiers.functions.SGD;
+import weka.classifiers.meta.LogitBoost;
 import weka.classifiers.trees.J48;
 import weka.core.Attribute;
 import weka.core.Environment;
 import weka.core.EnvironmentHandler;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SelectedTag;
 
 /**
  * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
@@ -353,4 +368,689 @@ public class EvaluatorTest {
     assertEquals(expectedNumMetrics, evalRow.length);
     assertNotNull(evaluator.getEvaluation());
   }
+
+  @Test
+  public void testParallelCrossValidationMatchesSerial() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator serial = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, true,
+        new DefaultMIMessages());
+    serial.initialize(new Instances(m_iris), new J48());
+    serial.performEvaluation(null, logger, new DefaultVariables());
+    Object[] serialRow = serial.getEvalRow(null, 0, logger);
+
+    Evaluator parallel = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, true,
+        new DefaultMIMessages());
+    parallel.setNumExecutionSlots(4);
+    parallel.initialize(new Instances(m_iris), new J48());
+    parallel.performEvaluation(null, logger, new DefaultVariables());
+    Object[] parallelRow = parallel.getEvalRow(null, 0, logger);
+
+    assertEquals(serialRow.length, parallelRow.length);
+    for (int i = 0; i < serialRow.length; i++) {
+      assertEquals(serialRow[i], parallelRow[i]);
+    }
+    assertEquals((double) m_iris.numInstances(), parallel.getEvaluation().numInstances());
+  }
+
+  @Test
+  public void testRepeatedCrossValidation() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator evaluator = new Evaluator(EvalMode.REPEATED_CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.setXValFolds(5);
+    evaluator.setXValRepetitions(3);
+    evaluator.setNumExecutionSlots(4);
+    evaluator.initialize(m_iris, new J48());
+    evaluator.performEvaluation(null, logger, new DefaultVariables());
+
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(null, false);
+    Object[] evalRow = evaluator.getEvalRow(null, 0, logger);
+    assertNotNull(evalRow);
+    // standard metrics plus a std dev column for each of the 11 numeric metrics
+    assertEquals(15 + 11, metadata.size());
+    assertEquals(metadata.size(), evalRow.length);
+    assertEquals(3, evaluator.getRepetitionEvaluations().size());
+    assertEquals(3.0 * m_iris.numInstances(), evaluator.getEvaluation().numInstances());
+    // mean total number of instances per repetition
+    assertEquals((double) m_iris.numInstances(), evalRow[12]);
+    // ...which does not vary between repetitions
+    assertEquals(0.0, evalRow[24]);
+  }
+
+  @Test
+  public void testCrossValidationMatchesWekaAndLeavesDataUntouched() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Instances original = new Instances(m_iris);
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 42, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new J48());
+    evaluator.performEvaluation(null, logger, new DefaultVariables());
+
+    weka.classifiers.evaluation.Evaluation wekaEval =
+        new weka.classifiers.evaluation.Evaluation(original);
+    wekaEval.crossValidateModel(new J48(), original, 10, new Random(42));
+
+    assertEquals(wekaEval.correct(), evaluator.getEvaluation().correct());
+    assertEquals(wekaEval.meanAbsoluteError(), evaluator.getEvaluation().meanAbsoluteError(),
+        1e-12);
+
+    // training data should not have been shuffled/stratified in place
+    for (int i = 0; i < original.numInstances(); i++) {
+      assertEquals(original.instance(i).toString(), m_iris.instance(i).toString());
+    }
+  }
+
+  @Test
+  public void testClassMaskedViewHidesClassWithoutModifyingSource() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    InstancesView view = new InstancesView(m_iris).subset(10, 20);
+    Instances masked = view.classMasked();
+
+    assertEquals(20, masked.numInstances());
+    for (int i = 0; i < masked.numInstances(); i++) {
+      assertTrue(masked.instance(i).classIsMissing());
+      assertTrue(Double.isNaN(masked.instance(i).toDoubleArray()[m_iris.classIndex()]));
+      assertEquals(m_iris.instance(10 + i).value(0), masked.instance(i).value(0));
+      assertTrue(!m_iris.instance(10 + i).classIsMissing());
+    }
+  }
+
+  @Test
+  public void testPercentageSplitWithBatchPredictor() throws Exception {
+    Evaluator evaluator = new Evaluator(EvalMode.PERCENTAGE_SPLIT, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.setPercentageSplit(66);
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    evaluator.initialize(m_iris, new BatchLogistic());
+    evaluator.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    weka.classifiers.functions.Logistic reference = new weka.classifiers.functions.Logistic();
+    Instances shuffled = new Instances(m_iris);
+    shuffled.randomize(new Random(1));
+    int trainSize = (int) Math.round(shuffled.numInstances() * 66.0 / 100);
+    reference.buildClassifier(new Instances(shuffled, 0, trainSize));
+    weka.classifiers.evaluation.Evaluation wekaEval =
+        new weka.classifiers.evaluation.Evaluation(m_iris);
+    wekaEval.evaluateModel(reference,
+        new Instances(shuffled, trainSize, shuffled.numInstances() - trainSize));
+
+    assertEquals(wekaEval.correct(), evaluator.getEvaluation().correct());
+  }
+
+  @Test
+  public void testIncrementalEvaluationBuffersBatchPredictors() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.SEPARATE_TEST_SET, 1, true, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new BatchLogistic());
+    evaluator.setIncrementalBatchSize(40);
+    DefaultLogger logger = new DefaultLogger();
+    Classifier model = evaluator.buildFinalModel(logger, new DefaultVariables());
+
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      evaluator.performEvaluationIncremental(m_iris.instance(i), logger);
+      assertEquals((i + 1) % 40, evaluator.getNumBufferedInstances());
+    }
+    evaluator.flushIncrementalEvaluation(logger);
+    assertEquals(0, evaluator.getNumBufferedInstances());
+
+    weka.classifiers.evaluation.Evaluation wekaEval =
+        new weka.classifiers.evaluation.Evaluation(m_iris);
+    wekaEval.evaluateModel(model, m_iris);
+    // no separate test set is supplied here, so this just marks the evaluation as performed
+    evaluator.performEvaluation(null, logger, new DefaultVariables());
+    assertEquals(wekaEval.numInstances(), evaluator.getEvaluation().numInstances());
+    assertEquals(wekaEval.correct(), evaluator.getEvaluation().correct());
+  }
+
+  @Test
+  public void testNoEvalRowWhenBufferedInstancesCantBeScored() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.SEPARATE_TEST_SET, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new BatchLogistic());
+    evaluator.setIncrementalBatchSize(40);
+    DefaultLogger logger = new DefaultLogger();
+    evaluator.buildFinalModel(logger, new DefaultVariables());
+    for (int i = 0; i < 45; i++) {
+      evaluator.performEvaluationIncremental(m_iris.instance(i), logger);
+    }
+    evaluator.performEvaluation(null, logger, new DefaultVariables());
+    assertEquals(5, evaluator.getNumBufferedInstances());
+
+    // scoring the remaining buffered instances fails (untrained model) - rather than report
+    // metrics for just the first 40 instances, there is no row
+    evaluator.m_classifier = new BatchLogistic();
+    assertNull(evaluator.getEvalRow(null, 0, logger));
+    assertTrue(evaluator.getEvalRows(null, 0, logger).isEmpty());
+  }
+
+  @Test
+  public void testPrequentialWindowedMetrics() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Instances data = new Instances(m_iris);
+    data.randomize(new Random(1));
+    Instances header = new Instances(data, 0);
+
+    Evaluator evaluator = new Evaluator(EvalMode.PREQUENTIAL, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(header, new NaiveBayesUpdateable());
+    evaluator.setPrequentialWindowSize(50);
+    evaluator.setPrequentialFadingFactor(0.99);
+    evaluator.setPrequentialReportInterval(50);
+    NaiveBayesUpdateable model = new NaiveBayesUpdateable();
+    model.buildClassifier(header);
+    evaluator.setTrainedClassifier(model);
+
+    int numRows = 0;
+    int numMetrics = evaluator.getEvalRowMetadata(header, false).size();
+    boolean[] correct = new boolean[data.numInstances()];
+    Object[] lastRow = null;
+    for (int i = 0; i < data.numInstances(); i++) {
+      correct[i] = model.classifyInstance(data.instance(i)) == data.instance(i).classValue();
+      evaluator.performEvaluationIncremental(data.instance(i), null);
+      model.updateClassifier(data.instance(i));
+      if (evaluator.isEvalRowDue()) {
+        lastRow = evaluator.getEvalRow(null, 0, null);
+        assertEquals(numMetrics, lastRow.length);
+        numRows++;
+      }
+    }
+    assertEquals(3, numRows);
+
+    // window percent correct should only reflect the last 50 predictions
+    int windowCorrect = 0;
+    for (int i = data.numInstances() - 50; i < data.numInstances(); i++) {
+      windowCorrect += correct[i] ? 1 : 0;
+    }
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(header, false);
+    for (int i = 0; i < metadata.size(); i++) {
+      if (metadata.get(i).name().equals("Window percent correct")) {
+        assertEquals(100.0 * windowCorrect / 50, (Double) lastRow[i], 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testHistogramAUCApproximatesExactAUC() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator exact = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, false,
+        new DefaultMIMessages());
+    exact.initialize(m_iris, new NaiveBayes());
+    exact.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    Evaluator approx = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, false,
+        new DefaultMIMessages());
+    approx.initialize(m_iris, new NaiveBayes());
+    approx.setAUCHistogramBins(1000);
+    approx.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    assertTrue(approx.getEvaluation().predictions() == null
+        || approx.getEvaluation().predictions().isEmpty());
+    Object[] exactRow = exact.getEvalRow(null, 0, null);
+    Object[] approxRow = approx.getEvalRow(null, 0, null);
+    assertEquals(exactRow.length, approxRow.length);
+    List<Attribute> metadata = exact.getEvalRowMetadata(null, false);
+    int numAUC = 0;
+    for (int i = 0; i < metadata.size(); i++) {
+      String name = metadata.get(i).name();
+      if (name.endsWith("ROC area") || name.endsWith("PRC area")) {
+        assertEquals((Double) exactRow[i], (Double) approxRow[i], 0.01);
+        numAUC++;
+      }
+    }
+    assertEquals(6, numAUC);
+  }
+
+  @Test
+  public void testPredictionStoreGivesExactAUC() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator exact = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, false,
+        new DefaultMIMessages());
+    exact.initialize(m_iris, new NaiveBayes());
+    exact.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    Evaluator stored = new Evaluator(EvalMode.CROSS_VALIDATION, 1, true, false,
+        new DefaultMIMessages());
+    stored.initialize(m_iris, new NaiveBayes());
+    stored.setStorePredictions(true);
+    stored.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    PredictionStore store = stored.getPredictionStore();
+    assertNotNull(store);
+    assertEquals(150, store.size());
+    assertTrue(stored.getEvaluation().predictions() == null
+        || stored.getEvaluation().predictions().isEmpty());
+    for (int j = 0; j < m_iris.classAttribute().numValues(); j++) {
+      assertEquals(exact.getEvaluation().areaUnderROC(j), store.areaUnderROC(j), 1e-9);
+      assertEquals(exact.getEvaluation().areaUnderPRC(j), store.areaUnderPRC(j), 0.01);
+    }
+
+    Instances curve = store.getThresholdCurve(0);
+    assertEquals(1.0,
+        curve.lastInstance().value(curve.attribute("True Positive Rate").index()), 1e-9);
+    Instances predictions = store.toInstances();
+    assertEquals(150, predictions.numInstances());
+    assertEquals(3 + m_iris.classAttribute().numValues(), predictions.numAttributes());
+  }
+
+  @Test
+  public void testFinalModelBuiltConcurrentlyWithCrossValidation() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator serial = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    serial.initialize(m_iris, new J48());
+    serial.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+    Classifier serialModel = serial.buildFinalModel(null, new DefaultVariables());
+
+    Evaluator concurrent = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    concurrent.initialize(m_iris, new J48());
+    concurrent.setNumExecutionSlots(4);
+    concurrent.setBuildFinalModelConcurrently(true);
+    concurrent.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+    assertEquals(serial.getEvaluation().correct(), concurrent.getEvaluation().correct());
+    assertEquals(serial.getEvaluation().numInstances(),
+        concurrent.getEvaluation().numInstances());
+
+    Classifier concurrentModel = concurrent.buildFinalModel(null, new DefaultVariables());
+    assertNotNull(concurrentModel);
+    assertEquals(serialModel.toString(), concurrentModel.toString());
+  }
+
+  @Test
+  public void testReusePercentageSplitModel() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.PERCENTAGE_SPLIT, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new J48());
+    evaluator.setReusePercentageSplitModel(true);
+    evaluator.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+    Classifier model = evaluator.buildFinalModel(null, new DefaultVariables());
+
+    Instances shuffled = new Instances(m_iris);
+    shuffled.randomize(new Random(1));
+    int trainSize = (int) Math.round(shuffled.numInstances() * 66.0 / 100);
+    J48 reference = new J48();
+    reference.buildClassifier(new Instances(shuffled, 0, trainSize));
+    assertEquals(reference.toString(), model.toString());
+
+    // subsequent calls build a new model on all the training data
+    J48 full = new J48();
+    full.buildClassifier(m_iris);
+    assertEquals(full.toString(),
+        evaluator.buildFinalModel(null, new DefaultVariables()).toString());
+  }
+
+  @Test
+  public void testPhaseMetrics() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new J48());
+    evaluator.setOutputPhaseMetrics(true);
+    final List<PhaseMetrics> reported = Collections.synchronizedList(new ArrayList<PhaseMetrics>());
+    evaluator.addPhaseListener(new IMIPhaseListener() {
+      @Override
+      public void phaseComplete(PhaseMetrics metrics) {
+        reported.add(metrics);
+      }
+    });
+    evaluator.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+    evaluator.buildFinalModel(null, new DefaultVariables());
+
+    // training and scoring for each of the 10 folds, plus the final model
+    assertEquals(21, reported.size());
+    assertEquals(150 * 9, evaluator.getPhaseTotals(PhaseMetrics.Phase.TRAINING).getNumRows());
+    assertEquals(150, evaluator.getPhaseTotals(PhaseMetrics.Phase.SCORING).getNumRows());
+
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(null, false);
+    Object[] evalRow = evaluator.getEvalRow(null, 0, null);
+    assertEquals(metadata.size(), evalRow.length);
+    assertEquals(22, reported.size());
+    int index = -1;
+    for (int i = 0; i < metadata.size(); i++) {
+      if (metadata.get(i).name().equals("Final model training rows per second")) {
+        index = i;
+      }
+    }
+    assertTrue(index > 0);
+    assertTrue((Double) evalRow[index] > 0);
+  }
+
+  @Test
+  public void testLatencyMetrics() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(m_iris, new J48());
+    evaluator.setOutputLatencyMetrics(true);
+    evaluator.setNumExecutionSlots(2);
+    evaluator.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+
+    LatencyHistogram latencies = ((MIEvaluation) evaluator.getEvaluation()).getLatencies();
+    assertEquals(150, latencies.getCount());
+    assertTrue(latencies.getPercentile(50) <= latencies.getPercentile(99));
+
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(null, false);
+    Object[] evalRow = evaluator.getEvalRow(null, 0, null);
+    assertEquals(metadata.size(), evalRow.length);
+    assertEquals("Prediction throughput (rows per second)",
+        metadata.get(metadata.size() - 1).name());
+    assertTrue((Double) evalRow[evalRow.length - 1] > 0);
+  }
+
+  @Test
+  public void testStreamingFinalModel() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.NONE, 1, false, false, new DefaultMIMessages());
+    evaluator.initialize(new Instances(m_iris, 0), new NaiveBayesUpdateable());
+
+    List<Instance> rows = new ArrayList<>();
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      rows.add(m_iris.instance(i));
+    }
+    Classifier streamed =
+        evaluator.buildFinalModelStreaming(rows.iterator(), null, new DefaultVariables());
+
+    NaiveBayesUpdateable reference = new NaiveBayesUpdateable();
+    reference.buildClassifier(new Instances(m_iris, 0));
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      reference.updateClassifier(m_iris.instance(i));
+    }
+    assertEquals(reference.toString(), streamed.toString());
+    assertEquals(150, evaluator.getPhaseTotals(PhaseMetrics.Phase.FINAL_MODEL_TRAINING)
+        .getNumRows());
+  }
+
+  @Test(expected = Exception.class)
+  public void testStreamingFinalModelRequiresUpdateableScheme() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.NONE, 1, false, false, new DefaultMIMessages());
+    evaluator.initialize(new Instances(m_iris, 0), new J48());
+    evaluator.buildFinalModelStreaming(new ArrayList<Instance>().iterator(), null,
+        new DefaultVariables());
+  }
+
+  @Test
+  public void testStreamingCrossValidation() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    Evaluator evaluator = new Evaluator(EvalMode.STREAMING_CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.initialize(new Instances(m_iris, 0), new NaiveBayesUpdateable());
+    evaluator.setXValFolds(5);
+
+    List<Instance> rows = new ArrayList<>();
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      rows.add(m_iris.instance(i));
+    }
+    evaluator.performStreamingCrossValidation(rows.iterator(), null, new DefaultVariables());
+    assertEquals(150.0, evaluator.getEvaluation().numInstances());
+    assertTrue(evaluator.getEvaluation().pctCorrect() > 80);
+
+    Object[] evalRow = evaluator.getEvalRow(null, 0, null);
+    assertEquals(evaluator.getEvalRowMetadata(null, false).size(), evalRow.length);
+    assertEquals("streaming_cross_validation folds 5 seed 1", evalRow[2]);
+
+    // rows that arrive without a dataset (e.g. converted from incoming step rows) get the header
+    Evaluator detached = new Evaluator(EvalMode.STREAMING_CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    detached.initialize(new Instances(m_iris, 0), new NaiveBayesUpdateable());
+    detached.setXValFolds(5);
+    List<Instance> detachedRows = new ArrayList<>();
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      Instance row = (Instance) m_iris.instance(i).copy();
+      row.setDataset(null);
+      detachedRows.add(row);
+    }
+    detached.performStreamingCrossValidation(detachedRows.iterator(), null,
+        new DefaultVariables());
+    assertEquals(evaluator.getEvaluation().pctCorrect(), detached.getEvaluation().pctCorrect());
+  }
+
+  @Test
+  public void testStreamingCrossValidationNumericClass() throws Exception {
+    // sepal length as the class
+    m_iris.setClassIndex(0);
+    Evaluator evaluator = new Evaluator(EvalMode.STREAMING_CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    SGD sgd = new SGD();
+    sgd.setLossFunction(new SelectedTag(SGD.SQUAREDLOSS, SGD.TAGS_SELECTION));
+    evaluator.initialize(new Instances(m_iris, 0), sgd);
+    evaluator.setXValFolds(5);
+
+    List<Instance> rows = new ArrayList<>();
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      rows.add(m_iris.instance(i));
+    }
+    evaluator.performStreamingCrossValidation(rows.iterator(), null, new DefaultVariables());
+
+    // the relative errors need the priors up front, which streaming cross-validation doesn't have
+    List<Attribute> metadata = evaluator.getEvalRowMetadata(null, false);
+    Object[] evalRow = evaluator.getEvalRow(null, 0, null);
+    assertEquals(metadata.size(), evalRow.length);
+    for (int i = 0; i < metadata.size(); i++) {
+      assertTrue(!metadata.get(i).name().startsWith("Relative absolute error"));
+      assertTrue(!metadata.get(i).name().startsWith("Root relative squared error"));
+      if (evalRow[i] instanceof Double) {
+        assertTrue(metadata.get(i).name(), !Double.isNaN((Double) evalRow[i]));
+      }
+    }
+  }
+
+  @Test
+  public void testHashFoldAssignmentIsStable() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    HashFoldAssigner assigner = new HashFoldAssigner(10, 1, null);
+    int[] counts = new int[10];
+    int[] folds = new int[m_iris.numInstances()];
+    for (int i = 0; i < m_iris.numInstances(); i++) {
+      folds[i] = assigner.assignFold(m_iris.instance(i));
+      counts[folds[i]]++;
+    }
+    for (int count : counts) {
+      assertTrue(count > 0);
+    }
+
+    // independent of the order in which rows arrive
+    HashFoldAssigner other = new HashFoldAssigner(10, 1, null);
+    for (int i = m_iris.numInstances() - 1; i >= 0; i--) {
+      assertEquals(folds[i], other.assignFold(m_iris.instance(i)));
+    }
+
+    // rows with the same key value are assigned to the same fold
+    HashFoldAssigner keyed = new HashFoldAssigner(10, 1, m_iris.classAttribute());
+    assertEquals(keyed.assignFold(m_iris.instance(0)), keyed.assignFold(m_iris.instance(1)));
+  }
+
+  @Test
+  public void testIterationCheckpointsMatchSeparateRuns() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+    int[] checkpoints = {2, 5, 10};
+
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.setXValFolds(5);
+    evaluator.setNumExecutionSlots(2);
+    evaluator.setIterationCheckpoints(10, 2, 5);
+    evaluator.initialize(m_iris, new LogitBoost());
+    evaluator.performEvaluation(null, logger, new DefaultVariables());
+    List<Object[]> rows = evaluator.getEvalRows(null, 0, logger);
+    assertEquals(3, rows.size());
+
+    for (int i = 0; i < checkpoints.length; i++) {
+      assertTrue(rows.get(i)[2].toString().endsWith("iterations " + checkpoints[i]));
+      LogitBoost boost = new LogitBoost();
+      boost.setNumIterations(checkpoints[i]);
+      Evaluator separate = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+          new DefaultMIMessages());
+      separate.setXValFolds(5);
+      separate.initialize(m_iris, boost);
+      separate.performEvaluation(null, logger, new DefaultVariables());
+      Object[] expected = separate.getEvalRow(null, 0, logger);
+      // metric columns (everything after scheme name, options and evaluation mode)
+      for (int j = 3; j < expected.length; j++) {
+        assertEquals(expected[j], rows.get(i)[j]);
+      }
+    }
+
+    // the overall evaluation is that of the largest checkpoint
+    assertEquals(evaluator.getCheckpointEvaluations().get(10).pctCorrect(),
+        evaluator.getEvaluation().pctCorrect());
+    // training rows are counted once per fold, test rows once per checkpoint
+    assertEquals(150 * 4, evaluator.getPhaseTotals(PhaseMetrics.Phase.TRAINING).getNumRows());
+    assertEquals(150 * 3, evaluator.getPhaseTotals(PhaseMetrics.Phase.SCORING).getNumRows());
+
+    // re-initializing discards the checkpoint evaluations of the earlier run
+    evaluator.initializeNoPriors(new Instances(m_iris, 0), new J48());
+    assertTrue(evaluator.getCheckpointEvaluations().isEmpty());
+  }
+
+  @Test
+  public void testCheckpointedCrossValidationResumesAfterFailure() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+    File checkpointDir = Files.createTempDirectory("mi-checkpoint").toFile();
+
+    FailingJ48.s_buildsBeforeFailure.set(-1);
+    Evaluator clean = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    clean.setXValFolds(5);
+    clean.initialize(m_iris, new FailingJ48());
+    clean.performEvaluation(null, logger, new DefaultVariables());
+    Object[] expected = clean.getEvalRow(null, 0, logger);
+
+    // fail while training the third fold
+    FailingJ48.s_buildsBeforeFailure.set(2);
+    Evaluator evaluator = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    evaluator.setXValFolds(5);
+    evaluator.setCheckpointDirectory(checkpointDir);
+    evaluator.initialize(m_iris, new FailingJ48());
+    try {
+      evaluator.performEvaluation(null, logger, new DefaultVariables());
+      fail("Expected the third fold to fail");
+    } catch (Exception expectedFailure) {
+      // expected
+    }
+
+    // a restarted evaluator only trains the three remaining folds
+    FailingJ48.s_buildsBeforeFailure.set(-1);
+    FailingJ48.s_numBuilds.set(0);
+    Evaluator restarted = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    restarted.setXValFolds(5);
+    restarted.setCheckpointDirectory(checkpointDir);
+    restarted.initialize(m_iris, new FailingJ48());
+    restarted.performEvaluation(null, logger, new DefaultVariables());
+    assertEquals(3, FailingJ48.s_numBuilds.get());
+    Object[] resumed = restarted.getEvalRow(null, 0, logger);
+    for (int j = 0; j < expected.length; j++) {
+      assertEquals(expected[j], resumed[j]);
+    }
+
+    // fold checkpoints are removed once the evaluation completes
+    assertEquals(0, checkpointDir.listFiles().length);
+    checkpointDir.delete();
+  }
+
+  @Test
+  public void testCheckpointedFinalModelResumesFromSnapshot() throws Exception {
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+    File checkpointDir = Files.createTempDirectory("mi-checkpoint").toFile();
+    LogitBoost boost = new LogitBoost();
+    boost.setNumIterations(10);
+
+    Evaluator clean = new Evaluator(EvalMode.NONE, 1, false, false, new DefaultMIMessages());
+    clean.initialize(m_iris, boost);
+    String expected = clean.buildFinalModel(logger, new DefaultVariables()).toString();
+
+    Evaluator evaluator = new Evaluator(EvalMode.NONE, 1, false, false, new DefaultMIMessages());
+    evaluator.setCheckpointDirectory(checkpointDir);
+    evaluator.setFinalModelCheckpointInterval(2);
+    evaluator.initialize(m_iris, boost);
+
+    // simulate a build that was interrupted after four iterations
+    EvaluationCheckpoint checkpoint = evaluator.finalModelCheckpoint();
+    LogitBoost partial = (LogitBoost) AbstractClassifier.makeCopy(boost);
+    partial.initializeClassifier(m_iris);
+    for (int i = 0; i < 4; i++) {
+      partial.next();
+    }
+    checkpoint.save("final.partial", new Object[] {partial, 4});
+
+    Classifier model = evaluator.buildFinalModel(logger, new DefaultVariables());
+    assertEquals(expected, model.toString());
+    assertTrue(!checkpoint.has("final.partial"));
+
+    // the checkpoint is removed once the final model has been built
+    assertEquals(0, checkpointDir.listFiles().length);
+    checkpointDir.delete();
+  }
+
+  @Test
+  public void testFailedCheckpointSaveLeavesNoTempFile() throws Exception {
+    File checkpointDir = Files.createTempDirectory("mi-checkpoint").toFile();
+    EvaluationCheckpoint checkpoint = new EvaluationCheckpoint(checkpointDir, "run");
+    checkpoint.save("fold-0.eval", "saved");
+    try {
+      // not serializable
+      checkpoint.save("fold-0.eval", new Object());
+      fail("Expected the save to fail");
+    } catch (Exception ex) {
+      // expected
+    }
+
+    // the earlier checkpoint is intact, and no temp file has been left behind
+    assertEquals("saved", checkpoint.load("fold-0.eval"));
+    File[] files = checkpoint.getDirectory().listFiles();
+    assertEquals(1, files.length);
+    assertEquals("fold-0.eval", files[0].getName());
+    checkpoint.clear();
+    checkpointDir.delete();
+  }
+
+  /**
+   * J48 that counts the number of models built, and can be made to fail after a given number of
+   * builds
+   */
+  public static class FailingJ48 extends J48 {
+
+    private static final long serialVersionUID = -1729531374516325283L;
+
+    protected static final AtomicInteger s_buildsBeforeFailure = new AtomicInteger(-1);
+
+    protected static final AtomicInteger s_numBuilds = new AtomicInteger();
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+      if (s_buildsBeforeFailure.getAndDecrement() == 0) {
+        throw new Exception("Simulated failure");
+      }
+      s_numBuilds.incrementAndGet();
+      super.buildClassifier(data);
+    }
+  }
+
+  /**
+   * Logistic that claims to implement more efficient batch prediction, so that the batch scoring
+   * path is exercised
+   */
+  public static class BatchLogistic extends weka.classifiers.functions.Logistic {
+
+    private static final long serialVersionUID = 3212480218866377195L;
+
+    @Override
+    public boolean implementsMoreEfficientBatchPrediction() {
+      return true;
+    }
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.PartitionedEvaluator.PartitionedResult;
+import org.phalanxdev.mi.engines.WekaClassifierScheme;
+import org.phalanxdev.mi.utils.DefaultLogger;
+import org.phalanxdev.mi.utils.DefaultMIMessages;
+import org.phalanxdev.mi.utils.DefaultVariables;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version 1: $
+ */
+public class PartitionedEvaluatorTest {
+
+  protected Instances m_data;
+
+  /**
+   * Iris with an extra "region" attribute that splits the data into three partitions
+   */
+  @Before
+  public void setup() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.insertAttributeAt(new Attribute("region", new ArrayList<>(Arrays.asList("a", "b", "c"))),
+        0);
+    for (int i = 0; i < iris.numInstances(); i++) {
+      iris.instance(i).setValue(0, i % 3);
+    }
+    iris.setClassIndex(iris.numAttributes() - 1);
+    m_data = iris;
+  }
+
+  @Test
+  public void testPartitionsMatchSeparateEvaluations() throws Exception {
+    PartitionedEvaluator partitioned = new PartitionedEvaluator(
+        new WekaClassifierScheme("Decision tree classifier"), "region", new DefaultMIMessages());
+    partitioned.setXValFolds(5);
+    partitioned.setNumExecutionSlots(3);
+    DefaultLogger logger = new DefaultLogger();
+    PartitionedResult result = partitioned.evaluate(m_data, logger, new DefaultVariables());
+
+    assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(result.getEvalRows().keySet()));
+    assertEquals(3, result.getFinalModels().size());
+    assertTrue(result.getErrors().isEmpty());
+    assertEquals(partitioned.getEvalRowMetadata(m_data).size(),
+        result.getEvalRows().get("a").length);
+
+    Map<String, Instances> partitions = partitioned.partition(m_data);
+    for (String value : partitions.keySet()) {
+      Instances part = partitions.get(value);
+      assertEquals(50, part.numInstances());
+      assertEquals(m_data.numAttributes() - 1, part.numAttributes());
+      Evaluator separate = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+          new DefaultMIMessages());
+      separate.setXValFolds(5);
+      separate.initialize(part, new J48());
+      separate.performEvaluation(null, logger, new DefaultVariables());
+      Object[] expected = separate.getEvalRow(value, 0, logger);
+      Object[] actual = result.getEvalRows().get(value);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i], actual[i]);
+      }
+      assertTrue(result.getFinalModels().get(value) instanceof J48);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStratificationAttribute() throws Exception {
+    new PartitionedEvaluator(new WekaClassifierScheme("Decision tree classifier"), "nope",
+        new DefaultMIMessages()).evaluate(m_data, new DefaultLogger(), new DefaultVariables());
+  }
+}
@@ -0,0 +1,439 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.phalanxdev.mi.Evaluator.EvalMode;
+import org.phalanxdev.mi.engines.IMIEngineDataTrainer;
+import org.phalanxdev.mi.engines.PooledClassifier;
+import org.phalanxdev.mi.engines.PythonServerPool;
+import org.phalanxdev.mi.engines.ScikitLearnWorkerClassifier;
+import org.phalanxdev.mi.utils.DefaultLogger;
+import org.phalanxdev.mi.utils.DefaultMIMessages;
+import org.phalanxdev.mi.utils.DefaultVariables;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Tests the pool logic with fake servers (no python is needed)
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version 1: $
+ */
+public class PythonServerPoolTest {
+
+  /**
+   * A pool whose servers are simulated. Servers listed in m_broken fail to start or fail health
+   * checks.
+   */
+  protected static class FakePool extends PythonServerPool {
+
+    protected final Set<String> m_broken = Collections.synchronizedSet(new HashSet<String>());
+
+    protected final Set<String> m_stopped = Collections.synchronizedSet(new HashSet<String>());
+
+    public FakePool(String name, int size) {
+      super(name, "python", null, size);
+    }
+
+    @Override
+    protected boolean startServer(String serverID) {
+      return !m_broken.contains(serverID);
+    }
+
+    @Override
+    protected boolean checkServer(String serverID) {
+      return !m_broken.contains(serverID);
+    }
+
+    @Override
+    protected void stopServer(String serverID) {
+      m_stopped.add(serverID);
+    }
+  }
+
+  /**
+   * A classifier that records the server it was pointed at, like ScikitLearnClassifier
+   */
+  public static class ServerAwareJ48 extends J48 {
+
+    private static final long serialVersionUID = 4318790264119935237L;
+
+    protected String m_serverID;
+
+    public void setPythonCommand(String command) {
+    }
+
+    public void setPythonPath(String path) {
+    }
+
+    public void setServerID(String serverID) {
+      m_serverID = serverID;
+    }
+
+    public String getServerID() {
+      return m_serverID;
+    }
+  }
+
+  /**
+   * Data frames "held" by the fake servers, keyed by variable name
+   */
+  protected static final Map<String, Instances> s_frames = new ConcurrentHashMap<>();
+
+  /**
+   * A fake pool that simulates caching datasets on its servers
+   */
+  protected static class DataCachingPool extends FakePool {
+
+    protected final AtomicInteger m_transfers = new AtomicInteger();
+
+    protected final AtomicInteger m_selections = new AtomicInteger();
+
+    protected final Set<String> m_keys = Collections.synchronizedSet(new HashSet<String>());
+
+    public DataCachingPool(String name, int size) {
+      super(name, size);
+    }
+
+    @Override
+    public void cacheDataset(String serverID, String key, Instances data) throws Exception {
+      m_keys.add(key);
+      super.cacheDataset(serverID, key, data);
+    }
+
+    @Override
+    protected void transferDataset(String serverID, String variable, Instances data) {
+      m_transfers.incrementAndGet();
+      s_frames.put(serverID + "/" + variable, data);
+    }
+
+    @Override
+    public String selectRows(String serverID, String key, int[] rows) throws Exception {
+      String variable = super.selectRows(serverID, key, rows);
+      m_selections.incrementAndGet();
+      return variable;
+    }
+
+    @Override
+    protected void runScript(String serverID, String script) throws Exception {
+      if (script.startsWith("del ")) {
+        return;
+      }
+      // rows are selected by indexes read from a file, not listed in the script
+      Matcher m = Pattern
+          .compile("(_mi_rows_\\d+) = (\\w+)\\.iloc\\[__import__\\('numpy'\\)\\.fromfile\\(\"(.+)\", dtype='<i4'\\)\\]"
+              + "\\.reset_index\\(drop=True\\)")
+          .matcher(script);
+      assertTrue(script, m.matches());
+      ByteBuffer indexes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(m.group(3))))
+          .order(ByteOrder.LITTLE_ENDIAN);
+      Instances source = s_frames.get(serverID + "/" + m.group(2));
+      Instances selected = new Instances(source, indexes.remaining() / 4);
+      while (indexes.hasRemaining()) {
+        selected.add(source.instance(indexes.getInt()));
+      }
+      s_frames.put(m.group(1), selected);
+    }
+
+    @Override
+    protected void deleteVariable(String serverID, String variable) {
+      s_frames.remove(variable);
+      s_frames.remove(serverID + "/" + variable);
+    }
+  }
+
+  /**
+   * A classifier that trains on data frames held by its server
+   */
+  public static class EngineDataJ48 extends ServerAwareJ48 implements IMIEngineDataTrainer {
+
+    private static final long serialVersionUID = -2719583374608412276L;
+
+    @Override
+    public void buildClassifier(Instances header, String variable) throws Exception {
+      buildClassifier(s_frames.get(variable));
+    }
+  }
+
+  @Test
+  public void testStartLeaseAndRelease() throws Exception {
+    FakePool pool = new FakePool("test-lease", 3);
+    pool.m_broken.add("test-lease-2");
+    pool.start();
+    try {
+      // one server failed to start
+      assertEquals(2, pool.getNumServers());
+      assertSame(pool, PythonServerPool.getPool("test-lease"));
+
+      String first = pool.lease(1000);
+      String second = pool.lease(1000);
+      assertTrue(!first.equals(second));
+      assertEquals(0, pool.getNumIdle());
+      try {
+        pool.lease(10);
+        throw new AssertionError("Expected lease to time out");
+      } catch (TimeoutException ex) {
+        // expected
+      }
+      pool.release(first, false);
+      assertEquals(first, pool.lease(1000));
+    } finally {
+      pool.shutdown();
+    }
+    assertNull(PythonServerPool.getPool("test-lease"));
+  }
+
+  @Test
+  public void testCrashedServersAreReplaced() throws Exception {
+    FakePool pool = new FakePool("test-crash", 2);
+    pool.setHealthCheckOnLease(true);
+    pool.start();
+    try {
+      String leased = pool.lease(1000);
+      // the server crashes while the task is running
+      pool.m_broken.add(leased);
+      pool.release(leased, true);
+      assertTrue(pool.m_stopped.contains(leased));
+      assertEquals(2, pool.getNumServers());
+      assertEquals(2, pool.getNumIdle());
+
+      // an idle server crashes - it is replaced when leased
+      String other = pool.lease(1000);
+      pool.release(other, false);
+      pool.m_broken.add(other);
+      Set<String> leasedIDs = new HashSet<>();
+      leasedIDs.add(pool.lease(1000));
+      leasedIDs.add(pool.lease(1000));
+      assertTrue(!leasedIDs.contains(other));
+      assertTrue(!leasedIDs.contains(leased));
+      assertEquals(2, pool.getNumServers());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testPooledClassifierLeasesServers() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    FakePool pool = new FakePool("test-classifier", 2);
+    pool.start();
+    try {
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName("test-classifier");
+      pooled.setClassifier(new ServerAwareJ48());
+
+      // copying via options (as the Evaluator does) keeps the pool
+      Classifier copy = AbstractClassifier.forName(PooledClassifier.class.getName(),
+          pooled.getOptions());
+      assertEquals("test-classifier", ((PooledClassifier) copy).getPoolName());
+      copy.buildClassifier(iris);
+      String serverID = ((ServerAwareJ48) ((PooledClassifier) copy).getClassifier())
+          .getServerID();
+      assertNotNull(serverID);
+      assertTrue(serverID.startsWith("test-classifier-"));
+      assertEquals(2, pool.getNumIdle());
+
+      double[][] dists = ((PooledClassifier) copy).distributionsForInstances(iris);
+      assertEquals(iris.numInstances(), dists.length);
+      assertEquals(Utils.maxIndex(dists[0]),
+          Utils.maxIndex(copy.distributionForInstance(iris.instance(0))));
+      assertEquals(2, pool.getNumIdle());
+
+      // the wrapped classifier can't train on cached data, so folds are not keyed by a fingerprint
+      assertTrue(!pooled.canTrainOnCachedData());
+      Evaluator eval = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+          new DefaultMIMessages());
+      eval.initialize(new Instances(iris), pooled);
+      eval.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+      assertNull(eval.m_dataFingerprint);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testWorkerClassifierTrainsOnCachedData() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    final List<String> scripts = Collections.synchronizedList(new ArrayList<String>());
+    FakePool pool = new FakePool("test-worker", 1) {
+      @Override
+      protected void runScript(String serverID, String script) {
+        scripts.add(script);
+      }
+    };
+    pool.start();
+    try {
+      ScikitLearnWorkerClassifier worker = new ScikitLearnWorkerClassifier();
+      worker.setLearnerOpts("max_depth=3");
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName("test-worker");
+      pooled.setClassifier(worker);
+      assertTrue(pooled.canTrainOnCachedData());
+
+      String serverID = pool.lease(1000);
+      pool.configure(pooled, serverID);
+      pool.cacheDataset(serverID, "key", iris);
+      String rows = pool.selectRows(serverID, "key", new int[] {0, 50, 100});
+      worker.buildClassifier(new Instances(iris, 0), rows);
+      pool.release(serverID, false);
+
+      // the fit runs on the selected rows of the cached frame, rather than on transferred data
+      String fit = scripts.get(scripts.size() - 1);
+      assertTrue(fit.contains("from sklearn.tree import DecisionTreeClassifier"));
+      assertTrue(fit.contains("_mi_prepare(" + rows + ", {}, 'a4')"));
+      assertTrue(fit.contains("DecisionTreeClassifier(max_depth=3)"));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testPercentageSplitReleasesDataCachedForConcurrentFinalModel() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    DataCachingPool pool = new DataCachingPool("test-split-cache", 2);
+    pool.start();
+    try {
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName("test-split-cache");
+      pooled.setClassifier(new EngineDataJ48());
+      Evaluator eval = new Evaluator(EvalMode.PERCENTAGE_SPLIT, 1, false, false,
+          new DefaultMIMessages());
+      eval.setBuildFinalModelConcurrently(true);
+      eval.setNumExecutionSlots(2);
+      eval.initialize(new Instances(iris), pooled);
+      DefaultLogger logger = new DefaultLogger();
+      eval.performEvaluation(null, logger, new DefaultVariables());
+      assertNotNull(eval.buildFinalModel(logger, new DefaultVariables()));
+
+      // the final model was trained on cached data, which is released with the evaluation
+      assertEquals(1, pool.m_transfers.get());
+      assertTrue(s_frames.isEmpty());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentEvaluationsDoNotShareCachedData() throws Exception {
+    final Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    DataCachingPool pool = new DataCachingPool("test-shared-cache", 2);
+    pool.start();
+    try {
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      List<Thread> runs = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        runs.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              PooledClassifier pooled = new PooledClassifier();
+              pooled.setPoolName("test-shared-cache");
+              pooled.setClassifier(new EngineDataJ48());
+              Evaluator eval = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+                  new DefaultMIMessages());
+              eval.setNumExecutionSlots(2);
+              eval.initialize(new Instances(iris), pooled);
+              eval.performEvaluation(null, new DefaultLogger(), new DefaultVariables());
+            } catch (Throwable t) {
+              failures.add(t);
+            }
+          }
+        });
+      }
+      for (Thread run : runs) {
+        run.start();
+      }
+      for (Thread run : runs) {
+        run.join();
+      }
+      assertTrue(failures.toString(), failures.isEmpty());
+      // same data, but each run caches (and releases) its own copy
+      assertEquals(2, pool.m_keys.size());
+      assertTrue(s_frames.isEmpty());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testFoldsSelectRowsOfCachedData() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    DefaultLogger logger = new DefaultLogger();
+
+    Evaluator plain = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+        new DefaultMIMessages());
+    plain.initialize(new Instances(iris), new J48());
+    plain.performEvaluation(null, logger, new DefaultVariables());
+    Object[] plainRow = plain.getEvalRow(null, 0, logger);
+
+    DataCachingPool pool = new DataCachingPool("test-data-cache", 2);
+    pool.start();
+    try {
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName("test-data-cache");
+      pooled.setClassifier(new EngineDataJ48());
+      Evaluator cached = new Evaluator(EvalMode.CROSS_VALIDATION, 1, false, false,
+          new DefaultMIMessages());
+      cached.setNumExecutionSlots(2);
+      cached.initialize(new Instances(iris), pooled);
+      cached.performEvaluation(null, logger, new DefaultVariables());
+      Object[] cachedRow = cached.getEvalRow(null, 0, logger);
+
+      // the data is sent to each server at most once, rather than once per fold
+      assertTrue(pool.m_transfers.get() <= 2);
+      assertEquals(10, pool.m_selections.get());
+      // fold selections and the cached data are released once the folds are done
+      assertTrue(s_frames.isEmpty());
+      // same metrics as training on the materialized folds (the first two columns are the scheme name and options)
+      for (int i = 2; i < plainRow.length; i++) {
+        assertEquals(plainRow[i], cachedRow[i]);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.phalanxdev.mi.engines.MLRWorkerClassifier;
+import org.phalanxdev.mi.engines.PooledClassifier;
+import org.phalanxdev.mi.engines.RProcess;
+import org.phalanxdev.mi.engines.RSessionPool;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests the R session pool logic with fake sessions (no R is needed)
+ *
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version 1: $
+ */
+public class RSessionPoolTest {
+
+  /**
+   * A session that is never launched
+   */
+  protected static class FakeProcess extends RProcess {
+
+    /** Row indexes read by the last row selection script */
+    protected final List<Integer> m_selectedRows = new ArrayList<>();
+
+    /** The scripts evaluated */
+    protected final List<String> m_scripts = new ArrayList<>();
+
+    public FakeProcess() {
+      super("R");
+    }
+
+    @Override
+    public boolean isAlive() {
+      return true;
+    }
+
+    @Override
+    public String eval(String script) throws IOException {
+      m_scripts.add(script);
+      Matcher m = Pattern.compile(".*readBin\\(\"(.+)\", \"integer\".*").matcher(script);
+      if (m.matches()) {
+        m_selectedRows.clear();
+        ByteBuffer indexes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(m.group(1))))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        while (indexes.hasRemaining()) {
+          m_selectedRows.add(indexes.getInt());
+        }
+      }
+      return "";
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * A pool whose sessions are simulated. Sessions listed in m_broken fail health checks.
+   */
+  protected static class FakePool extends RSessionPool {
+
+    protected final Set<String> m_broken = Collections.synchronizedSet(new HashSet<String>());
+
+    protected final Map<String, List<String>> m_loaded = new ConcurrentHashMap<>();
+
+    public FakePool(String name, int size) {
+      super(name, "R", size);
+    }
+
+    @Override
+    protected RProcess startSession(String sessionID) {
+      m_loaded.put(sessionID, getPreloadLibraries());
+      return new FakeProcess();
+    }
+
+    @Override
+    protected boolean checkSession(String sessionID) {
+      return !m_broken.contains(sessionID);
+    }
+  }
+
+  /**
+   * Stands in for the MLR learner: trains and scores a J48 locally, recording the session it was
+   * pointed at
+   */
+  public static class SessionAwareJ48 extends MLRWorkerClassifier {
+
+    private static final long serialVersionUID = -5209410327164711590L;
+
+    protected static final Set<String> s_sessionsUsed =
+        Collections.synchronizedSet(new HashSet<String>());
+
+    protected final J48 m_j48 = new J48();
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+      s_sessionsUsed.add(m_sessionID);
+      m_j48.buildClassifier(data);
+    }
+
+    @Override
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+      s_sessionsUsed.add(m_sessionID);
+      return m_j48.distributionsForInstances(insts);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+      s_sessionsUsed.add(m_sessionID);
+      return m_j48.distributionForInstance(instance);
+    }
+  }
+
+  @Test
+  public void testSessionsAreLeasedConcurrently() throws Exception {
+    FakePool pool = new FakePool("test-r-concurrent", 4);
+    pool.start();
+    try {
+      assertEquals(4, pool.getNumSessions());
+      assertSame(pool, RSessionPool.getPool("test-r-concurrent"));
+
+      Set<String> leased = new HashSet<>();
+      for (int i = 0; i < 4; i++) {
+        leased.add(pool.lease(1000));
+      }
+      assertEquals(4, leased.size());
+      try {
+        pool.lease(10);
+        throw new AssertionError("Expected lease to time out");
+      } catch (TimeoutException ex) {
+        // expected
+      }
+      String first = leased.iterator().next();
+      pool.release(first, false);
+      assertEquals(first, pool.lease(1000));
+    } finally {
+      pool.shutdown();
+    }
+    assertNull(RSessionPool.getPool("test-r-concurrent"));
+  }
+
+  @Test
+  public void testLibrariesArePreloadedAndBrokenSessionsRestarted() throws Exception {
+    FakePool pool = new FakePool("test-r-libs", 2);
+    pool.setPreloadLibraries("mlr, rpart");
+    pool.start();
+    try {
+      assertEquals(2, pool.getNumSessions());
+      for (List<String> libs : pool.m_loaded.values()) {
+        assertEquals(Arrays.asList("mlr", "rpart"), libs);
+      }
+
+      String leased = pool.lease(1000);
+      pool.m_broken.add(leased);
+      pool.release(leased, true);
+      assertEquals(2, pool.getNumSessions());
+      assertEquals(2, pool.getNumIdle());
+      assertEquals(3, pool.m_loaded.size());
+
+      Set<String> leasedIDs = new HashSet<>();
+      leasedIDs.add(pool.lease(1000));
+      leasedIDs.add(pool.lease(1000));
+      assertTrue(!leasedIDs.contains(leased));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testWorkerClassifierTrainsOnSelectedRows() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    FakePool pool = new FakePool("test-r-rows", 1);
+    pool.start();
+    try {
+      String sessionID = pool.lease(1000);
+      FakeProcess session = (FakeProcess) pool.getSession(sessionID);
+      pool.cacheDataset(sessionID, "key", iris);
+      pool.selectRows(sessionID, "key", new int[] {4, 0, 149});
+      assertEquals(Arrays.asList(4, 0, 149), session.m_selectedRows);
+
+      // the worker classifier fits on the selected rows of the cached frame
+      iris.setClassIndex(iris.numAttributes() - 1);
+      MLRWorkerClassifier worker = new MLRWorkerClassifier();
+      pool.configure(worker, sessionID);
+      worker.buildClassifier(new Instances(iris, 0), "mi.rows.1");
+      String fit = session.m_scripts.get(session.m_scripts.size() - 1);
+      assertTrue(fit.contains("d <- mi.rows.1"));
+      assertTrue(fit.contains("makeClassifTask(data = d, target = \"a4\""));
+      assertTrue(fit.contains("makeLearner(\"classif.rpart\""));
+      // empty class levels (e.g. a rare class missing from a fold) are kept
+      assertTrue(fit.contains("fixup.data = \"no\""));
+      pool.release(sessionID, false);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testPooledClassifierRunsOnLeasedSessions() throws Exception {
+    Instances iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    iris.setClassIndex(iris.numAttributes() - 1);
+    FakePool pool = new FakePool("test-r-classifier", 2);
+    pool.start();
+    try {
+      PooledClassifier pooled = new PooledClassifier();
+      pooled.setPoolName("test-r-classifier");
+      pooled.setClassifier(new SessionAwareJ48());
+
+      Classifier copy = AbstractClassifier.forName(PooledClassifier.class.getName(),
+          pooled.getOptions());
+      copy.buildClassifier(iris);
+      copy.distributionForInstance(iris.instance(0));
+      assertEquals(2, pool.getNumIdle());
+      assertTrue(pool.m_loaded.keySet().containsAll(SessionAwareJ48.s_sessionsUsed));
+      assertTrue(!SessionAwareJ48.s_sessionsUsed.isEmpty());
+
+      // only classifiers that run in the pooled R processes can be configured
+      pooled.setClassifier(new J48());
+      try {
+        pooled.buildClassifier(iris);
+        throw new AssertionError("Expected configure to reject J48");
+      } catch (Exception ex) {
+        assertTrue(ex.getMessage().contains("MLRWorkerClassifier"));
+      }
+      assertEquals(2, pool.getNumIdle());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phalanxdev.mi;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.phalanxdev.mi.TuningResult.Candidate;
+import org.phalanxdev.mi.engines.WekaClassifierScheme;
+import org.phalanxdev.mi.utils.DefaultLogger;
+import org.phalanxdev.mi.utils.DefaultMIMessages;
+import org.phalanxdev.mi.utils.DefaultVariables;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+/**
+ * @author Mark Hall (mhall{[at]}waikato{[dot]}ac{[dot]}nz)
+ * @version 1: $
+ */
+public class SchemeTunerTest {
+
+  protected Instances m_iris;
+
+  @Before
+  public void setup() throws Exception {
+    m_iris = new Instances(new StringReader(EvaluatorTest.s_irisData));
+    m_iris.setClassIndex(m_iris.numAttributes() - 1);
+  }
+
+  protected ParameterSpace j48Space() {
+    return new ParameterSpace().addRange("confidenceFactor", 0.1, 0.5, 3)
+        .addChoices("minNumObj", "2", "10");
+  }
+
+  @Test
+  public void testGridSearch() throws Exception {
+    Scheme scheme = new WekaClassifierScheme("Decision tree classifier");
+    SchemeTuner tuner = new SchemeTuner(scheme, j48Space(), new DefaultMIMessages());
+    tuner.setXValFolds(5);
+    tuner.setNumExecutionSlots(4);
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    List<Candidate> ranked = result.getRankedCandidates();
+    assertEquals(6, ranked.size());
+    assertEquals("Percent correct", result.getMetricName());
+    for (int i = 1; i < ranked.size(); i++) {
+      assertTrue(ranked.get(i - 1).getScore() >= ranked.get(i).getScore());
+    }
+
+    Instances table = result.getRankedTable();
+    assertEquals(6, table.numInstances());
+    assertEquals(1.0, table.instance(0).value(table.attribute("Rank")));
+    assertEquals(ranked.get(0).getScore(),
+        table.instance(0).value(table.attribute("Percent correct")));
+
+    // best scheme (and the tuned scheme itself) carry the best settings
+    Candidate best = result.getBestCandidate();
+    assertTrue(result.getBestScheme() instanceof J48);
+    J48 bestJ48 = (J48) result.getBestScheme();
+    assertEquals(Double.parseDouble(best.getParameters().get("confidenceFactor")),
+        bestJ48.getConfidenceFactor(), 1e-6);
+    assertEquals(best.getParameters().get("minNumObj"), "" + bestJ48.getMinNumObj());
+    assertEquals(Utils.joinOptions(bestJ48.getOptions()),
+        Utils.joinOptions(scheme.getSchemeOptions()));
+  }
+
+  @Test
+  public void testParallelMatchesSerial() throws Exception {
+    SchemeTuner serial = new SchemeTuner(new WekaClassifierScheme("Decision tree classifier"),
+        j48Space(), new DefaultMIMessages());
+    serial.setXValFolds(5);
+    serial.setNumExecutionSlots(1);
+    TuningResult serialResult = serial.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    SchemeTuner parallel = new SchemeTuner(new WekaClassifierScheme("Decision tree classifier"),
+        j48Space(), new DefaultMIMessages());
+    parallel.setXValFolds(5);
+    parallel.setNumExecutionSlots(3);
+    TuningResult parallelResult =
+        parallel.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals(serialResult.getRankedCandidates().get(i).getScore(),
+          parallelResult.getRankedCandidates().get(i).getScore(), 1e-9);
+    }
+  }
+
+  @Test
+  public void testRandomSearch() throws Exception {
+    ParameterSpace space = new ParameterSpace()
+        .addRange("confidenceFactor", 0.01, 0.5, 10, false, true)
+        .addRange("minNumObj", 1, 20, 20, true, false);
+    SchemeTuner tuner = new SchemeTuner(new WekaClassifierScheme("Decision tree classifier"),
+        space, new DefaultMIMessages());
+    tuner.setXValFolds(3);
+    tuner.setNumRandomCandidates(5);
+    tuner.setMetricName("Root mean squared error");
+    assertTrue(tuner.getMinimizeMetric());
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    assertEquals(5, result.getRankedCandidates().size());
+    for (Candidate c : result.getRankedCandidates()) {
+      double cf = Double.parseDouble(c.getParameters().get("confidenceFactor"));
+      assertTrue(cf >= 0.01 && cf <= 0.5);
+      assertNotNull(c.getEvalRow());
+    }
+    List<Candidate> ranked = result.getRankedCandidates();
+    for (int i = 1; i < ranked.size(); i++) {
+      assertTrue(ranked.get(i - 1).getScore() <= ranked.get(i).getScore());
+    }
+  }
+
+  @Test
+  public void testSuccessiveHalvingDataBudget() throws Exception {
+    ParameterSpace space = new ParameterSpace().addRange("confidenceFactor", 0.1, 0.5, 3)
+        .addChoices("minNumObj", "2", "5", "10");
+    SuccessiveHalvingTuner tuner = new SuccessiveHalvingTuner(
+        new WekaClassifierScheme("Decision tree classifier"), space, new DefaultMIMessages());
+    tuner.setXValFolds(5);
+    tuner.setNumExecutionSlots(4);
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    // 9 candidates at 1/9 of the data, 3 at 1/3 and 1 at the full data
+    List<Candidate> ranked = result.getRankedCandidates();
+    assertEquals(13, ranked.size());
+    int[] counts = new int[3];
+    for (Candidate c : ranked) {
+      counts[c.getBudget() == 1.0 ? 2 : (c.getBudget() > 0.3 ? 1 : 0)]++;
+    }
+    assertEquals(9, counts[0]);
+    assertEquals(3, counts[1]);
+    assertEquals(1, counts[2]);
+    assertEquals(1.0, result.getBestCandidate().getBudget());
+    assertNotNull(result.getBestScheme());
+    assertTrue(!Utils.isMissingValue(result.getBestCandidate().getScore()));
+  }
+
+  @Test
+  public void testSuccessiveHalvingIterationBudget() throws Exception {
+    Scheme scheme = new WekaClassifierScheme("Gradient boosted trees");
+    assertTrue(scheme.supportsResumableTraining());
+    SuccessiveHalvingTuner tuner = new SuccessiveHalvingTuner(scheme,
+        new ParameterSpace().addChoices("shrinkage", "0.1", "0.5", "1.0"),
+        new DefaultMIMessages());
+    tuner.setXValFolds(3);
+    tuner.setMinBudget(1.0 / 3.0);
+    tuner.setMaxIterations(9);
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    List<Candidate> ranked = result.getRankedCandidates();
+    assertEquals(4, ranked.size());
+    assertEquals("9", ranked.get(0).getParameters().get("numIterations"));
+    for (int i = 1; i < ranked.size(); i++) {
+      assertEquals("3", ranked.get(i).getParameters().get("numIterations"));
+    }
+    assertTrue(Utils.joinOptions(((OptionHandler) result.getBestScheme()).getOptions())
+        .contains("-I 9"));
+  }
+
+  @Test
+  public void testHyperband() throws Exception {
+    SuccessiveHalvingTuner tuner = new SuccessiveHalvingTuner(
+        new WekaClassifierScheme("Decision tree classifier"),
+        new ParameterSpace().addRange("confidenceFactor", 0.05, 0.5, 10),
+        new DefaultMIMessages());
+    tuner.setXValFolds(3);
+    tuner.setHyperband(true);
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    // brackets: 9 -> 3 -> 1, 5 -> 1 and 3 candidates at full budget
+    assertEquals(22, result.getRankedCandidates().size());
+    int full = 0;
+    for (Candidate c : result.getRankedCandidates()) {
+      full += c.getBudget() == 1.0 ? 1 : 0;
+    }
+    assertEquals(5, full);
+  }
+
+  @Test
+  public void testBayesianOptimization() throws Exception {
+    ParameterSpace space = new ParameterSpace()
+        .addRange("confidenceFactor", 0.01, 0.5, 10, false, true)
+        .addRange("minNumObj", 1, 30, 30, true, false);
+    BayesianOptimizationTuner tuner = new BayesianOptimizationTuner(
+        new WekaClassifierScheme("Decision tree classifier"), space, new DefaultMIMessages());
+    tuner.setXValFolds(3);
+    tuner.setNumInitialCandidates(4);
+    tuner.setBatchSize(3);
+    tuner.setMaxEvaluations(10);
+    tuner.setNumExecutionSlots(3);
+    TuningResult result = tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+
+    List<Candidate> ranked = result.getRankedCandidates();
+    assertEquals(10, ranked.size());
+    Set<Map<String, String>> distinct = new HashSet<>();
+    for (Candidate c : ranked) {
+      assertTrue(!Utils.isMissingValue(c.getScore()));
+      distinct.add(c.getParameters());
+    }
+    assertEquals(10, distinct.size());
+    assertTrue(result.getBestScheme() instanceof J48);
+
+    // continue from the previous results
+    BayesianOptimizationTuner resumed = new BayesianOptimizationTuner(
+        new WekaClassifierScheme("Decision tree classifier"), space, new DefaultMIMessages());
+    resumed.setXValFolds(3);
+    resumed.setPriorCandidates(ranked);
+    resumed.setMaxEvaluations(12);
+    TuningResult resumedResult = resumed.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+    assertEquals(12, resumedResult.getRankedCandidates().size());
+    assertTrue(resumedResult.getBestCandidate().getScore() >= ranked.get(0).getScore());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownParameter() throws Exception {
+    SchemeTuner tuner = new SchemeTuner(new WekaClassifierScheme("Decision tree classifier"),
+        new ParameterSpace().addChoices("noSuchProperty", "a"), new DefaultMIMessages());
+    tuner.tune(m_iris, new DefaultLogger(), new DefaultVariables());
+  }
+}